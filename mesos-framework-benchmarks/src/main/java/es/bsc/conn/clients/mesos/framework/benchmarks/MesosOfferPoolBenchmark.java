@@ -0,0 +1,106 @@
+package es.bsc.conn.clients.mesos.framework.benchmarks;
+
+import es.bsc.conn.clients.mesos.framework.MesosOffer;
+import es.bsc.conn.clients.mesos.framework.MesosOfferPool;
+import es.bsc.conn.clients.mesos.framework.SyntheticOffers;
+import es.bsc.conn.clients.mesos.framework.TaskRequirements;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mesos.Protos.Offer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Places the same synthetic tasks on the same synthetic offers with the offer pool index and with the linear best-fit
+ * scan over a LinkedList that resourceOffers used to do. Both return the tasks placed, which must match.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class MesosOfferPoolBenchmark {
+
+    private static final long SEED = 7;
+
+    @Param({ "500" })
+    private int agents;
+
+    @Param({ "1000" })
+    private int tasks;
+
+    private List<Offer> offers;
+    private List<TaskRequirements> requirements;
+
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(SEED);
+        offers = SyntheticOffers.randomOffers(random, agents);
+        requirements = new LinkedList<>();
+        for (int i = 0; i < tasks; i++) {
+            requirements.add(new TaskRequirements(SyntheticOffers.randomRequirements(random)));
+        }
+    }
+
+    @Benchmark
+    public int linearScan() {
+        List<MesosOffer> processed = new LinkedList<>();
+        for (Offer o : offers) {
+            processed.add(new MesosOffer(o));
+        }
+        int placed = 0;
+        for (TaskRequirements req : requirements) {
+            int index = -1;
+            double bestScore = Double.MAX_VALUE;
+            for (int i = 0; i < processed.size(); i++) {
+                MesosOffer mo = processed.get(i);
+                double score = req.distance(mo);
+                if (mo.hasEnoughPorts(req.getNumPorts()) && score >= 0.0 && score < bestScore) {
+                    index = i;
+                    bestScore = score;
+                }
+            }
+            if (index != -1) {
+                processed.get(index).removeResourcesFrom(req);
+                placed++;
+            }
+        }
+        return placed;
+    }
+
+    @Benchmark
+    public int offerPool() {
+        MesosOfferPool pool = new MesosOfferPool();
+        for (Offer o : offers) {
+            pool.add(new MesosOffer(o));
+        }
+        int placed = 0;
+        for (TaskRequirements req : requirements) {
+            MesosOffer mo = pool.bestFit(req);
+            if (mo != null) {
+                pool.consume(mo, req);
+                placed++;
+            }
+        }
+        return placed;
+    }
+
+}
@@ -0,0 +1,151 @@
+package es.bsc.conn.clients.mesos.framework.benchmarks;
+
+import es.bsc.conn.clients.mesos.framework.FakeSchedulerDriver;
+import es.bsc.conn.clients.mesos.framework.MesosFrameworkScheduler;
+import es.bsc.conn.clients.mesos.framework.MesosOffer;
+import es.bsc.conn.clients.mesos.framework.SyntheticOffers;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mesos.Protos.FrameworkID;
+import org.apache.mesos.Protos.MasterInfo;
+import org.apache.mesos.Protos.Offer;
+import org.apache.mesos.Protos.Resource;
+import org.apache.mesos.Protos.TaskInfo;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Replays the same synthetic trace of offers, delivered in small resourceOffers callbacks, against a scheduler matching
+ * every callback right away (0 offers per batch) and against schedulers batching offers. The scheduler is built and the
+ * workers requested before each replay, and the last batch is matched at the end of the replay instead of waiting for
+ * its window, so the time only covers matching the offers. Besides the time, reports the tasks launched, how many of
+ * them are big, the percentage of the offered cpus used and the offers declined.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OfferBatchingBenchmark {
+
+    private static final long SEED = 7;
+    private static final int MAX_OFFERS_PER_CALLBACK = 4;
+    private static final long BATCH_WINDOW = 50;
+    private static final double BIG_TASK_CPUS = 3.0;
+
+    @Param({ "0", "10", "50", "500" })
+    private int batchMaxOffers;
+
+    @Param({ "500" })
+    private int agents;
+
+    @Param({ "2000" })
+    private int tasks;
+
+    private List<List<Offer>> trace;
+    private List<List<Resource>> requirements;
+    private double offeredCpus;
+    private FakeSchedulerDriver driver;
+    private MesosFrameworkScheduler scheduler;
+
+
+    /**
+     * Outcome of the last replay. Replays are deterministic, so all of them have the same outcome.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Launched {
+
+        public long launched;
+        public long bigTasks;
+        public double cpusUsedPercent;
+        public long declined;
+    }
+
+
+    @Setup(Level.Trial)
+    public void buildTrace() {
+        Random random = new Random(SEED);
+        trace = new ArrayList<>();
+        offeredCpus = 0.0;
+        List<Offer> offers = SyntheticOffers.randomOffers(random, agents);
+        while (!offers.isEmpty()) {
+            List<Offer> callback = new LinkedList<>();
+            int size = 1 + random.nextInt(MAX_OFFERS_PER_CALLBACK);
+            while (callback.size() < size && !offers.isEmpty()) {
+                Offer o = offers.remove(0);
+                offeredCpus += new MesosOffer(o).getCpus();
+                callback.add(o);
+            }
+            trace.add(callback);
+        }
+        requirements = new ArrayList<>();
+        for (int i = 0; i < tasks; i++) {
+            requirements.add(SyntheticOffers.randomRequirements(random));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void startScheduler() {
+        driver = new FakeSchedulerDriver();
+        scheduler = new MesosFrameworkScheduler();
+        scheduler.registered(driver, FrameworkID.newBuilder().setValue("benchmark").build(),
+                MasterInfo.newBuilder().setId("master").setIp(0).setPort(5050).build());
+        if (batchMaxOffers > 0) {
+            scheduler.useOfferBatching(BATCH_WINDOW, TimeUnit.MILLISECONDS, batchMaxOffers);
+        }
+        for (List<Resource> req : requirements) {
+            scheduler.requestWorker(driver, "app", "image", "command", req);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopScheduler() {
+        scheduler.stop();
+    }
+
+    @Benchmark
+    public int replay(Launched outcome) {
+        for (List<Offer> callback : trace) {
+            scheduler.resourceOffers(driver, callback);
+        }
+        // Last batch
+        scheduler.flushOfferBatch();
+
+        double usedCpus = 0.0;
+        int bigTasks = 0;
+        for (TaskInfo task : driver.getLaunchedTasks()) {
+            double cpus = new MesosOffer(task.getResourcesList()).getCpus();
+            usedCpus += cpus;
+            if (cpus >= BIG_TASK_CPUS) {
+                bigTasks++;
+            }
+        }
+        outcome.launched = driver.getNumLaunchedTasks();
+        outcome.bigTasks = bigTasks;
+        outcome.cpusUsedPercent = 100.0 * usedCpus / offeredCpus;
+        outcome.declined = driver.getDeclined().size();
+        return driver.getNumLaunchedTasks();
+    }
+
+}
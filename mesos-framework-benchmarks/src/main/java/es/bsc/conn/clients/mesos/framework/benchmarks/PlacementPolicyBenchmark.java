@@ -0,0 +1,121 @@
+package es.bsc.conn.clients.mesos.framework.benchmarks;
+
+import es.bsc.conn.clients.mesos.framework.BestFitPlacement;
+import es.bsc.conn.clients.mesos.framework.BinPackPlacement;
+import es.bsc.conn.clients.mesos.framework.FirstFitPlacement;
+import es.bsc.conn.clients.mesos.framework.MesosOffer;
+import es.bsc.conn.clients.mesos.framework.MesosOfferPool;
+import es.bsc.conn.clients.mesos.framework.PlacementPolicy;
+import es.bsc.conn.clients.mesos.framework.SpreadPlacement;
+import es.bsc.conn.clients.mesos.framework.SyntheticOffers;
+import es.bsc.conn.clients.mesos.framework.TaskRequirements;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mesos.Protos.Offer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Places the same synthetic tasks on the same synthetic offers with every placement policy. Besides the time spent,
+ * reports the tasks placed and the number of agents used by the last placement of each iteration.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class PlacementPolicyBenchmark {
+
+    private static final long SEED = 7;
+
+    @Param({ "BestFit", "FirstFit", "BinPack", "Spread" })
+    private String policy;
+
+    @Param({ "1000" })
+    private int agents;
+
+    @Param({ "2000" })
+    private int tasks;
+
+    private PlacementPolicy placementPolicy;
+    private List<Offer> offers;
+    private List<TaskRequirements> requirements;
+
+
+    /**
+     * Outcome of the last placement. Placements are deterministic, so all of them have the same outcome.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Placed {
+
+        public long placed;
+        public long agentsUsed;
+    }
+
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        switch (policy) {
+            case "FirstFit":
+                placementPolicy = new FirstFitPlacement();
+                break;
+            case "BinPack":
+                placementPolicy = new BinPackPlacement();
+                break;
+            case "Spread":
+                placementPolicy = new SpreadPlacement();
+                break;
+            default:
+                placementPolicy = new BestFitPlacement();
+        }
+        Random random = new Random(SEED);
+        offers = SyntheticOffers.randomOffers(random, agents);
+        requirements = new LinkedList<>();
+        for (int i = 0; i < tasks; i++) {
+            requirements.add(new TaskRequirements(SyntheticOffers.randomRequirements(random)));
+        }
+    }
+
+    @Benchmark
+    public MesosOfferPool place(Placed outcome) {
+        MesosOfferPool pool = new MesosOfferPool();
+        for (Offer o : offers) {
+            pool.add(o);
+        }
+        Set<MesosOffer> usedAgents = new HashSet<>();
+        int placed = 0;
+        for (TaskRequirements req : requirements) {
+            MesosOffer mo = placementPolicy.select(req, pool);
+            if (mo != null) {
+                pool.consume(mo, req);
+                usedAgents.add(mo);
+                placed++;
+            }
+        }
+        outcome.placed = placed;
+        outcome.agentsUsed = usedAgents.size();
+        return pool;
+    }
+
+}
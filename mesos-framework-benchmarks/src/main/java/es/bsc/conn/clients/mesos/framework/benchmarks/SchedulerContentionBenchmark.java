@@ -0,0 +1,117 @@
+package es.bsc.conn.clients.mesos.framework.benchmarks;
+
+import es.bsc.conn.clients.mesos.framework.FakeSchedulerDriver;
+import es.bsc.conn.clients.mesos.framework.MesosFrameworkScheduler;
+import es.bsc.conn.clients.mesos.framework.SchedulerTrace;
+import es.bsc.conn.clients.mesos.framework.SyntheticOffers;
+import es.bsc.conn.clients.mesos.framework.exceptions.FrameworkException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mesos.Protos.ContainerStatus;
+import org.apache.mesos.Protos.FrameworkID;
+import org.apache.mesos.Protos.MasterInfo;
+import org.apache.mesos.Protos.NetworkInfo;
+import org.apache.mesos.Protos.Offer;
+import org.apache.mesos.Protos.Resource;
+import org.apache.mesos.Protos.TaskID;
+import org.apache.mesos.Protos.TaskInfo;
+import org.apache.mesos.Protos.TaskState;
+import org.apache.mesos.Protos.TaskStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Many client threads using a MesosFrameworkScheduler at the same time as the Mesos callback thread. Requesters ask for
+ * a worker and remove it before it is launched, pollers read the IP of running workers and a single callback thread
+ * delivers status updates of the running workers. JMH reports the throughput of each kind of thread.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Group)
+public class SchedulerContentionBenchmark {
+
+    private static final int RUNNING = 1000;
+    private static final List<Resource> RESOURCES = SyntheticOffers.resources(1.0, 1024.0, 1024.0);
+
+    private FakeSchedulerDriver driver;
+    private MesosFrameworkScheduler scheduler;
+    private List<String> runningIds;
+    private List<TaskStatus> statuses;
+
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        driver = new FakeSchedulerDriver();
+        scheduler = new MesosFrameworkScheduler();
+        scheduler.registered(driver, FrameworkID.newBuilder().setValue("benchmark").build(),
+                MasterInfo.newBuilder().setId("master").setIp(0).setPort(5050).build());
+        scheduler.requestWorkers(driver, "app", SchedulerTrace.IMAGE, SchedulerTrace.COMMAND, RESOURCES, RUNNING);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent", RUNNING, 1024.0 * RUNNING, 1024.0 * RUNNING));
+        scheduler.resourceOffers(driver, offers);
+
+        runningIds = new ArrayList<>(RUNNING);
+        statuses = new ArrayList<>(RUNNING);
+        int n = 0;
+        for (TaskInfo task : driver.getLaunchedTasks()) {
+            String ip = "10.0." + (n / 256) + "." + (n % 256);
+            NetworkInfo network = NetworkInfo.newBuilder().addIpAddresses(NetworkInfo.IPAddress.newBuilder().setIpAddress(ip)).build();
+            TaskStatus status = TaskStatus.newBuilder().setTaskId(TaskID.newBuilder().setValue(task.getTaskId().getValue()))
+                    .setState(TaskState.TASK_RUNNING).setContainerStatus(ContainerStatus.newBuilder().addNetworkInfos(network)).build();
+            scheduler.statusUpdate(driver, status);
+            runningIds.add(task.getTaskId().getValue());
+            statuses.add(status);
+            n++;
+        }
+        driver.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.stop();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(8)
+    public void requester() throws FrameworkException {
+        String id = scheduler.requestWorker(driver, "app", SchedulerTrace.IMAGE, SchedulerTrace.COMMAND, RESOURCES);
+        scheduler.removeTask(driver, id, 1, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(8)
+    public String poller() {
+        return scheduler.getTaskIp(runningIds.get(ThreadLocalRandom.current().nextInt(RUNNING)));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void callback() {
+        scheduler.statusUpdate(driver, statuses.get(ThreadLocalRandom.current().nextInt(RUNNING)));
+    }
+
+}
@@ -0,0 +1,189 @@
+package es.bsc.conn.clients.mesos.framework.benchmarks;
+
+import es.bsc.conn.clients.mesos.framework.FakeSchedulerDriver;
+import es.bsc.conn.clients.mesos.framework.MesosFrameworkScheduler;
+import es.bsc.conn.clients.mesos.framework.SchedulerTrace;
+import es.bsc.conn.clients.mesos.framework.SyntheticOffers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mesos.Protos.FrameworkID;
+import org.apache.mesos.Protos.MasterInfo;
+import org.apache.mesos.Protos.Offer;
+import org.apache.mesos.Protos.Resource;
+import org.apache.mesos.Protos.TaskID;
+import org.apache.mesos.Protos.TaskInfo;
+import org.apache.mesos.Protos.TaskState;
+import org.apache.mesos.Protos.TaskStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Decision latency of the MesosFrameworkScheduler callbacks in steady state, sampled per call so JMH reports
+ * percentiles. resourceOffers is measured with the pending queue kept at a fixed size, statusUpdate with a fixed set of
+ * launched workers that alternate between running and finished.
+ *
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SchedulerLatencyBenchmark {
+
+    private static final long SEED = 7;
+
+
+    private static MesosFrameworkScheduler newScheduler(FakeSchedulerDriver driver) {
+        MesosFrameworkScheduler scheduler = new MesosFrameworkScheduler();
+        scheduler.registered(driver, FrameworkID.newBuilder().setValue("benchmark").build(),
+                MasterInfo.newBuilder().setId("master").setIp(0).setPort(5050).build());
+        return scheduler;
+    }
+
+
+    /**
+     * Scheduler with a pending queue of fixed size and offer callbacks of 1 to 8 offers from a cluster of mixed agents.
+     */
+    @State(Scope.Thread)
+    public static class Offers {
+
+        private static final int CALLBACKS = 4096;
+        private static final int MAX_OFFERS_PER_CALLBACK = 8;
+        // Launches recorded by the driver before clearing them
+        private static final int MAX_RECORDED = 100_000;
+
+        @Param({ "2000" })
+        private int agents;
+
+        @Param({ "1000" })
+        private int pending;
+
+        private FakeSchedulerDriver driver;
+        private MesosFrameworkScheduler scheduler;
+        private List<List<Offer>> callbacks;
+        private List<List<Resource>> requirements;
+        private int nextCallback;
+        private int nextRequirements;
+        private long requested;
+        private long cleared;
+
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Random random = new Random(SEED);
+            List<Offer> cluster = SyntheticOffers.randomOffers(random, agents);
+            callbacks = new ArrayList<>(CALLBACKS);
+            for (int i = 0; i < CALLBACKS; i++) {
+                List<Offer> callback = new ArrayList<>();
+                int size = 1 + random.nextInt(MAX_OFFERS_PER_CALLBACK);
+                for (int j = 0; j < size; j++) {
+                    callback.add(cluster.get(random.nextInt(cluster.size())));
+                }
+                callbacks.add(callback);
+            }
+            requirements = new ArrayList<>(pending);
+            for (int i = 0; i < pending; i++) {
+                requirements.add(SyntheticOffers.randomRequirements(random));
+            }
+            driver = new FakeSchedulerDriver();
+            scheduler = newScheduler(driver);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            scheduler.stop();
+        }
+
+        @Setup(Level.Invocation)
+        public void topUpPending() {
+            int launched = driver.getNumLaunchedTasks();
+            if (launched > MAX_RECORDED) {
+                cleared += launched;
+                launched = 0;
+                driver.clear();
+            }
+            while (requested - cleared - launched < pending) {
+                scheduler.requestWorker(driver, "app", SchedulerTrace.IMAGE, SchedulerTrace.COMMAND,
+                        requirements.get(nextRequirements++ % requirements.size()));
+                requested++;
+            }
+        }
+
+        List<Offer> nextCallback() {
+            return callbacks.get(nextCallback++ % callbacks.size());
+        }
+    }
+
+    /**
+     * Scheduler with a fixed set of launched workers, and status updates that take them alternatively to running and
+     * finished.
+     */
+    @State(Scope.Thread)
+    public static class Statuses {
+
+        @Param({ "1000" })
+        private int launched;
+
+        private FakeSchedulerDriver driver;
+        private MesosFrameworkScheduler scheduler;
+        private List<TaskStatus> statuses;
+        private int nextStatus;
+
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            driver = new FakeSchedulerDriver();
+            scheduler = newScheduler(driver);
+            scheduler.requestWorkers(driver, "app", SchedulerTrace.IMAGE, SchedulerTrace.COMMAND, SyntheticOffers.resources(1.0, 1.0, 1.0),
+                    launched);
+            List<Offer> offers = new ArrayList<>();
+            offers.add(SyntheticOffers.offer("agent", launched, launched, launched));
+            scheduler.resourceOffers(driver, offers);
+
+            statuses = new ArrayList<>(2 * launched);
+            for (TaskState state : new TaskState[] { TaskState.TASK_RUNNING, TaskState.TASK_FINISHED }) {
+                for (TaskInfo task : driver.getLaunchedTasks()) {
+                    statuses.add(TaskStatus.newBuilder().setTaskId(TaskID.newBuilder().setValue(task.getTaskId().getValue()))
+                            .setState(state).setContainerStatus(SchedulerTrace.CONTAINER_STATUS).build());
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            scheduler.stop();
+        }
+
+        TaskStatus nextStatus() {
+            return statuses.get(nextStatus++ % statuses.size());
+        }
+    }
+
+
+    @Benchmark
+    public void resourceOffers(Offers state) {
+        state.scheduler.resourceOffers(state.driver, state.nextCallback());
+    }
+
+    @Benchmark
+    public void statusUpdate(Statuses state) {
+        state.scheduler.statusUpdate(state.driver, state.nextStatus());
+    }
+
+}
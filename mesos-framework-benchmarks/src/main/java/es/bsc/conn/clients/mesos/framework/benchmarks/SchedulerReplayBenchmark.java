@@ -0,0 +1,90 @@
+package es.bsc.conn.clients.mesos.framework.benchmarks;
+
+import es.bsc.conn.clients.mesos.framework.FakeSchedulerDriver;
+import es.bsc.conn.clients.mesos.framework.MesosFrameworkScheduler;
+import es.bsc.conn.clients.mesos.framework.SchedulerTrace;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mesos.Protos.FrameworkID;
+import org.apache.mesos.Protos.MasterInfo;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Replays a synthetic trace of a cluster with churn (offers, worker requests, status updates and rescinded offers)
+ * against a new MesosFrameworkScheduler. Besides the traces replayed per second, reports the offers and events
+ * processed per second. Run with: java -jar mesos-framework-benchmarks/target/benchmarks.jar -prof gc, the GC profiler
+ * reports the allocation rate.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class SchedulerReplayBenchmark {
+
+    private static final long SEED = 7;
+
+    @Param({ "2000" })
+    private int agents;
+
+    @Param({ "20000" })
+    private int events;
+
+    private SchedulerTrace trace;
+
+
+    /**
+     * Offers and events processed, reported as rates.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Processed {
+
+        public long offers;
+        public long events;
+
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            offers = 0;
+            events = 0;
+        }
+    }
+
+
+    @Setup(Level.Trial)
+    public void buildTrace() {
+        trace = SchedulerTrace.synthetic(new Random(SEED), agents, events);
+    }
+
+    @Benchmark
+    public int replay(Processed processed) {
+        FakeSchedulerDriver driver = new FakeSchedulerDriver();
+        MesosFrameworkScheduler scheduler = new MesosFrameworkScheduler();
+        scheduler.registered(driver, FrameworkID.newBuilder().setValue("benchmark").build(),
+                MasterInfo.newBuilder().setId("master").setIp(0).setPort(5050).build());
+        driver.replay(scheduler, trace);
+        scheduler.stop();
+        processed.offers += trace.getNumOffers();
+        processed.events += trace.getEvents().size();
+        return driver.getNumLaunchedTasks();
+    }
+
+}
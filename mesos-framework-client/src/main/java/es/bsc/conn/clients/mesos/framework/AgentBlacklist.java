@@ -0,0 +1,127 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Failure score of the Mesos agents. Every failure adds to the score of its agent, and scores decay exponentially with
+ * the given half-life, so an agent is blacklisted while its recent failures reach the threshold and it is used again
+ * once they are old enough.
+ *
+ * Not thread-safe, callers must synchronize.
+ *
+ */
+public class AgentBlacklist {
+
+    // Scores below this are forgotten
+    private static final double MIN_SCORE = 0.01;
+    // Failures close in time reach the threshold even if the first ones decayed a bit
+    private static final double TOLERANCE = 0.001;
+
+
+    private static class Score {
+
+        private final double value;
+        private final long time;
+
+
+        private Score(double value, long time) {
+            this.value = value;
+            this.time = time;
+        }
+    }
+
+
+    private final double threshold;
+    private final long halfLife;
+    private final Map<String, Score> scores;
+
+
+    /**
+     * Creates a blacklist without failures.
+     *
+     * @param threshold
+     *            Score from which agents are blacklisted, 0 or less to never blacklist them.
+     * @param halfLife
+     *            Time in milliseconds for a score to halve.
+     */
+    public AgentBlacklist(double threshold, long halfLife) {
+        this.threshold = threshold;
+        this.halfLife = halfLife;
+        this.scores = new HashMap<>();
+    }
+
+    /**
+     * @return Score from which agents are blacklisted, 0 or less if they are never blacklisted.
+     */
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @return True if agents can be blacklisted.
+     */
+    public boolean isEnabled() {
+        return threshold > 0 && halfLife > 0;
+    }
+
+    /**
+     * Adds failures to the score of an agent.
+     *
+     * @param agentId
+     *            Agent identifier.
+     * @param failures
+     *            Score to add.
+     * @param now
+     *            Current time in milliseconds.
+     * @return New score of the agent.
+     */
+    public double addFailures(String agentId, double failures, long now) {
+        if (!isEnabled()) {
+            return 0.0;
+        }
+        double value = getScore(agentId, now) + failures;
+        scores.put(agentId, new Score(value, now));
+        return value;
+    }
+
+    /**
+     * @param agentId
+     *            Agent identifier.
+     * @param now
+     *            Current time in milliseconds.
+     * @return Score of the agent decayed to now.
+     */
+    public double getScore(String agentId, long now) {
+        Score score = scores.get(agentId);
+        if (score == null) {
+            return 0.0;
+        }
+        double value = score.value * Math.pow(0.5, (double) Math.max(0, now - score.time) / halfLife);
+        if (value < MIN_SCORE) {
+            scores.remove(agentId);
+            return 0.0;
+        }
+        return value;
+    }
+
+    /**
+     * @param agentId
+     *            Agent identifier.
+     * @param now
+     *            Current time in milliseconds.
+     * @return True if the score of the agent reaches the threshold.
+     */
+    public boolean isBlacklisted(String agentId, long now) {
+        return isEnabled() && getScore(agentId, now) >= threshold - TOLERANCE;
+    }
+
+    /**
+     * @return Number of agents with failures not forgotten yet.
+     */
+    public int size() {
+        return scores.size();
+    }
+
+}
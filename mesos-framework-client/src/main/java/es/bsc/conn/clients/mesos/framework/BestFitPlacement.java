@@ -0,0 +1,22 @@
+package es.bsc.conn.clients.mesos.framework;
+
+/**
+ * Places each task in the offer with the lowest weighted relative distance to its requirements.
+ *
+ */
+public class BestFitPlacement implements PlacementPolicy {
+
+    public static final String NAME = "best-fit";
+
+
+    @Override
+    public MesosOffer select(TaskRequirements requirements, MesosOfferPool pool) {
+        return pool.bestFit(requirements);
+    }
+
+    @Override
+    public MesosOffer selectRevocable(TaskRequirements requirements, MesosOfferPool pool) {
+        return pool.bestRevocableFit(requirements);
+    }
+
+}
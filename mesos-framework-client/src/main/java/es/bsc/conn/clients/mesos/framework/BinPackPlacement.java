@@ -0,0 +1,34 @@
+package es.bsc.conn.clients.mesos.framework;
+
+/**
+ * Places each task in the fullest offer that has enough resources, so tasks are packed in as few agents as possible
+ * and whole agents are left free for other frameworks.
+ *
+ */
+public class BinPackPlacement implements PlacementPolicy {
+
+    public static final String NAME = "bin-pack";
+
+
+    @Override
+    public MesosOffer select(TaskRequirements requirements, MesosOfferPool pool) {
+        // Offers by increasing free resources, starting from the ones with just enough cpus
+        for (MesosOffer offer : pool.ascendingFrom(requirements)) {
+            if (requirements.fitsIn(offer)) {
+                return offer;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public MesosOffer selectRevocable(TaskRequirements requirements, MesosOfferPool pool) {
+        for (MesosOffer offer : pool.ascendingRevocableFrom(requirements)) {
+            if (requirements.fitsInRevocable(offer)) {
+                return offer;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,300 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Weighted dominant resource fairness among the applications sharing the framework. Tracks the cpus and mem allocated
+ * to the workers of each application until they end. The dominant share of an application is the largest fraction of
+ * the cpus or of the mem it holds, divided by its weight, and the application with the lowest one is served first.
+ * Applications can also have hard caps on the cpus and mem they hold.
+ *
+ * Not thread-safe, callers must synchronize.
+ *
+ */
+public class FairShare {
+
+    private static final double DEFAULT_WEIGHT = 1.0;
+
+
+    /**
+     * Immutable view of the usage of an application.
+     */
+    public static class Usage {
+
+        private final double cpus;
+        private final double mem;
+        private final int workers;
+        private final long launched;
+
+
+        private Usage(double cpus, double mem, int workers, long launched) {
+            this.cpus = cpus;
+            this.mem = mem;
+            this.workers = workers;
+            this.launched = launched;
+        }
+
+        /**
+         * @return Cpus held by the workers of the application.
+         */
+        public double getCpus() {
+            return cpus;
+        }
+
+        /**
+         * @return Mem held by the workers of the application.
+         */
+        public double getMem() {
+            return mem;
+        }
+
+        /**
+         * @return Workers of the application holding resources.
+         */
+        public int getWorkers() {
+            return workers;
+        }
+
+        /**
+         * @return Workers of the application launched so far, including relaunches.
+         */
+        public long getLaunched() {
+            return launched;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[cpus=%.2f, mem=%.2f, workers=%d, launched=%d]", cpus, mem, workers, launched);
+        }
+    }
+
+
+    private static class Application {
+
+        private double weight = DEFAULT_WEIGHT;
+        private double maxCpus = Double.POSITIVE_INFINITY;
+        private double maxMem = Double.POSITIVE_INFINITY;
+        private double cpus;
+        private double mem;
+        private int workers;
+        private long launched;
+    }
+
+
+    private static class Allocation {
+
+        private final double cpus;
+        private final double mem;
+        private String appName;
+
+
+        Allocation(String appName, double cpus, double mem) {
+            this.appName = appName;
+            this.cpus = cpus;
+            this.mem = mem;
+        }
+    }
+
+
+    private boolean enabled;
+    private final Map<String, Application> applications;
+    private final Map<String, Allocation> allocations;
+    private double allocatedCpus;
+    private double allocatedMem;
+
+
+    /**
+     * Creates a tracker without applications. Usage is tracked even if fair sharing is disabled.
+     */
+    public FairShare() {
+        this.enabled = false;
+        this.applications = new LinkedHashMap<>();
+        this.allocations = new HashMap<>();
+    }
+
+    /**
+     * @param enabled
+     *            True to serve the applications by dominant share, false to serve them FCFS.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return True if the applications are served by dominant share.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the weight of an application. An application with twice the weight of another gets twice its share.
+     *
+     * @param appName
+     *            Application name.
+     * @param weight
+     *            Weight of the application, 1 by default.
+     */
+    public void setWeight(String appName, double weight) {
+        if (weight <= 0.0) {
+            throw new IllegalArgumentException("Weight of application " + appName + " must be positive: " + weight);
+        }
+        getApplication(appName).weight = weight;
+    }
+
+    /**
+     * Sets hard caps on the resources held by an application. Workers that would exceed them wait until other workers of
+     * the application end.
+     *
+     * @param appName
+     *            Application name.
+     * @param maxCpus
+     *            Cpus the application can hold, 0 or less for no cap.
+     * @param maxMem
+     *            Mem the application can hold, 0 or less for no cap.
+     */
+    public void setCap(String appName, double maxCpus, double maxMem) {
+        Application app = getApplication(appName);
+        app.maxCpus = maxCpus > 0.0 ? maxCpus : Double.POSITIVE_INFINITY;
+        app.maxMem = maxMem > 0.0 ? maxMem : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @param appName
+     *            Application name.
+     * @param cpus
+     *            Cpus of the worker.
+     * @param mem
+     *            Mem of the worker.
+     * @return True if launching a worker keeps the application within its caps.
+     */
+    public boolean fitsCap(String appName, double cpus, double mem) {
+        Application app = applications.get(appName);
+        return app == null || app.cpus + cpus <= app.maxCpus && app.mem + mem <= app.maxMem;
+    }
+
+    /**
+     * Counts a worker launched. A worker launched again is counted with its new resources.
+     *
+     * @param id
+     *            Worker identifier.
+     * @param appName
+     *            Application of the worker.
+     * @param cpus
+     *            Cpus of the worker.
+     * @param mem
+     *            Mem of the worker.
+     */
+    public void launched(String id, String appName, double cpus, double mem) {
+        ended(id);
+        Application app = getApplication(appName);
+        allocations.put(id, new Allocation(appName, cpus, mem));
+        app.cpus += cpus;
+        app.mem += mem;
+        app.workers++;
+        app.launched++;
+        allocatedCpus += cpus;
+        allocatedMem += mem;
+    }
+
+    /**
+     * Moves the resources of a worker to another application, for workers handed out from the warm pool.
+     *
+     * @param id
+     *            Worker identifier.
+     * @param appName
+     *            Application the worker is handed out to.
+     */
+    public void transfer(String id, String appName) {
+        Allocation allocation = allocations.get(id);
+        if (allocation == null || allocation.appName.equals(appName)) {
+            return;
+        }
+        release(allocation);
+        allocation.appName = appName;
+        Application app = getApplication(appName);
+        app.cpus += allocation.cpus;
+        app.mem += allocation.mem;
+        app.workers++;
+    }
+
+    /**
+     * Stops counting a worker that ended or is queued again.
+     *
+     * @param id
+     *            Worker identifier.
+     */
+    public void ended(String id) {
+        Allocation allocation = allocations.remove(id);
+        if (allocation != null) {
+            release(allocation);
+            allocatedCpus -= allocation.cpus;
+            allocatedMem -= allocation.mem;
+        }
+    }
+
+    /**
+     * @return Cpus held by the workers of all the applications.
+     */
+    public double getAllocatedCpus() {
+        return allocatedCpus;
+    }
+
+    /**
+     * @return Mem held by the workers of all the applications.
+     */
+    public double getAllocatedMem() {
+        return allocatedMem;
+    }
+
+    /**
+     * @param appName
+     *            Application name.
+     * @param totalCpus
+     *            Cpus the applications share.
+     * @param totalMem
+     *            Mem the applications share.
+     * @return Largest fraction of the cpus or the mem held by the application, divided by its weight.
+     */
+    public double getDominantShare(String appName, double totalCpus, double totalMem) {
+        Application app = applications.get(appName);
+        if (app == null) {
+            return 0.0;
+        }
+        double cpuShare = totalCpus > 0.0 ? app.cpus / totalCpus : 0.0;
+        double memShare = totalMem > 0.0 ? app.mem / totalMem : 0.0;
+        return Math.max(cpuShare, memShare) / app.weight;
+    }
+
+    /**
+     * @return Usage of each application that launched workers or has a weight or caps, in order of appearance.
+     */
+    public Map<String, Usage> getUsage() {
+        Map<String, Usage> usage = new LinkedHashMap<>();
+        for (Map.Entry<String, Application> e : applications.entrySet()) {
+            Application app = e.getValue();
+            usage.put(e.getKey(), new Usage(app.cpus, app.mem, app.workers, app.launched));
+        }
+        return usage;
+    }
+
+    private Application getApplication(String appName) {
+        Application app = applications.get(appName);
+        if (app == null) {
+            app = new Application();
+            applications.put(appName, app);
+        }
+        return app;
+    }
+
+    private void release(Allocation allocation) {
+        Application app = applications.get(allocation.appName);
+        app.cpus -= allocation.cpus;
+        app.mem -= allocation.mem;
+        app.workers--;
+    }
+
+}
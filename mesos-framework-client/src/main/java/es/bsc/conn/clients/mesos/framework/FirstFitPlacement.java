@@ -0,0 +1,32 @@
+package es.bsc.conn.clients.mesos.framework;
+
+/**
+ * Places each task in the first offer received that has enough resources.
+ *
+ */
+public class FirstFitPlacement implements PlacementPolicy {
+
+    public static final String NAME = "first-fit";
+
+
+    @Override
+    public MesosOffer select(TaskRequirements requirements, MesosOfferPool pool) {
+        for (MesosOffer offer : pool.getOffersByArrival()) {
+            if (requirements.fitsIn(offer)) {
+                return offer;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public MesosOffer selectRevocable(TaskRequirements requirements, MesosOfferPool pool) {
+        for (MesosOffer offer : pool.getOffersByArrival()) {
+            if (requirements.fitsInRevocable(offer)) {
+                return offer;
+            }
+        }
+        return null;
+    }
+
+}
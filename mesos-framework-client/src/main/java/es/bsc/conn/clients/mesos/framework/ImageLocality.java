@@ -0,0 +1,248 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.mesos.Protos.TaskState;
+
+
+/**
+ * Agents known to have each Docker image, because a task of the image reached the running state on them or an image
+ * pull finished there. Used to prefer those agents, where the image does not have to be pulled again, and to choose the
+ * agents where images are pulled ahead of demand. Images are only pulled once per agent: a failed pull is not retried
+ * until the agent is lost and comes back.
+ *
+ * Not thread-safe, callers must synchronize.
+ *
+ */
+public class ImageLocality {
+
+    private static final Comparator<MesosOffer> ARRIVAL_ORDER = new Comparator<MesosOffer>() {
+
+        @Override
+        public int compare(MesosOffer o1, MesosOffer o2) {
+            return Long.compare(o1.getSequence(), o2.getSequence());
+        }
+    };
+
+    // Agents with each image
+    private final Map<String, Set<String>> warmAgents;
+    // Images requested, the ones to pull ahead of demand
+    private final Set<String> images;
+    // Image and agent of each pull task
+    private final Map<String, String[]> pulls;
+    // Image and agent of the pulls running or failed, not to pull again
+    private final Set<List<String>> pulled;
+
+    private long pullsLaunched;
+    private long pullsFailed;
+
+
+    /**
+     * Creates an empty record.
+     */
+    public ImageLocality() {
+        this.warmAgents = new HashMap<>();
+        this.images = new LinkedHashSet<>();
+        this.pulls = new HashMap<>();
+        this.pulled = new HashSet<>();
+    }
+
+    /**
+     * @param imageName
+     *            Docker image requested by a task.
+     */
+    public void addImage(String imageName) {
+        images.add(imageName);
+    }
+
+    /**
+     * Records that an agent has an image.
+     *
+     * @param imageName
+     *            Docker image name.
+     * @param agentId
+     *            Agent identifier.
+     */
+    public void addWarm(String imageName, String agentId) {
+        Set<String> agents = warmAgents.get(imageName);
+        if (agents == null) {
+            agents = new HashSet<>();
+            warmAgents.put(imageName, agents);
+        }
+        agents.add(agentId);
+    }
+
+    /**
+     * @param imageName
+     *            Docker image name.
+     * @param agentId
+     *            Agent identifier.
+     * @return True if the agent has the image.
+     */
+    public boolean isWarm(String imageName, String agentId) {
+        Set<String> agents = warmAgents.get(imageName);
+        return agents != null && agents.contains(agentId);
+    }
+
+    /**
+     * @param imageName
+     *            Docker image name.
+     * @return Agents with the image.
+     */
+    public Set<String> getWarmAgents(String imageName) {
+        Set<String> agents = warmAgents.get(imageName);
+        return agents == null ? Collections.<String> emptySet() : Collections.unmodifiableSet(agents);
+    }
+
+    /**
+     * Forgets an agent that was lost, its images may be gone when it comes back.
+     *
+     * @param agentId
+     *            Agent identifier.
+     */
+    public void removeAgent(String agentId) {
+        for (Set<String> agents : warmAgents.values()) {
+            agents.remove(agentId);
+        }
+        Iterator<List<String>> it = pulled.iterator();
+        while (it.hasNext()) {
+            if (it.next().get(1).equals(agentId)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Narrows the offers available to the ones of the agents with an image, so the placement policy chooses among
+     * them. The offers are shared with offerPool, the returned pool must only be used to choose.
+     *
+     * @param imageName
+     *            Docker image of the task.
+     * @param offerPool
+     *            Offers available.
+     * @return Pool with the offers of the agents with the image, in order of arrival. Empty if no agent offered has it.
+     */
+    public MesosOfferPool getWarmOffers(String imageName, MesosOfferPool offerPool) {
+        MesosOfferPool warmOffers = new MesosOfferPool();
+        Set<String> agents = warmAgents.get(imageName);
+        if (agents == null || agents.isEmpty()) {
+            return warmOffers;
+        }
+        // Walk the smallest of both sets
+        List<MesosOffer> candidates = new ArrayList<>();
+        if (agents.size() < offerPool.size()) {
+            for (String agentId : agents) {
+                MesosOffer offer = offerPool.getAgentOffer(agentId);
+                if (offer != null) {
+                    candidates.add(offer);
+                }
+            }
+            Collections.sort(candidates, ARRIVAL_ORDER);
+        } else {
+            for (MesosOffer offer : offerPool.getOffersByArrival()) {
+                if (offer.getSlaveId() != null && agents.contains(offer.getSlaveId().getValue())) {
+                    candidates.add(offer);
+                }
+            }
+        }
+        for (MesosOffer offer : candidates) {
+            warmOffers.add(offer);
+        }
+        return warmOffers;
+    }
+
+    /**
+     * @param agentId
+     *            Agent identifier.
+     * @return Images requested that the agent does not have and are not being pulled there.
+     */
+    public List<String> getImagesToPull(String agentId) {
+        List<String> missing = new ArrayList<>();
+        for (String imageName : images) {
+            if (!isWarm(imageName, agentId) && !pulled.contains(Arrays.asList(imageName, agentId))) {
+                missing.add(imageName);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Records a task launched to pull an image.
+     *
+     * @param id
+     *            Pull task identifier.
+     * @param imageName
+     *            Docker image pulled.
+     * @param agentId
+     *            Agent where the image is pulled.
+     */
+    public void startPull(String id, String imageName, String agentId) {
+        pulls.put(id, new String[] { imageName, agentId });
+        pulled.add(Arrays.asList(imageName, agentId));
+        pullsLaunched++;
+    }
+
+    /**
+     * Updates the state of a pull task. The agent has the image once the task runs, and the pull is forgotten once it
+     * ends.
+     *
+     * @param id
+     *            Task identifier.
+     * @param state
+     *            State of the task.
+     * @return True if the task was a pull task.
+     */
+    public boolean updatePull(String id, TaskState state) {
+        String[] pull = pulls.get(id);
+        if (pull == null) {
+            return false;
+        }
+        switch (state) {
+            case TASK_RUNNING:
+                addWarm(pull[0], pull[1]);
+                break;
+            case TASK_FINISHED:
+                addWarm(pull[0], pull[1]);
+                pulls.remove(id);
+                break;
+            case TASK_LOST:
+            case TASK_ERROR:
+            case TASK_FAILED:
+            case TASK_KILLED:
+                if (!isWarm(pull[0], pull[1])) {
+                    pullsFailed++;
+                }
+                pulls.remove(id);
+                break;
+            default:
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * @return Pull tasks launched.
+     */
+    public long getPullsLaunched() {
+        return pullsLaunched;
+    }
+
+    /**
+     * @return Pull tasks that ended without pulling the image.
+     */
+    public long getPullsFailed() {
+        return pullsFailed;
+    }
+
+}
@@ -1,16 +1,28 @@
 package es.bsc.conn.clients.mesos.framework;
 
 import es.bsc.conn.clients.mesos.framework.exceptions.FrameworkException;
+import es.bsc.conn.clients.mesos.framework.http.HttpSchedulerDriver;
 import es.bsc.conn.clients.mesos.framework.log.Loggers;
+import es.bsc.conn.clients.mesos.framework.metrics.JmxSchedulerMetrics;
 
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.mesos.MesosSchedulerDriver;
+import org.apache.mesos.SchedulerDriver;
 import org.apache.mesos.Protos.Credential;
+import org.apache.mesos.Protos.FrameworkID;
 import org.apache.mesos.Protos.FrameworkInfo;
+import org.apache.mesos.Protos.FrameworkInfo.Capability;
 import org.apache.mesos.Protos.Resource;
 import org.apache.mesos.Protos.TaskState;
 
@@ -27,6 +39,47 @@ public class MesosFramework {
     private static final String DEFAULT_TIMEOUT = "180000";
     private static final String DEFAULT_TIMEOUT_UNITS = "MILLISECONDS";
 
+    // Unused offers are declined right away, and not offered again for 30 s if no worker needs them
+    private static final String DEFAULT_OFFER_HOLD_TIME = "0";
+    private static final String DEFAULT_OFFER_REFUSE_SECONDS = "30";
+    // Offers of each callback are matched right away
+    private static final String DEFAULT_OFFER_BATCH_WINDOW = "0";
+    private static final String DEFAULT_OFFER_BATCH_MAX_OFFERS = "0";
+    // Offers are accumulated up to 5 s for gangs of workers that do not fit in a single cycle
+    private static final String DEFAULT_GANG_WINDOW = "5000";
+    // Failed workers are relaunched after 1 s, doubling on each retry up to 1 min
+    private static final String DEFAULT_RELAUNCH_BACKOFF = "1000";
+    private static final String DEFAULT_RELAUNCH_BACKOFF_MAX = "60000";
+    // Agents with 3 recent failures are not used, failures halve every 10 min
+    private static final String DEFAULT_AGENT_BLACKLIST_THRESHOLD = "3";
+    private static final String DEFAULT_AGENT_BLACKLIST_HALF_LIFE = "600000";
+    // At most one revive per second, offers suppressed after 5 s without workers waiting
+    private static final String DEFAULT_REVIVE_INTERVAL = "1000";
+    private static final String DEFAULT_SUPPRESS_DELAY = "5000";
+    // Workers recovered from the task state log and not requested again within 10 min are killed
+    private static final String DEFAULT_STATE_LOG_RECLAIM_TIMEOUT = "600000";
+    // No idle workers are kept. When enabled, shapes not requested for 5 min are not pooled anymore
+    private static final String DEFAULT_WARM_POOL_SIZE = "0";
+    private static final String DEFAULT_WARM_POOL_IDLE_TTL = "300000";
+    // Workers go to the agents that already have their image, images are not pulled ahead of demand
+    private static final String DEFAULT_IMAGE_LOCALITY = "true";
+    private static final String DEFAULT_IMAGE_PREFETCH = "false";
+    // Scheduler driver through libmesos, or through the v1 HTTP API
+    private static final String NATIVE_BACKEND = "native";
+    private static final String HTTP_BACKEND = "http";
+    private static final String DEFAULT_SCHEDULER_BACKEND = NATIVE_BACKEND;
+    // Workers are ready once running, checks are tried every 500 ms when enabled
+    private static final String NO_READINESS = "none";
+    private static final String TCP_READINESS = "tcp:";
+    private static final String COMMAND_READINESS = "command:";
+    private static final String DEFAULT_WORKER_READINESS = NO_READINESS;
+    private static final String DEFAULT_WORKER_READINESS_INTERVAL = "500";
+    // Every worker runs on regular resources. When enabled, all the workers but the baseline run on revocable resources
+    private static final String DEFAULT_REVOCABLE_RESOURCES = "false";
+    private static final String DEFAULT_REVOCABLE_BASELINE = "0";
+    // Workers of applications with the same priority are served FCFS. When enabled, by weighted dominant share
+    private static final String DEFAULT_FAIR_SHARE = "false";
+
     private static final String TRUE = "true";
 
     private static final String DEFAULT_FRAMEWORK_NAME = "COMPSs Framework";
@@ -57,6 +110,40 @@ public class MesosFramework {
     private static final String MESOS_WORKER_WAIT_TIMEOUT_UNITS = "mesos-worker-wait-timeout-units";
     private static final String MESOS_WORKER_KILL_TIMEOUT = "mesos-worker-kill-timeout";
     private static final String MESOS_WORKER_KILL_TIMEOUT_UNITS = "mesos-worker-kill-timeout-units";
+    private static final String MESOS_OFFER_HOLD_TIME = "mesos-offer-hold-time";
+    private static final String MESOS_OFFER_HOLD_TIME_UNITS = "mesos-offer-hold-time-units";
+    private static final String MESOS_OFFER_REFUSE_SECONDS = "mesos-offer-refuse-seconds";
+    private static final String MESOS_PLACEMENT_POLICY = "mesos-placement-policy";
+    private static final String MESOS_OFFER_BATCH_WINDOW = "mesos-offer-batch-window";
+    private static final String MESOS_OFFER_BATCH_WINDOW_UNITS = "mesos-offer-batch-window-units";
+    private static final String MESOS_OFFER_BATCH_MAX_OFFERS = "mesos-offer-batch-max-offers";
+    private static final String MESOS_GANG_WINDOW = "mesos-gang-window";
+    private static final String MESOS_GANG_WINDOW_UNITS = "mesos-gang-window-units";
+    private static final String MESOS_STATE_LOG = "mesos-state-log";
+    private static final String MESOS_STATE_LOG_RECLAIM_TIMEOUT = "mesos-state-log-reclaim-timeout";
+    private static final String MESOS_STATE_LOG_RECLAIM_TIMEOUT_UNITS = "mesos-state-log-reclaim-timeout-units";
+    private static final String MESOS_RELAUNCH_BACKOFF = "mesos-relaunch-backoff";
+    private static final String MESOS_RELAUNCH_BACKOFF_MAX = "mesos-relaunch-backoff-max";
+    private static final String MESOS_RELAUNCH_BACKOFF_UNITS = "mesos-relaunch-backoff-units";
+    private static final String MESOS_AGENT_BLACKLIST_THRESHOLD = "mesos-agent-blacklist-threshold";
+    private static final String MESOS_AGENT_BLACKLIST_HALF_LIFE = "mesos-agent-blacklist-half-life";
+    private static final String MESOS_AGENT_BLACKLIST_HALF_LIFE_UNITS = "mesos-agent-blacklist-half-life-units";
+    private static final String MESOS_JMX = "mesos-jmx";
+    private static final String MESOS_REVIVE_INTERVAL = "mesos-revive-interval";
+    private static final String MESOS_SUPPRESS_DELAY = "mesos-suppress-delay";
+    private static final String MESOS_REVIVE_UNITS = "mesos-revive-units";
+    private static final String MESOS_WARM_POOL_SIZE = "mesos-warm-pool-size";
+    private static final String MESOS_WARM_POOL_IDLE_TTL = "mesos-warm-pool-idle-ttl";
+    private static final String MESOS_WARM_POOL_IDLE_TTL_UNITS = "mesos-warm-pool-idle-ttl-units";
+    private static final String MESOS_IMAGE_LOCALITY = "mesos-image-locality";
+    private static final String MESOS_IMAGE_PREFETCH = "mesos-image-prefetch";
+    private static final String MESOS_SCHEDULER_BACKEND = "mesos-scheduler-backend";
+    private static final String MESOS_WORKER_READINESS = "mesos-worker-readiness";
+    private static final String MESOS_WORKER_READINESS_INTERVAL = "mesos-worker-readiness-interval";
+    private static final String MESOS_WORKER_READINESS_INTERVAL_UNITS = "mesos-worker-readiness-interval-units";
+    private static final String MESOS_REVOCABLE_RESOURCES = "mesos-revocable-resources";
+    private static final String MESOS_REVOCABLE_BASELINE = "mesos-revocable-baseline";
+    private static final String MESOS_FAIR_SHARE = "mesos-fair-share";
 
     private static final String MESOS_DEFAULT_WORKER_NAME = "Worker";
     private static final String MESOS_DEFAULT_DOCKER_COMMAND = "/usr/sbin/sshd -D";
@@ -69,7 +156,8 @@ public class MesosFramework {
     private final TimeUnit killWorkerTimeoutUnits;
 
     private final MesosFrameworkScheduler scheduler;
-    private final MesosSchedulerDriver driver;
+    private final SchedulerDriver driver;
+    private final JmxSchedulerMetrics metrics;
 
     private String workerName = MESOS_DEFAULT_WORKER_NAME;
     private String dockerCommand = MESOS_DEFAULT_DOCKER_COMMAND;
@@ -99,6 +187,70 @@ public class MesosFramework {
         killWorkerTimeoutUnits = TimeUnit.valueOf(getProperty(props, MESOS_WORKER_KILL_TIMEOUT_UNITS, DEFAULT_TIMEOUT_UNITS));
 
         scheduler = new MesosFrameworkScheduler();
+        metrics = new JmxSchedulerMetrics();
+        scheduler.useMetrics(metrics);
+
+        if (props.containsKey(MESOS_STATE_LOG)) {
+            TaskStateLog stateLog = new TaskStateLog(new File(props.get(MESOS_STATE_LOG)));
+            scheduler.useStateLog(stateLog,
+                    Long.parseLong(getProperty(props, MESOS_STATE_LOG_RECLAIM_TIMEOUT, DEFAULT_STATE_LOG_RECLAIM_TIMEOUT)),
+                    TimeUnit.valueOf(getProperty(props, MESOS_STATE_LOG_RECLAIM_TIMEOUT_UNITS, DEFAULT_TIMEOUT_UNITS)));
+            if (stateLog.getFrameworkId() != null) {
+                LOGGER.info("Failing over framework with ID " + stateLog.getFrameworkId());
+                frameworkBuilder.setId(FrameworkID.newBuilder().setValue(stateLog.getFrameworkId()));
+            }
+        }
+
+        long offerHoldTime = Long.parseLong(getProperty(props, MESOS_OFFER_HOLD_TIME, DEFAULT_OFFER_HOLD_TIME));
+        TimeUnit offerHoldTimeUnits = TimeUnit.valueOf(getProperty(props, MESOS_OFFER_HOLD_TIME_UNITS, DEFAULT_TIMEOUT_UNITS));
+        if (offerHoldTime > 0) {
+            LOGGER.info("Holding unused offers for " + offerHoldTime + " " + offerHoldTimeUnits);
+        }
+        scheduler.useOfferRetention(offerHoldTime, offerHoldTimeUnits);
+        long batchWindow = Long.parseLong(getProperty(props, MESOS_OFFER_BATCH_WINDOW, DEFAULT_OFFER_BATCH_WINDOW));
+        TimeUnit batchWindowUnits = TimeUnit.valueOf(getProperty(props, MESOS_OFFER_BATCH_WINDOW_UNITS, DEFAULT_TIMEOUT_UNITS));
+        int batchMaxOffers = Integer.parseInt(getProperty(props, MESOS_OFFER_BATCH_MAX_OFFERS, DEFAULT_OFFER_BATCH_MAX_OFFERS));
+        if (batchWindow > 0) {
+            LOGGER.info("Matching offers in batches of " + batchWindow + " " + batchWindowUnits);
+        }
+        scheduler.useOfferBatching(batchWindow, batchWindowUnits, batchMaxOffers);
+        long gangWindow = Long.parseLong(getProperty(props, MESOS_GANG_WINDOW, DEFAULT_GANG_WINDOW));
+        TimeUnit gangWindowUnits = TimeUnit.valueOf(getProperty(props, MESOS_GANG_WINDOW_UNITS, DEFAULT_TIMEOUT_UNITS));
+        scheduler.useGangWindow(gangWindow, gangWindowUnits);
+        TimeUnit relaunchBackoffUnits = TimeUnit.valueOf(getProperty(props, MESOS_RELAUNCH_BACKOFF_UNITS, DEFAULT_TIMEOUT_UNITS));
+        scheduler.useRelaunchBackoff(Long.parseLong(getProperty(props, MESOS_RELAUNCH_BACKOFF, DEFAULT_RELAUNCH_BACKOFF)),
+                Long.parseLong(getProperty(props, MESOS_RELAUNCH_BACKOFF_MAX, DEFAULT_RELAUNCH_BACKOFF_MAX)), relaunchBackoffUnits);
+        scheduler.useAgentBlacklist(
+                Double.parseDouble(getProperty(props, MESOS_AGENT_BLACKLIST_THRESHOLD, DEFAULT_AGENT_BLACKLIST_THRESHOLD)),
+                Long.parseLong(getProperty(props, MESOS_AGENT_BLACKLIST_HALF_LIFE, DEFAULT_AGENT_BLACKLIST_HALF_LIFE)),
+                TimeUnit.valueOf(getProperty(props, MESOS_AGENT_BLACKLIST_HALF_LIFE_UNITS, DEFAULT_TIMEOUT_UNITS)));
+        scheduler.useRefuseSeconds(Double.parseDouble(getProperty(props, MESOS_OFFER_REFUSE_SECONDS, DEFAULT_OFFER_REFUSE_SECONDS)));
+        scheduler.useReviveDebounce(Long.parseLong(getProperty(props, MESOS_REVIVE_INTERVAL, DEFAULT_REVIVE_INTERVAL)),
+                Long.parseLong(getProperty(props, MESOS_SUPPRESS_DELAY, DEFAULT_SUPPRESS_DELAY)),
+                TimeUnit.valueOf(getProperty(props, MESOS_REVIVE_UNITS, DEFAULT_TIMEOUT_UNITS)));
+        int warmPoolSize = Integer.parseInt(getProperty(props, MESOS_WARM_POOL_SIZE, DEFAULT_WARM_POOL_SIZE));
+        long warmPoolIdleTtl = Long.parseLong(getProperty(props, MESOS_WARM_POOL_IDLE_TTL, DEFAULT_WARM_POOL_IDLE_TTL));
+        TimeUnit warmPoolIdleTtlUnits = TimeUnit.valueOf(getProperty(props, MESOS_WARM_POOL_IDLE_TTL_UNITS, DEFAULT_TIMEOUT_UNITS));
+        if (warmPoolSize > 0) {
+            LOGGER.info("Keeping " + warmPoolSize + " idle workers per shape for " + warmPoolIdleTtl + " " + warmPoolIdleTtlUnits);
+        }
+        // After the state log, so idle workers recovered from it are pooled again
+        scheduler.useWarmPool(warmPoolSize, warmPoolIdleTtl, warmPoolIdleTtlUnits);
+        scheduler.useImageLocality(TRUE.equals(getProperty(props, MESOS_IMAGE_LOCALITY, DEFAULT_IMAGE_LOCALITY)),
+                TRUE.equals(getProperty(props, MESOS_IMAGE_PREFETCH, DEFAULT_IMAGE_PREFETCH)));
+        useReadiness(getProperty(props, MESOS_WORKER_READINESS, DEFAULT_WORKER_READINESS),
+                Long.parseLong(getProperty(props, MESOS_WORKER_READINESS_INTERVAL, DEFAULT_WORKER_READINESS_INTERVAL)),
+                TimeUnit.valueOf(getProperty(props, MESOS_WORKER_READINESS_INTERVAL_UNITS, DEFAULT_TIMEOUT_UNITS)));
+        if (TRUE.equals(getProperty(props, MESOS_REVOCABLE_RESOURCES, DEFAULT_REVOCABLE_RESOURCES))) {
+            int baseline = Integer.parseInt(getProperty(props, MESOS_REVOCABLE_BASELINE, DEFAULT_REVOCABLE_BASELINE));
+            LOGGER.info("Running the workers beyond the first " + baseline + " on revocable resources");
+            frameworkBuilder.addCapabilities(Capability.newBuilder().setType(Capability.Type.REVOCABLE_RESOURCES));
+            scheduler.useRevocableResources(baseline);
+        }
+        if (TRUE.equals(getProperty(props, MESOS_FAIR_SHARE, DEFAULT_FAIR_SHARE))) {
+            LOGGER.info("Sharing the resources among applications by weighted dominant share");
+            scheduler.useFairShare(true);
+        }
 
         if (props.containsKey(MESOS_CHECKPOINT) && TRUE.equals(props.get(MESOS_CHECKPOINT))) {
             LOGGER.info("Enabling checkpoint for the framework");
@@ -128,6 +280,10 @@ public class MesosFramework {
             LOGGER.info("Using Docker network type: " + props.get(MESOS_DOCKER_NETWORK_TYPE));
             scheduler.useDockerNetworkType(props.get(MESOS_DOCKER_NETWORK_TYPE));
         }
+        if (props.containsKey(MESOS_PLACEMENT_POLICY)) {
+            LOGGER.info("Using placement policy: " + props.get(MESOS_PLACEMENT_POLICY));
+            scheduler.usePlacementPolicy(props.get(MESOS_PLACEMENT_POLICY));
+        }
         if (props.containsKey(MESOS_CONTAINERIZER)) {
             LOGGER.info("Using containerizer: " + props.get(MESOS_CONTAINERIZER));
             scheduler.useContainerizer(props.get(MESOS_CONTAINERIZER));
@@ -142,6 +298,11 @@ public class MesosFramework {
                         + MESOS_DOCKER_VOLUME_CONTAINER_PATH + " specified");
             }
         }
+        String backend = getProperty(props, MESOS_SCHEDULER_BACKEND, DEFAULT_SCHEDULER_BACKEND);
+        if (!NATIVE_BACKEND.equals(backend) && !HTTP_BACKEND.equals(backend)) {
+            throw new FrameworkException("Unknown scheduler backend " + backend);
+        }
+        Credential credential = null;
         if (props.containsKey(MESOS_AUTHENTICATE) && TRUE.equals(props.get(MESOS_AUTHENTICATE))) {
             LOGGER.info("Enabling authentication for the framework");
 
@@ -153,15 +314,30 @@ public class MesosFramework {
                 LOGGER.error("Expecting authentication secret in the environment");
                 throw new FrameworkException("Missing secret in mesos authentication");
             }
-            Credential credential = Credential.newBuilder().setPrincipal(props.get(MESOS_PRINCIPAL)).setSecret(props.get(MESOS_SECRET))
-                    .build();
-
+            credential = Credential.newBuilder().setPrincipal(props.get(MESOS_PRINCIPAL)).setSecret(props.get(MESOS_SECRET)).build();
             frameworkBuilder.setPrincipal(props.get(MESOS_PRINCIPAL));
-            driver = new MesosSchedulerDriver(scheduler, frameworkBuilder.build(), mesosMasterIp, credential);
         } else {
             frameworkBuilder.setPrincipal(COMPSS_PRINCIPAL);
+        }
+        if (HTTP_BACKEND.equals(backend)) {
+            LOGGER.info("Using the Mesos v1 HTTP scheduler API");
+            try {
+                driver = new HttpSchedulerDriver(scheduler, frameworkBuilder.build(), mesosMasterIp, credential);
+            } catch (IllegalArgumentException iae) {
+                throw new FrameworkException("Invalid Mesos master address for the HTTP backend: " + mesosMasterIp, iae);
+            }
+        } else if (credential != null) {
+            driver = new MesosSchedulerDriver(scheduler, frameworkBuilder.build(), mesosMasterIp, credential);
+        } else {
             driver = new MesosSchedulerDriver(scheduler, frameworkBuilder.build(), mesosMasterIp);
         }
+        if (TRUE.equals(getProperty(props, MESOS_JMX, TRUE))) {
+            try {
+                metrics.register(frameworkBuilder.getName());
+            } catch (FrameworkException fe) {
+                LOGGER.warn("Scheduler metrics not available through JMX", fe);
+            }
+        }
         LOGGER.info("Starting Mesos Framework, connecting to " + mesosMasterIp);
         driver.suppressOffers();
         driver.start();
@@ -169,6 +345,8 @@ public class MesosFramework {
             scheduler.waitRegistration(registerTimeout, registerTimeoutUnits);
         } catch (FrameworkException fe) {
             driver.stop();
+            scheduler.stop();
+            metrics.unregister();
             throw fe;
         }
     }
@@ -196,7 +374,195 @@ public class MesosFramework {
     }
 
     /**
-     * Wait for worker with identifier id.
+     * @return Offer, queue, launch latency and relaunch metrics of the scheduler, also exposed through JMX.
+     */
+    public JmxSchedulerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return Hit, miss and handout latency counters of the pool of idle workers.
+     */
+    public WarmPool.Stats getWarmPoolStats() {
+        return scheduler.getWarmPoolStats();
+    }
+
+    /**
+     * @return Identifiers of the workers running on revocable resources, that Mesos can preempt. Preempted workers are
+     *         requested again.
+     */
+    public List<String> getRevocableWorkers() {
+        return scheduler.getRevocableTasks();
+    }
+
+    /**
+     * Sets the priority of the workers requested by an application. Higher priorities are served first.
+     *
+     * @param appName
+     * @param priority
+     */
+    public void setApplicationPriority(String appName, int priority) {
+        LOGGER.info("Setting priority " + priority + " for application " + appName);
+        scheduler.setApplicationPriority(appName + workerName, priority);
+    }
+
+    /**
+     * Sets the weight of an application when sharing the resources by dominant share. Default weight is 1.
+     *
+     * @param appName
+     * @param weight
+     */
+    public void setApplicationWeight(String appName, double weight) {
+        LOGGER.info("Setting weight " + weight + " for application " + appName);
+        scheduler.setApplicationWeight(appName + workerName, weight);
+    }
+
+    /**
+     * Sets hard caps on the cpus and mem held by the workers of an application when sharing the resources by dominant
+     * share, 0 for no cap.
+     *
+     * @param appName
+     * @param maxCpus
+     * @param maxMem
+     */
+    public void setApplicationCap(String appName, double maxCpus, double maxMem) {
+        LOGGER.info("Setting caps of " + maxCpus + " cpus and " + maxMem + " mem for application " + appName);
+        scheduler.setApplicationCap(appName + workerName, maxCpus, maxMem);
+    }
+
+    /**
+     * @return Cpus and mem held and workers launched by each application, by application name as requested.
+     */
+    public Map<String, FairShare.Usage> getApplicationUsage() {
+        Map<String, FairShare.Usage> usage = new LinkedHashMap<>();
+        for (Map.Entry<String, FairShare.Usage> e : scheduler.getApplicationUsage().entrySet()) {
+            String name = e.getKey();
+            if (name.endsWith(workerName)) {
+                name = name.substring(0, name.length() - workerName.length());
+            }
+            usage.put(name, e.getValue());
+        }
+        return usage;
+    }
+
+    /**
+     * Request several workers with the same image and resources to be run on Mesos.
+     *
+     * @param appName
+     * @param imageName
+     * @param resources
+     * @param numWorkers
+     * @return Identifiers assigned to the new workers
+     */
+    public List<String> requestWorkers(String appName, String imageName, List<Resource> resources, int numWorkers) {
+        String name = appName + workerName;
+        LOGGER.info("Requested " + numWorkers + " workers");
+        return scheduler.requestWorkers(driver, name, imageName, dockerCommand, resources, numWorkers);
+    }
+
+    /**
+     * Request a gang of workers with the same image and resources to be run on Mesos. Either all of them are launched
+     * at once or none is, so an application never holds part of the workers it needs to make progress.
+     *
+     * @param appName
+     * @param imageName
+     * @param resources
+     * @param numWorkers
+     * @return Identifiers assigned to the new workers
+     */
+    public List<String> requestWorkerGroup(String appName, String imageName, List<Resource> resources, int numWorkers) {
+        String name = appName + workerName;
+        LOGGER.info("Requested gang of " + numWorkers + " workers");
+        return scheduler.requestWorkerGroup(driver, name, imageName, dockerCommand, resources, numWorkers);
+    }
+
+    /**
+     * Wait without blocking for a quorum of workers to be running.
+     *
+     * @param ids
+     *            Worker identifiers.
+     * @param quorum
+     *            Number of workers that must be running.
+     * @return Future completed with the IP of each running worker once the quorum is reached. It fails as soon as the
+     *         quorum cannot be reached within the worker wait timeout. Actions chained to it can call the framework.
+     */
+    public CompletableFuture<Map<String, String>> awaitWorkersRunning(Collection<String> ids, int quorum) {
+        LOGGER.info("Waiting " + quorum + " of " + ids.size() + " workers");
+        return scheduler.awaitAll(ids, TaskState.TASK_RUNNING, quorum, runWorkerTimeout, runWorkerTimeoutUnits);
+    }
+
+    /**
+     * Wait for all the workers with the given identifiers.
+     *
+     * @param ids
+     *            Worker identifiers.
+     * @return IP address of each worker.
+     */
+    public Map<String, String> waitWorkersUntilRunning(Collection<String> ids) {
+        LOGGER.info("Waiting " + ids.size() + " workers");
+        // All the waits start now, so the whole wait is bounded by a single worker wait timeout
+        Map<String, CompletableFuture<String>> waits = new HashMap<>();
+        for (String id : ids) {
+            waits.put(id, scheduler.awaitState(id, TaskState.TASK_RUNNING, runWorkerTimeout, runWorkerTimeoutUnits));
+        }
+        Map<String, String> ips = new HashMap<>();
+        for (Map.Entry<String, CompletableFuture<String>> wait : waits.entrySet()) {
+            try {
+                wait.getValue().get();
+            } catch (ExecutionException ee) {
+                LOGGER.warn("Exception raised waiting for worker " + wait.getKey());
+                LOGGER.warn(ee.getCause());
+            } catch (InterruptedException ie) {
+                LOGGER.warn("Interrupted waiting for worker " + wait.getKey());
+                Thread.currentThread().interrupt();
+            }
+            ips.put(wait.getKey(), scheduler.getTaskIp(wait.getKey()));
+        }
+        return ips;
+    }
+
+    /**
+     * Request a worker to be run on Mesos without blocking.
+     *
+     * @param appName
+     * @param imageName
+     * @param resources
+     * @return Future completed with the worker IP when it is running. It fails if the worker does not run before the
+     *         worker wait timeout. Actions chained to it can call the framework, e.g. to remove the worker.
+     */
+    public WorkerFuture requestWorkerAsync(String appName, String imageName, List<Resource> resources) {
+        String id = requestWorker(appName, imageName, resources);
+        final WorkerFuture worker = new WorkerFuture(id);
+        awaitState(id, TaskState.TASK_RUNNING).whenComplete(new BiConsumer<String, Throwable>() {
+
+            @Override
+            public void accept(String ip, Throwable t) {
+                if (t == null) {
+                    worker.complete(ip);
+                } else {
+                    worker.completeExceptionally(t);
+                }
+            }
+        });
+        return worker;
+    }
+
+    /**
+     * Wait without blocking for worker with identifier id to reach a state.
+     *
+     * @param id
+     *            Worker identifier.
+     * @param state
+     *            State to wait for.
+     * @return Future completed with the worker IP. It fails if the state is not reached before the worker wait timeout.
+     */
+    public CompletableFuture<String> awaitState(String id, TaskState state) {
+        LOGGER.info("Waiting worker with id " + id + " to reach " + state);
+        return scheduler.awaitState(id, state, runWorkerTimeout, runWorkerTimeoutUnits);
+    }
+
+    /**
+     * Wait for worker with identifier id to be running and, if there is a readiness check, to pass it.
      *
      * @param id
      *            Worker identifier.
@@ -228,12 +594,57 @@ public class MesosFramework {
         }
     }
 
+    /**
+     * Stop several workers running/staging in Mesos. All of them are killed at once and waited up to a single kill
+     * timeout.
+     *
+     * @param ids
+     *            Worker identifiers.
+     * @return Outcome of the removal of each worker.
+     */
+    public Map<String, RemovalOutcome> removeWorkers(Collection<String> ids) {
+        LOGGER.info("Remove " + ids.size() + " workers");
+        Map<String, RemovalOutcome> outcomes = scheduler.removeTasks(driver, ids, killWorkerTimeout, killWorkerTimeoutUnits);
+        for (Map.Entry<String, RemovalOutcome> e : outcomes.entrySet()) {
+            if (e.getValue() == RemovalOutcome.TIMED_OUT || e.getValue() == RemovalOutcome.NOT_FOUND) {
+                LOGGER.warn("Could not remove worker " + e.getKey() + ": " + e.getValue());
+            }
+        }
+        return outcomes;
+    }
+
     /**
      * Stop the Mesos Framework.
      */
     public void stop() {
         LOGGER.info("Stoping Mesos Framework");
         driver.stop();
+        // The framework is torn down, its tasks cannot be recovered
+        scheduler.clearStateLog();
+        scheduler.stop();
+        metrics.unregister();
+    }
+
+    private void useReadiness(String readiness, long interval, TimeUnit unit) throws FrameworkException {
+        if (readiness.startsWith(TCP_READINESS)) {
+            int port;
+            try {
+                port = Integer.parseInt(readiness.substring(TCP_READINESS.length()).trim());
+            } catch (NumberFormatException nfe) {
+                throw new FrameworkException("Invalid port in worker readiness check " + readiness, nfe);
+            }
+            if (port <= 0 || port > 65_535) {
+                throw new FrameworkException("Invalid port in worker readiness check " + readiness);
+            }
+            LOGGER.info("Workers are ready once they accept connections on port " + port);
+            scheduler.useTcpReadiness(port, interval, unit);
+        } else if (readiness.startsWith(COMMAND_READINESS)) {
+            String command = readiness.substring(COMMAND_READINESS.length());
+            LOGGER.info("Workers are ready once command succeeds in them: " + command);
+            scheduler.useCommandReadiness(command, interval, unit);
+        } else if (!NO_READINESS.equals(readiness)) {
+            throw new FrameworkException("Unknown worker readiness check " + readiness);
+        }
     }
 
     private String getProperty(Map<String, String> props, String key, String defaultValue) {
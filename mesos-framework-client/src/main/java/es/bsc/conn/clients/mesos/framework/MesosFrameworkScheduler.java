@@ -2,23 +2,47 @@ package es.bsc.conn.clients.mesos.framework;
 
 import es.bsc.conn.clients.mesos.framework.exceptions.FrameworkException;
 import es.bsc.conn.clients.mesos.framework.log.Loggers;
+import es.bsc.conn.clients.mesos.framework.metrics.NoSchedulerMetrics;
+import es.bsc.conn.clients.mesos.framework.metrics.SchedulerMetrics;
 
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.mesos.Protos.CommandInfo;
 import org.apache.mesos.Protos.ContainerInfo.DockerInfo;
 import org.apache.mesos.Protos.ContainerInfo;
 import org.apache.mesos.Protos.ExecutorID;
+import org.apache.mesos.Protos.Filters;
 import org.apache.mesos.Protos.FrameworkID;
+import org.apache.mesos.Protos.HealthCheck;
 import org.apache.mesos.Protos.MasterInfo;
 import org.apache.mesos.Protos.NetworkInfo;
 import org.apache.mesos.Protos.Offer;
@@ -37,6 +61,12 @@ import org.apache.mesos.SchedulerDriver;
 
 /**
  * Mesos Scheduler implementation for COMPSs.
+ *
+ * All the scheduler state is changed from a SchedulerEventLoop: Mesos callbacks, worker requests, removals and timer
+ * actions are queued as events and run one at a time, so no lock is taken on the scheduler. Calls wait for their event
+ * to run. Task IPs, the framework identifier and the scheduler snapshot are read without going through the loop. The
+ * futures handed out are completed from a separate pool, never from the loop, so the actions chained to them can call
+ * the scheduler back.
  */
 public class MesosFrameworkScheduler implements Scheduler {
 
@@ -44,23 +74,93 @@ public class MesosFrameworkScheduler implements Scheduler {
     private static final String UNDEFINED_IP = "-1.-1.-1.-1";
     private static final int MAX_LAUNCH_RETRIES = 3;
 
-    private static final String CPUS_RESOURCE = "cpus";
-    private static final String MEM_RESOURCE = "mem";
-    private static final String DISK_RESOURCE = "disk";
     private static final String PORTS_RESOURCE = "ports";
+    // Application of the idle workers, served after every application
+    private static final String WARM_POOL_APP = "WarmPool";
+    // Tasks that pull an image on an agent ahead of demand: the smallest task running the image, which exits right away
+    private static final String IMAGE_PULL_APP = "ImagePull";
+    private static final String IMAGE_PULL_COMMAND = "true";
+    private static final TaskRequirements IMAGE_PULL_REQUIREMENTS = new TaskRequirements(Arrays.asList(
+            Resource.newBuilder().setName("cpus").setType(Value.Type.SCALAR).setScalar(Value.Scalar.newBuilder().setValue(0.1)).build(),
+            Resource.newBuilder().setName("mem").setType(Value.Type.SCALAR).setScalar(Value.Scalar.newBuilder().setValue(32)).build()));
 
     private static final Logger LOGGER = LogManager.getLogger(Loggers.MF_SCHEDULER);
     private static final String ERROR_TASK_ID = "ERROR: Task does not exist. TaskId = ";
+    private static final TaskRequirements EMPTY_REQUIREMENTS = new TaskRequirements(Collections.<Resource> emptyList());
+    // Images and commands requested are not bounded, only the prototypes of the ones used last are kept
+    private static final int MAX_TEMPLATES = 64;
 
     private final AtomicInteger taskIdGenerator = new AtomicInteger();
 
-    private FrameworkID frameworkId;
+    private volatile FrameworkID frameworkId;
 
-    private Semaphore registerSem;
+    private volatile Semaphore registerSem;
 
-    private final List<String> runningTasks;
-    private final List<String> pendingTasks;
+    // Only accessed from the event loop, except tasks that is also read from any thread
+    private final Set<String> runningTasks;
+    private final PendingTaskQueue pendingTasks;
     private final Map<String, MesosTask> tasks;
+    private final Map<String, Integer> appPriorities;
+    // Gangs waiting to be launched, queued in pendingTasks by their group identifier
+    private final Map<String, List<String>> pendingGroups;
+    private long gangWindow = 0;
+
+    // Failed tasks waiting to be queued again, after a backoff that doubles on every retry
+    private final Set<String> backingOff;
+    private long relaunchBackoff = 0;
+    private long maxRelaunchBackoff = 0;
+    private final Random backoffJitter = new Random();
+    // Agents with recent failures, their offers are declined
+    private AgentBlacklist blacklist = new AgentBlacklist(0.0, 0);
+
+    // Log of the tasks launched, to reattach to them after a restart. Tasks recovered from it and not requested again
+    private TaskStateLog stateLog;
+    private final Set<String> recoveredTasks;
+
+    // Idle workers handed out to the requests of the same shape
+    private WarmPool warmPool = new WarmPool(0, 0);
+    private ScheduledFuture<?> warmPoolExpiration;
+
+    // Agents with each image, preferred by the placement and where images are pulled ahead of demand
+    private final ImageLocality imageLocality = new ImageLocality();
+    private boolean preferWarmAgents = false;
+    private boolean pullImages = false;
+
+    // Workers launched on regular and on revocable resources, burst workers go to revocable resources when enabled
+    private RevocableWorkers revocableWorkers = new RevocableWorkers(false, 0);
+
+    // Resources held by the workers of each application, pending tasks are served by dominant share when enabled
+    private final FairShare fairShare = new FairShare();
+
+    // Check running tasks must pass before their waiters for TASK_RUNNING are completed: a port accepting connections,
+    // probed from the framework, or a command run by Mesos as a health check. Probes in progress per task
+    private int readinessPort = 0;
+    private HealthCheck readinessHealthCheck;
+    private ReadinessProber readinessProber;
+    private final Map<String, CompletableFuture<Void>> readinessProbes;
+
+    // Offers received and not used yet, held up to offerHoldTime milliseconds
+    private final MesosOfferPool offerPool;
+    private PlacementPolicy placementPolicy = new BestFitPlacement();
+    private long offerHoldTime = 0;
+    private Filters refuseFilters = Filters.getDefaultInstance();
+
+    // Offers received during batchWindow milliseconds, or until batchMaxOffers, are matched at once
+    private long batchWindow = 0;
+    private int batchMaxOffers = 0;
+    private int batchedOffers = 0;
+    private ScheduledFuture<?> batchFlush;
+
+    // Shared timer for delayed actions. Driver of the last callback or revive, to use from timer actions
+    private final ScheduledThreadPoolExecutor timer;
+    private SchedulerDriver callbackDriver;
+    // Completes the futures handed out, chained actions may block so it grows as needed
+    private final ExecutorService completions;
+
+    // Debounces revives and delays suppresses, with timers for the revives coalesced and the suppress pending
+    private ReviveController reviveController = new ReviveController(0, 0);
+    private ScheduledFuture<?> reviveTimer;
+    private ScheduledFuture<?> suppressTimer;
 
     private ContainerInfo.Type containerizer = ContainerInfo.Type.DOCKER;
     private DockerInfo.Network dockerNetworkType = DockerInfo.Network.BRIDGE;
@@ -71,413 +171,2076 @@ public class MesosFrameworkScheduler implements Scheduler {
     private String dockerVolumeHostPath = "";
     private String dockerVolumeContainerPath = "";
 
+    // Prototypes shared by all the tasks with the same image and command. The network and volume are the same for all
+    // the tasks, so container prototypes are discarded when they change
+    private final Map<String, ContainerInfo> containerTemplates = new TemplateCache<>();
+    private final Map<String, CommandInfo> commandTemplates = new TemplateCache<>();
+
+    // Runs the events that change the state, publishing a snapshot after each one
+    private final SchedulerEventLoop events;
+    private long eventCount = 0;
+    private volatile SchedulerSnapshot snapshot = new SchedulerSnapshot(0, 0, 0, 0, 0, 0, 0, 0);
+    // Also used from the callback threads, to time the offer cycles
+    private volatile SchedulerMetrics metrics = new NoSchedulerMetrics();
+
 
     /**
      * Creates a new Mesos Framework scheduler.
      */
     public MesosFrameworkScheduler() {
         LOGGER.debug("Initialize " + this.getClass().getName());
-        this.runningTasks = Collections.synchronizedList(new LinkedList<String>());
-        this.pendingTasks = Collections.synchronizedList(new LinkedList<String>());
-        this.tasks = Collections.synchronizedMap(new HashMap<String, MesosTask>());
+        this.runningTasks = new LinkedHashSet<>();
+        this.pendingTasks = new PendingTaskQueue();
+        this.tasks = new ConcurrentHashMap<>();
+        this.appPriorities = new HashMap<>();
+        this.pendingGroups = new HashMap<>();
+        this.backingOff = new HashSet<>();
+        this.recoveredTasks = new LinkedHashSet<>();
+        this.readinessProbes = new HashMap<>();
+        this.offerPool = new MesosOfferPool();
+        this.timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "MesosFrameworkScheduler-timer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        // Waits completed before their timeout should not stay in the timer queue
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.completions = Executors.newCachedThreadPool(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "MesosFrameworkScheduler-completions");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.events = new SchedulerEventLoop(new Runnable() {
+
+            @Override
+            public void run() {
+                publishSnapshot();
+            }
+        });
     }
 
     /**
      * @return Mesos Framework identifier, if exists. Otherwise empty string.
      */
     public String getFrameworkId() {
-        return frameworkId == null ? EMPTY : frameworkId.getValue();
+        FrameworkID id = frameworkId;
+        return id == null ? EMPTY : id.getValue();
+    }
+
+    /**
+     * @return State of the scheduler after the last event run, read without waiting for the event loop.
+     */
+    public SchedulerSnapshot getSnapshot() {
+        return snapshot;
     }
 
     /**
      * @param networkName
      *            Name of the network to use with Docker
      */
-    public void useDockerNetworkName(String networkName) {
-        useCustomDockerNetwork = true;
-        dockerNetworkName = networkName;
-        dockerNetworkType = DockerInfo.Network.USER;
+    public void useDockerNetworkName(final String networkName) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                containerTemplates.clear();
+                useCustomDockerNetwork = true;
+                dockerNetworkName = networkName;
+                dockerNetworkType = DockerInfo.Network.USER;
+            }
+        });
     }
 
     /**
      * @param networkType
      *            Type the network to use with Docker
      */
-    public void useDockerNetworkType(String networkType) {
-        switch (networkType.toUpperCase()) {
-            case "BRIDGE":
-                dockerNetworkType = DockerInfo.Network.BRIDGE;
-                break;
-            case "HOST":
-                dockerNetworkType = DockerInfo.Network.HOST;
-                break;
-            case "USER":
-                dockerNetworkType = DockerInfo.Network.USER;
-                break;
-            default:
-                // Nothing
-        }
+    public void useDockerNetworkType(final String networkType) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                containerTemplates.clear();
+                switch (networkType.toUpperCase()) {
+                    case "BRIDGE":
+                        dockerNetworkType = DockerInfo.Network.BRIDGE;
+                        break;
+                    case "HOST":
+                        dockerNetworkType = DockerInfo.Network.HOST;
+                        break;
+                    case "USER":
+                        dockerNetworkType = DockerInfo.Network.USER;
+                        break;
+                    default:
+                        // Nothing
+                }
+            }
+        });
     }
 
     /**
      * @param containerType
      *            Containerizer to use
      */
-    public void useContainerizer(String containerType) {
-        switch (containerType.toUpperCase()) {
-            case "DOCKER":
-                containerizer = ContainerInfo.Type.DOCKER;
+    public void useContainerizer(final String containerType) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                containerTemplates.clear();
+                switch (containerType.toUpperCase()) {
+                    case "DOCKER":
+                        containerizer = ContainerInfo.Type.DOCKER;
+                        break;
+                    case "MESOS":
+                        containerizer = ContainerInfo.Type.MESOS;
+                        break;
+                    default:
+                        // Nothing
+                }
+            }
+        });
+    }
+
+    /**
+     * @param policyName
+     *            Placement policy to use: best-fit, first-fit, bin-pack or spread. Best-fit if it is unknown.
+     */
+    public void usePlacementPolicy(String policyName) {
+        switch (policyName.toLowerCase()) {
+            case BestFitPlacement.NAME:
+                usePlacementPolicy(new BestFitPlacement());
+                break;
+            case FirstFitPlacement.NAME:
+                usePlacementPolicy(new FirstFitPlacement());
+                break;
+            case BinPackPlacement.NAME:
+                usePlacementPolicy(new BinPackPlacement());
                 break;
-            case "MESOS":
-                containerizer = ContainerInfo.Type.MESOS;
+            case SpreadPlacement.NAME:
+                usePlacementPolicy(new SpreadPlacement());
                 break;
             default:
-                // Nothing
+                LOGGER.warn("Unknown placement policy " + policyName + ", using " + BestFitPlacement.NAME);
+                usePlacementPolicy(new BestFitPlacement());
         }
     }
 
-    public void useDockerVolume(String hostPath, String containerPath) {
-        mountDockerVolume = true;
-        dockerVolumeHostPath = hostPath;
-        dockerVolumeContainerPath = containerPath;
+    /**
+     * @param policy
+     *            Placement policy to choose the offer of each task.
+     */
+    public void usePlacementPolicy(final PlacementPolicy policy) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                placementPolicy = policy;
+            }
+        });
+    }
+
+    /**
+     * Keep offers not used for a bounded time, so new workers can be placed on them without reviving offers.
+     *
+     * @param holdTime
+     *            Time to keep unused offers, 0 to decline them right away.
+     * @param unit
+     *            Unit of time.
+     */
+    public void useOfferRetention(final long holdTime, final TimeUnit unit) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                offerHoldTime = unit.toMillis(holdTime);
+            }
+        });
     }
 
     /**
-     * @param appName
-     *            Aplication name
-     * @return Unique identifier for a worker.
+     * @param refuseSeconds
+     *            Seconds Mesos should not offer again the resources declined when there are no workers requested.
      */
-    public synchronized String generateWorkerId(String appName) {
-        return appName + "-" + Integer.toString(taskIdGenerator.incrementAndGet()) + "-" + frameworkId.getValue();
+    public void useRefuseSeconds(final double refuseSeconds) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                refuseFilters = Filters.newBuilder().setRefuseSeconds(refuseSeconds).build();
+            }
+        });
     }
 
     /**
-     * Petition to create a worker on Mesos, uses a docker image specified by imageName and will use resources specified
-     * in list to be created.
+     * @param schedulerMetrics
+     *            Receiver of the offer, queue, launch latency and relaunch measures.
+     */
+    public void useMetrics(final SchedulerMetrics schedulerMetrics) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                metrics = schedulerMetrics;
+            }
+        });
+    }
+
+    /**
+     * Debounce revives and delay suppresses. The first revive is sent right away and the ones requested during the next
+     * reviveInterval are sent as a single revive when it ends, if workers are still waiting. Offers are suppressed once
+     * no worker has been waiting for suppressDelay, instead of on every offer cycle with no workers waiting.
      *
-     * @param driver
-     *            Mesos Scheduler driver.
-     * @param appName
-     *            Application name.
-     * @param imageName
-     *            Docker image name.
-     * @param resources
-     *            List of resource to use.
-     * @return Identifier generated for that worker.
+     * @param reviveInterval
+     *            Minimum time between revives, 0 to send every revive.
+     * @param suppressDelay
+     *            Time without workers waiting before suppressing offers, 0 to suppress right away.
+     * @param unit
+     *            Unit of time.
      */
-    public String requestWorker(SchedulerDriver driver, String appName, String imageName, String dockerCommand, List<Resource> resources) {
-        LOGGER.debug("Requested worker");
-        String newWorkerId = generateWorkerId(appName);
-        synchronized (this) {
-            pendingTasks.add(newWorkerId);
-            tasks.put(newWorkerId, new MesosTask(newWorkerId, imageName, dockerCommand, TaskState.TASK_STAGING, resources));
-            driver.reviveOffers();
-        }
-        return newWorkerId;
+    public void useReviveDebounce(final long reviveInterval, final long suppressDelay, final TimeUnit unit) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                reviveController = new ReviveController(unit.toMillis(reviveInterval), unit.toMillis(suppressDelay));
+            }
+        });
     }
 
     /**
-     * Wait for task with identifier to reach state. If state is not reached, task is removed from pending and running
-     * tasks.
+     * Keep offers while a gang is waiting, so it can be placed on the resources offered during the window and not only
+     * on the offers of a single cycle.
      *
-     * @param id
-     *            Task identifier to wait for.
-     * @param state
-     * @param timeout
+     * @param window
+     *            Time to accumulate offers for gangs, 0 to only use the offers of each cycle.
      * @param unit
-     * @throws FrameworkException
-     *             if waits for timeout units.
+     *            Unit of time.
      */
-    public void waitTask(String id, TaskState state, long timeout, TimeUnit unit) throws FrameworkException {
-        Semaphore sem = new Semaphore(0);
-        synchronized (tasks) {
-            if (!tasks.containsKey(id)) {
-                throw new FrameworkException(ERROR_TASK_ID + id);
-            } else if (tasks.get(id).getState() == state) {
-                // Task already in that state, nothing to do
-                return;
+    public void useGangWindow(final long window, final TimeUnit unit) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                gangWindow = unit.toMillis(window);
             }
-            tasks.get(id).addWait(state, sem);
-        }
-        LOGGER.debug("Waiting task " + id + " " + timeout + " " + unit.toString() + " to change state to " + state.toString());
-        boolean acquired = acquireSem(sem, timeout, unit);
-        synchronized (tasks) {
-            if (!tasks.containsKey(id)) {
-                throw new FrameworkException(ERROR_TASK_ID + id);
-            } else if (tasks.get(id).getState() != state || !acquired) {
-                pendingTasks.remove(id);
-                runningTasks.remove(id);
-                tasks.remove(id);
-                throw new FrameworkException("Timeout waiting task " + id + " to change to " + state.toString());
+        });
+    }
+
+    /**
+     * Accumulate the offers received during a short window, or until a number of offers is reached, and match them
+     * with all the pending workers at once. Workers of the same priority are placed by decreasing size, which packs
+     * the offers better than matching each callback as it arrives.
+     *
+     * @param window
+     *            Time to accumulate offers, 0 to match the offers of each callback right away.
+     * @param unit
+     *            Unit of time.
+     * @param maxOffers
+     *            Number of offers that ends the window early, 0 for no limit.
+     */
+    public void useOfferBatching(final long window, final TimeUnit unit, final int maxOffers) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                batchWindow = unit.toMillis(window);
+                batchMaxOffers = maxOffers;
             }
-        }
+        });
     }
 
     /**
-     * Wait for the framework to register in Mesos. If it is already registered returns immediately.
+     * Matches the offers accumulated so far right away, without waiting for the end of the batch window.
      */
-    public void waitRegistration() {
-        LOGGER.debug("Wait for framework to register");
-        if (frameworkId != null) {
-            releaseRegisterSem();
-        } else {
-            registerSem = new Semaphore(0);
-            acquireSem(registerSem);
-        }
+    public void flushOfferBatch() {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                if (batchFlush != null && callbackDriver != null) {
+                    // Cancels the pending flush
+                    matchOffers(callbackDriver);
+                }
+            }
+        });
     }
 
     /**
-     * Wait for the framework to register in Mesos. If it is already registered returns immediately. Otherwise, acquires
-     * a semaphore until registered or reregistered is called or timeout is reached.
+     * Wait before relaunching a failed task. The wait doubles on every retry of the task, up to maxBackoff, and a random
+     * jitter of up to half the wait is subtracted so failed tasks are not relaunched all at once.
      *
-     * @param timeout
+     * @param backoff
+     *            Wait before the first relaunch, 0 to relaunch failed tasks right away.
+     * @param maxBackoff
+     *            Maximum wait.
      * @param unit
-     * @throws FrameworkException
-     *             if timeout is reached or frameworkId does not exist.
+     *            Unit of time.
      */
-    public void waitRegistration(long timeout, TimeUnit unit) throws FrameworkException {
-        LOGGER.debug("Wait for framework to register " + timeout + " " + unit.toString());
-        if (frameworkId != null) {
-            releaseRegisterSem();
-        } else {
-            registerSem = new Semaphore(0);
-            boolean acquired = acquireSem(registerSem, timeout, unit);
-            if (frameworkId == null || !acquired) {
-                throw new FrameworkException("Could not register framework. Check that Mesos master IP is correct.");
+    public void useRelaunchBackoff(final long backoff, final long maxBackoff, final TimeUnit unit) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                relaunchBackoff = unit.toMillis(backoff);
+                maxRelaunchBackoff = unit.toMillis(maxBackoff);
             }
-        }
+        });
     }
 
     /**
-     * Removes a task. If it was on pending queue it has not a worker running on Mesos and only it is removed from
-     * queue. If it is running on Mesos asks the driver to kill it and waits for status update.
+     * Decline the offers of agents with recent failures. Lost and failed tasks add 1 to the score of their agent, lost
+     * executors add 1 and lost agents reach the threshold right away. Scores halve every halfLife.
      *
-     * @param driver
-     *            Mesos Scheduler driver.
+     * @param threshold
+     *            Score from which the offers of an agent are declined, 0 to never decline them.
+     * @param halfLife
+     *            Time for a score to halve.
+     * @param unit
+     *            Unit of time.
+     */
+    public void useAgentBlacklist(final double threshold, final long halfLife, final TimeUnit unit) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                blacklist = new AgentBlacklist(threshold, unit.toMillis(halfLife));
+            }
+        });
+    }
+
+    /**
+     * Log the framework identifier and the tasks launched, and recover the tasks already in the log. Recovered tasks
+     * are reconciled with Mesos when the framework registers, and workers requested with the same application, image,
+     * command and resources reuse the recovered tasks still running instead of launching new ones. The recovered tasks
+     * not requested again within reclaimTimeout are killed.
      *
-     * @param id
-     *            Task identifier.
-     * @param timeout
-     *            Number of time units.
+     * @param log
+     *            Task state log.
+     * @param reclaimTimeout
+     *            Time the recovered tasks wait to be requested again, 0 to keep them until the framework stops.
      * @param unit
      *            Unit of time.
-     * @throws FrameworkException
-     *             if task does not exist.
      */
-    public void removeTask(SchedulerDriver driver, String id, long timeout, TimeUnit unit) throws FrameworkException {
-        synchronized (this) {
-            // Task still in pending queue, not launched to run in Mesos
-            if (pendingTasks.contains(id)) {
-                pendingTasks.remove(id);
-                return;
-            } else if (!tasks.containsKey(id)) {
-                runningTasks.remove(id);
-                throw new FrameworkException(ERROR_TASK_ID + id);
+    public void useStateLog(final TaskStateLog log, final long reclaimTimeout, final TimeUnit unit) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                stateLog = log;
+                if (frameworkId != null && !frameworkId.getValue().equals(log.getFrameworkId())) {
+                    log.putFrameworkId(frameworkId.getValue());
+                }
+                for (MesosTask mt : log.getRecoveredTasks()) {
+                    if (mt.getAgentId() == null || tasks.containsKey(mt.getId())) {
+                        // Never launched, nobody waits for it anymore
+                        log.remove(mt.getId());
+                        continue;
+                    }
+                    tasks.put(mt.getId(), mt);
+                    recoveredTasks.add(mt.getId());
+                    // Holds its resources whether it is claimed, pooled or killed later
+                    fairShare.launched(mt.getId(), mt.getAppName(), mt.getTaskRequirements().getCpus(),
+                            mt.getTaskRequirements().getMem());
+                    if (mt.getState() == TaskState.TASK_RUNNING) {
+                        runningTasks.add(mt.getId());
+                    }
+                }
+                LOGGER.info("Recovered " + recoveredTasks.size() + " tasks from the task state log");
+                if (reclaimTimeout > 0 && !recoveredTasks.isEmpty()) {
+                    scheduleReclaim(unit.toMillis(reclaimTimeout));
+                }
             }
-        }
-        driver.killTask(TaskID.newBuilder().setValue(id).build());
-        waitTask(id, TaskState.TASK_KILLED, timeout, unit);
-        tasks.remove(id);
+        });
+    }
+
+    /**
+     * Clears and closes the task state log, when the framework is torn down and there is nothing to fail over to.
+     */
+    public void clearStateLog() {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                if (stateLog != null) {
+                    stateLog.clear();
+                    stateLog.close();
+                    stateLog = null;
+                }
+            }
+        });
+    }
+
+    /**
+     * @return Identifiers of the tasks recovered from the task state log and not requested again yet.
+     */
+    public List<String> getRecoveredTasks() {
+        return events.call(new Callable<List<String>>() {
+
+            @Override
+            public List<String> call() {
+                return new ArrayList<>(recoveredTasks);
+            }
+        });
     }
 
     /**
-     * Checks if there are workers requested. For every worker, checks all offers. If one has enough resources it is
-     * selected to launch a worker. Offers not used are declined. Workers are served in FCFS (First-come, first-served).
+     * Keep idle workers running for the shapes (image, command and resources) requested, so new requests of a shape
+     * take one of them instead of waiting for an offer and a launch. The pool is refilled after every request and a
+     * shape stops being pooled, and its idle workers are killed, when it is not requested for idleTtl. Workers
+     * recovered from the task state log that were idle are pooled again.
      *
-     * @param driver
-     *            Mesos Scheduler driver.
-     * @param offers
-     *            List of offers available from Mesos.
+     * @param size
+     *            Idle workers kept per shape, 0 to keep none.
+     * @param idleTtl
+     *            Time a shape stays pooled after its last request.
+     * @param unit
+     *            Unit of time.
      */
-    @Override
-    public synchronized void resourceOffers(SchedulerDriver driver, List<Offer> offers) {
-        LOGGER.info(String.format("Received %d offers", offers.size()));
-        List<OfferID> unusedOffers = getOfferIdList(offers);
-        if (pendingTasks.isEmpty()) {
-            LOGGER.info("Empty worker requests queue");
-            declineOffers(driver, unusedOffers);
-            driver.suppressOffers();
-            return;
-        }
-        List<MesosOffer> processedOffers = processOffers(offers);
-        for (int n = 0; n < pendingTasks.size(); n++) {
-            String id = pendingTasks.get(n);
-            if (!tasks.containsKey(id)) {
-                LOGGER.warn("No such id exists: " + id);
-                continue;
+    public void useWarmPool(final int size, final long idleTtl, final TimeUnit unit) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                warmPool = new WarmPool(size, unit.toMillis(idleTtl));
+                appPriorities.put(WARM_POOL_APP, Integer.MIN_VALUE);
+                if (!warmPool.isEnabled()) {
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                Iterator<String> it = recoveredTasks.iterator();
+                while (it.hasNext()) {
+                    MesosTask mt = tasks.get(it.next());
+                    if (WARM_POOL_APP.equals(mt.getAppName())) {
+                        it.remove();
+                        warmPool.adopt(mt, now);
+                    }
+                }
+                scheduleWarmPoolExpiration();
             }
-            MesosTask mesosTask = tasks.get(id);
-            MesosOffer requirements = new MesosOffer(mesosTask.getRequirements());
-            int index = bestFit(requirements, processedOffers);
-            if (index == -1) {
-                LOGGER.debug("Request does not fit: " + requirements.toString());
-                continue;
+        });
+    }
+
+    /**
+     * Lets the placement policy choose first among the offers of the agents that already ran the image of a task, so
+     * the image does not have to be pulled, and among all offers only when none of those fits. Optionally, the leftovers
+     * of the offers spent on launches or given back are used to pull the images requested so far on the agents that do
+     * not have them, with a tiny task of the image that exits right away. Offers held for pending workers are not spent
+     * on pulls.
+     *
+     * @param preferWarm
+     *            True to narrow the placement policy to the agents with the image when any of them fits.
+     * @param pull
+     *            True to pull the images ahead of demand.
+     */
+    public void useImageLocality(final boolean preferWarm, final boolean pull) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                preferWarmAgents = preferWarm;
+                pullImages = pull;
             }
-            MesosOffer offer = processedOffers.get(index);
-            TaskInfo task = getTaskInfo(id, mesosTask.getImageName(), mesosTask.getDockerCommand(), requirements, offer);
-            OfferID offerId = offer.getOffer().getId();
-            launchTask(driver, offer.getOffer(), task);
+        });
+    }
 
-            LOGGER.info("Launching task " + id + " in offer " + offerId);
-            unusedOffers.remove(offerId);
-            offer.removeResourcesFrom(requirements);
-            pendingTasks.remove(n);
-        }
-        declineOffers(driver, unusedOffers);
+    /**
+     * Launches the tasks beyond a guaranteed baseline, except gangs, on revocable cpus and mem. Those tasks wait for
+     * revocable resources while the baseline is full. The framework must have the REVOCABLE_RESOURCES capability to get
+     * them in the offers. Tasks preempted from revocable resources are queued again, without counting as a failed
+     * launch. Idle workers of the warm pool always run on regular resources, and only count toward the baseline once
+     * handed out.
+     *
+     * @param baseline
+     *            Number of tasks launched on regular resources before launching the rest on revocable resources.
+     */
+    public void useRevocableResources(final int baseline) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                revocableWorkers = new RevocableWorkers(true, baseline);
+            }
+        });
     }
 
     /**
-     * @param driver
-     * @param offerId
+     * @return Identifiers of the tasks launched on revocable resources, in launch order.
      */
-    @Override
-    public void offerRescinded(SchedulerDriver driver, OfferID offerId) {
-        LOGGER.debug("Offer rescined: " + offerId.getValue());
+    public List<String> getRevocableTasks() {
+        return events.call(new Callable<List<String>>() {
+
+            @Override
+            public List<String> call() {
+                return new ArrayList<>(revocableWorkers.getRevocable());
+            }
+        });
     }
 
     /**
-     * Searches for an IP in task with identifier id. If there are no IPs returns UNDEFINED_IP.
+     * Waits for the running tasks to accept TCP connections on a port before reporting them as running. The ports of
+     * all the tasks are probed from a single thread.
      *
-     * @param id
-     *            Task identifier.
-     * @return Task's IP.
+     * @param port
+     *            Port of the task IP that must accept connections.
+     * @param interval
+     *            Time between connection attempts to a task.
+     * @param unit
      */
-    public synchronized String getTaskIp(String id) {
-        if (tasks.containsKey(id)) {
-            LOGGER.info(String.format("IP %s assigned for task %s", tasks.get(id).getIp(), id));
-            return tasks.get(id).getIp();
-        }
-        return UNDEFINED_IP;
+    public void useTcpReadiness(final int port, final long interval, final TimeUnit unit) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                stopReadinessProbes();
+                readinessPort = port;
+                readinessHealthCheck = null;
+                readinessProber = new ReadinessProber(interval, unit);
+            }
+        });
     }
 
     /**
-     * Task running in Mesos had an status update. Updates status, IP address assigned and releases semaphore if there
-     * was one waiting. If the new state is LOST, ERROR or FAILED it is rescheduled MAX_LAUNCH_RETRIES, then removes it.
+     * Waits for the running tasks to pass a command, run by Mesos in the task container as a health check, before
+     * reporting them as running. Only applies to the tasks launched afterwards.
      *
-     * @param driver
-     * @param status
+     * @param command
+     *            Shell command that succeeds once the task is ready.
+     * @param interval
+     *            Time between runs of the command.
+     * @param unit
      */
-    @Override
-    public synchronized void statusUpdate(SchedulerDriver driver, TaskStatus status) {
-        String id = status.getTaskId().getValue();
-        TaskState state = status.getState();
-        LOGGER.debug(String.format("Status update: task %s is in state %s. Reason: %s Message: %s", id, state,
-                status.getReason().getNumber(), status.getMessage()));
-        if (!tasks.containsKey(id)) {
-            LOGGER.warn("No such id exists: " + id);
-            return;
-        }
-        MesosTask mt = tasks.get(id);
-        getIpAddress(status);
-        mt.setState(state);
-        switch (state) {
-            case TASK_LOST:
-            case TASK_ERROR:
-            case TASK_FAILED:
-                LOGGER.warn(id + " Task failed! adding to pending");
-                mt.incrementRetries();
-                if (mt.getRetries() < MAX_LAUNCH_RETRIES) {
-                    runningTasks.remove(id);
-                    pendingTasks.add(id);
-                    driver.reviveOffers();
-                } else {
-                    LOGGER.warn("Reached max retries for launch task " + id);
-                }
-                break;
-            case TASK_FINISHED:
-            case TASK_KILLED:
-                LOGGER.debug(id + " Task killed successfully.");
-                runningTasks.remove(id);
-                pendingTasks.remove(id);
-                break;
-            case TASK_RUNNING:
-                pendingTasks.remove(id);
-                runningTasks.add(id);
-                break;
-            default:
-                // Nothing to do
+    public void useCommandReadiness(final String command, final long interval, final TimeUnit unit) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                stopReadinessProbes();
+                readinessPort = 0;
+                readinessHealthCheck = HealthCheck.newBuilder().setType(HealthCheck.Type.COMMAND)
+                        .setCommand(CommandInfo.newBuilder().setValue(command)).setDelaySeconds(0)
+                        .setIntervalSeconds(unit.toMillis(interval) / 1000.0).build();
+            }
+        });
+    }
+
+    /**
+     * @return Hit, miss and handout latency counters of the warm pool.
+     */
+    public WarmPool.Stats getWarmPoolStats() {
+        return events.call(new Callable<WarmPool.Stats>() {
+
+            @Override
+            public WarmPool.Stats call() {
+                return warmPool.getStats();
+            }
+        });
+    }
+
+    public void useDockerVolume(final String hostPath, final String containerPath) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                containerTemplates.clear();
+                mountDockerVolume = true;
+                dockerVolumeHostPath = hostPath;
+                dockerVolumeContainerPath = containerPath;
+            }
+        });
+    }
+
+    /**
+     * Sets the priority of the workers requested by an application. Pending workers with higher priority are served
+     * first, workers with the same priority are served FCFS. Default priority is 0.
+     *
+     * @param appName
+     *            Application name.
+     * @param priority
+     *            Priority of the application.
+     */
+    public void setApplicationPriority(final String appName, final int priority) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                appPriorities.put(appName, priority);
+            }
+        });
+    }
+
+    /**
+     * Serves the pending workers of the applications with the same priority by weighted dominant resource fairness,
+     * instead of FCFS: the application holding the lowest share of cpus or mem, relative to its weight, is served first.
+     *
+     * @param enabled
+     *            True to serve the applications by dominant share.
+     */
+    public void useFairShare(final boolean enabled) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                fairShare.setEnabled(enabled);
+            }
+        });
+    }
+
+    /**
+     * Sets the weight of an application for fair sharing. An application with twice the weight of another gets twice
+     * its share. Default weight is 1.
+     *
+     * @param appName
+     *            Application name.
+     * @param weight
+     *            Weight of the application, must be positive.
+     */
+    public void setApplicationWeight(final String appName, final double weight) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                fairShare.setWeight(appName, weight);
+            }
+        });
+    }
+
+    /**
+     * Sets hard caps on the resources held by the workers of an application. Workers that would exceed them stay
+     * pending until other workers of the application end. Only applied when fair sharing is enabled.
+     *
+     * @param appName
+     *            Application name.
+     * @param maxCpus
+     *            Cpus the application can hold, 0 for no cap.
+     * @param maxMem
+     *            Mem the application can hold, 0 for no cap.
+     */
+    public void setApplicationCap(final String appName, final double maxCpus, final double maxMem) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                fairShare.setCap(appName, maxCpus, maxMem);
+            }
+        });
+    }
+
+    /**
+     * @return Resources held and workers launched by each application.
+     */
+    public Map<String, FairShare.Usage> getApplicationUsage() {
+        return events.call(new Callable<Map<String, FairShare.Usage>>() {
+
+            @Override
+            public Map<String, FairShare.Usage> call() {
+                return fairShare.getUsage();
+            }
+        });
+    }
+
+    /**
+     * @param appName
+     *            Aplication name
+     * @return Unique identifier for a worker.
+     */
+    public String generateWorkerId(String appName) {
+        String id;
+        do {
+            // Skip the identifiers of recovered tasks
+            id = appName + "-" + Integer.toString(taskIdGenerator.incrementAndGet()) + "-" + frameworkId.getValue();
+        } while (tasks.containsKey(id));
+        return id;
+    }
+
+    /**
+     * Petition to create a worker on Mesos, uses a docker image specified by imageName and will use resources specified
+     * in list to be created. If a held offer fits the worker it is launched right away, otherwise offers are revived.
+     *
+     * @param driver
+     *            Mesos Scheduler driver.
+     * @param appName
+     *            Application name.
+     * @param imageName
+     *            Docker image name.
+     * @param resources
+     *            List of resource to use.
+     * @return Identifier generated for that worker.
+     */
+    public String requestWorker(SchedulerDriver driver, String appName, String imageName, String dockerCommand, List<Resource> resources) {
+        LOGGER.debug("Requested worker");
+        return requestWorkers(driver, appName, imageName, dockerCommand, resources, 1).get(0);
+    }
+
+    /**
+     * Petition to create several workers on Mesos with the same image and resources. All of them are registered at once
+     * and offers are revived a single time if some of them are not placed on held offers.
+     *
+     * @param driver
+     *            Mesos Scheduler driver.
+     * @param appName
+     *            Application name.
+     * @param imageName
+     *            Docker image name.
+     * @param resources
+     *            List of resource to use.
+     * @param numWorkers
+     *            Number of workers to create.
+     * @return Identifiers generated for the workers.
+     */
+    public List<String> requestWorkers(final SchedulerDriver driver, final String appName, final String imageName,
+            final String dockerCommand, final List<Resource> resources, final int numWorkers) {
+        LOGGER.debug("Requested " + numWorkers + " workers");
+        return events.call(new Callable<List<String>>() {
+
+            @Override
+            public List<String> call() {
+                return addWorkers(driver, appName, imageName, dockerCommand, resources, numWorkers);
+            }
+        });
+    }
+
+    private List<String> addWorkers(SchedulerDriver driver, String appName, String imageName, String dockerCommand,
+            List<Resource> resources, int numWorkers) {
+        List<String> newWorkerIds = new ArrayList<>(numWorkers);
+        List<String> queued = new ArrayList<>(numWorkers);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < numWorkers; i++) {
+            String recoveredId = claimRecoveredTask(appName, imageName, dockerCommand, resources);
+            if (recoveredId != null) {
+                newWorkerIds.add(recoveredId);
+                continue;
+            }
+            if (warmPool.isEnabled()) {
+                String pooledId = claimPooledTask(appName, imageName, dockerCommand, resources, now);
+                if (pooledId != null) {
+                    newWorkerIds.add(pooledId);
+                    continue;
+                }
+            }
+            String newWorkerId = addTask(appName, imageName, dockerCommand, resources);
+            if (warmPool.isEnabled()) {
+                warmPool.handoutRequested(newWorkerId, now);
+            }
+            newWorkerIds.add(newWorkerId);
+            queued.add(newWorkerId);
+        }
+        if (warmPool.isEnabled()) {
+            queued.addAll(refillWarmPool());
+            scheduleWarmPoolExpiration();
+        }
+        launchQueued(driver, queued);
+        return newWorkerIds;
+    }
+
+    private String addTask(String appName, String imageName, String dockerCommand, List<Resource> resources) {
+        String id = generateWorkerId(appName);
+        MesosTask mt = new MesosTask(id, appName, imageName, dockerCommand, TaskState.TASK_STAGING, resources);
+        mt.setRequestTime(System.currentTimeMillis());
+        tasks.put(id, mt);
+        imageLocality.addImage(imageName);
+        enqueue(id);
+        return id;
+    }
+
+    /**
+     * Launches the tasks queued if the held offers fit them. Offers are revived if some of them are still pending.
+     */
+    private void launchQueued(SchedulerDriver driver, List<String> queued) {
+        if (queued.isEmpty()) {
+            return;
+        }
+        if (!offerPool.isEmpty()) {
+            scheduleTasks(driver);
+        }
+        for (String id : queued) {
+            if (pendingTasks.contains(id)) {
+                reviveOffers(driver);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Petition to create a gang of workers on Mesos with the same image and resources. The gang is launched all at once
+     * when the offers of a cycle, plus the ones accumulated during the gang window, fit all of its workers. Otherwise
+     * none of them is launched and the offers tentatively matched are released. Removing a worker of a gang before it
+     * is launched removes the whole gang.
+     *
+     * @param driver
+     *            Mesos Scheduler driver.
+     * @param appName
+     *            Application name.
+     * @param imageName
+     *            Docker image name.
+     * @param resources
+     *            List of resource to use by each worker.
+     * @param numWorkers
+     *            Number of workers in the gang.
+     * @return Identifiers generated for the workers.
+     */
+    public List<String> requestWorkerGroup(final SchedulerDriver driver, final String appName, final String imageName,
+            final String dockerCommand, final List<Resource> resources, final int numWorkers) {
+        LOGGER.debug("Requested gang of " + numWorkers + " workers");
+        return events.call(new Callable<List<String>>() {
+
+            @Override
+            public List<String> call() {
+                return addWorkerGroup(driver, appName, imageName, dockerCommand, resources, numWorkers);
+            }
+        });
+    }
+
+    private List<String> addWorkerGroup(SchedulerDriver driver, String appName, String imageName, String dockerCommand,
+            List<Resource> resources, int numWorkers) {
+        String groupId = generateWorkerId(appName + "-gang");
+        List<String> newWorkerIds = new ArrayList<>(numWorkers);
+        for (int i = 0; i < numWorkers; i++) {
+            String newWorkerId = generateWorkerId(appName);
+            MesosTask mt = new MesosTask(newWorkerId, appName, imageName, dockerCommand, TaskState.TASK_STAGING, resources);
+            mt.setGroupId(groupId);
+            mt.setRequestTime(System.currentTimeMillis());
+            tasks.put(newWorkerId, mt);
+            newWorkerIds.add(newWorkerId);
+        }
+        pendingGroups.put(groupId, newWorkerIds);
+        pendingTasks.add(groupId, getPriority(appName));
+        if (!offerPool.isEmpty()) {
+            scheduleTasks(driver);
+        }
+        if (pendingGroups.containsKey(groupId)) {
+            reviveOffers(driver);
+        }
+        return newWorkerIds;
+    }
+
+    /**
+     * Wait for task with identifier to reach state. If state is not reached, task is removed from pending and running
+     * tasks.
+     *
+     * @param id
+     *            Task identifier to wait for.
+     * @param state
+     * @param timeout
+     * @param unit
+     * @throws FrameworkException
+     *             if waits for timeout units.
+     */
+    public void waitTask(String id, TaskState state, long timeout, TimeUnit unit) throws FrameworkException {
+        LOGGER.debug("Waiting task " + id + " " + timeout + " " + unit.toString() + " to change state to " + state.toString());
+        try {
+            awaitState(id, state, timeout, unit).get();
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof FrameworkException) {
+                throw (FrameworkException) ee.getCause();
+            }
+            throw new FrameworkException(ee);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new FrameworkException("Interrupted waiting task " + id + " to change to " + state.toString(), ie);
+        }
+    }
+
+    /**
+     * Returns a future completed with the task IP when the task with identifier reaches state. Timeouts are applied from
+     * the shared timer thread, so no thread is blocked while waiting. If state is not reached in time, the future
+     * completes with a FrameworkException and the task is removed from pending and running tasks. The future is
+     * completed outside the events loop, so the actions chained to it can call the scheduler, even blocking calls.
+     *
+     * @param id
+     *            Task identifier to wait for.
+     * @param state
+     *            State to wait for.
+     * @param timeout
+     * @param unit
+     * @return Future completed with the task IP.
+     */
+    public CompletableFuture<String> awaitState(final String id, final TaskState state, final long timeout, final TimeUnit unit) {
+        CompletableFuture<String> waiter = events.call(new Callable<CompletableFuture<String>>() {
+
+            @Override
+            public CompletableFuture<String> call() {
+                return addWaiter(id, state, timeout, unit);
+            }
+        });
+        // A wait done right away is handed out as it is, its chained actions run in the caller
+        return waiter.isDone() ? waiter : completeOutsideLoop(waiter);
+    }
+
+    /**
+     * @return Future completed like future from the completions pool. Waiters are completed from the events loop, where
+     *         chained actions that call the scheduler would deadlock.
+     */
+    private <T> CompletableFuture<T> completeOutsideLoop(CompletableFuture<T> future) {
+        final CompletableFuture<T> handedOut = new CompletableFuture<>();
+        future.whenCompleteAsync(new BiConsumer<T, Throwable>() {
+
+            @Override
+            public void accept(T value, Throwable t) {
+                if (t == null) {
+                    handedOut.complete(value);
+                } else {
+                    handedOut.completeExceptionally(t);
+                }
+            }
+        }, completions);
+        return handedOut;
+    }
+
+    private CompletableFuture<String> addWaiter(final String id, final TaskState state, long timeout, TimeUnit unit) {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        MesosTask mt = tasks.get(id);
+        if (mt == null) {
+            future.completeExceptionally(new FrameworkException(ERROR_TASK_ID + id));
+            return future;
+        } else if (mt.hasReached(state)) {
+            // Task already in that state, nothing to do
+            future.complete(mt.getIp());
+            return future;
+        } else if (state == TaskState.TASK_RUNNING && mt.getState() == TaskState.TASK_RUNNING && readinessPort > 0
+                && getProbeAddress(mt) == null) {
+            future.completeExceptionally(unprobeable(id));
+            return future;
+        }
+        mt.addWaiter(state, future);
+        final ScheduledFuture<?> timeoutAction = scheduleEvent(new Runnable() {
+
+            @Override
+            public void run() {
+                waitTimedOut(id, state, future);
+            }
+        }, timeout, unit);
+        future.whenComplete(new BiConsumer<String, Throwable>() {
+
+            @Override
+            public void accept(String ip, Throwable t) {
+                timeoutAction.cancel(false);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Returns a future completed when a quorum of the tasks reach state. It is completed with the IPs of the tasks that
+     * reached the state so far, and fails as soon as the quorum cannot be reached. Every task is waited as in
+     * awaitState, so the ones not reaching the state in time are removed. It is also completed outside the events loop.
+     *
+     * @param ids
+     *            Task identifiers to wait for.
+     * @param state
+     *            State to wait for.
+     * @param quorum
+     *            Number of tasks that must reach the state.
+     * @param timeout
+     * @param unit
+     * @return Future completed with the IP of each task that reached the state.
+     */
+    public CompletableFuture<Map<String, String>> awaitAll(Collection<String> ids, TaskState state, final int quorum, long timeout,
+            TimeUnit unit) {
+        final CompletableFuture<Map<String, String>> all = new CompletableFuture<>();
+        final Map<String, String> ips = new ConcurrentHashMap<>();
+        final AtomicInteger failed = new AtomicInteger();
+        final int maxFailures = ids.size() - quorum;
+        if (quorum <= 0) {
+            all.complete(ips);
+            return all;
+        } else if (maxFailures < 0) {
+            all.completeExceptionally(new FrameworkException("Quorum " + quorum + " greater than number of tasks " + ids.size()));
+            return all;
+        }
+        for (final String id : ids) {
+            awaitState(id, state, timeout, unit).whenComplete(new BiConsumer<String, Throwable>() {
+
+                @Override
+                public void accept(String ip, Throwable t) {
+                    if (t == null) {
+                        ips.put(id, ip);
+                        if (ips.size() >= quorum) {
+                            all.complete(new HashMap<>(ips));
+                        }
+                    } else if (failed.incrementAndGet() > maxFailures) {
+                        all.completeExceptionally(t);
+                    }
+                }
+            });
+        }
+        return all;
+    }
+
+    /**
+     * Wait for the framework to register in Mesos. If it is already registered returns immediately.
+     */
+    public void waitRegistration() {
+        LOGGER.debug("Wait for framework to register");
+        if (frameworkId != null) {
+            releaseRegisterSem();
+        } else {
+            registerSem = new Semaphore(0);
+            acquireSem(registerSem);
+        }
+    }
+
+    /**
+     * Wait for the framework to register in Mesos. If it is already registered returns immediately. Otherwise, acquires
+     * a semaphore until registered or reregistered is called or timeout is reached.
+     *
+     * @param timeout
+     * @param unit
+     * @throws FrameworkException
+     *             if timeout is reached or frameworkId does not exist.
+     */
+    public void waitRegistration(long timeout, TimeUnit unit) throws FrameworkException {
+        LOGGER.debug("Wait for framework to register " + timeout + " " + unit.toString());
+        if (frameworkId != null) {
+            releaseRegisterSem();
+        } else {
+            registerSem = new Semaphore(0);
+            boolean acquired = acquireSem(registerSem, timeout, unit);
+            if (frameworkId == null || !acquired) {
+                throw new FrameworkException("Could not register framework. Check that Mesos master IP is correct.");
+            }
+        }
+    }
+
+    /**
+     * Removes a task. If it was on pending queue it has not a worker running on Mesos and only it is removed from
+     * queue, along with the rest of its gang if it has one. If it is running on Mesos asks the driver to kill it and
+     * waits for status update.
+     *
+     * @param driver
+     *            Mesos Scheduler driver.
+     *
+     * @param id
+     *            Task identifier.
+     * @param timeout
+     *            Number of time units.
+     * @param unit
+     *            Unit of time.
+     * @throws FrameworkException
+     *             if task does not exist.
+     */
+    public void removeTask(SchedulerDriver driver, final String id, long timeout, TimeUnit unit) throws FrameworkException {
+        Boolean pending = events.call(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() {
+                // Task still in pending queue, not launched to run in Mesos
+                if (removePending(id, new FrameworkException("Task " + id + " removed before being launched"))) {
+                    return Boolean.TRUE;
+                } else if (!tasks.containsKey(id)) {
+                    runningTasks.remove(id);
+                    return null;
+                }
+                return Boolean.FALSE;
+            }
+        });
+        if (pending == null) {
+            throw new FrameworkException(ERROR_TASK_ID + id);
+        } else if (pending) {
+            return;
+        }
+        driver.killTask(TaskID.newBuilder().setValue(id).build());
+        waitTask(id, TaskState.TASK_KILLED, timeout, unit);
+        // Forgotten before returning, even if another thread is running the events
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                forgetTask(id);
+            }
+        });
+    }
+
+    /**
+     * Removes several tasks at once. Tasks on the pending queue are removed right away, and all the tasks launched are
+     * killed at the same time and waited with a single timeout, so the removal takes as long as the slowest kill.
+     *
+     * @param driver
+     *            Mesos Scheduler driver.
+     * @param ids
+     *            Task identifiers.
+     * @param timeout
+     *            Number of time units to wait for all the kills.
+     * @param unit
+     *            Unit of time.
+     * @return Outcome of the removal of each task.
+     */
+    public Map<String, RemovalOutcome> removeTasks(SchedulerDriver driver, final Collection<String> ids, final long timeout,
+            final TimeUnit unit) {
+        final Map<String, RemovalOutcome> outcomes = new ConcurrentHashMap<>();
+        final Map<String, CompletableFuture<String>> kills = events.call(new Callable<Map<String, CompletableFuture<String>>>() {
+
+            @Override
+            public Map<String, CompletableFuture<String>> call() {
+                Map<String, CompletableFuture<String>> waits = new LinkedHashMap<>();
+                for (String id : ids) {
+                    if (removePending(id, new FrameworkException("Task " + id + " removed before being launched"))) {
+                        outcomes.put(id, RemovalOutcome.DEQUEUED);
+                    } else if (!tasks.containsKey(id)) {
+                        runningTasks.remove(id);
+                        outcomes.put(id, RemovalOutcome.NOT_FOUND);
+                    } else if (!waits.containsKey(id)) {
+                        waits.put(id, addWaiter(id, TaskState.TASK_KILLED, timeout, unit));
+                    }
+                }
+                return waits;
+            }
+        });
+        if (kills.isEmpty()) {
+            return inOrder(ids, outcomes);
+        }
+        LOGGER.info("Killing " + kills.size() + " tasks");
+        // Completed once the outcome of each task is recorded
+        List<CompletableFuture<String>> recorded = new ArrayList<>(kills.size());
+        for (final String id : kills.keySet()) {
+            recorded.add(kills.get(id).whenComplete(new BiConsumer<String, Throwable>() {
+
+                @Override
+                public void accept(String ip, Throwable t) {
+                    // Tasks not killed in time are forgotten when their wait times out
+                    RemovalOutcome outcome = RemovalOutcome.KILLED;
+                    if (t != null) {
+                        outcome = tasks.containsKey(id) ? RemovalOutcome.ENDED : RemovalOutcome.TIMED_OUT;
+                    }
+                    outcomes.put(id, outcome);
+                }
+            }));
+            driver.killTask(TaskID.newBuilder().setValue(id).build());
+        }
+        try {
+            CompletableFuture.allOf(recorded.toArray(new CompletableFuture<?>[recorded.size()])).get();
+        } catch (ExecutionException ee) {
+            // Outcome of each task already recorded
+        } catch (InterruptedException ie) {
+            LOGGER.warn("Interrupted waiting for " + kills.size() + " tasks to be killed");
+            Thread.currentThread().interrupt();
+        }
+        for (String id : kills.keySet()) {
+            if (!outcomes.containsKey(id)) {
+                outcomes.put(id, RemovalOutcome.TIMED_OUT);
+            }
+        }
+        // Forgotten before returning, even if another thread is running the events
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                for (Map.Entry<String, RemovalOutcome> e : outcomes.entrySet()) {
+                    if (e.getValue() == RemovalOutcome.KILLED || e.getValue() == RemovalOutcome.ENDED) {
+                        forgetTask(e.getKey());
+                    }
+                }
+            }
+        });
+        return inOrder(ids, outcomes);
+    }
+
+    private static Map<String, RemovalOutcome> inOrder(Collection<String> ids, Map<String, RemovalOutcome> outcomes) {
+        Map<String, RemovalOutcome> ordered = new LinkedHashMap<>();
+        for (String id : ids) {
+            ordered.put(id, outcomes.get(id));
+        }
+        return ordered;
+    }
+
+    /**
+     * Checks if there are workers requested. For every worker, the placement policy selects one of the offers with
+     * enough resources to launch it. Workers are served by application priority and FCFS (First-come, first-served)
+     * within the same priority. The workers of a gang are placed all or none. Offers from the same agent are merged,
+     * and all the tasks placed on an agent are launched in a single call. Offers not used are declined, or held for a
+     * while if offer retention is enabled. If offer batching is enabled, offers are only matched when the batch window
+     * ends.
+     *
+     * @param driver
+     *            Mesos Scheduler driver.
+     * @param offers
+     *            List of offers available from Mesos.
+     */
+    @Override
+    public void resourceOffers(final SchedulerDriver driver, final List<Offer> offers) {
+        LOGGER.info(String.format("Received %d offers", offers.size()));
+        long start = System.nanoTime();
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                addOffers(driver, offers);
+            }
+        });
+        metrics.offerCycle(System.nanoTime() - start);
+    }
+
+    private void addOffers(SchedulerDriver driver, List<Offer> offers) {
+        this.callbackDriver = driver;
+        metrics.offersReceived(offers.size());
+        long now = System.currentTimeMillis();
+        for (Offer offer : offers) {
+            if (blacklist.isBlacklisted(offer.getSlaveId().getValue(), now)) {
+                LOGGER.debug("Decline offer of blacklisted agent: " + offer.getSlaveId().getValue());
+                driver.declineOffer(offer.getId());
+                metrics.offersDeclined(1);
+            } else {
+                offerPool.add(offer);
+            }
+        }
+        if (batchWindow > 0 && !pendingTasks.isEmpty()) {
+            batchedOffers += offers.size();
+            if (batchMaxOffers <= 0 || batchedOffers < batchMaxOffers) {
+                if (batchFlush == null) {
+                    batchFlush = scheduleEvent(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            flushBatch();
+                        }
+                    }, batchWindow, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+        }
+        matchOffers(driver);
+    }
+
+    /**
+     * Removes the offer from the held offers.
+     *
+     * @param driver
+     * @param offerId
+     */
+    @Override
+    public void offerRescinded(SchedulerDriver driver, final OfferID offerId) {
+        LOGGER.debug("Offer rescined: " + offerId.getValue());
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                offerPool.rescind(offerId);
+            }
+        });
+    }
+
+    /**
+     * Searches for an IP in task with identifier id. If there are no IPs returns UNDEFINED_IP. Does not wait for the
+     * event loop.
+     *
+     * @param id
+     *            Task identifier.
+     * @return Task's IP.
+     */
+    public String getTaskIp(String id) {
+        MesosTask mt = tasks.get(id);
+        if (mt != null) {
+            String ip = mt.getIp();
+            LOGGER.info(String.format("IP %s assigned for task %s", ip, id));
+            return ip;
+        }
+        return UNDEFINED_IP;
+    }
+
+    /**
+     * Task running in Mesos had an status update. Updates status, IP address assigned and releases semaphore if there
+     * was one waiting. If the new state is LOST, ERROR or FAILED it is rescheduled, after the relaunch backoff, up to
+     * MAX_LAUNCH_RETRIES times. Lost and failed tasks also count as failures of their agent.
+     *
+     * @param driver
+     * @param status
+     */
+    @Override
+    public void statusUpdate(final SchedulerDriver driver, final TaskStatus status) {
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                updateStatus(driver, status);
+            }
+        });
+    }
+
+    private void updateStatus(SchedulerDriver driver, TaskStatus status) {
+        this.callbackDriver = driver;
+        String id = status.getTaskId().getValue();
+        TaskState state = status.getState();
+        LOGGER.debug(String.format("Status update: task %s is in state %s. Reason: %s Message: %s", id, state,
+                status.getReason().getNumber(), status.getMessage()));
+        if (imageLocality.updatePull(id, state)) {
+            return;
+        }
+        if (!tasks.containsKey(id)) {
+            LOGGER.warn("No such id exists: " + id);
+            return;
+        }
+        MesosTask mt = tasks.get(id);
+        getIpAddress(status);
+        // Unless it is being removed, in which case it ends as any other task
+        boolean preempted = isPreemption(status) && revocableWorkers.isRevocable(id) && !mt.hasWaiters(TaskState.TASK_KILLED);
+        if (state != TaskState.TASK_RUNNING) {
+            cancelReadinessProbe(id);
+        } else if (mt.getState() != TaskState.TASK_RUNNING && hasReadinessCheck()) {
+            // Started again, not ready until it passes the check
+            mt.setReady(false);
+        }
+        mt.setState(state);
+        if (recoveredTasks.contains(id) && isFailure(state)) {
+            // Recovered task that nobody requested again, not worth relaunching
+            LOGGER.info("Recovered task " + id + " is in state " + state + ", dropping it");
+            forgetTask(id);
+            return;
+        }
+        if (preempted) {
+            resubmitPreempted(driver, mt);
+            return;
+        }
+        switch (state) {
+            case TASK_LOST:
+            case TASK_ERROR:
+            case TASK_FAILED:
+                LOGGER.warn(id + " Task failed! adding to pending");
+                revocableWorkers.ended(id);
+                fairShare.ended(id);
+                if (state != TaskState.TASK_ERROR) {
+                    // Errors come from the task description, not from the agent
+                    addAgentFailures(driver, status.hasSlaveId() ? status.getSlaveId().getValue() : mt.getAgentId(), 1.0);
+                }
+                mt.incrementRetries();
+                if (mt.getRetries() < MAX_LAUNCH_RETRIES) {
+                    runningTasks.remove(id);
+                    relaunch(driver, id, mt.getRetries());
+                } else {
+                    LOGGER.warn("Reached max retries for launch task " + id);
+                    mt.failWaiters(new FrameworkException("Reached max retries for launch task " + id));
+                    logRemoval(id);
+                    if (warmPool.contains(id)) {
+                        // Not refilled, the next request of the shape does
+                        forgetTask(id);
+                    }
+                }
+                break;
+            case TASK_FINISHED:
+            case TASK_KILLED:
+                LOGGER.debug(id + " Task killed successfully.");
+                runningTasks.remove(id);
+                pendingTasks.remove(id);
+                recoveredTasks.remove(id);
+                revocableWorkers.ended(id);
+                fairShare.ended(id);
+                mt.failWaiters(new FrameworkException("Task " + id + " ended in state " + state));
+                logRemoval(id);
+                if (warmPool.contains(id)) {
+                    boolean retired = warmPool.isRetiring(id);
+                    forgetTask(id);
+                    if (!retired) {
+                        launchQueued(driver, refillWarmPool());
+                    }
+                }
+                break;
+            case TASK_RUNNING:
+                pendingTasks.remove(id);
+                runningTasks.add(id);
+                String agentId = status.hasSlaveId() ? status.getSlaveId().getValue() : mt.getAgentId();
+                if (agentId != null) {
+                    imageLocality.addWarm(mt.getImageName(), agentId);
+                }
+                recordRunning(mt);
+                checkReadiness(mt, status);
+                logState(mt);
+                break;
+            default:
+                logState(mt);
+        }
+    }
+
+    /**
+     * Stops the timer used for delayed actions.
+     */
+    public void stop() {
+        timer.shutdownNow();
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                stopReadinessProbes();
+            }
+        });
+    }
+
+    /**
+     * Framework registered successfully. Stores framework identifier and reconciles the tasks launched, if any.
+     *
+     * @param driver
+     *            Mesos Scheduler driver.
+     * @param frameworkId
+     *            Framework identifier assigned to this.
+     * @param masterInfo
+     *            Information about Mesos master.
+     */
+    @Override
+    public void registered(final SchedulerDriver driver, final FrameworkID frameworkId, MasterInfo masterInfo) {
+        LOGGER.info("Framework registered with ID " + frameworkId.getValue());
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                MesosFrameworkScheduler.this.frameworkId = frameworkId;
+                callbackDriver = driver;
+                if (stateLog != null && !frameworkId.getValue().equals(stateLog.getFrameworkId())) {
+                    stateLog.putFrameworkId(frameworkId.getValue());
+                }
+                reconcileTasks(driver);
+                releaseRegisterSem();
+            }
+        });
+    }
+
+    /**
+     * Framework registered again successfully to Mesos. Reconciles the tasks launched.
+     *
+     * @param driver
+     *            Mesos Scheduler driver.
+     * @param masterInfo
+     *            Information about Mesos master.
+     */
+    @Override
+    public void reregistered(final SchedulerDriver driver, MasterInfo masterInfo) {
+        LOGGER.info("Framework Reregistered");
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                callbackDriver = driver;
+                reconcileTasks(driver);
+                releaseRegisterSem();
+            }
+        });
+    }
+
+    /**
+     * @param driver
+     */
+    @Override
+    public void disconnected(SchedulerDriver driver) {
+        LOGGER.warn("Framework Disconnected!");
+    }
+
+    /**
+     * @param driver
+     * @param executorId
+     * @param slaveId
+     * @param data
+     */
+    @Override
+    public void frameworkMessage(SchedulerDriver driver, ExecutorID executorId, SlaveID slaveId, byte[] data) {
+        LOGGER.debug("Message received");
+    }
+
+    /**
+     * @param driver
+     * @param slaveId
+     */
+    @Override
+    public void slaveLost(final SchedulerDriver driver, final SlaveID slaveId) {
+        LOGGER.warn("Agent lost: " + slaveId.getValue());
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                imageLocality.removeAgent(slaveId.getValue());
+                addAgentFailures(driver, slaveId.getValue(), blacklist.getThreshold());
+            }
+        });
+    }
+
+    /**
+     * @param driver
+     * @param executorId
+     * @param slaveId
+     * @param status
+     */
+    @Override
+    public void executorLost(final SchedulerDriver driver, ExecutorID executorId, final SlaveID slaveId, int status) {
+        LOGGER.warn("Executor " + executorId.getValue() + " lost in agent " + slaveId.getValue() + " with status " + status);
+        events.run(new Runnable() {
+
+            @Override
+            public void run() {
+                addAgentFailures(driver, slaveId.getValue(), 1.0);
+            }
+        });
+    }
+
+    /**
+     * Warn that error ocurred.
+     *
+     * @param driver
+     * @param message
+     */
+    @Override
+    public void error(SchedulerDriver driver, String message) {
+        LOGGER.warn("Error: " + message);
+    }
+
+    /**
+     * Queues event in the event loop after a delay.
+     */
+    private ScheduledFuture<?> scheduleEvent(final Runnable event, long delay, TimeUnit unit) {
+        return timer.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                events.execute(event);
+            }
+        }, delay, unit);
+    }
+
+    private void publishSnapshot() {
+        if (stateLog != null) {
+            // One write per event, whatever the number of records
+            stateLog.flush();
+        }
+        eventCount++;
+        metrics.queueDepths(pendingTasks.size(), runningTasks.size());
+        snapshot = new SchedulerSnapshot(eventCount, tasks.size(), pendingTasks.size(), runningTasks.size(), offerPool.size(),
+                reviveController.getReviveRequests(), reviveController.getRevives(), reviveController.getSuppresses());
+    }
+
+    private void waitTimedOut(String id, TaskState state, CompletableFuture<String> future) {
+        if (future.isDone()) {
+            return;
+        }
+        FrameworkException timeout = new FrameworkException("Timeout waiting task " + id + " to change to " + state.toString());
+        if (!removePending(id, timeout)) {
+            MesosTask mt = forgetTask(id);
+            runningTasks.remove(id);
+            if (mt != null) {
+                mt.failWaiters(timeout);
+            }
+        }
+        future.completeExceptionally(timeout);
+    }
+
+    private void flushBatch() {
+        batchFlush = null;
+        if (callbackDriver != null) {
+            matchOffers(callbackDriver);
+        }
+    }
+
+    private void matchOffers(SchedulerDriver driver) {
+        if (batchFlush != null) {
+            batchFlush.cancel(false);
+            batchFlush = null;
+        }
+        if (batchedOffers > 0) {
+            LOGGER.debug(String.format("Matching batch of %d offers", batchedOffers));
+            batchedOffers = 0;
+        }
+        if (pendingTasks.isEmpty()) {
+            LOGGER.info("Empty worker requests queue");
+            suppressOffers(driver);
+        } else {
+            reviveController.queueNotEmpty();
+            scheduleTasks(driver);
+        }
+        releaseOffers(driver);
+    }
+
+    /**
+     * Queues a failed task again, right away or after its backoff.
+     */
+    private void relaunch(SchedulerDriver driver, final String id, int retries) {
+        metrics.taskRelaunched();
+        long backoff = getRelaunchBackoff(retries);
+        if (backoff <= 0) {
+            enqueue(id);
+            reviveOffers(driver);
+            return;
+        }
+        LOGGER.info("Relaunching task " + id + " in " + backoff + " ms");
+        backingOff.add(id);
+        scheduleEvent(new Runnable() {
+
+            @Override
+            public void run() {
+                endBackoff(id);
+            }
+        }, backoff, TimeUnit.MILLISECONDS);
+    }
+
+    private long getRelaunchBackoff(int retries) {
+        if (relaunchBackoff <= 0) {
+            return 0;
+        }
+        long backoff = relaunchBackoff;
+        for (int i = 1; i < retries && backoff < maxRelaunchBackoff; i++) {
+            backoff *= 2;
+        }
+        backoff = Math.min(backoff, Math.max(relaunchBackoff, maxRelaunchBackoff));
+        // Equal jitter, between half and all of the backoff
+        return backoff - (long) (backoffJitter.nextDouble() * backoff / 2);
+    }
+
+    private void endBackoff(String id) {
+        // Removed while waiting otherwise
+        if (backingOff.remove(id) && tasks.containsKey(id)) {
+            enqueue(id);
+            if (callbackDriver != null) {
+                reviveOffers(callbackDriver);
+            }
+        }
+    }
+
+    /**
+     * Revives offers, or coalesces the revive with the next one if offers were revived during the revive interval.
+     */
+    private void reviveOffers(SchedulerDriver driver) {
+        this.callbackDriver = driver;
+        long now = System.currentTimeMillis();
+        if (reviveController.requestRevive(now)) {
+            driver.reviveOffers();
+            return;
+        }
+        if (reviveTimer == null) {
+            reviveTimer = scheduleEvent(new Runnable() {
+
+                @Override
+                public void run() {
+                    endReviveInterval();
+                }
+            }, Math.max(0, reviveController.getTrailingReviveTime() - now), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void endReviveInterval() {
+        reviveTimer = null;
+        if (reviveController.endReviveInterval(System.currentTimeMillis(), pendingTasks.isEmpty())) {
+            LOGGER.debug("Reviving offers coalesced during the revive interval");
+            callbackDriver.reviveOffers();
+        }
+    }
+
+    /**
+     * Suppresses offers if no worker has been waiting for the suppress delay. Otherwise checks again when it ends.
+     */
+    private void suppressOffers(SchedulerDriver driver) {
+        long now = System.currentTimeMillis();
+        if (reviveController.queueEmpty(now)) {
+            driver.suppressOffers();
+            return;
+        }
+        long suppressTime = reviveController.getSuppressTime();
+        if (suppressTime >= 0 && suppressTimer == null) {
+            suppressTimer = scheduleEvent(new Runnable() {
+
+                @Override
+                public void run() {
+                    suppressTimer = null;
+                    if (pendingTasks.isEmpty() && callbackDriver != null) {
+                        suppressOffers(callbackDriver);
+                    }
+                }
+            }, Math.max(0, suppressTime - now), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Adds failures to the score of an agent. If the agent becomes blacklisted, its held offers are declined.
+     */
+    private void addAgentFailures(SchedulerDriver driver, String agentId, double failures) {
+        if (agentId == null || !blacklist.isEnabled()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        double score = blacklist.addFailures(agentId, failures, now);
+        if (blacklist.isBlacklisted(agentId, now)) {
+            LOGGER.warn(String.format("Blacklisting agent %s with failure score %.2f", agentId, score));
+            MesosOffer held = offerPool.removeAgent(agentId);
+            if (held != null) {
+                declineOffers(driver, Collections.singletonList(held));
+            }
+        }
+    }
+
+    /**
+     * Records the time from the request of a task until it is running, and the time from its launch split by whether the
+     * agent had the image.
+     */
+    private void recordRunning(MesosTask mt) {
+        long now = System.currentTimeMillis();
+        if (mt.getRequestTime() > 0) {
+            metrics.taskRunning(now - mt.getRequestTime());
+            mt.setRequestTime(0);
+        }
+        if (mt.getLaunchTime() > 0) {
+            metrics.taskStarted(now - mt.getLaunchTime(), mt.isWarmLaunch());
+            mt.setLaunch(0, false);
+        }
+        warmPool.handoutRunning(mt.getId(), now);
+    }
+
+    private boolean hasReadinessCheck() {
+        return readinessPort > 0 || readinessHealthCheck != null;
+    }
+
+    /**
+     * Marks a running task as ready if it passed the readiness check, or starts probing it.
+     */
+    private void checkReadiness(MesosTask mt, TaskStatus status) {
+        if (mt.isReady()) {
+            return;
+        }
+        if (readinessHealthCheck != null) {
+            if (status.hasHealthy() && status.getHealthy()) {
+                LOGGER.info("Task " + mt.getId() + " passed its readiness check");
+                mt.setReady(true);
+            }
+        } else if (readinessPort > 0) {
+            startReadinessProbe(mt);
+        } else {
+            // Check removed meanwhile
+            mt.setReady(true);
+        }
+    }
+
+    private void startReadinessProbe(MesosTask mt) {
+        final String id = mt.getId();
+        if (readinessProbes.containsKey(id)) {
+            return;
+        }
+        InetSocketAddress address = getProbeAddress(mt);
+        if (address == null) {
+            // Never reported as ready, waiting for it would only time out
+            LOGGER.warn("Task " + id + " has no reachable address to probe port " + readinessPort);
+            mt.failWaiters(TaskState.TASK_RUNNING, unprobeable(id));
+            return;
+        }
+        LOGGER.debug("Probing port " + readinessPort + " of task " + id + " at " + address);
+        final CompletableFuture<Void> probe = readinessProber.probe(address.getHostString(), address.getPort());
+        readinessProbes.put(id, probe);
+        probe.thenRun(new Runnable() {
+
+            @Override
+            public void run() {
+                events.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        readinessProbed(id, probe);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return Address where the readiness port of a task accepts connections: the task IP, or its agent when the port is
+     *         mapped to the agent or the task uses the network of the agent. Null if there is none.
+     */
+    private InetSocketAddress getProbeAddress(MesosTask mt) {
+        if (mt.getIp() != null) {
+            return InetSocketAddress.createUnresolved(mt.getIp(), readinessPort);
+        } else if (mt.getAgentHostname() == null) {
+            return null;
+        }
+        int hostPort = mt.getHostPort(readinessPort);
+        if (hostPort > 0) {
+            return InetSocketAddress.createUnresolved(mt.getAgentHostname(), hostPort);
+        } else if (!mapDockerPorts()) {
+            return InetSocketAddress.createUnresolved(mt.getAgentHostname(), readinessPort);
+        }
+        return null;
+    }
+
+    private static FrameworkException unprobeable(String id) {
+        return new FrameworkException("Task " + id + " is running but its readiness port cannot be probed: it has no IP and "
+                + "the port is not mapped to its agent");
+    }
+
+    private void readinessProbed(String id, CompletableFuture<Void> probe) {
+        if (readinessProbes.get(id) != probe) {
+            // Cancelled meanwhile
+            return;
+        }
+        readinessProbes.remove(id);
+        MesosTask mt = tasks.get(id);
+        if (mt != null && mt.getState() == TaskState.TASK_RUNNING) {
+            LOGGER.info("Task " + id + " accepts connections on port " + readinessPort);
+            mt.setReady(true);
+        }
+    }
+
+    private void cancelReadinessProbe(String id) {
+        CompletableFuture<Void> probe = readinessProbes.remove(id);
+        if (probe != null) {
+            probe.cancel(false);
+        }
+    }
+
+    private void stopReadinessProbes() {
+        for (CompletableFuture<Void> probe : readinessProbes.values()) {
+            probe.cancel(false);
+        }
+        readinessProbes.clear();
+        if (readinessProber != null) {
+            readinessProber.close();
+            readinessProber = null;
         }
     }
 
+    private static boolean isPreemption(TaskStatus status) {
+        return status.getReason() == TaskStatus.Reason.REASON_CONTAINER_PREEMPTED
+                && (isFailure(status.getState()) || status.getState() == TaskState.TASK_KILLED);
+    }
+
+    /**
+     * Queues again a task preempted from revocable resources. Neither the task nor its agent failed, so it does not
+     * count as a retry nor as an agent failure, and it is queued right away.
+     */
+    private void resubmitPreempted(SchedulerDriver driver, MesosTask mt) {
+        String id = mt.getId();
+        LOGGER.warn("Task " + id + " on revocable resources was preempted, adding to pending");
+        revocableWorkers.preempted(id);
+        fairShare.ended(id);
+        metrics.taskPreempted();
+        runningTasks.remove(id);
+        logState(mt);
+        enqueue(id);
+        reviveOffers(driver);
+    }
+
+    private static boolean isFailure(TaskState state) {
+        return state == TaskState.TASK_LOST || state == TaskState.TASK_ERROR || state == TaskState.TASK_FAILED;
+    }
+
     /**
-     * Framework registered successfully. Stores framework identifier.
+     * Takes a recovered task still alive with the same application, image, command and resources.
      *
-     * @param driver
-     *            Mesos Scheduler driver.
-     * @param frameworkId
-     *            Framework identifier assigned to this.
-     * @param masterInfo
-     *            Information about Mesos master.
+     * @return Identifier of the task, null if there is none.
      */
-    @Override
-    public synchronized void registered(SchedulerDriver driver, FrameworkID frameworkId, MasterInfo masterInfo) {
-        LOGGER.info("Framework registered with ID " + frameworkId.getValue());
-        this.frameworkId = frameworkId;
-        releaseRegisterSem();
+    private String claimRecoveredTask(String appName, String imageName, String dockerCommand, List<Resource> resources) {
+        Iterator<String> it = recoveredTasks.iterator();
+        while (it.hasNext()) {
+            MesosTask mt = tasks.get(it.next());
+            if (mt.getAppName().equals(appName) && mt.getImageName().equals(imageName) && mt.getDockerCommand().equals(dockerCommand)
+                    && mt.getRequirements().equals(resources)) {
+                it.remove();
+                LOGGER.info("Reusing recovered task " + mt.getId() + " in state " + mt.getState());
+                return mt.getId();
+            }
+        }
+        return null;
+    }
+
+    private void scheduleReclaim(final long timeout) {
+        scheduleEvent(new Runnable() {
+
+            @Override
+            public void run() {
+                reclaimRecoveredTasks(timeout);
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Kills the recovered tasks that nobody requested again.
+     */
+    private void reclaimRecoveredTasks(long timeout) {
+        if (recoveredTasks.isEmpty()) {
+            return;
+        }
+        if (callbackDriver == null) {
+            // Not registered yet, give the requests another timeout
+            scheduleReclaim(timeout);
+            return;
+        }
+        LOGGER.info("Killing " + recoveredTasks.size() + " recovered tasks not requested again");
+        for (String id : new ArrayList<>(recoveredTasks)) {
+            runningTasks.remove(id);
+            forgetTask(id);
+            callbackDriver.killTask(TaskID.newBuilder().setValue(id).build());
+        }
     }
 
     /**
-     * Framework registered again successfully to Mesos.
+     * Takes an idle worker of the warm pool and hands it out to the application.
      *
-     * @param driver
-     *            Mesos Scheduler driver.
-     * @param masterInfo
-     *            Information about Mesos master.
+     * @return Identifier of the worker, null if there is none of that shape.
      */
-    @Override
-    public synchronized void reregistered(SchedulerDriver driver, MasterInfo masterInfo) {
-        LOGGER.info("Framework Reregistered");
-        releaseRegisterSem();
+    private String claimPooledTask(String appName, String imageName, String dockerCommand, List<Resource> resources, long now) {
+        String id = warmPool.claim(imageName, dockerCommand, resources, tasks, now);
+        if (id == null) {
+            return null;
+        }
+        MesosTask mt = tasks.get(id);
+        LOGGER.info("Handing out pooled task " + id + " in state " + mt.getState());
+        mt.setAppName(appName);
+        fairShare.transfer(id, appName);
+        if (mt.getAgentId() != null && !pendingTasks.contains(id) && !backingOff.contains(id)) {
+            // Launched on regular resources while idle
+            revocableWorkers.launched(id, false);
+        }
+        logState(mt);
+        warmPool.handoutRequested(id, now);
+        if (mt.hasReached(TaskState.TASK_RUNNING)) {
+            warmPool.handoutRunning(id, now);
+            metrics.taskRunning(0);
+        } else {
+            mt.setRequestTime(now);
+        }
+        return id;
     }
 
     /**
-     * @param driver
+     * Queues new idle workers for the shapes of the warm pool that are not full.
+     *
+     * @return Identifiers of the workers queued.
      */
-    @Override
-    public void disconnected(SchedulerDriver driver) {
-        LOGGER.warn("Framework Disconnected!");
+    private List<String> refillWarmPool() {
+        List<String> queued = new ArrayList<>();
+        for (Map.Entry<WarmPool.Shape, Integer> e : warmPool.getMissing().entrySet()) {
+            WarmPool.Shape shape = e.getKey();
+            for (int i = 0; i < e.getValue(); i++) {
+                String id = addTask(WARM_POOL_APP, shape.getImageName(), shape.getDockerCommand(), shape.getResources());
+                // Not requested by anyone until it is handed out
+                tasks.get(id).setRequestTime(0);
+                warmPool.add(shape, id);
+                queued.add(id);
+            }
+        }
+        if (!queued.isEmpty()) {
+            LOGGER.debug("Refilling warm pool with " + queued.size() + " tasks");
+        }
+        return queued;
+    }
+
+    private void scheduleWarmPoolExpiration() {
+        long next = warmPool.getNextExpiration();
+        if (warmPoolExpiration != null || next < 0) {
+            return;
+        }
+        warmPoolExpiration = scheduleEvent(new Runnable() {
+
+            @Override
+            public void run() {
+                expireWarmPool();
+            }
+        }, Math.max(0, next - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
     }
 
     /**
-     * @param driver
-     * @param executorId
-     * @param slaveId
-     * @param data
+     * Kills the idle workers of the shapes not requested for the idle TTL.
      */
-    @Override
-    public void frameworkMessage(SchedulerDriver driver, ExecutorID executorId, SlaveID slaveId, byte[] data) {
-        LOGGER.debug("Message received");
+    private void expireWarmPool() {
+        warmPoolExpiration = null;
+        List<String> expired = warmPool.expire(System.currentTimeMillis());
+        if (!expired.isEmpty()) {
+            LOGGER.info("Retiring " + expired.size() + " idle tasks of the warm pool");
+        }
+        FrameworkException cause = new FrameworkException("Idle task retired from the warm pool");
+        for (String id : expired) {
+            if (!removePending(id, cause) && callbackDriver != null) {
+                callbackDriver.killTask(TaskID.newBuilder().setValue(id).build());
+            }
+        }
+        scheduleWarmPoolExpiration();
     }
 
     /**
-     * @param driver
-     * @param slaveId
+     * Asks Mesos for the state of the tasks launched. Mesos answers with status updates.
      */
-    @Override
-    public void slaveLost(SchedulerDriver driver, SlaveID slaveId) {
-        // Nothing to do, need to Override
+    private void reconcileTasks(SchedulerDriver driver) {
+        List<TaskStatus> statuses = new ArrayList<>();
+        for (MesosTask mt : tasks.values()) {
+            if (mt.getAgentId() != null && !pendingTasks.contains(mt.getId()) && !backingOff.contains(mt.getId())) {
+                statuses.add(TaskStatus.newBuilder().setTaskId(TaskID.newBuilder().setValue(mt.getId())).setState(mt.getState())
+                        .setSlaveId(SlaveID.newBuilder().setValue(mt.getAgentId())).build());
+            }
+        }
+        if (!statuses.isEmpty()) {
+            LOGGER.info("Reconciling " + statuses.size() + " tasks");
+            driver.reconcileTasks(statuses);
+        }
     }
 
     /**
-     * @param driver
-     * @param executorId
-     * @param slaveId
-     * @param status
+     * Removes a task from the tasks known and from the task state log.
+     *
+     * @return Task removed, null if it did not exist.
      */
-    @Override
-    public void executorLost(SchedulerDriver driver, ExecutorID executorId, SlaveID slaveId, int status) {
-        // Nothing to do, need to Override
+    private MesosTask forgetTask(String id) {
+        cancelReadinessProbe(id);
+        revocableWorkers.ended(id);
+        fairShare.ended(id);
+        recoveredTasks.remove(id);
+        warmPool.remove(id);
+        logRemoval(id);
+        return tasks.remove(id);
+    }
+
+    private void logState(MesosTask mt) {
+        if (stateLog != null) {
+            stateLog.put(mt);
+        }
+    }
+
+    private void logRemoval(String id) {
+        if (stateLog != null) {
+            stateLog.remove(id);
+        }
+    }
+
+    private void enqueue(String id) {
+        pendingTasks.add(id, getPriority(tasks.get(id).getAppName()));
+    }
+
+    private int getPriority(String appName) {
+        Integer priority = appPriorities.get(appName);
+        return priority == null ? 0 : priority;
     }
 
     /**
-     * Warn that error ocurred.
+     * Removes a task not launched yet, or waiting to be relaunched. A gang cannot be launched without all its tasks, so
+     * the rest of its tasks are removed too.
      *
-     * @param driver
-     * @param message
+     * @param id
+     *            Task identifier.
+     * @param cause
+     *            Exception to fail the waiters of the task with.
+     * @return True if the task was waiting to be launched.
      */
-    @Override
-    public void error(SchedulerDriver driver, String message) {
-        LOGGER.warn("Error: " + message);
+    private boolean removePending(String id, FrameworkException cause) {
+        if (pendingTasks.remove(id) || backingOff.remove(id)) {
+            MesosTask mt = forgetTask(id);
+            if (mt != null) {
+                mt.failWaiters(cause);
+            }
+            return true;
+        }
+        MesosTask mt = tasks.get(id);
+        if (mt == null || mt.getGroupId() == null) {
+            return false;
+        }
+        String groupId = mt.getGroupId();
+        pendingTasks.remove(groupId);
+        List<String> group = pendingGroups.remove(groupId);
+        if (group == null) {
+            return false;
+        }
+        LOGGER.info("Removing gang " + groupId + " with " + group.size() + " tasks");
+        FrameworkException gangCause = new FrameworkException("Gang " + groupId + " removed with task " + id);
+        for (String member : group) {
+            MesosTask memberTask = forgetTask(member);
+            if (memberTask != null) {
+                memberTask.failWaiters(member.equals(id) ? cause : gangCause);
+            }
+        }
+        return true;
     }
 
     private void releaseRegisterSem() {
@@ -513,9 +2276,7 @@ public class MesosFrameworkScheduler implements Scheduler {
     private boolean findIpAddress(NetworkInfo ni, TaskStatus ts) {
         for (NetworkInfo.IPAddress ip : ni.getIpAddressesList()) {
             LOGGER.debug("Found IP address in network: " + ip.getIpAddress());
-            synchronized (tasks) {
-                tasks.get(ts.getTaskId().getValue()).setIp(ip.getIpAddress());
-            }
+            tasks.get(ts.getTaskId().getValue()).setIp(ip.getIpAddress());
             return true;
         }
         return false;
@@ -531,38 +2292,344 @@ public class MesosFrameworkScheduler implements Scheduler {
         }
     }
 
-    private List<MesosOffer> processOffers(List<Offer> offers) {
-        List<MesosOffer> mesosOffers = new LinkedList<>();
-        for (Offer offer : offers) {
-            mesosOffers.add(new MesosOffer(offer));
+    private void scheduleTasks(SchedulerDriver driver) {
+        Map<MesosOffer, List<TaskInfo>> tasksPerAgent = new LinkedHashMap<>();
+        if (fairShare.isEnabled()) {
+            placeFairly(batchWindow > 0 ? getBatchOrder() : pendingTasks, tasksPerAgent);
+        } else if (batchWindow > 0) {
+            for (String id : getBatchOrder()) {
+                if (placePending(id, tasksPerAgent)) {
+                    pendingTasks.remove(id);
+                }
+            }
+        } else {
+            Iterator<String> pendingIt = pendingTasks.iterator();
+            while (pendingIt.hasNext()) {
+                if (placePending(pendingIt.next(), tasksPerAgent)) {
+                    pendingIt.remove();
+                }
+            }
+        }
+        // Launching tasks spends all the offers of the agent, so their leftovers can pull images too
+        for (Map.Entry<MesosOffer, List<TaskInfo>> e : tasksPerAgent.entrySet()) {
+            offerPool.remove(e.getKey());
+            metrics.offersUsed(e.getKey().getOfferIds().size());
+            if (pullImages) {
+                e.getValue().addAll(getImagePulls(e.getKey(), e.getValue()));
+            }
+            launchTasks(driver, e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Places the pending tasks and gangs by weighted dominant resource fairness. Each time, the application with the
+     * highest priority and then the lowest dominant share gets its next task placed, in the given order. The shares are
+     * relative to the resources held by all the applications plus the resources offered. Tasks that would exceed the
+     * caps of their application stay pending.
+     */
+    private void placeFairly(Iterable<String> order, Map<MesosOffer, List<TaskInfo>> tasksPerAgent) {
+        // Pending tasks of each application, in order of their first task
+        Map<String, LinkedList<String>> perApp = new LinkedHashMap<>();
+        List<String> removed = new ArrayList<>();
+        for (String id : order) {
+            List<String> group = pendingGroups.get(id);
+            MesosTask mt = tasks.get(group == null ? id : group.get(0));
+            if (mt == null) {
+                // Removed from the queue first
+                removed.add(id);
+                continue;
+            }
+            LinkedList<String> appTasks = perApp.get(mt.getAppName());
+            if (appTasks == null) {
+                appTasks = new LinkedList<>();
+                perApp.put(mt.getAppName(), appTasks);
+            }
+            appTasks.add(id);
+        }
+        for (String id : removed) {
+            if (placePending(id, tasksPerAgent)) {
+                pendingTasks.remove(id);
+            }
+        }
+        double totalCpus = fairShare.getAllocatedCpus();
+        double totalMem = fairShare.getAllocatedMem();
+        for (MesosOffer offer : offerPool.getOffers()) {
+            totalCpus += offer.getCpus();
+            totalMem += offer.getMem();
+        }
+        while (!perApp.isEmpty()) {
+            String appName = null;
+            double appShare = 0.0;
+            for (String candidate : perApp.keySet()) {
+                double share = fairShare.getDominantShare(candidate, totalCpus, totalMem);
+                int cmp = appName == null ? -1 : Integer.compare(getPriority(appName), getPriority(candidate));
+                if (cmp < 0 || cmp == 0 && share < appShare) {
+                    appName = candidate;
+                    appShare = share;
+                }
+            }
+            LinkedList<String> appTasks = perApp.get(appName);
+            String id = appTasks.removeFirst();
+            if (appTasks.isEmpty()) {
+                perApp.remove(appName);
+            }
+            // A gang holds the resources of all its tasks
+            List<String> group = pendingGroups.get(id);
+            double cpus = 0.0;
+            double mem = 0.0;
+            for (String taskId : group == null ? Collections.singletonList(id) : group) {
+                TaskRequirements requirements = tasks.get(taskId).getTaskRequirements();
+                cpus += requirements.getCpus();
+                mem += requirements.getMem();
+            }
+            if (!fairShare.fitsCap(appName, cpus, mem)) {
+                LOGGER.debug("Task " + id + " exceeds the caps of application " + appName);
+            } else if (placePending(id, tasksPerAgent)) {
+                pendingTasks.remove(id);
+            }
+        }
+    }
+
+    /**
+     * @return Pending tasks and gangs by decreasing priority, then by decreasing size (cpus, mem and disk), then FCFS.
+     */
+    private List<String> getBatchOrder() {
+        final Map<String, Integer> priorities = new HashMap<>();
+        final Map<String, TaskRequirements> sizes = new HashMap<>();
+        List<String> order = new ArrayList<>(pendingTasks.size());
+        for (String id : pendingTasks) {
+            List<String> group = pendingGroups.get(id);
+            MesosTask mt = tasks.get(group == null ? id : group.get(0));
+            if (mt == null) {
+                // Removed from the queue first
+                priorities.put(id, Integer.MAX_VALUE);
+                sizes.put(id, EMPTY_REQUIREMENTS);
+            } else {
+                priorities.put(id, getPriority(mt.getAppName()));
+                sizes.put(id, mt.getTaskRequirements());
+            }
+            order.add(id);
+        }
+        // Stable sort, tasks of the same priority and size keep FCFS order
+        Collections.sort(order, new Comparator<String>() {
+
+            @Override
+            public int compare(String id1, String id2) {
+                TaskRequirements s1 = sizes.get(id1);
+                TaskRequirements s2 = sizes.get(id2);
+                int cmp = Integer.compare(priorities.get(id2), priorities.get(id1));
+                if (cmp == 0) {
+                    cmp = Double.compare(s2.getCpus(), s1.getCpus());
+                }
+                if (cmp == 0) {
+                    cmp = Double.compare(s2.getMem(), s1.getMem());
+                }
+                if (cmp == 0) {
+                    cmp = Double.compare(s2.getDisk(), s1.getDisk());
+                }
+                return cmp;
+            }
+        });
+        return order;
+    }
+
+    /**
+     * Places a pending task or gang on the offer pool.
+     *
+     * @return True if it must leave the pending queue, because it was placed or it no longer exists.
+     */
+    private boolean placePending(String id, Map<MesosOffer, List<TaskInfo>> tasksPerAgent) {
+        List<String> group = pendingGroups.get(id);
+        if (group != null) {
+            if (placeGroup(id, group, tasksPerAgent)) {
+                pendingGroups.remove(id);
+                return true;
+            }
+            return false;
+        }
+        if (!tasks.containsKey(id)) {
+            LOGGER.warn("No such id exists: " + id);
+            return true;
+        }
+        MesosTask mesosTask = tasks.get(id);
+        TaskRequirements requirements = mesosTask.getTaskRequirements();
+        // Idle pooled workers are not preemptible and do not count toward the baseline until handed out
+        boolean pooled = WARM_POOL_APP.equals(mesosTask.getAppName());
+        boolean burst = !pooled && revocableWorkers.isBurst();
+        MesosOffer offer = selectOffer(mesosTask, burst);
+        if (offer == null) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Request does not fit" + (burst ? " in revocable resources: " : ": ") + requirements.toString());
+            }
+            return false;
+        }
+        TaskInfo task = getTaskInfo(id, mesosTask.getImageName(), mesosTask.getDockerCommand(), requirements, offer, burst);
+        if (!tasksPerAgent.containsKey(offer)) {
+            tasksPerAgent.put(offer, new ArrayList<TaskInfo>());
+        }
+        tasksPerAgent.get(offer).add(task);
+
+        if (burst) {
+            LOGGER.info("Placing task " + id + " in agent " + offer.getSlaveId().getValue() + " on revocable resources");
+            offerPool.consumeRevocable(offer, requirements);
+        } else {
+            LOGGER.info("Placing task " + id + " in agent " + offer.getSlaveId().getValue());
+            offerPool.consume(offer, requirements);
+        }
+        if (!pooled) {
+            revocableWorkers.launched(id, burst);
+        }
+        fairShare.launched(id, mesosTask.getAppName(), requirements.getCpus(), requirements.getMem());
+        setLaunch(mesosTask, offer, task);
+        return true;
+    }
+
+    /**
+     * @return Offer chosen by the placement policy for a task, on regular or on revocable resources. If enabled, the
+     *         policy first chooses among the offers of the agents with its image. Null if none fits.
+     */
+    private MesosOffer selectOffer(MesosTask mesosTask, boolean revocable) {
+        TaskRequirements requirements = mesosTask.getTaskRequirements();
+        if (preferWarmAgents) {
+            MesosOfferPool warmOffers = imageLocality.getWarmOffers(mesosTask.getImageName(), offerPool);
+            if (!warmOffers.isEmpty()) {
+                MesosOffer offer = selectOffer(requirements, warmOffers, revocable);
+                if (offer != null) {
+                    return offer;
+                }
+            }
+        }
+        return selectOffer(requirements, offerPool, revocable);
+    }
+
+    private MesosOffer selectOffer(TaskRequirements requirements, MesosOfferPool pool, boolean revocable) {
+        return revocable ? placementPolicy.selectRevocable(requirements, pool) : placementPolicy.select(requirements, pool);
+    }
+
+    private void setLaunch(MesosTask mesosTask, MesosOffer offer, TaskInfo task) {
+        String agentId = offer.getSlaveId().getValue();
+        mesosTask.setAgentId(agentId);
+        mesosTask.setAgentHostname(offer.getOffer().getHostname());
+        Map<Integer, Integer> hostPorts = new HashMap<>();
+        for (DockerInfo.PortMapping mapping : task.getContainer().getDocker().getPortMappingsList()) {
+            hostPorts.put(mapping.getContainerPort(), mapping.getHostPort());
+        }
+        mesosTask.setHostPorts(hostPorts);
+        mesosTask.setLaunch(System.currentTimeMillis(), imageLocality.isWarm(mesosTask.getImageName(), agentId));
+    }
+
+    /**
+     * Places all the tasks of a gang or none of them. Placements are done tentatively on the pool and undone as soon as
+     * a task does not fit.
+     *
+     * @return True if the gang was placed, its tasks are added to tasksPerAgent.
+     */
+    private boolean placeGroup(String groupId, List<String> group, Map<MesosOffer, List<TaskInfo>> tasksPerAgent) {
+        List<MesosOffer> placedOffers = new ArrayList<>(group.size());
+        List<TaskRequirements> placedRequirements = new ArrayList<>(group.size());
+        List<TaskInfo> placedTasks = new ArrayList<>(group.size());
+        for (String id : group) {
+            MesosTask mesosTask = tasks.get(id);
+            TaskRequirements requirements = mesosTask.getTaskRequirements();
+            MesosOffer offer = selectOffer(mesosTask, false);
+            if (offer == null) {
+                LOGGER.debug(String.format("Gang %s does not fit, placed %d of %d tasks", groupId, placedTasks.size(), group.size()));
+                for (int i = placedTasks.size() - 1; i >= 0; i--) {
+                    offerPool.release(placedOffers.get(i), placedRequirements.get(i), getPorts(placedTasks.get(i)));
+                }
+                return false;
+            }
+            placedTasks.add(getTaskInfo(id, mesosTask.getImageName(), mesosTask.getDockerCommand(), requirements, offer, false));
+            offerPool.consume(offer, requirements);
+            placedOffers.add(offer);
+            placedRequirements.add(requirements);
+        }
+        LOGGER.info("Placing gang " + groupId + " of " + group.size() + " tasks");
+        for (int i = 0; i < placedTasks.size(); i++) {
+            MesosOffer offer = placedOffers.get(i);
+            if (!tasksPerAgent.containsKey(offer)) {
+                tasksPerAgent.put(offer, new ArrayList<TaskInfo>());
+            }
+            tasksPerAgent.get(offer).add(placedTasks.get(i));
+            // Once launched, each task is retried on its own
+            MesosTask mesosTask = tasks.get(group.get(i));
+            mesosTask.setGroupId(null);
+            revocableWorkers.launched(mesosTask.getId(), false);
+            fairShare.launched(mesosTask.getId(), mesosTask.getAppName(), placedRequirements.get(i).getCpus(),
+                    placedRequirements.get(i).getMem());
+            setLaunch(mesosTask, offer, placedTasks.get(i));
         }
-        return mesosOffers;
+        return true;
     }
 
-    private int bestFit(MesosOffer requirements, List<MesosOffer> offers) {
-        int index = -1;
-        int openPorts = requirements.getNumPorts();
-        double bestScore = Double.MAX_VALUE;
-        for (int i = 0; i < offers.size(); i++) {
-            MesosOffer mo = offers.get(i);
-            double score = requirements.distance(mo);
-            if (mo.hasEnoughPorts(openPorts) && score >= 0.0 && score < bestScore) {
-                index = i;
-                bestScore = score;
+    /**
+     * Builds the pulls of the images requested so far that the agent of an offer out of the pool does not have, as many
+     * as fit in what is left of the offer. The images of the tasks launched along are not pulled.
+     */
+    private List<TaskInfo> getImagePulls(MesosOffer offer, List<TaskInfo> launching) {
+        String agentId = offer.getSlaveId().getValue();
+        Set<String> launchingImages = new HashSet<>();
+        for (TaskInfo task : launching) {
+            launchingImages.add(task.getContainer().getDocker().getImage());
+        }
+        List<TaskInfo> pulls = new ArrayList<>();
+        for (String imageName : imageLocality.getImagesToPull(agentId)) {
+            if (!IMAGE_PULL_REQUIREMENTS.fitsIn(offer)) {
+                break;
+            }
+            if (launchingImages.contains(imageName)) {
+                continue;
             }
+            String id = generateWorkerId(IMAGE_PULL_APP);
+            // Pulls exit right away, there is nothing to check
+            pulls.add(getTaskInfo(id, imageName, IMAGE_PULL_COMMAND, IMAGE_PULL_REQUIREMENTS, offer, false).toBuilder()
+                    .clearHealthCheck().build());
+            offer.removeResourcesFrom(IMAGE_PULL_REQUIREMENTS);
+            imageLocality.startPull(id, imageName, agentId);
+        }
+        if (!pulls.isEmpty()) {
+            LOGGER.info(String.format("Pulling %d images in agent %s", pulls.size(), agentId));
         }
-        return index;
+        return pulls;
     }
 
-    private LinkedList<Integer> rangeToIntegers(List<Value.Range> ports) {
-        LinkedList<Integer> portsList = new LinkedList<>();
-        for (int i = 0; i < ports.size(); i++) {
-            Value.Range range = ports.get(i);
-            for (int n = (int) range.getBegin(); n <= range.getEnd(); n++) {
-                portsList.add(n);
+    private List<Value.Range> getPorts(TaskInfo task) {
+        for (Resource r : task.getResourcesList()) {
+            if (PORTS_RESOURCE.equals(r.getName())) {
+                return r.getRanges().getRangeList();
             }
         }
-        return portsList;
+        return Collections.emptyList();
+    }
+
+    private long getHoldTime() {
+        // Offers are accumulated while a gang is waiting, so it can be placed on the offers of several cycles
+        return pendingGroups.isEmpty() ? offerHoldTime : Math.max(offerHoldTime, gangWindow);
+    }
+
+    private void releaseOffers(SchedulerDriver driver) {
+        long holdTime = getHoldTime();
+        if (holdTime <= 0) {
+            returnOffers(driver, offerPool.removeAll());
+            return;
+        }
+        returnOffers(driver, offerPool.removeReceivedBefore(System.currentTimeMillis() - holdTime));
+        if (!offerPool.isEmpty()) {
+            LOGGER.debug(String.format("Holding offers from %d agents for %d ms", offerPool.size(), holdTime));
+            scheduleEvent(new Runnable() {
+
+                @Override
+                public void run() {
+                    expireOffers();
+                }
+            }, holdTime, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void expireOffers() {
+        if (callbackDriver != null) {
+            returnOffers(callbackDriver, offerPool.removeReceivedBefore(System.currentTimeMillis() - getHoldTime()));
+        }
     }
 
     private DockerInfo.PortMapping buildPortMapping(int container, int host, String protocol) {
@@ -570,33 +2637,82 @@ public class MesosFrameworkScheduler implements Scheduler {
     }
 
     private void addPortsToDocker(DockerInfo.Builder builder, List<Value.Range> containerPorts, List<Value.Range> hostPorts) {
-        LinkedList<Integer> portsToAssign = this.rangeToIntegers(containerPorts);
-        boolean assignedPorts = false;
-        for (int i = 0; i < hostPorts.size() && !assignedPorts; ++i) {
-            Value.Range r = hostPorts.get(i);
-            for (int host = (int) r.getBegin(); host <= r.getEnd() && !assignedPorts; host++) {
-                Integer containerPort = portsToAssign.pollFirst();
-                if (containerPort == null) {
-                    // There is no more ports to assign
-                    assignedPorts = true;
-                } else {
-                    builder.addPortMappings(buildPortMapping((int) containerPort, host, "tcp"));
+        // Walk both lists of ranges at the same time, one mapping per container port
+        int hostIndex = 0;
+        long host = hostPorts.isEmpty() ? 0 : hostPorts.get(0).getBegin();
+        for (Value.Range containerRange : containerPorts) {
+            for (long container = containerRange.getBegin(); container <= containerRange.getEnd(); container++) {
+                while (hostIndex < hostPorts.size() && host > hostPorts.get(hostIndex).getEnd()) {
+                    hostIndex++;
+                    host = hostIndex < hostPorts.size() ? hostPorts.get(hostIndex).getBegin() : host;
                 }
+                if (hostIndex >= hostPorts.size()) {
+                    // There is no more host ports to assign
+                    return;
+                }
+                builder.addPortMappings(buildPortMapping((int) container, (int) host, "tcp"));
+                host++;
+            }
+        }
+    }
+
+    private boolean mapDockerPorts() {
+        return containerizer == ContainerInfo.Type.DOCKER
+                && (dockerNetworkType == DockerInfo.Network.BRIDGE || dockerNetworkType == DockerInfo.Network.USER);
+    }
+
+    private ContainerInfo getContainerTemplate(String imageName) {
+        ContainerInfo template = containerTemplates.get(imageName);
+        if (template == null) {
+            ContainerInfo.Builder containerInfoBuilder = ContainerInfo.newBuilder();
+            if (useCustomDockerNetwork) {
+                containerInfoBuilder.addNetworkInfos(NetworkInfo.newBuilder().setName(dockerNetworkName).build());
+            }
+            if (mountDockerVolume) {
+                containerInfoBuilder.addVolumes(Volume.newBuilder().setMode(Volume.Mode.RW).setHostPath(dockerVolumeHostPath)
+                        .setContainerPath(dockerVolumeContainerPath).build());
             }
+            containerInfoBuilder.setType(containerizer);
+            containerInfoBuilder.setDocker(DockerInfo.newBuilder().setImage(imageName).setNetwork(dockerNetworkType));
+            template = containerInfoBuilder.build();
+            containerTemplates.put(imageName, template);
+        }
+        return template;
+    }
+
+    private CommandInfo getCommandTemplate(String dockerCommand) {
+        CommandInfo template = commandTemplates.get(dockerCommand);
+        if (template == null) {
+            template = CommandInfo.newBuilder().setValue(dockerCommand).build();
+            commandTemplates.put(dockerCommand, template);
         }
+        return template;
     }
 
-    private DockerInfo getDockerInfo(String imageName, List<Value.Range> containerPorts, List<Value.Range> hostPorts) {
-        DockerInfo.Builder dockerInfoBuilder = DockerInfo.newBuilder().setImage(imageName).setNetwork(dockerNetworkType);
-        // addPortsToDocker(dockerInfoBuilder, containerPorts, hostPorts);
-        return dockerInfoBuilder.build();
+    private ContainerInfo getContainerInfo(String imageName, List<Value.Range> containerPorts, List<Value.Range> hostPorts) {
+        ContainerInfo template = getContainerTemplate(imageName);
+        if (hostPorts.isEmpty()) {
+            return template;
+        }
+        // Port mappings are the only part that changes from task to task
+        DockerInfo.Builder dockerInfoBuilder = template.getDocker().toBuilder();
+        addPortsToDocker(dockerInfoBuilder, containerPorts, hostPorts);
+        return template.toBuilder().setDocker(dockerInfoBuilder).build();
     }
 
-    private void launchTask(SchedulerDriver driver, Offer offer, TaskInfo task) {
-        List<TaskInfo> tasksToSubmit = new ArrayList<>();
-        List<OfferID> offerIds = new ArrayList<>();
-        tasksToSubmit.add(task);
-        offerIds.add(offer.getId());
+    private void launchTasks(SchedulerDriver driver, MesosOffer offer, List<TaskInfo> tasksToSubmit) {
+        List<OfferID> offerIds = offer.getOfferIds();
+        LOGGER.info(String.format("Launching %d tasks in agent %s using %d offers", tasksToSubmit.size(), offer.getSlaveId().getValue(),
+                offerIds.size()));
+        if (stateLog != null) {
+            for (TaskInfo task : tasksToSubmit) {
+                MesosTask mesosTask = tasks.get(task.getTaskId().getValue());
+                // Image pulls are not tracked
+                if (mesosTask != null) {
+                    logState(mesosTask);
+                }
+            }
+        }
         driver.launchTasks(offerIds, tasksToSubmit);
     }
 
@@ -608,62 +2724,95 @@ public class MesosFrameworkScheduler implements Scheduler {
         return rangesBuilder.build();
     }
 
-    private Value.Scalar buildScalar(double value) {
-        return Value.Scalar.newBuilder().setValue(value).build();
-    }
-
-    private Resource buildResource(String name, double value) {
-        return Resource.newBuilder().setName(name).setType(Value.Type.SCALAR).setScalar(buildScalar(value)).build();
-    }
-
     private Resource buildResource(String name, List<Value.Range> ranges) {
         return Resource.newBuilder().setName(name).setType(Value.Type.RANGES).setRanges(buildRanges(ranges)).build();
     }
 
-    private TaskInfo getTaskInfo(String idTask, String imageName, String dockerCommand, MesosOffer reqs, MesosOffer offer) {
-        int openPorts = reqs.getNumPorts();
-
+    private TaskInfo getTaskInfo(String idTask, String imageName, String dockerCommand, TaskRequirements reqs, MesosOffer offer,
+            boolean revocable) {
         TaskID taskId = TaskID.newBuilder().setValue(idTask).build();
 
-        List<Value.Range> pickedPorts = offer.getMinPorts(openPorts);
-        CommandInfo commandInfoDocker = CommandInfo.newBuilder().setValue(dockerCommand).build();
+        // Host ports are only taken from the offer when they are mapped to the container ports
+        List<Value.Range> pickedPorts = Collections.emptyList();
+        if (mapDockerPorts() && reqs.getNumPorts() > 0) {
+            pickedPorts = offer.getMinPorts(reqs.getNumPorts());
+        }
 
-        // Container info
-        ContainerInfo.Builder containerInfoBuilder = ContainerInfo.newBuilder();
-        if (useCustomDockerNetwork) {
-            containerInfoBuilder.addNetworkInfos(NetworkInfo.newBuilder().setName(dockerNetworkName).build());
+        // Create task to run from the prototypes of its image and command
+        TaskInfo.Builder taskInfoBuilder = TaskInfo.newBuilder().setName("Task " + idTask).setTaskId(taskId)
+                .setSlaveId(offer.getOffer().getSlaveId())
+                .addAllResources(revocable ? reqs.getRevocableResources() : reqs.getScalarResources())
+                .setContainer(getContainerInfo(imageName, reqs.getContainerPorts(), pickedPorts))
+                .setCommand(getCommandTemplate(dockerCommand));
+        if (readinessHealthCheck != null) {
+            taskInfoBuilder.setHealthCheck(readinessHealthCheck);
         }
-        if (mountDockerVolume) {
-            containerInfoBuilder.addVolumes(Volume.newBuilder().setMode(Volume.Mode.RW).setHostPath(dockerVolumeHostPath)
-                    .setContainerPath(dockerVolumeContainerPath).build());
+        if (!pickedPorts.isEmpty()) {
+            taskInfoBuilder.addResources(buildResource(PORTS_RESOURCE, pickedPorts));
         }
-        containerInfoBuilder.setType(containerizer);
-        containerInfoBuilder.setDocker(getDockerInfo(imageName, reqs.getPortsList(), pickedPorts));
-
-        // Create task to run
-        TaskInfo taskInfo = TaskInfo.newBuilder().setName("Task " + idTask).setTaskId(taskId).setSlaveId(offer.getOffer().getSlaveId())
-                .addResources(buildResource(CPUS_RESOURCE, reqs.getCpus())).addResources(buildResource(MEM_RESOURCE, reqs.getMem()))
-                .addResources(buildResource(DISK_RESOURCE, reqs.getDisk()))
-                // .addResources(buildResource(PORTS_RESOURCE, pickedPorts))
-                .setContainer(containerInfoBuilder).setCommand(commandInfoDocker).build();
+        TaskInfo taskInfo = taskInfoBuilder.build();
 
-        LOGGER.debug("Launching task " + taskId.getValue());
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Launching task " + idTask);
+        }
         return taskInfo;
     }
 
-    private void declineOffers(SchedulerDriver driver, List<OfferID> offerIds) {
-        for (OfferID id : offerIds) {
-            LOGGER.debug("Decline offer: " + id.getValue());
-            driver.declineOffer(id);
+    /**
+     * Gives back offers taken out of the pool. Offers that can pull images are spent on the pulls instead of being
+     * declined, launching them gives back the rest of the resources anyway. Offers still held are never spent on pulls.
+     */
+    private void returnOffers(SchedulerDriver driver, List<MesosOffer> offers) {
+        if (!pullImages) {
+            declineOffers(driver, offers);
+            return;
+        }
+        List<MesosOffer> toDecline = new ArrayList<>(offers.size());
+        for (MesosOffer offer : offers) {
+            List<TaskInfo> pulls = getImagePulls(offer, Collections.<TaskInfo> emptyList());
+            if (pulls.isEmpty()) {
+                toDecline.add(offer);
+            } else {
+                metrics.offersUsed(offer.getOfferIds().size());
+                driver.launchTasks(offer.getOfferIds(), pulls);
+            }
+        }
+        declineOffers(driver, toDecline);
+    }
+
+    private void declineOffers(SchedulerDriver driver, List<MesosOffer> offers) {
+        // Only ask Mesos to hold back the resources when no worker needs them
+        boolean refuse = pendingTasks.isEmpty();
+        for (MesosOffer offer : offers) {
+            metrics.offersDeclined(offer.getOfferIds().size());
+            for (OfferID id : offer.getOfferIds()) {
+                LOGGER.debug("Decline offer: " + id.getValue());
+                if (refuse) {
+                    driver.declineOffer(id, refuseFilters);
+                } else {
+                    driver.declineOffer(id);
+                }
+            }
         }
     }
 
-    private List<OfferID> getOfferIdList(List<Offer> offers) {
-        List<OfferID> ids = new LinkedList<>();
-        for (Offer o : offers) {
-            ids.add(o.getId());
+
+    /**
+     * Prototypes of the images or commands used last, evicting the least recently used beyond MAX_TEMPLATES.
+     */
+    private static final class TemplateCache<V> extends LinkedHashMap<String, V> {
+
+        private static final long serialVersionUID = 1L;
+
+
+        private TemplateCache() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            return size() > MAX_TEMPLATES;
         }
-        return ids;
     }
 
 }
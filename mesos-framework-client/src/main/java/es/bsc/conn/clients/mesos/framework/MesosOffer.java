@@ -3,9 +3,12 @@ package es.bsc.conn.clients.mesos.framework;
 import org.apache.mesos.Protos.Value.Range;
 import org.apache.mesos.Protos.Resource;
 import org.apache.mesos.Protos.Offer;
+import org.apache.mesos.Protos.OfferID;
+import org.apache.mesos.Protos.SlaveID;
 
 import java.util.List;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Implementation of a Mesos Offer
@@ -23,12 +26,25 @@ public class MesosOffer {
     private static final String DISK_RESOURCE = "disk";
     private static final String PORTS_RESOURCE = "ports";
 
+    private static final AtomicLong SEQUENCE_GENERATOR = new AtomicLong();
+
     // Resources
     private double cpus;
     private double mem;
     private double disk;
-    private List<Range> ports;
+    // Revocable cpus and mem, that Mesos can take back at any time, counted apart from the rest
+    private double revocableCpus;
+    private double revocableMem;
+    private PortAllocator ports;
     private Offer offer;
+    // Offers from the same agent merged into this one
+    private List<Offer> offers;
+
+    // Tasks placed on this offer
+    private int placedTasks = 0;
+
+    // Tie-breaker for offers with identical resources
+    private final long sequence = SEQUENCE_GENERATOR.incrementAndGet();
 
     /**
      * Empty Mesos offer.
@@ -37,8 +53,9 @@ public class MesosOffer {
         cpus = 0.0;
         mem = 0.0;
         disk = 0.0;
-        ports = new LinkedList<>();
+        ports = new PortAllocator();
         offer = null;
+        offers = new LinkedList<>();
     }
 
     /**
@@ -49,6 +66,7 @@ public class MesosOffer {
     public MesosOffer(Offer offer) {
         this();
         this.offer = offer;
+        this.offers.add(offer);
         countResources(offer.getResourcesList());
     }
 
@@ -83,6 +101,20 @@ public class MesosOffer {
         return disk;
     }
 
+    /**
+     * @return MesosOffer number of revocable CPUs.
+     */
+    public double getRevocableCpus() {
+        return revocableCpus;
+    }
+
+    /**
+     * @return MesosOffer revocable memory capacity in MBytes.
+     */
+    public double getRevocableMem() {
+        return revocableMem;
+    }
+
     /**
      * @return Offer if exists, otherwise null.
      */
@@ -90,6 +122,73 @@ public class MesosOffer {
         return offer;
     }
 
+    /**
+     * @return Agent of the offer if exists, otherwise null.
+     */
+    public SlaveID getSlaveId() {
+        return offer == null ? null : offer.getSlaveId();
+    }
+
+    /**
+     * @return All the offers merged in this MesosOffer.
+     */
+    public List<Offer> getOffers() {
+        return offers;
+    }
+
+    /**
+     * @return Identifiers of all the offers merged in this MesosOffer.
+     */
+    public List<OfferID> getOfferIds() {
+        List<OfferID> ids = new LinkedList<>();
+        for (Offer o : offers) {
+            ids.add(o.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Adds the resources of another offer from the same agent. Mesos accepts launching tasks on several offers at
+     * once as long as they belong to the same agent.
+     *
+     * @param  other Offer from the same agent.
+     */
+    public void merge(Offer other) {
+        if (offer == null) {
+            offer = other;
+        }
+        offers.add(other);
+        countResources(other.getResourcesList());
+    }
+
+    /**
+     * @return Number of tasks placed on this offer.
+     */
+    public int getPlacedTasks() {
+        return placedTasks;
+    }
+
+    /**
+     * Counts a new task placed on this offer.
+     */
+    void addPlacedTask() {
+        placedTasks++;
+    }
+
+    /**
+     * Discounts a task no longer placed on this offer.
+     */
+    void removePlacedTask() {
+        placedTasks = Math.max(placedTasks - 1, 0);
+    }
+
+    /**
+     * @return Creation order of this MesosOffer.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
     /**
      * @param  r
      * @return Range to String.
@@ -104,7 +203,7 @@ public class MesosOffer {
     @Override
     public String toString() {
         StringBuilder bld = new StringBuilder();
-        for (Range r : ports) {
+        for (Range r : ports.toRanges()) {
             bld.append(rangeToString(r));
         }
         String portsList = "[" + bld.toString() + "]";
@@ -117,18 +216,14 @@ public class MesosOffer {
      * @return Number of ports.
      */
     public int getNumPorts() {
-        int portsCount = 0;
-        for (Range portsRange: this.ports) {
-            portsCount += (int) (portsRange.getEnd() - portsRange.getBegin()) + 1;
-        }
-        return portsCount;
+        return (int) ports.getFreeCount();
     }
 
     /**
      * @return List of ports ranges.
      */
     public List<Range> getPortsList() {
-        return ports;
+        return ports.toRanges();
     }
 
     /**
@@ -136,34 +231,18 @@ public class MesosOffer {
      * @return          True if offer has minPorts or more.
      */
     public boolean hasEnoughPorts(int minPorts) {
-        return this.getNumPorts() >= minPorts;
+        return ports.hasEnough(minPorts);
     }
 
     /**
-     * Gets minPorts from offer ports.
+     * Gets minPorts from offer ports. Picked ports are no longer available in the offer.
      *
      * @param  minPorts Number of ports to pick.
-     * @return          List of ports Ranges that have a total of minPorts.
+     * @return          List of ports Ranges that have a total of minPorts, empty if there are not enough ports.
      */
     public List<Range> getMinPorts(int minPorts) {
-        List<Range> minPortsList = new LinkedList<>();
-        int addedPorts = 0;
-        for (int i = 0; i < this.ports.size(); i++) {
-            Range r = this.ports.get(i);
-            int range = (int) (r.getEnd() - r.getBegin());
-            if (addedPorts + range < minPorts) {
-                addedPorts += range;
-                minPortsList.add(r);
-                this.ports.remove(i);
-            } else {
-                long end = r.getBegin() + (minPorts - addedPorts) - 1;
-                minPortsList.add(buildRange(r.getBegin(), end));
-                this.ports.remove(i);
-                this.ports.add(i, buildRange(end + 1, r.getEnd()));
-                break;
-            }
-        }
-        return minPortsList;
+        List<Range> minPortsList = ports.allocate(minPorts);
+        return minPortsList == null ? new LinkedList<Range>() : minPortsList;
     }
 
     /**
@@ -174,9 +253,59 @@ public class MesosOffer {
      * @return       Distance between the two offers.
      */
     public double distance(MesosOffer offer) {
-        double cpusScore = ((offer.cpus - this.cpus) / this.cpus) * CPUS_WEIGHT;
-        double memScore = ((offer.mem - this.mem) / this.mem) * MEM_WEIGHT;
-        double diskScore = ((offer.disk - this.disk) / this.disk) * DISK_WEIGHT;
+        return distance(cpus, mem, disk, offer);
+    }
+
+    /**
+     * @param  offer Offer to compare to.
+     * @return       True if offer has enough cpus, mem, disk and ports for self.
+     */
+    public boolean fitsIn(MesosOffer offer) {
+        return offer.cpus >= this.cpus && offer.mem >= this.mem && offer.disk >= this.disk && offer.hasEnoughPorts(getNumPorts());
+    }
+
+    /**
+     * Cpus term of the distance between self and offer. It is a lower bound of distance when offer has enough
+     * resources.
+     *
+     * @param  offer Offer to compare to.
+     * @return       Weighted relative distance in cpus.
+     */
+    public double cpusDistance(MesosOffer offer) {
+        return cpusDistance(cpus, offer);
+    }
+
+    /**
+     * Distance between the resources requested and offer, as in distance(MesosOffer).
+     *
+     * @param  cpus  Cpus requested.
+     * @param  mem   Memory requested.
+     * @param  disk  Disk requested.
+     * @param  offer Offer to compare to.
+     * @return       Distance, -1 if offer has not enough resources.
+     */
+    static double distance(double cpus, double mem, double disk, MesosOffer offer) {
+        return distance(cpus, mem, disk, offer.cpus, offer.mem, offer.disk);
+    }
+
+    /**
+     * Distance between the resources requested and the revocable cpus and mem plus the disk of offer, as in
+     * distance(MesosOffer).
+     *
+     * @param  cpus  Cpus requested.
+     * @param  mem   Memory requested.
+     * @param  disk  Disk requested.
+     * @param  offer Offer to compare to.
+     * @return       Distance, -1 if offer has not enough resources.
+     */
+    static double revocableDistance(double cpus, double mem, double disk, MesosOffer offer) {
+        return distance(cpus, mem, disk, offer.revocableCpus, offer.revocableMem, offer.disk);
+    }
+
+    private static double distance(double cpus, double mem, double disk, double offerCpus, double offerMem, double offerDisk) {
+        double cpusScore = ((offerCpus - cpus) / cpus) * CPUS_WEIGHT;
+        double memScore = ((offerMem - mem) / mem) * MEM_WEIGHT;
+        double diskScore = ((offerDisk - disk) / disk) * DISK_WEIGHT;
 
         if (cpusScore < 0.0 || memScore < 0.0 || diskScore < 0.0) {
             return -1.0;
@@ -184,6 +313,28 @@ public class MesosOffer {
         return cpusScore + memScore + diskScore;
     }
 
+    /**
+     * Cpus term of distance(cpus, mem, disk, offer).
+     *
+     * @param  cpus  Cpus requested.
+     * @param  offer Offer to compare to.
+     * @return       Weighted relative distance in cpus.
+     */
+    static double cpusDistance(double cpus, MesosOffer offer) {
+        return ((offer.cpus - cpus) / cpus) * CPUS_WEIGHT;
+    }
+
+    /**
+     * Cpus term of revocableDistance(cpus, mem, disk, offer).
+     *
+     * @param  cpus  Cpus requested.
+     * @param  offer Offer to compare to.
+     * @return       Weighted relative distance in revocable cpus.
+     */
+    static double revocableCpusDistance(double cpus, MesosOffer offer) {
+        return ((offer.revocableCpus - cpus) / cpus) * CPUS_WEIGHT;
+    }
+
     /**
      * Removes resources from offer to MesosOffer.
      *
@@ -195,9 +346,109 @@ public class MesosOffer {
         this.disk = Math.max(this.disk - offer.getDisk(), 0.0);
     }
 
+    /**
+     * Removes the resources requested by a task from MesosOffer.
+     *
+     * @param requirements Resources requested.
+     */
+    public void removeResourcesFrom(TaskRequirements requirements) {
+        this.cpus = Math.max(this.cpus - requirements.getCpus(), 0.0);
+        this.mem = Math.max(this.mem - requirements.getMem(), 0.0);
+        this.disk = Math.max(this.disk - requirements.getDisk(), 0.0);
+    }
+
+    /**
+     * Removes the cpus and mem requested by a task from the revocable resources of MesosOffer, and the disk from its
+     * regular disk.
+     *
+     * @param requirements Resources requested.
+     */
+    public void removeRevocableResourcesFrom(TaskRequirements requirements) {
+        this.revocableCpus = Math.max(this.revocableCpus - requirements.getCpus(), 0.0);
+        this.revocableMem = Math.max(this.revocableMem - requirements.getMem(), 0.0);
+        this.disk = Math.max(this.disk - requirements.getDisk(), 0.0);
+    }
+
+    /**
+     * Gives back to MesosOffer the resources requested by a task. Inverse of removeResourcesFrom.
+     *
+     * @param requirements Resources to add.
+     */
+    public void addResourcesFrom(TaskRequirements requirements) {
+        this.cpus += requirements.getCpus();
+        this.mem += requirements.getMem();
+        this.disk += requirements.getDisk();
+    }
+
+    /**
+     * Gives back to MesosOffer the resources of offer. Inverse of removeResourcesFrom.
+     *
+     * @param offer Offer with the resources to add.
+     */
+    public void addResourcesFrom(MesosOffer offer) {
+        this.cpus += offer.getCpus();
+        this.mem += offer.getMem();
+        this.disk += offer.getDisk();
+    }
+
+    /**
+     * Gives back ports picked with getMinPorts.
+     *
+     * @param ranges Ports to give back.
+     */
+    public void freePorts(List<Range> ranges) {
+        ports.free(ranges);
+    }
+
+    /**
+     * Builds an empty MesosOffer with the given cpus. It sorts before any offer with the same or more cpus.
+     *
+     * @param  cpus Number of CPUs.
+     * @return      MesosOffer to use as search key.
+     */
+    static MesosOffer lowerBound(double cpus) {
+        MesosOffer mo = new MesosOffer();
+        mo.cpus = cpus;
+        mo.mem = -1.0;
+        mo.disk = -1.0;
+        return mo;
+    }
+
+    /**
+     * Builds an empty MesosOffer with the given revocable cpus. It sorts before any offer with the same or more revocable
+     * cpus in the pool revocable order.
+     *
+     * @param  revocableCpus Number of revocable CPUs.
+     * @return               MesosOffer to use as search key.
+     */
+    static MesosOffer revocableLowerBound(double revocableCpus) {
+        MesosOffer mo = new MesosOffer();
+        mo.revocableCpus = revocableCpus;
+        mo.revocableMem = -1.0;
+        mo.disk = -1.0;
+        return mo;
+    }
+
+    /**
+     * Builds an empty MesosOffer with the given number of tasks placed. It sorts before any offer with the same or more
+     * tasks placed in the pool load order.
+     *
+     * @param  placedTasks Number of tasks placed.
+     * @return             MesosOffer to use as search key.
+     */
+    static MesosOffer loadBound(int placedTasks) {
+        MesosOffer mo = new MesosOffer();
+        mo.placedTasks = placedTasks;
+        mo.cpus = Double.POSITIVE_INFINITY;
+        return mo;
+    }
 
     private void countResources(List<Resource> resources) {
         for (Resource resource : resources) {
+            if (resource.hasRevocable()) {
+                countRevocable(resource);
+                continue;
+            }
             switch (resource.getName()) {
                 case CPUS_RESOURCE:
                     cpus += resource.getScalar().getValue();
@@ -209,8 +460,8 @@ public class MesosOffer {
                     disk += resource.getScalar().getValue();
                     break;
                 case PORTS_RESOURCE:
-                    // This does not check if ranges are in conflict (ej: 2-5 and 3-7). Assuming correctness
-                    ports.addAll(resource.getRanges().getRangeList());
+                    // Ranges in conflict (ej: 2-5 and 3-7) are merged
+                    ports.free(resource.getRanges().getRangeList());
                     break;
                 default:
                     // Nothing
@@ -218,7 +469,16 @@ public class MesosOffer {
         }
     }
 
-    private Range buildRange(long begin, long end) {
-        return Range.newBuilder().setBegin(begin).setEnd(end).build();
+    private void countRevocable(Resource resource) {
+        switch (resource.getName()) {
+            case CPUS_RESOURCE:
+                revocableCpus += resource.getScalar().getValue();
+                break;
+            case MEM_RESOURCE:
+                revocableMem += resource.getScalar().getValue();
+                break;
+            default:
+                // Only cpus and mem are oversubscribed
+        }
     }
 }
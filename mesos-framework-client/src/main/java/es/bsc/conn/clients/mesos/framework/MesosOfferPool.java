@@ -0,0 +1,430 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.mesos.Protos.Offer;
+import org.apache.mesos.Protos.OfferID;
+import org.apache.mesos.Protos.Value.Range;
+
+
+/**
+ * Index of Mesos offers ordered by the resources scored in MesosOffer.distance (cpus, then mem, then disk). Best-fit
+ * lookups only visit offers with enough cpus and stop as soon as the cpus term alone cannot improve the best score.
+ * Revocable cpus and mem are indexed apart in the same way.
+ * Offers from the same agent are merged into a single MesosOffer, and the pool remembers when each agent was first
+ * offered so unused offers can be held for a bounded time.
+ *
+ */
+public class MesosOfferPool {
+
+    private static final Comparator<MesosOffer> RESOURCES_ORDER = new Comparator<MesosOffer>() {
+
+        @Override
+        public int compare(MesosOffer o1, MesosOffer o2) {
+            int cmp = Double.compare(o1.getCpus(), o2.getCpus());
+            if (cmp == 0) {
+                cmp = Double.compare(o1.getMem(), o2.getMem());
+            }
+            if (cmp == 0) {
+                cmp = Double.compare(o1.getDisk(), o2.getDisk());
+            }
+            if (cmp == 0) {
+                cmp = Long.compare(o1.getSequence(), o2.getSequence());
+            }
+            return cmp;
+        }
+    };
+
+    private static final Comparator<MesosOffer> REVOCABLE_ORDER = new Comparator<MesosOffer>() {
+
+        @Override
+        public int compare(MesosOffer o1, MesosOffer o2) {
+            int cmp = Double.compare(o1.getRevocableCpus(), o2.getRevocableCpus());
+            if (cmp == 0) {
+                cmp = Double.compare(o1.getRevocableMem(), o2.getRevocableMem());
+            }
+            if (cmp == 0) {
+                cmp = Double.compare(o1.getDisk(), o2.getDisk());
+            }
+            if (cmp == 0) {
+                cmp = Long.compare(o1.getSequence(), o2.getSequence());
+            }
+            return cmp;
+        }
+    };
+
+    // Offers by number of tasks placed on them, then by decreasing resources
+    private static final Comparator<MesosOffer> LOAD_ORDER = new Comparator<MesosOffer>() {
+
+        @Override
+        public int compare(MesosOffer o1, MesosOffer o2) {
+            int cmp = Integer.compare(o1.getPlacedTasks(), o2.getPlacedTasks());
+            if (cmp == 0) {
+                cmp = RESOURCES_ORDER.compare(o2, o1);
+            }
+            return cmp;
+        }
+    };
+
+    private final TreeSet<MesosOffer> index;
+    private final TreeSet<MesosOffer> revocableIndex;
+    private final TreeSet<MesosOffer> loadIndex;
+    private final Map<String, MesosOffer> offersPerAgent;
+    private final Map<String, Long> receivedTimes;
+    private final Map<String, String> agentPerOffer;
+
+
+    /**
+     * Creates an empty offer pool.
+     */
+    public MesosOfferPool() {
+        this.index = new TreeSet<>(RESOURCES_ORDER);
+        this.revocableIndex = new TreeSet<>(REVOCABLE_ORDER);
+        this.loadIndex = new TreeSet<>(LOAD_ORDER);
+        this.offersPerAgent = new LinkedHashMap<>();
+        this.receivedTimes = new HashMap<>();
+        this.agentPerOffer = new HashMap<>();
+    }
+
+    /**
+     * @param offer
+     *            Offer to add to the pool.
+     */
+    public void add(MesosOffer offer) {
+        indexAdd(offer);
+        if (offer.getSlaveId() != null) {
+            String agentId = offer.getSlaveId().getValue();
+            offersPerAgent.put(agentId, offer);
+            receivedTimes.put(agentId, System.currentTimeMillis());
+            for (OfferID offerId : offer.getOfferIds()) {
+                agentPerOffer.put(offerId.getValue(), agentId);
+            }
+        }
+    }
+
+    /**
+     * Adds an offer received from Mesos, merging it with the offers already in the pool for the same agent.
+     *
+     * @param offer
+     *            Offer to add to the pool.
+     */
+    public void add(Offer offer) {
+        String agentId = offer.getSlaveId().getValue();
+        MesosOffer agentOffer = offersPerAgent.get(agentId);
+        if (agentOffer == null) {
+            add(new MesosOffer(offer));
+        } else {
+            indexRemove(agentOffer);
+            agentOffer.merge(offer);
+            indexAdd(agentOffer);
+            agentPerOffer.put(offer.getId().getValue(), agentId);
+        }
+    }
+
+    /**
+     * @param offer
+     *            Offer to remove from the pool.
+     * @return True if the offer was in the pool.
+     */
+    public boolean remove(MesosOffer offer) {
+        if (offer.getSlaveId() != null) {
+            String agentId = offer.getSlaveId().getValue();
+            if (offersPerAgent.get(agentId) == offer) {
+                offersPerAgent.remove(agentId);
+                receivedTimes.remove(agentId);
+            }
+            for (OfferID offerId : offer.getOfferIds()) {
+                agentPerOffer.remove(offerId.getValue());
+            }
+        }
+        return indexRemove(offer);
+    }
+
+    /**
+     * Removes the offers of an agent.
+     *
+     * @param agentId
+     *            Agent identifier.
+     * @return Offers of the agent merged, null if there were none.
+     */
+    public MesosOffer removeAgent(String agentId) {
+        MesosOffer agentOffer = offersPerAgent.get(agentId);
+        if (agentOffer != null) {
+            remove(agentOffer);
+        }
+        return agentOffer;
+    }
+
+    /**
+     * Removes an offer rescinded by Mesos. The rest of offers of the same agent are kept.
+     *
+     * @param offerId
+     *            Rescinded offer.
+     * @return True if the offer was in the pool.
+     */
+    public boolean rescind(OfferID offerId) {
+        String agentId = agentPerOffer.get(offerId.getValue());
+        if (agentId == null) {
+            return false;
+        }
+        MesosOffer agentOffer = offersPerAgent.get(agentId);
+        Long receivedTime = receivedTimes.get(agentId);
+        remove(agentOffer);
+        MesosOffer remaining = null;
+        for (Offer o : agentOffer.getOffers()) {
+            if (o.getId().equals(offerId)) {
+                continue;
+            }
+            if (remaining == null) {
+                remaining = new MesosOffer(o);
+            } else {
+                remaining.merge(o);
+            }
+        }
+        if (remaining != null) {
+            add(remaining);
+            receivedTimes.put(agentId, receivedTime);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the offers of the agents first offered at or before time.
+     *
+     * @param time
+     *            Time in milliseconds.
+     * @return Offers removed.
+     */
+    public List<MesosOffer> removeReceivedBefore(long time) {
+        List<MesosOffer> expired = new ArrayList<>();
+        for (Map.Entry<String, Long> e : receivedTimes.entrySet()) {
+            if (e.getValue() <= time) {
+                expired.add(offersPerAgent.get(e.getKey()));
+            }
+        }
+        for (MesosOffer offer : expired) {
+            remove(offer);
+        }
+        return expired;
+    }
+
+    /**
+     * Removes all the offers in the pool.
+     *
+     * @return Offers removed.
+     */
+    public List<MesosOffer> removeAll() {
+        List<MesosOffer> all = new ArrayList<>(index);
+        index.clear();
+        revocableIndex.clear();
+        loadIndex.clear();
+        offersPerAgent.clear();
+        receivedTimes.clear();
+        agentPerOffer.clear();
+        return all;
+    }
+
+    /**
+     * @param agentId
+     *            Agent identifier.
+     * @return Offers of the agent merged, null if there are none.
+     */
+    public MesosOffer getAgentOffer(String agentId) {
+        return offersPerAgent.get(agentId);
+    }
+
+    /**
+     * @return Read-only view of the offers in the pool.
+     */
+    public Collection<MesosOffer> getOffers() {
+        return Collections.unmodifiableSet(index);
+    }
+
+    /**
+     * @return Read-only view of the offers in the pool in the order their agents were first offered.
+     */
+    public Collection<MesosOffer> getOffersByArrival() {
+        return Collections.unmodifiableCollection(offersPerAgent.values());
+    }
+
+    /**
+     * @param cpus
+     *            Minimum number of cpus.
+     * @return Offers with cpus or more, by increasing resources.
+     */
+    public Iterable<MesosOffer> ascendingFrom(double cpus) {
+        return Collections.unmodifiableSet(index.tailSet(MesosOffer.lowerBound(cpus), true));
+    }
+
+    /**
+     * @param requirements
+     *            Resources requested.
+     * @return Offers with enough cpus for requirements, by increasing resources.
+     */
+    public Iterable<MesosOffer> ascendingFrom(TaskRequirements requirements) {
+        return Collections.unmodifiableSet(index.tailSet(requirements.getLowerBound(), true));
+    }
+
+    /**
+     * @param requirements
+     *            Resources requested.
+     * @return Offers with enough revocable cpus for requirements, by increasing revocable resources.
+     */
+    public Iterable<MesosOffer> ascendingRevocableFrom(TaskRequirements requirements) {
+        return Collections.unmodifiableSet(revocableIndex.tailSet(requirements.getRevocableLowerBound(), true));
+    }
+
+    /**
+     * @return Offers by decreasing resources.
+     */
+    public Iterable<MesosOffer> descending() {
+        return Collections.unmodifiableSet(index.descendingSet());
+    }
+
+    /**
+     * @param placedTasks
+     *            Minimum number of tasks placed.
+     * @return Offers with placedTasks or more tasks placed on them, by increasing number of tasks placed and then by
+     *         decreasing resources.
+     */
+    public Iterable<MesosOffer> leastLoadedFrom(int placedTasks) {
+        return Collections.unmodifiableSet(loadIndex.tailSet(MesosOffer.loadBound(placedTasks), true));
+    }
+
+    /**
+     * @return Number of offers in the pool.
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * @return True if there are no offers in the pool.
+     */
+    public boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    /**
+     * Searches the offer closest to requirements, as scored by MesosOffer.distance, that also has enough ports.
+     *
+     * @param requirements
+     *            Resources requested.
+     * @return Offer with the lowest distance, null if no offer fits.
+     */
+    public MesosOffer bestFit(TaskRequirements requirements) {
+        int openPorts = requirements.getNumPorts();
+        MesosOffer best = null;
+        double bestScore = Double.MAX_VALUE;
+        Iterator<MesosOffer> it = index.tailSet(requirements.getLowerBound(), true).iterator();
+        while (it.hasNext()) {
+            MesosOffer mo = it.next();
+            // Offers are visited in increasing cpus, so the cpus term only grows from here
+            if (requirements.cpusDistance(mo) >= bestScore) {
+                break;
+            }
+            double score = requirements.distance(mo);
+            if (score >= 0.0 && score < bestScore && mo.hasEnoughPorts(openPorts)) {
+                best = mo;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Searches the offer whose revocable resources are closest to requirements, that also has enough ports, pruned as in
+     * bestFit.
+     *
+     * @param requirements
+     *            Resources requested.
+     * @return Offer with the lowest distance, null if no offer fits.
+     */
+    public MesosOffer bestRevocableFit(TaskRequirements requirements) {
+        MesosOffer best = null;
+        double bestScore = Double.MAX_VALUE;
+        Iterator<MesosOffer> it = revocableIndex.tailSet(requirements.getRevocableLowerBound(), true).iterator();
+        while (it.hasNext()) {
+            MesosOffer mo = it.next();
+            if (requirements.revocableCpusDistance(mo) >= bestScore) {
+                break;
+            }
+            double score = requirements.revocableDistance(mo);
+            if (score >= 0.0 && score < bestScore) {
+                best = mo;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Subtracts requirements from the revocable resources of offer and counts the task placed on it.
+     *
+     * @param offer
+     *            Offer in the pool.
+     * @param requirements
+     *            Resources to subtract.
+     */
+    public void consumeRevocable(MesosOffer offer, TaskRequirements requirements) {
+        indexRemove(offer);
+        offer.removeRevocableResourcesFrom(requirements);
+        offer.addPlacedTask();
+        indexAdd(offer);
+    }
+
+    /**
+     * Subtracts requirements from offer, counts the task placed on it and repositions it in the index.
+     *
+     * @param offer
+     *            Offer in the pool.
+     * @param requirements
+     *            Resources to subtract.
+     */
+    public void consume(MesosOffer offer, TaskRequirements requirements) {
+        indexRemove(offer);
+        offer.removeResourcesFrom(requirements);
+        offer.addPlacedTask();
+        indexAdd(offer);
+    }
+
+    /**
+     * Undoes a consume of requirements on offer, also giving back the ports picked for the task.
+     *
+     * @param offer
+     *            Offer in the pool.
+     * @param requirements
+     *            Resources to give back.
+     * @param ports
+     *            Ports to give back.
+     */
+    public void release(MesosOffer offer, TaskRequirements requirements, List<Range> ports) {
+        indexRemove(offer);
+        offer.addResourcesFrom(requirements);
+        offer.freePorts(ports);
+        offer.removePlacedTask();
+        indexAdd(offer);
+    }
+
+    private void indexAdd(MesosOffer offer) {
+        index.add(offer);
+        revocableIndex.add(offer);
+        loadIndex.add(offer);
+    }
+
+    private boolean indexRemove(MesosOffer offer) {
+        loadIndex.remove(offer);
+        revocableIndex.remove(offer);
+        return index.remove(offer);
+    }
+
+}
@@ -8,7 +8,9 @@ import es.bsc.conn.clients.mesos.framework.log.Loggers;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.CompletableFuture;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.EnumMap;
@@ -23,34 +25,57 @@ public class MesosTask {
 
     // Properties
     private List<Resource> requirements;
-    private TaskState state;
-    private Map<TaskState, Semaphore> waitSems;
-    private String ip;
+    // Requirements parsed once, reused on every offer cycle
+    private final TaskRequirements taskRequirements;
+    // State and IP are read from any thread, the rest of changes come from the scheduler event loop
+    private volatile TaskState state;
+    private Map<TaskState, List<CompletableFuture<String>>> waiters;
+    private volatile String ip;
+    // Passed the readiness check since it is running. Waiters for TASK_RUNNING are completed once it is ready
+    private volatile boolean ready;
     private String id;
+    private String appName;
     private String imageName;
     private String dockerCommand;
+    // Gang the task belongs to while it is waiting to be launched, null otherwise
+    private String groupId;
+    // Agent of the last launch, null if it was never launched
+    private String agentId;
+    private String agentHostname;
+    // Host ports of the agent mapped to the container ports, by container port
+    private Map<Integer, Integer> hostPorts = Collections.emptyMap();
 
     // Times tried to launch task and failed
     private int retries;
+    // Time in milliseconds the task was requested, 0 once it is running
+    private long requestTime;
+    // Time in milliseconds of the last launch, 0 once it is running
+    private long launchTime;
+    // The agent of the last launch had the image already
+    private boolean warmLaunch;
 
 
     /**
      * Represents a Task to execute in Mesos.
      *
      * @param id           Identifier.
+     * @param appName      Application that requested the task.
      * @param imageName    Docker image.
      * @param state        State of the task, TASK_STAGING by default.
      * @param requirements List of resources required for the task.
      */
-    public MesosTask(String id, String imageName, String dockerCommand,
+    public MesosTask(String id, String appName, String imageName, String dockerCommand,
             TaskState state, List<Resource> requirements) {
         this.id = id;
+        this.appName = appName;
         this.imageName = imageName;
         this.dockerCommand = dockerCommand;
         this.state = state;
         this.requirements = requirements;
-        this.waitSems = new EnumMap<>(TaskState.class);
+        this.taskRequirements = new TaskRequirements(requirements);
+        this.waiters = new EnumMap<>(TaskState.class);
         this.retries = 0;
+        this.ready = true;
     }
 
     /**
@@ -60,6 +85,20 @@ public class MesosTask {
         return id;
     }
 
+    /**
+     * @return Application name.
+     */
+    public String getAppName() {
+        return appName;
+    }
+
+    /**
+     * @param appName Application the task is handed out to.
+     */
+    public void setAppName(String appName) {
+        this.appName = appName;
+    }
+
     /**
      * @return Docker image name.
      */
@@ -74,6 +113,108 @@ public class MesosTask {
         return dockerCommand;
     }
 
+    /**
+     * @return Identifier of the gang the task is launched with, null if it is launched alone.
+     */
+    public String getGroupId() {
+        return groupId;
+    }
+
+    /**
+     * @param groupId Identifier of the gang the task is launched with, null to launch it alone.
+     */
+    public void setGroupId(String groupId) {
+        this.groupId = groupId;
+    }
+
+    /**
+     * @return Identifier of the agent the task was last launched on, null if it was never launched.
+     */
+    public String getAgentId() {
+        return agentId;
+    }
+
+    /**
+     * @param agentId Identifier of the agent the task is launched on.
+     */
+    public void setAgentId(String agentId) {
+        this.agentId = agentId;
+    }
+
+    /**
+     * @return Hostname of the agent the task was last launched on, null if unknown.
+     */
+    public String getAgentHostname() {
+        return agentHostname;
+    }
+
+    /**
+     * @param agentHostname Hostname of the agent the task is launched on.
+     */
+    public void setAgentHostname(String agentHostname) {
+        this.agentHostname = agentHostname;
+    }
+
+    /**
+     * @param containerPort Port of the container.
+     * @return Port of the agent mapped to containerPort in the last launch, 0 if it is not mapped.
+     */
+    public int getHostPort(int containerPort) {
+        Integer hostPort = hostPorts.get(containerPort);
+        return hostPort == null ? 0 : hostPort;
+    }
+
+    /**
+     * @return Ports of the agent mapped to the container ports in the last launch, by container port.
+     */
+    public Map<Integer, Integer> getHostPorts() {
+        return hostPorts;
+    }
+
+    /**
+     * @param hostPorts Ports of the agent mapped to the container ports in the launch, by container port.
+     */
+    public void setHostPorts(Map<Integer, Integer> hostPorts) {
+        this.hostPorts = hostPorts;
+    }
+
+    /**
+     * @return Time in milliseconds the task was requested, 0 if it is running or nobody waits for it.
+     */
+    public long getRequestTime() {
+        return requestTime;
+    }
+
+    /**
+     * @param requestTime Time in milliseconds the task was requested, 0 once it is running.
+     */
+    public void setRequestTime(long requestTime) {
+        this.requestTime = requestTime;
+    }
+
+    /**
+     * @return Time in milliseconds of the last launch, 0 if it is running or was never launched.
+     */
+    public long getLaunchTime() {
+        return launchTime;
+    }
+
+    /**
+     * @return True if the agent of the last launch had the image already.
+     */
+    public boolean isWarmLaunch() {
+        return warmLaunch;
+    }
+
+    /**
+     * @param launchTime Time in milliseconds of the launch, 0 once it is running.
+     * @param warmLaunch True if the agent had the image already.
+     */
+    public void setLaunch(long launchTime, boolean warmLaunch) {
+        this.launchTime = launchTime;
+        this.warmLaunch = warmLaunch;
+    }
+
     /**
      * @return List of resources required.
      */
@@ -81,6 +222,13 @@ public class MesosTask {
         return requirements;
     }
 
+    /**
+     * @return Resources required, parsed.
+     */
+    public TaskRequirements getTaskRequirements() {
+        return taskRequirements;
+    }
+
     /**
      * @return Mesos State for the task.
      */
@@ -89,13 +237,44 @@ public class MesosTask {
     }
 
     /**
-     * Sets the state of the Mesos task. If exists a semaphore waiting, it is released.
+     * Sets the state of the Mesos task. Waiters for that state are completed with the task IP, the ones for TASK_RUNNING
+     * only if the task is ready.
      *
      * @param state New state to set.
      */
     public void setState(TaskState state) {
         this.state = state;
-        releaseSem(state);
+        if (hasReached(state)) {
+            completeWaiters(state);
+        }
+    }
+
+    /**
+     * @param state State to check.
+     * @return True if the task is in that state, and ready if it is TASK_RUNNING.
+     */
+    public boolean hasReached(TaskState state) {
+        return this.state == state && (state != TaskState.TASK_RUNNING || ready);
+    }
+
+    /**
+     * @return True if the task passed its readiness check, or has none.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Sets whether the task passed its readiness check. Once ready, the waiters for TASK_RUNNING of a running task are
+     * completed.
+     *
+     * @param ready True if the task is ready.
+     */
+    public void setReady(boolean ready) {
+        this.ready = ready;
+        if (hasReached(TaskState.TASK_RUNNING)) {
+            completeWaiters(TaskState.TASK_RUNNING);
+        }
     }
 
     /**
@@ -119,6 +298,13 @@ public class MesosTask {
         return retries;
     }
 
+    /**
+     * @param retries Number of failed schedulings, when the task is recovered.
+     */
+    public synchronized void setRetries(int retries) {
+        this.retries = retries;
+    }
+
     /**
      * Increment the number of failed schedulings.
      */
@@ -127,13 +313,57 @@ public class MesosTask {
     }
 
     /**
-     * Adds a semaphore to wait for Task to be in state specified.
+     * Adds a future to complete, with the task IP, when the task reaches the state specified. Any number of futures
+     * can wait for the same state.
+     *
+     * @param state  State to wait for.
+     * @param future Future to complete.
+     */
+    public void addWaiter(TaskState state, CompletableFuture<String> future) {
+        List<CompletableFuture<String>> stateWaiters = waiters.get(state);
+        if (stateWaiters == null) {
+            stateWaiters = new ArrayList<>();
+            waiters.put(state, stateWaiters);
+        }
+        stateWaiters.add(future);
+    }
+
+    /**
+     * @param state State to check.
+     * @return True if any future waits for the task to reach state.
+     */
+    public boolean hasWaiters(TaskState state) {
+        List<CompletableFuture<String>> stateWaiters = waiters.get(state);
+        return stateWaiters != null && !stateWaiters.isEmpty();
+    }
+
+    /**
+     * Completes exceptionally all the futures waiting for any state. Used when the task will not change state anymore.
      *
-     * @param state State to wait for.
-     * @param sem   Semaphore to use.
+     * @param cause Exception to complete the futures with.
      */
-    public void addWait(TaskState state, Semaphore sem) {
-        waitSems.put(state, sem);
+    public void failWaiters(Throwable cause) {
+        for (List<CompletableFuture<String>> stateWaiters : waiters.values()) {
+            for (CompletableFuture<String> future : stateWaiters) {
+                future.completeExceptionally(cause);
+            }
+        }
+        waiters.clear();
+    }
+
+    /**
+     * Completes exceptionally the futures waiting for a state.
+     *
+     * @param state State waited for.
+     * @param cause Exception to complete the futures with.
+     */
+    public void failWaiters(TaskState state, Throwable cause) {
+        List<CompletableFuture<String>> stateWaiters = waiters.remove(state);
+        if (stateWaiters != null) {
+            for (CompletableFuture<String> future : stateWaiters) {
+                future.completeExceptionally(cause);
+            }
+        }
     }
 
     /**
@@ -144,11 +374,13 @@ public class MesosTask {
         return String.format("[Task %s] state: %s", id, state.toString());
     }
 
-    private void releaseSem(TaskState state) {
-        if (waitSems.containsKey(state)) {
-            LOGGER.debug("Release semaphore " + waitSems.get(state).toString() + " for state " + state.toString() + ", task " + id);
-            waitSems.get(state).release();
-            waitSems.remove(state);
+    private void completeWaiters(TaskState state) {
+        List<CompletableFuture<String>> stateWaiters = waiters.remove(state);
+        if (stateWaiters != null) {
+            LOGGER.debug("Complete " + stateWaiters.size() + " waiters for state " + state.toString() + ", task " + id);
+            for (CompletableFuture<String> future : stateWaiters) {
+                future.complete(ip);
+            }
         }
     }
 
@@ -0,0 +1,188 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+
+/**
+ * Queue of task identifiers waiting to be launched. Tasks are served by decreasing priority and in FIFO order within
+ * the same priority. Enqueue is O(log n), cancel is O(1) (cancelled entries are purged lazily) and iteration supports
+ * removal of the current task.
+ *
+ * Not thread-safe, callers must synchronize.
+ *
+ */
+public class PendingTaskQueue implements Iterable<String> {
+
+    private static final Comparator<Entry> PRIORITY_ORDER = new Comparator<Entry>() {
+
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            int cmp = Integer.compare(e2.priority, e1.priority);
+            if (cmp == 0) {
+                cmp = Long.compare(e1.sequence, e2.sequence);
+            }
+            return cmp;
+        }
+    };
+
+
+    private static class Entry {
+
+        private final String id;
+        private final int priority;
+        private final long sequence;
+        private boolean cancelled;
+
+
+        Entry(String id, int priority, long sequence) {
+            this.id = id;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.cancelled = false;
+        }
+    }
+
+
+    private final TreeSet<Entry> queue;
+    private final Map<String, Entry> entries;
+    private long sequenceGenerator;
+    private int cancelledEntries;
+
+
+    /**
+     * Creates an empty queue.
+     */
+    public PendingTaskQueue() {
+        this.queue = new TreeSet<>(PRIORITY_ORDER);
+        this.entries = new HashMap<>();
+        this.sequenceGenerator = 0;
+        this.cancelledEntries = 0;
+    }
+
+    /**
+     * Enqueues a task. If it is already queued nothing is done.
+     *
+     * @param id
+     *            Task identifier.
+     * @param priority
+     *            Priority of the task, higher is served first.
+     * @return True if the task was added.
+     */
+    public boolean add(String id, int priority) {
+        if (entries.containsKey(id)) {
+            return false;
+        }
+        Entry entry = new Entry(id, priority, sequenceGenerator++);
+        entries.put(id, entry);
+        queue.add(entry);
+        return true;
+    }
+
+    /**
+     * Cancels a queued task.
+     *
+     * @param id
+     *            Task identifier.
+     * @return True if the task was queued.
+     */
+    public boolean remove(String id) {
+        Entry entry = entries.remove(id);
+        if (entry == null) {
+            return false;
+        }
+        entry.cancelled = true;
+        cancelledEntries++;
+        if (cancelledEntries > entries.size()) {
+            purgeCancelled();
+        }
+        return true;
+    }
+
+    /**
+     * @param id
+     *            Task identifier.
+     * @return True if the task is queued.
+     */
+    public boolean contains(String id) {
+        return entries.containsKey(id);
+    }
+
+    /**
+     * @return Number of queued tasks.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return True if there are no queued tasks.
+     */
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * @return Iterator over the queued tasks in serving order. Its remove dequeues the current task and must be called
+     *         before hasNext.
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+
+            private final Iterator<Entry> it = queue.iterator();
+            private Entry next = null;
+            private Entry current = null;
+
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && it.hasNext()) {
+                    Entry e = it.next();
+                    if (e.cancelled) {
+                        it.remove();
+                        cancelledEntries--;
+                    } else {
+                        next = e;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                current = next;
+                next = null;
+                return current.id;
+            }
+
+            @Override
+            public void remove() {
+                if (current == null || next != null) {
+                    throw new IllegalStateException();
+                }
+                it.remove();
+                entries.remove(current.id);
+                current = null;
+            }
+        };
+    }
+
+    private void purgeCancelled() {
+        Iterator<Entry> it = queue.iterator();
+        while (it.hasNext()) {
+            if (it.next().cancelled) {
+                it.remove();
+            }
+        }
+        cancelledEntries = 0;
+    }
+
+}
@@ -0,0 +1,32 @@
+package es.bsc.conn.clients.mesos.framework;
+
+/**
+ * Policy to choose the offer where a task is placed.
+ *
+ */
+public interface PlacementPolicy {
+
+    /**
+     * Chooses an offer with enough resources for requirements. The pool must not be modified.
+     *
+     * @param requirements
+     *            Resources requested by the task.
+     * @param pool
+     *            Offers available.
+     * @return Offer where to place the task, null if no offer fits.
+     */
+    MesosOffer select(TaskRequirements requirements, MesosOfferPool pool);
+
+    /**
+     * Chooses an offer with enough revocable cpus and mem, and enough disk and ports, for requirements. The pool must
+     * not be modified.
+     *
+     * @param requirements
+     *            Resources requested by the task.
+     * @param pool
+     *            Offers available.
+     * @return Offer where to place the task on revocable resources, null if no offer fits.
+     */
+    MesosOffer selectRevocable(TaskRequirements requirements, MesosOfferPool pool);
+
+}
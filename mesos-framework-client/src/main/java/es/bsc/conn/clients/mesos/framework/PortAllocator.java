@@ -0,0 +1,153 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.mesos.Protos.Value.Range;
+
+
+/**
+ * Set of free ports kept as disjoint intervals. Allocating and freeing ports is O(log n) in the number of intervals
+ * (plus the number of intervals handed out), and the number of free ports is cached.
+ *
+ * Not thread-safe, callers must synchronize.
+ *
+ */
+public class PortAllocator {
+
+    // Begin of every free interval to its end, both included
+    private final TreeMap<Long, Long> free;
+    private long freeCount;
+
+
+    /**
+     * Creates an allocator without ports.
+     */
+    public PortAllocator() {
+        this.free = new TreeMap<>();
+        this.freeCount = 0;
+    }
+
+    /**
+     * Creates an allocator with the given ports.
+     *
+     * @param ranges
+     *            Ports available.
+     */
+    public PortAllocator(List<Range> ranges) {
+        this();
+        free(ranges);
+    }
+
+    /**
+     * @return Number of free ports.
+     */
+    public long getFreeCount() {
+        return freeCount;
+    }
+
+    /**
+     * @param numPorts
+     *            Number of ports to compare.
+     * @return True if there are numPorts or more free ports.
+     */
+    public boolean hasEnough(long numPorts) {
+        return freeCount >= numPorts;
+    }
+
+    /**
+     * Adds the ports to the free ones. Overlapping or adjacent intervals are merged.
+     *
+     * @param ranges
+     *            Ports to add.
+     */
+    public void free(List<Range> ranges) {
+        for (Range r : ranges) {
+            free(r.getBegin(), r.getEnd());
+        }
+    }
+
+    /**
+     * Adds the ports from begin to end, both included, to the free ones.
+     *
+     * @param begin
+     *            First port.
+     * @param end
+     *            Last port.
+     */
+    public void free(long begin, long end) {
+        if (end < begin) {
+            return;
+        }
+        long newBegin = begin;
+        long newEnd = end;
+        Map.Entry<Long, Long> lower = free.floorEntry(begin);
+        if (lower != null && lower.getValue() >= begin - 1) {
+            newBegin = lower.getKey();
+            newEnd = Math.max(newEnd, lower.getValue());
+            removeInterval(lower);
+        }
+        Map.Entry<Long, Long> next = free.ceilingEntry(newBegin);
+        while (next != null && next.getKey() <= newEnd + 1) {
+            newEnd = Math.max(newEnd, next.getValue());
+            removeInterval(next);
+            next = free.ceilingEntry(newBegin);
+        }
+        free.put(newBegin, newEnd);
+        freeCount += newEnd - newBegin + 1;
+    }
+
+    /**
+     * Takes the lowest numPorts free ports.
+     *
+     * @param numPorts
+     *            Number of ports to take.
+     * @return Ranges with a total of numPorts ports, or null if there are not enough free ports.
+     */
+    public List<Range> allocate(long numPorts) {
+        if (numPorts > freeCount) {
+            return null;
+        }
+        List<Range> allocated = new ArrayList<>();
+        long remaining = numPorts;
+        while (remaining > 0) {
+            Map.Entry<Long, Long> first = free.firstEntry();
+            long size = first.getValue() - first.getKey() + 1;
+            removeInterval(first);
+            if (size <= remaining) {
+                allocated.add(buildRange(first.getKey(), first.getValue()));
+                remaining -= size;
+            } else {
+                long end = first.getKey() + remaining - 1;
+                allocated.add(buildRange(first.getKey(), end));
+                free.put(end + 1, first.getValue());
+                freeCount += first.getValue() - end;
+                remaining = 0;
+            }
+        }
+        return allocated;
+    }
+
+    /**
+     * @return Free ports as a list of ranges.
+     */
+    public List<Range> toRanges() {
+        List<Range> ranges = new ArrayList<>(free.size());
+        for (Map.Entry<Long, Long> e : free.entrySet()) {
+            ranges.add(buildRange(e.getKey(), e.getValue()));
+        }
+        return ranges;
+    }
+
+    private void removeInterval(Map.Entry<Long, Long> interval) {
+        free.remove(interval.getKey());
+        freeCount -= interval.getValue() - interval.getKey() + 1;
+    }
+
+    private static Range buildRange(long begin, long end) {
+        return Range.newBuilder().setBegin(begin).setEnd(end).build();
+    }
+
+}
@@ -0,0 +1,300 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import es.bsc.conn.clients.mesos.framework.log.Loggers;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+
+/**
+ * Probes whether workers accept TCP connections on a port. All the probes are served by a single thread with a
+ * non-blocking selector: a connection is attempted, and retried after the probe interval while it is refused or not
+ * answered, until it is accepted or the probe is cancelled. Hosts are resolved by another thread, so a slow DNS lookup
+ * does not hold the other probes back. The threads are started with the first probe.
+ *
+ * Thread-safe.
+ *
+ */
+public class ReadinessProber {
+
+    private static final Logger LOGGER = LogManager.getLogger(Loggers.MF_SCHEDULER);
+
+    // Connection attempts not answered in this time are retried
+    private static final long CONNECT_TIMEOUT = 2_000;
+
+    private final long interval;
+    // Probes requested, taken by the probing thread
+    private final Queue<Probe> requested;
+    private Selector selector;
+    // Resolves the hosts for the probing thread, which picks the result up when woken up
+    private ExecutorService resolver;
+    private boolean closed;
+
+
+    /**
+     * Creates a prober without probes.
+     *
+     * @param interval
+     *            Time between connection attempts to the same worker.
+     * @param unit
+     */
+    public ReadinessProber(long interval, TimeUnit unit) {
+        this.interval = unit.toMillis(interval);
+        this.requested = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Starts probing a port.
+     *
+     * @param host
+     *            Address of the worker.
+     * @param port
+     *            Port that must accept connections.
+     * @return Future completed once a connection is accepted. It is never completed if the port does not accept
+     *         connections, cancelling it stops the probe.
+     */
+    public CompletableFuture<Void> probe(String host, int port) {
+        Probe probe = new Probe(host, port);
+        synchronized (this) {
+            if (closed) {
+                probe.future.cancel(false);
+                return probe.future;
+            }
+            if (selector == null) {
+                start();
+            }
+            requested.add(probe);
+            selector.wakeup();
+        }
+        return probe.future;
+    }
+
+    /**
+     * Stops probing. The probes in progress are cancelled.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    private void start() {
+        try {
+            selector = Selector.open();
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Cannot open selector for readiness probes", ioe);
+        }
+        resolver = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "MesosFrameworkScheduler-readiness-resolver");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "MesosFrameworkScheduler-readiness");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private void loop() {
+        List<Probe> probes = new ArrayList<>();
+        try {
+            while (!isClosed()) {
+                Probe added;
+                while ((added = requested.poll()) != null) {
+                    probes.add(added);
+                }
+                long now = System.currentTimeMillis();
+                long deadline = Long.MAX_VALUE;
+                Iterator<Probe> it = probes.iterator();
+                while (it.hasNext()) {
+                    Probe probe = it.next();
+                    probe.check(now);
+                    if (probe.future.isDone()) {
+                        probe.disconnect();
+                        it.remove();
+                    } else {
+                        deadline = Math.min(deadline, probe.getDeadline());
+                    }
+                }
+                // 0 waits until a connection is answered or a probe is added
+                selector.select(deadline == Long.MAX_VALUE ? 0 : Math.max(1, deadline - System.currentTimeMillis()));
+                for (SelectionKey key : selector.selectedKeys()) {
+                    ((Probe) key.attachment()).connected();
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException ioe) {
+            LOGGER.error("Error in the readiness probe loop", ioe);
+        } finally {
+            for (Probe probe : probes) {
+                probe.disconnect();
+                probe.future.cancel(false);
+            }
+            for (Probe probe : requested) {
+                probe.future.cancel(false);
+            }
+            resolver.shutdownNow();
+            try {
+                selector.close();
+            } catch (IOException ioe) {
+                LOGGER.debug("Error closing readiness probe selector", ioe);
+            }
+        }
+    }
+
+
+    /**
+     * Probe of a port, with the connection attempt in progress. Only used from the probing thread, but for the result
+     * of the resolution of its host.
+     */
+    private final class Probe {
+
+        private final String host;
+        private final int port;
+        private final CompletableFuture<Void> future;
+        private SocketChannel channel;
+        // Set by the resolver, null until the host of the attempt in progress is resolved
+        private volatile InetSocketAddress resolved;
+        private boolean resolving;
+        // Time of the next connection attempt, or of the timeout of the one in progress
+        private long deadline;
+        private int attempts;
+
+
+        private Probe(String host, int port) {
+            this.host = host;
+            this.port = port;
+            this.future = new CompletableFuture<>();
+            this.deadline = 0;
+        }
+
+        private long getDeadline() {
+            return deadline;
+        }
+
+        private void check(long now) {
+            if (future.isDone()) {
+                return;
+            }
+            if (resolving) {
+                InetSocketAddress address = resolved;
+                if (address != null) {
+                    resolving = false;
+                    resolved = null;
+                    connect(address, now);
+                }
+                return;
+            }
+            if (now < deadline) {
+                return;
+            }
+            if (channel != null) {
+                LOGGER.debug("Readiness probe of " + host + ":" + port + " not answered");
+                retry(now);
+                return;
+            }
+            resolve();
+        }
+
+        private void resolve() {
+            // No attempt is pending until the resolution wakes the probing thread up
+            resolving = true;
+            deadline = Long.MAX_VALUE;
+            resolver.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    resolved = new InetSocketAddress(host, port);
+                    selector.wakeup();
+                }
+            });
+        }
+
+        private void connect(InetSocketAddress address, long now) {
+            attempts++;
+            if (address.isUnresolved()) {
+                // Retried too, the worker network may not be ready yet
+                LOGGER.debug("Readiness probe of " + host + ":" + port + " failed: host not resolved");
+                retry(now);
+                return;
+            }
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                if (channel.connect(address)) {
+                    succeeded();
+                } else {
+                    channel.register(selector, SelectionKey.OP_CONNECT, this);
+                    deadline = now + CONNECT_TIMEOUT;
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.debug("Readiness probe of " + host + ":" + port + " failed: " + e.getMessage());
+                retry(now);
+            }
+        }
+
+        private void connected() {
+            try {
+                if (channel.finishConnect()) {
+                    succeeded();
+                }
+            } catch (IOException ioe) {
+                LOGGER.debug("Readiness probe of " + host + ":" + port + " refused: " + ioe.getMessage());
+                retry(System.currentTimeMillis());
+            }
+        }
+
+        private void succeeded() {
+            LOGGER.debug("Readiness probe of " + host + ":" + port + " accepted after " + attempts + " attempts");
+            disconnect();
+            future.complete(null);
+        }
+
+        private void retry(long now) {
+            disconnect();
+            deadline = now + interval;
+        }
+
+        private void disconnect() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ioe) {
+                    LOGGER.debug("Error closing readiness probe of " + host + ":" + port, ioe);
+                }
+                channel = null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,20 @@
+package es.bsc.conn.clients.mesos.framework;
+
+/**
+ * Outcome of the removal of a worker.
+ *
+ */
+public enum RemovalOutcome {
+
+    /** Removed before being launched, nothing to kill. */
+    DEQUEUED,
+    /** Killed, Mesos confirmed it. */
+    KILLED,
+    /** Ended in another state before the kill was confirmed. */
+    ENDED,
+    /** The kill was not confirmed before the timeout. */
+    TIMED_OUT,
+    /** There is no worker with that identifier. */
+    NOT_FOUND
+
+}
@@ -0,0 +1,165 @@
+package es.bsc.conn.clients.mesos.framework;
+
+/**
+ * Decides when to revive and suppress offers. Revives are debounced: the first one is sent right away and the ones
+ * requested during the next revive interval are coalesced into a single revive at the end of the interval. Offers are
+ * only suppressed once the queue of workers has stayed empty for the suppress delay, and never twice in a row. Also
+ * counts the calls requested and sent.
+ *
+ * Not thread-safe, callers must synchronize.
+ *
+ */
+public class ReviveController {
+
+    private final long reviveInterval;
+    private final long suppressDelay;
+
+    private boolean suppressed;
+    private long lastRevive;
+    // A revive was coalesced and must be sent when the interval ends
+    private boolean trailingRevive;
+    // Time since the queue is empty, -1 if it is not
+    private long emptySince;
+
+    private long reviveRequests;
+    private long revives;
+    private long suppresses;
+
+
+    /**
+     * Creates a controller for a framework receiving offers.
+     *
+     * @param reviveInterval
+     *            Minimum time in milliseconds between revives, 0 to send every revive.
+     * @param suppressDelay
+     *            Time in milliseconds the queue must be empty before suppressing offers, 0 to suppress right away.
+     */
+    public ReviveController(long reviveInterval, long suppressDelay) {
+        this.reviveInterval = reviveInterval;
+        this.suppressDelay = suppressDelay;
+        this.suppressed = false;
+        this.lastRevive = Long.MIN_VALUE;
+        this.trailingRevive = false;
+        this.emptySince = -1;
+    }
+
+    /**
+     * Requests offers for workers waiting to be launched.
+     *
+     * @param now
+     *            Current time in milliseconds.
+     * @return True if offers must be revived now. Otherwise the revive is sent at getTrailingReviveTime.
+     */
+    public boolean requestRevive(long now) {
+        reviveRequests++;
+        emptySince = -1;
+        if (suppressed || lastRevive == Long.MIN_VALUE || now - lastRevive >= reviveInterval) {
+            revived(now);
+            return true;
+        }
+        trailingRevive = true;
+        return false;
+    }
+
+    /**
+     * @return Time in milliseconds when the coalesced revive must be sent, -1 if there is none.
+     */
+    public long getTrailingReviveTime() {
+        return trailingRevive ? lastRevive + reviveInterval : -1;
+    }
+
+    /**
+     * Ends the revive interval.
+     *
+     * @param now
+     *            Current time in milliseconds.
+     * @param queueEmpty
+     *            True if no worker waits to be launched anymore.
+     * @return True if the coalesced revive must be sent now.
+     */
+    public boolean endReviveInterval(long now, boolean queueEmpty) {
+        if (!trailingRevive || now < lastRevive + reviveInterval) {
+            return false;
+        }
+        trailingRevive = false;
+        if (queueEmpty) {
+            return false;
+        }
+        revived(now);
+        return true;
+    }
+
+    /**
+     * Notifies that the queue of workers is empty after an offer cycle.
+     *
+     * @param now
+     *            Current time in milliseconds.
+     * @return True if offers must be suppressed now. Otherwise they may be at getSuppressTime.
+     */
+    public boolean queueEmpty(long now) {
+        if (suppressed) {
+            return false;
+        }
+        if (emptySince < 0) {
+            emptySince = now;
+        }
+        if (now - emptySince < suppressDelay) {
+            return false;
+        }
+        suppressed = true;
+        trailingRevive = false;
+        emptySince = -1;
+        suppresses++;
+        return true;
+    }
+
+    /**
+     * Notifies that workers wait to be launched after an offer cycle.
+     */
+    public void queueNotEmpty() {
+        emptySince = -1;
+    }
+
+    /**
+     * @return Time in milliseconds when offers are suppressed if the queue stays empty, -1 if they are not going to.
+     */
+    public long getSuppressTime() {
+        return suppressed || emptySince < 0 ? -1 : emptySince + suppressDelay;
+    }
+
+    /**
+     * @return True if offers are suppressed.
+     */
+    public boolean isSuppressed() {
+        return suppressed;
+    }
+
+    /**
+     * @return Revives requested, sent or not.
+     */
+    public long getReviveRequests() {
+        return reviveRequests;
+    }
+
+    /**
+     * @return Revives sent.
+     */
+    public long getRevives() {
+        return revives;
+    }
+
+    /**
+     * @return Suppresses sent.
+     */
+    public long getSuppresses() {
+        return suppresses;
+    }
+
+    private void revived(long now) {
+        suppressed = false;
+        trailingRevive = false;
+        lastRevive = now;
+        revives++;
+    }
+
+}
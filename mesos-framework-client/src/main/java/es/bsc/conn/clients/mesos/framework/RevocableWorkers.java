@@ -0,0 +1,124 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+
+/**
+ * Splits the workers in a guaranteed baseline, launched on regular resources, and burst workers beyond it, launched on
+ * revocable resources that Mesos can take back at any time. Tracks the workers launched on each kind of resources until
+ * they end.
+ *
+ * Not thread-safe, callers must synchronize.
+ *
+ */
+public class RevocableWorkers {
+
+    private final boolean enabled;
+    private final int baseline;
+    private final Set<String> guaranteed;
+    private final Set<String> revocable;
+    private long preemptions;
+
+
+    /**
+     * Creates a tracker without workers.
+     *
+     * @param enabled
+     *            True to launch burst workers on revocable resources, false to launch every worker on regular resources.
+     * @param baseline
+     *            Number of workers launched on regular resources before launching the rest on revocable resources.
+     */
+    public RevocableWorkers(boolean enabled, int baseline) {
+        this.enabled = enabled;
+        this.baseline = baseline;
+        this.guaranteed = new LinkedHashSet<>();
+        this.revocable = new LinkedHashSet<>();
+    }
+
+    /**
+     * @return True if burst workers are launched on revocable resources.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return True if the next worker is beyond the baseline and must be launched on revocable resources.
+     */
+    public boolean isBurst() {
+        return enabled && guaranteed.size() >= baseline;
+    }
+
+    /**
+     * Counts a worker launched.
+     *
+     * @param id
+     *            Worker identifier.
+     * @param onRevocable
+     *            True if it is launched on revocable resources.
+     */
+    public void launched(String id, boolean onRevocable) {
+        ended(id);
+        if (onRevocable) {
+            revocable.add(id);
+        } else {
+            guaranteed.add(id);
+        }
+    }
+
+    /**
+     * @param id
+     *            Worker identifier.
+     * @return True if the worker is launched on revocable resources.
+     */
+    public boolean isRevocable(String id) {
+        return revocable.contains(id);
+    }
+
+    /**
+     * Stops counting a worker that ended or is queued again.
+     *
+     * @param id
+     *            Worker identifier.
+     */
+    public void ended(String id) {
+        guaranteed.remove(id);
+        revocable.remove(id);
+    }
+
+    /**
+     * Stops counting a worker on revocable resources that was preempted.
+     *
+     * @param id
+     *            Worker identifier.
+     */
+    public void preempted(String id) {
+        if (revocable.remove(id)) {
+            preemptions++;
+        }
+    }
+
+    /**
+     * @return Identifiers of the workers launched on revocable resources, in launch order.
+     */
+    public Set<String> getRevocable() {
+        return Collections.unmodifiableSet(revocable);
+    }
+
+    /**
+     * @return Number of workers launched on regular resources.
+     */
+    public int getGuaranteed() {
+        return guaranteed.size();
+    }
+
+    /**
+     * @return Number of workers preempted so far.
+     */
+    public long getPreemptions() {
+        return preemptions;
+    }
+
+}
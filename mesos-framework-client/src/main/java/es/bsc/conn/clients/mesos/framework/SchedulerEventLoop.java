@@ -0,0 +1,154 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import es.bsc.conn.clients.mesos.framework.log.Loggers;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+
+/**
+ * Event loop that runs, one at a time and in submission order, the events that mutate the state of a scheduler. Events
+ * are queued in a lock-free multi-producer single-consumer queue. There is no dedicated thread: the thread that submits
+ * an event while the loop is idle becomes its consumer and runs every queued event, including the ones submitted by
+ * other threads meanwhile, until the queue is empty. Submitters never block each other on a monitor and no thread
+ * switch is needed to run an event on an idle loop.
+ *
+ * Events submitted from an event run after it, or right away if the event waits for them.
+ *
+ */
+public class SchedulerEventLoop {
+
+    private static final Logger LOGGER = LogManager.getLogger(Loggers.MF_SCHEDULER);
+
+    private static final int YIELDS = 16;
+
+    private final ConcurrentLinkedQueue<Runnable> events;
+    private final Runnable afterEvent;
+    // Set while a thread consumes the queue
+    private final AtomicBoolean draining;
+    private volatile Thread consumer;
+
+
+    /**
+     * Creates an idle event loop.
+     *
+     * @param afterEvent
+     *            Action run after every event, null for none.
+     */
+    public SchedulerEventLoop(Runnable afterEvent) {
+        this.events = new ConcurrentLinkedQueue<>();
+        this.afterEvent = afterEvent;
+        this.draining = new AtomicBoolean(false);
+    }
+
+    /**
+     * @return True if called while running an event.
+     */
+    public boolean inLoop() {
+        return consumer == Thread.currentThread();
+    }
+
+    /**
+     * Queues an event. If the loop is idle, the event and any other event queued meanwhile are run before returning.
+     *
+     * @param event
+     *            Event to run.
+     */
+    public void execute(Runnable event) {
+        events.offer(event);
+        drain();
+    }
+
+    /**
+     * Runs an event and waits for it.
+     *
+     * @param event
+     *            Event to run.
+     */
+    public void run(Runnable event) {
+        call(Executors.callable(event));
+    }
+
+    /**
+     * Runs an event and waits for its result. Runtime exceptions thrown by the event are rethrown to the caller.
+     *
+     * @param event
+     *            Event to run.
+     * @return Result of the event.
+     */
+    public <T> T call(Callable<T> event) {
+        FutureTask<T> task = new FutureTask<>(event);
+        if (inLoop()) {
+            task.run();
+        } else {
+            execute(task);
+            // Another thread is running the queued events, let it run ours before parking
+            for (int i = 0; i < YIELDS && !task.isDone(); i++) {
+                Thread.yield();
+                drain();
+            }
+        }
+        return getUninterruptibly(task);
+    }
+
+    private void drain() {
+        // An event queued after the consumer polled the queue for the last time is seen here once it leaves
+        while (!events.isEmpty() && draining.compareAndSet(false, true)) {
+            consumer = Thread.currentThread();
+            try {
+                Runnable event = events.poll();
+                while (event != null) {
+                    runEvent(event);
+                    event = events.poll();
+                }
+            } finally {
+                consumer = null;
+                draining.set(false);
+            }
+        }
+    }
+
+    private void runEvent(Runnable event) {
+        try {
+            event.run();
+            if (afterEvent != null) {
+                afterEvent.run();
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Error running scheduler event", e);
+        }
+    }
+
+    private static <T> T getUninterruptibly(FutureTask<T> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+package es.bsc.conn.clients.mesos.framework;
+
+/**
+ * Immutable view of the state of a MesosFrameworkScheduler, published by its event loop after every event so it can be
+ * read from any thread without locking.
+ *
+ */
+public class SchedulerSnapshot {
+
+    private final long events;
+    private final int tasks;
+    private final int pendingTasks;
+    private final int runningTasks;
+    private final int heldOffers;
+    private final long reviveRequests;
+    private final long revives;
+    private final long suppresses;
+
+
+    /**
+     * Creates a snapshot.
+     *
+     * @param events
+     *            Number of events run so far.
+     * @param tasks
+     *            Number of tasks known.
+     * @param pendingTasks
+     *            Number of tasks and gangs waiting to be launched.
+     * @param runningTasks
+     *            Number of tasks running.
+     * @param heldOffers
+     *            Number of agents with offers held.
+     * @param reviveRequests
+     *            Number of revives requested so far.
+     * @param revives
+     *            Number of revives sent so far.
+     * @param suppresses
+     *            Number of suppresses sent so far.
+     */
+    public SchedulerSnapshot(long events, int tasks, int pendingTasks, int runningTasks, int heldOffers, long reviveRequests, long revives,
+            long suppresses) {
+        this.events = events;
+        this.tasks = tasks;
+        this.pendingTasks = pendingTasks;
+        this.runningTasks = runningTasks;
+        this.heldOffers = heldOffers;
+        this.reviveRequests = reviveRequests;
+        this.revives = revives;
+        this.suppresses = suppresses;
+    }
+
+    /**
+     * @return Number of events run when the snapshot was taken.
+     */
+    public long getEvents() {
+        return events;
+    }
+
+    /**
+     * @return Number of tasks known, in any state.
+     */
+    public int getTasks() {
+        return tasks;
+    }
+
+    /**
+     * @return Number of tasks and gangs waiting to be launched.
+     */
+    public int getPendingTasks() {
+        return pendingTasks;
+    }
+
+    /**
+     * @return Number of tasks running.
+     */
+    public int getRunningTasks() {
+        return runningTasks;
+    }
+
+    /**
+     * @return Number of agents with offers held.
+     */
+    public int getHeldOffers() {
+        return heldOffers;
+    }
+
+    /**
+     * @return Number of revives requested, including the ones coalesced.
+     */
+    public long getReviveRequests() {
+        return reviveRequests;
+    }
+
+    /**
+     * @return Number of revives sent to Mesos.
+     */
+    public long getRevives() {
+        return revives;
+    }
+
+    /**
+     * @return Number of suppresses sent to Mesos.
+     */
+    public long getSuppresses() {
+        return suppresses;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[Scheduler] events: %d, tasks: %d, pending: %d, running: %d, held offers: %d, revives: %d/%d, suppresses: %d",
+                events, tasks, pendingTasks, runningTasks, heldOffers, revives, reviveRequests, suppresses);
+    }
+
+}
@@ -0,0 +1,45 @@
+package es.bsc.conn.clients.mesos.framework;
+
+/**
+ * Places each task in the offer with the fewest tasks placed on it, and among those the one with more resources, so
+ * tasks are spread across agents and get more aggregate network and disk bandwidth.
+ *
+ */
+public class SpreadPlacement implements PlacementPolicy {
+
+    public static final String NAME = "spread";
+
+
+    @Override
+    public MesosOffer select(TaskRequirements requirements, MesosOfferPool pool) {
+        int placedTasks = 0;
+        boolean nextGroup = true;
+        while (nextGroup) {
+            nextGroup = false;
+            for (MesosOffer offer : pool.leastLoadedFrom(placedTasks)) {
+                if (offer.getCpus() < requirements.getCpus()) {
+                    // The rest of offers with this load have less cpus, go on with the ones with more tasks placed
+                    placedTasks = offer.getPlacedTasks() + 1;
+                    nextGroup = true;
+                    break;
+                }
+                if (requirements.fitsIn(offer)) {
+                    return offer;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public MesosOffer selectRevocable(TaskRequirements requirements, MesosOfferPool pool) {
+        // The load order does not follow the revocable resources, the first offer that fits is the least loaded
+        for (MesosOffer offer : pool.leastLoadedFrom(0)) {
+            if (requirements.fitsInRevocable(offer)) {
+                return offer;
+            }
+        }
+        return null;
+    }
+
+}
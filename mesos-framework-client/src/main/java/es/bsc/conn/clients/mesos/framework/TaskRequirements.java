@@ -0,0 +1,196 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import org.apache.mesos.Protos.Resource;
+import org.apache.mesos.Protos.Value;
+import org.apache.mesos.Protos.Value.Range;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Resources requested by a task, parsed once from the protobuf resources when the task is requested. Keeps the cpus,
+ * mem and disk as a vector of doubles and the number of ports, which is all the placement needs, plus the resource
+ * protos ready to add to the TaskInfo. Immutable.
+ *
+ */
+public final class TaskRequirements {
+
+    private static final int CPUS = 0;
+    private static final int MEM = 1;
+    private static final int DISK = 2;
+
+    private static final String CPUS_RESOURCE = "cpus";
+    private static final String MEM_RESOURCE = "mem";
+    private static final String DISK_RESOURCE = "disk";
+
+    private final double[] vector;
+    private final int numPorts;
+    private final List<Range> containerPorts;
+    private final List<Resource> scalarResources;
+    private final List<Resource> revocableResources;
+    // Search keys for the offers with enough cpus and with enough revocable cpus
+    private final MesosOffer lowerBound;
+    private final MesosOffer revocableLowerBound;
+
+
+    /**
+     * Parses the resources requested by a task.
+     *
+     * @param resources
+     *            List of resources (cpus, mem, disk, ports).
+     */
+    public TaskRequirements(List<Resource> resources) {
+        MesosOffer parsed = new MesosOffer(resources);
+        this.vector = new double[] { parsed.getCpus(), parsed.getMem(), parsed.getDisk() };
+        this.numPorts = parsed.getNumPorts();
+        this.containerPorts = Collections.unmodifiableList(parsed.getPortsList());
+        List<Resource> scalars = new ArrayList<>(3);
+        scalars.add(buildResource(CPUS_RESOURCE, vector[CPUS]));
+        scalars.add(buildResource(MEM_RESOURCE, vector[MEM]));
+        scalars.add(buildResource(DISK_RESOURCE, vector[DISK]));
+        this.scalarResources = Collections.unmodifiableList(scalars);
+        List<Resource> revocables = new ArrayList<>(3);
+        revocables.add(scalars.get(CPUS).toBuilder().setRevocable(Resource.RevocableInfo.getDefaultInstance()).build());
+        revocables.add(scalars.get(MEM).toBuilder().setRevocable(Resource.RevocableInfo.getDefaultInstance()).build());
+        revocables.add(scalars.get(DISK));
+        this.revocableResources = Collections.unmodifiableList(revocables);
+        this.lowerBound = MesosOffer.lowerBound(vector[CPUS]);
+        this.revocableLowerBound = MesosOffer.revocableLowerBound(vector[CPUS]);
+    }
+
+    /**
+     * @return Number of cpus.
+     */
+    public double getCpus() {
+        return vector[CPUS];
+    }
+
+    /**
+     * @return Memory in MBytes.
+     */
+    public double getMem() {
+        return vector[MEM];
+    }
+
+    /**
+     * @return Disk in MBytes.
+     */
+    public double getDisk() {
+        return vector[DISK];
+    }
+
+    /**
+     * @return Number of ports.
+     */
+    public int getNumPorts() {
+        return numPorts;
+    }
+
+    /**
+     * @return Ports requested inside the container.
+     */
+    public List<Range> getContainerPorts() {
+        return containerPorts;
+    }
+
+    /**
+     * @return Cpus, mem and disk resources to launch the task.
+     */
+    public List<Resource> getScalarResources() {
+        return scalarResources;
+    }
+
+    /**
+     * @return Revocable cpus and mem, and regular disk, to launch the task on revocable resources.
+     */
+    public List<Resource> getRevocableResources() {
+        return revocableResources;
+    }
+
+    /**
+     * @param offer
+     *            Offer to compare to.
+     * @return True if offer has enough cpus, mem, disk and ports.
+     */
+    public boolean fitsIn(MesosOffer offer) {
+        return offer.getCpus() >= vector[CPUS] && offer.getMem() >= vector[MEM] && offer.getDisk() >= vector[DISK]
+                && offer.hasEnoughPorts(numPorts);
+    }
+
+    /**
+     * @param offer
+     *            Offer to compare to.
+     * @return True if offer has enough revocable cpus and mem, and enough disk and ports.
+     */
+    public boolean fitsInRevocable(MesosOffer offer) {
+        return offer.getRevocableCpus() >= vector[CPUS] && offer.getRevocableMem() >= vector[MEM] && offer.getDisk() >= vector[DISK]
+                && offer.hasEnoughPorts(numPorts);
+    }
+
+    /**
+     * @param offer
+     *            Offer to compare to.
+     * @return Distance to offer as scored by MesosOffer.distance, -1 if offer has not enough resources.
+     */
+    public double distance(MesosOffer offer) {
+        return MesosOffer.distance(vector[CPUS], vector[MEM], vector[DISK], offer);
+    }
+
+    /**
+     * @param offer
+     *            Offer to compare to.
+     * @return Distance to the revocable cpus and mem and the disk of offer, -1 if it has not enough of them or ports.
+     */
+    public double revocableDistance(MesosOffer offer) {
+        if (!offer.hasEnoughPorts(numPorts)) {
+            return -1.0;
+        }
+        return MesosOffer.revocableDistance(vector[CPUS], vector[MEM], vector[DISK], offer);
+    }
+
+    /**
+     * @param offer
+     *            Offer to compare to.
+     * @return Cpus term of the distance to offer.
+     */
+    public double cpusDistance(MesosOffer offer) {
+        return MesosOffer.cpusDistance(vector[CPUS], offer);
+    }
+
+    /**
+     * @param offer
+     *            Offer to compare to.
+     * @return Cpus term of the distance to the revocable resources of offer.
+     */
+    public double revocableCpusDistance(MesosOffer offer) {
+        return MesosOffer.revocableCpusDistance(vector[CPUS], offer);
+    }
+
+    /**
+     * @return MesosOffer that sorts before any offer with enough cpus in the pool.
+     */
+    MesosOffer getLowerBound() {
+        return lowerBound;
+    }
+
+    /**
+     * @return MesosOffer that sorts before any offer with enough revocable cpus in the pool.
+     */
+    MesosOffer getRevocableLowerBound() {
+        return revocableLowerBound;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Requirements: {cpus: %.2f, mem: %.2f, disk: %.2f, ports: %d}", vector[CPUS], vector[MEM], vector[DISK],
+                numPorts);
+    }
+
+    private static Resource buildResource(String name, double value) {
+        return Resource.newBuilder().setName(name).setType(Value.Type.SCALAR).setScalar(Value.Scalar.newBuilder().setValue(value))
+                .build();
+    }
+
+}
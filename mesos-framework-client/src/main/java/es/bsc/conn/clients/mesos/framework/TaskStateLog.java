@@ -0,0 +1,338 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import es.bsc.conn.clients.mesos.framework.exceptions.FrameworkException;
+import es.bsc.conn.clients.mesos.framework.log.Loggers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.mesos.Protos.Resource;
+import org.apache.mesos.Protos.TaskState;
+
+
+/**
+ * Append-only local log of the framework identifier and the state of the tasks launched (id, state, IP, agent, agent
+ * hostname and host ports, retries, plus what is needed to relaunch them), so a restarted scheduler can fail over to
+ * the same framework and reattach to the tasks still running. Every change appends a binary record with the latest
+ * state of a task, and the log is rewritten with only the live records when it is opened and when most of its records
+ * are stale. A record cut by a crash is discarded.
+ *
+ * Not thread-safe, callers must synchronize.
+ *
+ */
+public class TaskStateLog implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger(Loggers.MF_SCHEDULER);
+
+    private static final byte FRAMEWORK_RECORD = 1;
+    private static final byte TASK_RECORD = 2;
+    private static final byte REMOVE_RECORD = 3;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    // Rewrite the log when it has this many records and at least 4 times the live ones
+    private static final int MIN_COMPACT_RECORDS = 1024;
+    private static final int COMPACT_RATIO = 4;
+
+    private final File file;
+    private String frameworkId;
+    // Latest record of each live task
+    private final Map<String, byte[]> tasks;
+    private final List<MesosTask> recovered;
+    private DataOutputStream out;
+    private int records;
+
+
+    /**
+     * Opens the log in file, loading the records it already has.
+     *
+     * @param file
+     *            Log file, created if it does not exist.
+     * @throws FrameworkException
+     *             if the log cannot be read or written.
+     */
+    public TaskStateLog(File file) throws FrameworkException {
+        this.file = file;
+        this.tasks = new LinkedHashMap<>();
+        this.recovered = new ArrayList<>();
+        try {
+            load();
+            compact();
+        } catch (IOException ioe) {
+            throw new FrameworkException("Could not open task state log " + file, ioe);
+        }
+        for (byte[] record : tasks.values()) {
+            try {
+                recovered.add(decodeTask(record));
+            } catch (IOException ioe) {
+                LOGGER.warn("Ignoring corrupt task record in task state log " + file, ioe);
+            }
+        }
+        LOGGER.info(String.format("Task state log %s has %d tasks", file, tasks.size()));
+    }
+
+    /**
+     * @return Framework identifier logged, null if there is none.
+     */
+    public String getFrameworkId() {
+        return frameworkId;
+    }
+
+    /**
+     * @return Tasks in the log when it was opened, with their state, IP, agent, host ports and retries.
+     */
+    public List<MesosTask> getRecoveredTasks() {
+        return recovered;
+    }
+
+    /**
+     * @return Number of tasks in the log.
+     */
+    public int size() {
+        return tasks.size();
+    }
+
+    /**
+     * @param frameworkId
+     *            Framework identifier assigned by Mesos.
+     */
+    public void putFrameworkId(String frameworkId) {
+        this.frameworkId = frameworkId;
+        try {
+            out.writeByte(FRAMEWORK_RECORD);
+            out.writeUTF(frameworkId);
+            records++;
+        } catch (IOException ioe) {
+            LOGGER.error("Error writing framework identifier to task state log " + file, ioe);
+        }
+    }
+
+    /**
+     * Logs the current state of a task.
+     *
+     * @param task
+     *            Task to log.
+     */
+    public void put(MesosTask task) {
+        try {
+            byte[] record = encodeTask(task);
+            tasks.put(task.getId(), record);
+            out.writeByte(TASK_RECORD);
+            out.writeInt(record.length);
+            out.write(record);
+            records++;
+            compactIfStale();
+        } catch (IOException ioe) {
+            LOGGER.error("Error writing task " + task.getId() + " to task state log " + file, ioe);
+        }
+    }
+
+    /**
+     * Logs that a task is gone.
+     *
+     * @param id
+     *            Task identifier.
+     */
+    public void remove(String id) {
+        if (tasks.remove(id) == null) {
+            return;
+        }
+        try {
+            out.writeByte(REMOVE_RECORD);
+            out.writeUTF(id);
+            records++;
+            compactIfStale();
+        } catch (IOException ioe) {
+            LOGGER.error("Error writing removal of task " + id + " to task state log " + file, ioe);
+        }
+    }
+
+    /**
+     * Removes all the records, when the framework is torn down and there is nothing to fail over to.
+     */
+    public void clear() {
+        frameworkId = null;
+        tasks.clear();
+        try {
+            compact();
+        } catch (IOException ioe) {
+            LOGGER.error("Error clearing task state log " + file, ioe);
+        }
+    }
+
+    /**
+     * Writes the records appended to the file.
+     */
+    public void flush() {
+        try {
+            out.flush();
+        } catch (IOException ioe) {
+            LOGGER.error("Error flushing task state log " + file, ioe);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            out.close();
+        } catch (IOException ioe) {
+            LOGGER.error("Error closing task state log " + file, ioe);
+        }
+    }
+
+    private void load() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int type = in.read();
+                if (type < 0) {
+                    return;
+                }
+                switch (type) {
+                    case FRAMEWORK_RECORD:
+                        frameworkId = in.readUTF();
+                        break;
+                    case TASK_RECORD:
+                        int length = in.readInt();
+                        if (length < 0 || length > MAX_RECORD_SIZE) {
+                            LOGGER.warn("Ignoring corrupt end of task state log " + file);
+                            return;
+                        }
+                        byte[] record = new byte[length];
+                        in.readFully(record);
+                        tasks.put(decodeId(record), record);
+                        break;
+                    case REMOVE_RECORD:
+                        tasks.remove(in.readUTF());
+                        break;
+                    default:
+                        LOGGER.warn("Ignoring corrupt end of task state log " + file);
+                        return;
+                }
+            }
+        } catch (EOFException eofe) {
+            LOGGER.warn("Ignoring incomplete record at the end of task state log " + file);
+        }
+    }
+
+    private void compactIfStale() throws IOException {
+        if (records >= MIN_COMPACT_RECORDS && records >= COMPACT_RATIO * tasks.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the log with the live records only, replacing the old file once the new one is complete.
+     */
+    private void compact() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        records = 0;
+        try (DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            if (frameworkId != null) {
+                tmpOut.writeByte(FRAMEWORK_RECORD);
+                tmpOut.writeUTF(frameworkId);
+                records++;
+            }
+            for (byte[] record : tasks.values()) {
+                tmpOut.writeByte(TASK_RECORD);
+                tmpOut.writeInt(record.length);
+                tmpOut.write(record);
+                records++;
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Could not replace " + file + " with " + tmp);
+        }
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    private static byte[] encodeTask(MesosTask task) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeUTF(task.getId());
+        data.writeUTF(task.getAppName());
+        data.writeUTF(task.getImageName());
+        data.writeUTF(task.getDockerCommand());
+        data.writeInt(task.getState().getNumber());
+        data.writeUTF(task.getIp() == null ? "" : task.getIp());
+        data.writeUTF(task.getAgentId() == null ? "" : task.getAgentId());
+        data.writeInt(task.getRetries());
+        data.writeInt(task.getRequirements().size());
+        for (Resource r : task.getRequirements()) {
+            byte[] resource = r.toByteArray();
+            data.writeInt(resource.length);
+            data.write(resource);
+        }
+        // Appended later, so the readiness of recovered tasks can be probed on their agent
+        data.writeUTF(task.getAgentHostname() == null ? "" : task.getAgentHostname());
+        data.writeInt(task.getHostPorts().size());
+        for (Map.Entry<Integer, Integer> e : task.getHostPorts().entrySet()) {
+            data.writeInt(e.getKey());
+            data.writeInt(e.getValue());
+        }
+        data.flush();
+        return bytes.toByteArray();
+    }
+
+    private static String decodeId(byte[] record) throws IOException {
+        return new DataInputStream(new ByteArrayInputStream(record)).readUTF();
+    }
+
+    private static MesosTask decodeTask(byte[] record) throws IOException {
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(record));
+        String id = data.readUTF();
+        String appName = data.readUTF();
+        String imageName = data.readUTF();
+        String dockerCommand = data.readUTF();
+        TaskState state = TaskState.valueOf(data.readInt());
+        String ip = data.readUTF();
+        String agentId = data.readUTF();
+        int retries = data.readInt();
+        int numResources = data.readInt();
+        List<Resource> requirements = new ArrayList<>(numResources);
+        for (int i = 0; i < numResources; i++) {
+            byte[] resource = new byte[data.readInt()];
+            data.readFully(resource);
+            requirements.add(Resource.parseFrom(resource));
+        }
+        MesosTask task = new MesosTask(id, appName, imageName, dockerCommand, state == null ? TaskState.TASK_LOST : state,
+                requirements);
+        task.setIp(ip.isEmpty() ? null : ip);
+        task.setAgentId(agentId.isEmpty() ? null : agentId);
+        task.setRetries(retries);
+        if (data.available() > 0) {
+            // Not in the records of older logs
+            String agentHostname = data.readUTF();
+            task.setAgentHostname(agentHostname.isEmpty() ? null : agentHostname);
+            int numPorts = data.readInt();
+            Map<Integer, Integer> hostPorts = new HashMap<>();
+            for (int i = 0; i < numPorts; i++) {
+                hostPorts.put(data.readInt(), data.readInt());
+            }
+            task.setHostPorts(hostPorts);
+        }
+        return task;
+    }
+
+}
@@ -0,0 +1,385 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.mesos.Protos.Resource;
+import org.apache.mesos.Protos.TaskState;
+
+
+/**
+ * Idle workers kept running per image, command and resources, so requests for them are served right away. A shape is
+ * pooled after its first request, the pool is refilled up to the configured size after every request and all the idle
+ * workers of a shape are retired once it has not been requested for the idle TTL. Also keeps the hit, miss and handout
+ * latency counters, the handout latency being the time from a request until its worker is running.
+ *
+ * Not thread-safe, callers must synchronize.
+ *
+ */
+public class WarmPool {
+
+    /**
+     * Resource shape of pooled workers, and its idle workers.
+     */
+    public static class Shape {
+
+        private final String imageName;
+        private final String dockerCommand;
+        private final List<Resource> resources;
+        // Idle workers by pooling order
+        private final Set<String> members;
+        private long lastRequest;
+
+
+        private Shape(String imageName, String dockerCommand, List<Resource> resources) {
+            this.imageName = imageName;
+            this.dockerCommand = dockerCommand;
+            this.resources = resources;
+            this.members = new LinkedHashSet<>();
+        }
+
+        /**
+         * @return Docker image name.
+         */
+        public String getImageName() {
+            return imageName;
+        }
+
+        /**
+         * @return Docker command to run.
+         */
+        public String getDockerCommand() {
+            return dockerCommand;
+        }
+
+        /**
+         * @return List of resources of each worker.
+         */
+        public List<Resource> getResources() {
+            return resources;
+        }
+    }
+
+    /**
+     * Immutable view of the pool counters.
+     */
+    public static class Stats {
+
+        private final long hits;
+        private final long misses;
+        private final int idleWorkers;
+        private final long handouts;
+        private final long totalHandoutTime;
+        private final long maxHandoutTime;
+
+
+        private Stats(long hits, long misses, int idleWorkers, long handouts, long totalHandoutTime, long maxHandoutTime) {
+            this.hits = hits;
+            this.misses = misses;
+            this.idleWorkers = idleWorkers;
+            this.handouts = handouts;
+            this.totalHandoutTime = totalHandoutTime;
+            this.maxHandoutTime = maxHandoutTime;
+        }
+
+        /**
+         * @return Requests served with a pooled worker.
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * @return Requests that had to launch a new worker.
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * @return Workers in the pool.
+         */
+        public int getIdleWorkers() {
+            return idleWorkers;
+        }
+
+        /**
+         * @return Requested workers that reached the running state.
+         */
+        public long getHandouts() {
+            return handouts;
+        }
+
+        /**
+         * @return Mean time in milliseconds from a request until its worker is running.
+         */
+        public double getMeanHandoutTime() {
+            return handouts == 0 ? 0.0 : (double) totalHandoutTime / handouts;
+        }
+
+        /**
+         * @return Maximum time in milliseconds from a request until its worker is running.
+         */
+        public long getMaxHandoutTime() {
+            return maxHandoutTime;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[WarmPool] hits: %d, misses: %d, idle: %d, handouts: %d, mean handout: %.1f ms, max handout: %d ms",
+                    hits, misses, idleWorkers, handouts, getMeanHandoutTime(), maxHandoutTime);
+        }
+    }
+
+
+    private final int size;
+    private final long idleTtl;
+    private final Map<List<Object>, Shape> shapes;
+    // Shape of each idle worker
+    private final Map<String, Shape> membership;
+    // Idle workers killed after the TTL, forgotten once they end
+    private final Set<String> retiring;
+    // Request time of the workers not running yet
+    private final Map<String, Long> requestTimes;
+
+    private long hits;
+    private long misses;
+    private long handouts;
+    private long totalHandoutTime;
+    private long maxHandoutTime;
+
+
+    /**
+     * Creates an empty pool.
+     *
+     * @param size
+     *            Idle workers kept per shape, 0 or less to disable the pool.
+     * @param idleTtl
+     *            Time in milliseconds a shape stays pooled after its last request.
+     */
+    public WarmPool(int size, long idleTtl) {
+        this.size = size;
+        this.idleTtl = idleTtl;
+        this.shapes = new LinkedHashMap<>();
+        this.membership = new HashMap<>();
+        this.retiring = new HashSet<>();
+        this.requestTimes = new HashMap<>();
+    }
+
+    /**
+     * @return True if idle workers are kept.
+     */
+    public boolean isEnabled() {
+        return size > 0;
+    }
+
+    /**
+     * Takes an idle worker for a request, preferring the ones already running over the ones being launched. The shape
+     * requested is pooled, and stays pooled for the idle TTL.
+     *
+     * @param imageName
+     *            Docker image name.
+     * @param dockerCommand
+     *            Docker command to run.
+     * @param resources
+     *            List of resources requested.
+     * @param tasks
+     *            Tasks known, to check the state of the idle workers.
+     * @param now
+     *            Current time in milliseconds.
+     * @return Identifier of the worker taken, null if there is no idle worker of that shape.
+     */
+    public String claim(String imageName, String dockerCommand, List<Resource> resources, Map<String, MesosTask> tasks, long now) {
+        Shape shape = getShape(imageName, dockerCommand, resources);
+        shape.lastRequest = now;
+        String claimed = null;
+        for (String id : shape.members) {
+            MesosTask mt = tasks.get(id);
+            if (mt.getState() == TaskState.TASK_RUNNING) {
+                claimed = id;
+                break;
+            } else if (claimed == null && mt.getAgentId() != null
+                    && (mt.getState() == TaskState.TASK_STAGING || mt.getState() == TaskState.TASK_STARTING)) {
+                // Launched, not running yet
+                claimed = id;
+            }
+        }
+        if (claimed == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        shape.members.remove(claimed);
+        membership.remove(claimed);
+        return claimed;
+    }
+
+    /**
+     * @return Shapes pooled, with the number of workers missing to fill them.
+     */
+    public Map<Shape, Integer> getMissing() {
+        Map<Shape, Integer> missing = new LinkedHashMap<>();
+        for (Shape shape : shapes.values()) {
+            if (shape.members.size() < size) {
+                missing.put(shape, size - shape.members.size());
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Adds a worker to the pool.
+     *
+     * @param shape
+     *            Shape of the worker.
+     * @param id
+     *            Worker identifier.
+     */
+    public void add(Shape shape, String id) {
+        shape.members.add(id);
+        membership.put(id, shape);
+    }
+
+    /**
+     * Adds a worker recovered after a restart to the pool of its shape.
+     *
+     * @param mt
+     *            Worker recovered.
+     * @param now
+     *            Current time in milliseconds.
+     */
+    public void adopt(MesosTask mt, long now) {
+        Shape shape = getShape(mt.getImageName(), mt.getDockerCommand(), mt.getRequirements());
+        if (shape.members.isEmpty()) {
+            shape.lastRequest = now;
+        }
+        add(shape, mt.getId());
+    }
+
+    /**
+     * @param id
+     *            Worker identifier.
+     * @return True if the worker is idle in the pool or being retired.
+     */
+    public boolean contains(String id) {
+        return membership.containsKey(id) || retiring.contains(id);
+    }
+
+    /**
+     * @param id
+     *            Worker identifier.
+     * @return True if the worker was retired by the pool.
+     */
+    public boolean isRetiring(String id) {
+        return retiring.contains(id);
+    }
+
+    /**
+     * Removes a worker that ended from the pool.
+     *
+     * @param id
+     *            Worker identifier.
+     */
+    public void remove(String id) {
+        Shape shape = membership.remove(id);
+        if (shape != null) {
+            shape.members.remove(id);
+        }
+        retiring.remove(id);
+        requestTimes.remove(id);
+    }
+
+    /**
+     * Stops pooling the shapes not requested for the idle TTL.
+     *
+     * @param now
+     *            Current time in milliseconds.
+     * @return Idle workers of those shapes, to be killed.
+     */
+    public List<String> expire(long now) {
+        List<String> expired = new ArrayList<>();
+        Iterator<Shape> it = shapes.values().iterator();
+        while (it.hasNext()) {
+            Shape shape = it.next();
+            if (now - shape.lastRequest >= idleTtl) {
+                for (String id : shape.members) {
+                    membership.remove(id);
+                    retiring.add(id);
+                    expired.add(id);
+                }
+                it.remove();
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * @return Time in milliseconds when the next shape expires, -1 if there is no shape pooled.
+     */
+    public long getNextExpiration() {
+        long next = -1;
+        for (Shape shape : shapes.values()) {
+            long expiration = shape.lastRequest + idleTtl;
+            if (next < 0 || expiration < next) {
+                next = expiration;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Starts measuring the handout latency of a requested worker.
+     *
+     * @param id
+     *            Worker identifier.
+     * @param now
+     *            Current time in milliseconds.
+     */
+    public void handoutRequested(String id, long now) {
+        requestTimes.put(id, now);
+    }
+
+    /**
+     * Records the handout latency of a requested worker that is running.
+     *
+     * @param id
+     *            Worker identifier.
+     * @param now
+     *            Current time in milliseconds.
+     */
+    public void handoutRunning(String id, long now) {
+        Long requestTime = requestTimes.remove(id);
+        if (requestTime != null) {
+            long latency = Math.max(0, now - requestTime);
+            handouts++;
+            totalHandoutTime += latency;
+            maxHandoutTime = Math.max(maxHandoutTime, latency);
+        }
+    }
+
+    /**
+     * @return Current counters.
+     */
+    public Stats getStats() {
+        return new Stats(hits, misses, membership.size(), handouts, totalHandoutTime, maxHandoutTime);
+    }
+
+    private Shape getShape(String imageName, String dockerCommand, List<Resource> resources) {
+        List<Object> key = Arrays.<Object> asList(imageName, dockerCommand, resources);
+        Shape shape = shapes.get(key);
+        if (shape == null) {
+            shape = new Shape(imageName, dockerCommand, resources);
+            shapes.put(key, shape);
+        }
+        return shape;
+    }
+
+}
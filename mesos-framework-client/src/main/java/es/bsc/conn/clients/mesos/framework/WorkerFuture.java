@@ -0,0 +1,33 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import java.util.concurrent.CompletableFuture;
+
+
+/**
+ * Future of a worker requested to Mesos. It is completed with the worker IP once it is running, and keeps the worker
+ * identifier to remove it later.
+ *
+ */
+public class WorkerFuture extends CompletableFuture<String> {
+
+    private final String workerId;
+
+
+    /**
+     * Creates a new future for a worker.
+     *
+     * @param workerId
+     *            Worker identifier.
+     */
+    public WorkerFuture(String workerId) {
+        this.workerId = workerId;
+    }
+
+    /**
+     * @return Worker identifier.
+     */
+    public String getWorkerId() {
+        return workerId;
+    }
+
+}
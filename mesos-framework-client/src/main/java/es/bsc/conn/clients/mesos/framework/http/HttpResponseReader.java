@@ -0,0 +1,245 @@
+package es.bsc.conn.clients.mesos.framework.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * Incremental parser of the HTTP/1.1 responses read from a connection, for non-blocking sockets. Bytes can be fed in
+ * pieces of any size. Bodies delimited by Content-Length, by chunked transfer encoding or by the end of the connection
+ * are passed to the listener as they arrive, without the chunk framing. Several responses can be read one after the
+ * other from the same connection.
+ *
+ * Not thread-safe, callers must synchronize.
+ *
+ */
+public class HttpResponseReader {
+
+    /**
+     * Receives the parts of the responses read.
+     */
+    public interface Listener {
+
+        /**
+         * @param status
+         *            Status code of the response.
+         * @param headers
+         *            Headers of the response, with lower case names.
+         * @throws IOException
+         *             to stop reading the connection.
+         */
+        void headers(int status, Map<String, String> headers) throws IOException;
+
+        /**
+         * @param data
+         *            Buffer with the body bytes.
+         * @param offset
+         *            Position of the first byte.
+         * @param length
+         *            Number of bytes.
+         * @throws IOException
+         *             to stop reading the connection.
+         */
+        void body(byte[] data, int offset, int length) throws IOException;
+
+        /**
+         * Called once the whole response was read.
+         *
+         * @throws IOException
+         *             to stop reading the connection.
+         */
+        void end() throws IOException;
+    }
+
+    private enum State {
+        STATUS_LINE, HEADERS, BODY, BODY_UNTIL_CLOSE, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS
+    }
+
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    private final Listener listener;
+    private State state;
+    private final ByteArrayOutputStream line;
+    private int status;
+    private Map<String, String> headers;
+    // Bytes left of the body or of the current chunk
+    private long remaining;
+
+
+    /**
+     * Creates a reader at the start of a response.
+     *
+     * @param listener
+     *            Receiver of the responses.
+     */
+    public HttpResponseReader(Listener listener) {
+        this.listener = listener;
+        this.state = State.STATUS_LINE;
+        this.line = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Parses bytes read from the connection.
+     *
+     * @param data
+     *            Buffer with the bytes.
+     * @param offset
+     *            Position of the first byte.
+     * @param length
+     *            Number of bytes.
+     * @throws IOException
+     *             if the response is malformed or the listener stops reading.
+     */
+    public void feed(byte[] data, int offset, int length) throws IOException {
+        int pos = offset;
+        int end = offset + length;
+        while (pos < end) {
+            switch (state) {
+                case BODY:
+                case CHUNK_DATA:
+                    int n = (int) Math.min(remaining, end - pos);
+                    listener.body(data, pos, n);
+                    pos += n;
+                    remaining -= n;
+                    if (remaining == 0) {
+                        if (state == State.BODY) {
+                            endResponse();
+                        } else {
+                            state = State.CHUNK_END;
+                        }
+                    }
+                    break;
+                case BODY_UNTIL_CLOSE:
+                    listener.body(data, pos, end - pos);
+                    pos = end;
+                    break;
+                default:
+                    // Line based states
+                    byte b = data[pos++];
+                    if (b == '\n') {
+                        String text = line.toString(StandardCharsets.ISO_8859_1.name());
+                        line.reset();
+                        if (text.endsWith("\r")) {
+                            text = text.substring(0, text.length() - 1);
+                        }
+                        parseLine(text);
+                    } else if (line.size() >= MAX_LINE_LENGTH) {
+                        throw new IOException("HTTP line too long");
+                    } else {
+                        line.write(b);
+                    }
+            }
+        }
+    }
+
+    /**
+     * Notifies that the connection was closed, which ends a body delimited by the end of the connection.
+     *
+     * @return True if the connection was closed between responses or at the end of such a body.
+     * @throws IOException
+     *             if the listener fails.
+     */
+    public boolean close() throws IOException {
+        if (state == State.BODY_UNTIL_CLOSE) {
+            endResponse();
+            return true;
+        }
+        return state == State.STATUS_LINE && line.size() == 0;
+    }
+
+    private void parseLine(String text) throws IOException {
+        switch (state) {
+            case STATUS_LINE:
+                if (text.isEmpty()) {
+                    // Tolerate empty lines between responses
+                    return;
+                }
+                String[] parts = text.split(" ", 3);
+                if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                    throw new IOException("Malformed HTTP status line: " + text);
+                }
+                try {
+                    status = Integer.parseInt(parts[1]);
+                } catch (NumberFormatException nfe) {
+                    throw new IOException("Malformed HTTP status line: " + text, nfe);
+                }
+                headers = new HashMap<>();
+                state = State.HEADERS;
+                break;
+            case HEADERS:
+                if (text.isEmpty()) {
+                    listener.headers(status, headers);
+                    startBody();
+                    return;
+                }
+                int colon = text.indexOf(':');
+                if (colon <= 0) {
+                    throw new IOException("Malformed HTTP header: " + text);
+                }
+                headers.put(text.substring(0, colon).trim().toLowerCase(Locale.ROOT), text.substring(colon + 1).trim());
+                break;
+            case CHUNK_SIZE:
+                int extension = text.indexOf(';');
+                String size = (extension < 0 ? text : text.substring(0, extension)).trim();
+                try {
+                    remaining = Long.parseLong(size, 16);
+                } catch (NumberFormatException nfe) {
+                    throw new IOException("Malformed chunk size: " + text, nfe);
+                }
+                if (remaining < 0) {
+                    throw new IOException("Malformed chunk size: " + text);
+                }
+                state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+                break;
+            case CHUNK_END:
+                if (!text.isEmpty()) {
+                    throw new IOException("Missing end of chunk");
+                }
+                state = State.CHUNK_SIZE;
+                break;
+            case TRAILERS:
+                if (text.isEmpty()) {
+                    endResponse();
+                }
+                break;
+            default:
+                throw new IllegalStateException("Not reading a line in state " + state);
+        }
+    }
+
+    private void startBody() throws IOException {
+        String transferEncoding = headers.get("transfer-encoding");
+        String contentLength = headers.get("content-length");
+        if (status / 100 == 1 || status == 204 || status == 304) {
+            endResponse();
+        } else if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).contains("chunked")) {
+            state = State.CHUNK_SIZE;
+        } else if (contentLength != null) {
+            try {
+                remaining = Long.parseLong(contentLength);
+            } catch (NumberFormatException nfe) {
+                throw new IOException("Malformed Content-Length: " + contentLength, nfe);
+            }
+            if (remaining < 0) {
+                throw new IOException("Malformed Content-Length: " + contentLength);
+            } else if (remaining == 0) {
+                endResponse();
+            } else {
+                state = State.BODY;
+            }
+        } else {
+            state = State.BODY_UNTIL_CLOSE;
+        }
+    }
+
+    private void endResponse() throws IOException {
+        state = State.STATUS_LINE;
+        headers = null;
+        listener.end();
+    }
+
+}
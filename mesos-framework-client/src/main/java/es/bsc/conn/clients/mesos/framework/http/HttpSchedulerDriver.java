@@ -0,0 +1,935 @@
+package es.bsc.conn.clients.mesos.framework.http;
+
+import es.bsc.conn.clients.mesos.framework.log.Loggers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.mesos.Scheduler;
+import org.apache.mesos.SchedulerDriver;
+import org.apache.mesos.Protos.Credential;
+import org.apache.mesos.Protos.ExecutorID;
+import org.apache.mesos.Protos.Filters;
+import org.apache.mesos.Protos.FrameworkID;
+import org.apache.mesos.Protos.FrameworkInfo;
+import org.apache.mesos.Protos.MasterInfo;
+import org.apache.mesos.Protos.Offer;
+import org.apache.mesos.Protos.OfferID;
+import org.apache.mesos.Protos.Request;
+import org.apache.mesos.Protos.SlaveID;
+import org.apache.mesos.Protos.Status;
+import org.apache.mesos.Protos.TaskID;
+import org.apache.mesos.Protos.TaskInfo;
+import org.apache.mesos.Protos.TaskStatus;
+import org.apache.mesos.v1.scheduler.Protos.Call;
+import org.apache.mesos.v1.scheduler.Protos.Event;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+
+
+/**
+ * Scheduler driver that speaks the Mesos v1 scheduler HTTP API in pure Java, instead of going through libmesos like
+ * the MesosSchedulerDriver. The same Scheduler runs on top of any of them.
+ *
+ * A single I/O thread runs a selector over two connections to the master: the subscription, a streaming response with
+ * the events encoded in RecordIO, and a keep-alive connection where the calls are pipelined. Scheduler callbacks run
+ * on the I/O thread, and driver methods only queue the calls for it, so they can be used from any thread and from the
+ * callbacks. Like the native driver, status updates are acknowledged once their callback returns and calls made while
+ * the driver is not subscribed are dropped, except the offer suppression that is applied again on every subscription.
+ * The subscription is retried with an exponential backoff when it is lost, when heartbeats are missed or when the
+ * master redirects to the leading master, failing over to the same framework. The address of the master is resolved
+ * again on every attempt, from another thread so the I/O thread never blocks, and an attempt fails if it cannot be
+ * resolved.
+ *
+ */
+public class HttpSchedulerDriver implements SchedulerDriver {
+
+    private static final Logger LOGGER = LogManager.getLogger(Loggers.MF_DRIVER);
+
+    private static final String API_PATH = "/api/v1/scheduler";
+    private static final String PROTOBUF = "application/x-protobuf";
+    private static final String STREAM_ID_HEADER = "Mesos-Stream-Id";
+    private static final String LOCATION_HEADER = "location";
+    private static final String ZOOKEEPER_PREFIX = "zk://";
+    private static final int DEFAULT_MASTER_PORT = 5050;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    // Resubscriptions wait 1 s, doubling on every failed attempt up to 30 s
+    private static final long MIN_RESUBSCRIBE_DELAY = 1000;
+    private static final long MAX_RESUBSCRIBE_DELAY = 30_000;
+    // The subscription is lost after 5 heartbeats without receiving anything
+    private static final int MISSED_HEARTBEATS = 5;
+    private static final double DEFAULT_HEARTBEAT_INTERVAL = 15.0;
+    // Time given to send the calls queued when the driver is stopped
+    private static final long STOP_FLUSH_TIME = 1000;
+
+    private final Scheduler scheduler;
+    private final String authorization;
+    // Calls made from any thread, sent by the I/O thread
+    private final Queue<Call.Builder> outbox;
+    private final CountDownLatch terminated;
+    private volatile Status status;
+    private volatile boolean offersSuppressed;
+    private Selector selector;
+    // Resolves the address of the master for the I/O thread, which picks the result up when woken up
+    private final ExecutorService resolver;
+    private final AtomicReference<InetSocketAddress> resolved;
+
+    // Only accessed from the I/O thread
+    private FrameworkInfo framework;
+    private InetSocketAddress master;
+    // Address the connections are opened to, master resolved on the last subscription attempt
+    private InetSocketAddress masterAddress;
+    private Connection subscription;
+    private Connection calls;
+    private String streamId;
+    private boolean registered;
+    private long heartbeatTimeout;
+    private long lastReceived;
+    private long resubscribeDelay;
+    // Time of the next subscription attempt, -1 if there is none pending
+    private long resubscribeTime;
+    private final ByteBuffer readBuffer;
+
+
+    /**
+     * Creates a driver for a framework.
+     *
+     * @param scheduler
+     *            Scheduler receiving the callbacks.
+     * @param framework
+     *            Framework description, with its identifier to fail over to an existing framework.
+     * @param master
+     *            Address of the master, host:port or http://host:port.
+     */
+    public HttpSchedulerDriver(Scheduler scheduler, FrameworkInfo framework, String master) {
+        this(scheduler, framework, master, null);
+    }
+
+    /**
+     * Creates a driver for a framework that authenticates with HTTP basic authentication.
+     *
+     * @param scheduler
+     *            Scheduler receiving the callbacks.
+     * @param framework
+     *            Framework description, with its identifier to fail over to an existing framework.
+     * @param master
+     *            Address of the master, host:port or http://host:port.
+     * @param credential
+     *            Principal and secret, null to not authenticate.
+     */
+    public HttpSchedulerDriver(Scheduler scheduler, FrameworkInfo framework, String master, Credential credential) {
+        this.scheduler = scheduler;
+        this.framework = framework;
+        this.master = parseMaster(master);
+        this.authorization = credential == null ? null
+                : "Basic " + Base64.getEncoder().encodeToString(
+                        (credential.getPrincipal() + ":" + credential.getSecret()).getBytes(StandardCharsets.UTF_8));
+        this.outbox = new ConcurrentLinkedQueue<>();
+        this.terminated = new CountDownLatch(1);
+        this.resolver = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Mesos HTTP scheduler driver resolver");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.resolved = new AtomicReference<>();
+        this.status = Status.DRIVER_NOT_STARTED;
+        this.offersSuppressed = false;
+        this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        this.heartbeatTimeout = (long) (MISSED_HEARTBEATS * DEFAULT_HEARTBEAT_INTERVAL * TimeUnit.SECONDS.toMillis(1));
+    }
+
+    private static InetSocketAddress parseMaster(String master) {
+        if (master.startsWith(ZOOKEEPER_PREFIX)) {
+            throw new IllegalArgumentException("The HTTP scheduler driver needs the address of a master, not " + master);
+        }
+        URI uri = URI.create(master.contains("://") ? master : "http://" + master);
+        if (uri.getHost() == null) {
+            throw new IllegalArgumentException("Invalid master address " + master);
+        }
+        return InetSocketAddress.createUnresolved(uri.getHost(), uri.getPort() < 0 ? DEFAULT_MASTER_PORT : uri.getPort());
+    }
+
+    @Override
+    public synchronized Status start() {
+        if (status != Status.DRIVER_NOT_STARTED) {
+            return status;
+        }
+        try {
+            selector = Selector.open();
+        } catch (IOException ioe) {
+            LOGGER.error("Could not open selector", ioe);
+            status = Status.DRIVER_ABORTED;
+            terminated.countDown();
+            return status;
+        }
+        status = Status.DRIVER_RUNNING;
+        Thread ioThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "Mesos HTTP scheduler driver");
+        ioThread.setDaemon(true);
+        ioThread.start();
+        return status;
+    }
+
+    @Override
+    public synchronized Status stop(boolean failover) {
+        if (status == Status.DRIVER_NOT_STARTED) {
+            status = Status.DRIVER_STOPPED;
+            terminated.countDown();
+            return status;
+        }
+        if (status != Status.DRIVER_RUNNING) {
+            return status;
+        }
+        if (!failover) {
+            // Unregisters the framework, killing its tasks
+            outbox.add(Call.newBuilder().setType(Call.Type.TEARDOWN));
+        }
+        status = Status.DRIVER_STOPPED;
+        selector.wakeup();
+        return status;
+    }
+
+    @Override
+    public Status stop() {
+        return stop(false);
+    }
+
+    @Override
+    public synchronized Status abort() {
+        if (status != Status.DRIVER_RUNNING) {
+            return status;
+        }
+        status = Status.DRIVER_ABORTED;
+        outbox.clear();
+        selector.wakeup();
+        return status;
+    }
+
+    @Override
+    public Status join() {
+        if (status == Status.DRIVER_NOT_STARTED) {
+            return status;
+        }
+        try {
+            terminated.await();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        return status;
+    }
+
+    @Override
+    public Status run() {
+        Status started = start();
+        return started == Status.DRIVER_RUNNING ? join() : started;
+    }
+
+    @Override
+    public Status requestResources(Collection<Request> requests) {
+        return send(Call.newBuilder().setType(Call.Type.REQUEST)
+                .setRequest(Call.Request.newBuilder().addAllRequests(convert(requests, org.apache.mesos.v1.Protos.Request.getDefaultInstance()))));
+    }
+
+    @Override
+    public Status launchTasks(Collection<OfferID> offerIds, Collection<TaskInfo> tasks, Filters filters) {
+        Offer.Operation launch = Offer.Operation.newBuilder().setType(Offer.Operation.Type.LAUNCH)
+                .setLaunch(Offer.Operation.Launch.newBuilder().addAllTaskInfos(tasks)).build();
+        return acceptOffers(offerIds, Collections.singletonList(launch), filters);
+    }
+
+    @Override
+    public Status launchTasks(Collection<OfferID> offerIds, Collection<TaskInfo> tasks) {
+        return launchTasks(offerIds, tasks, null);
+    }
+
+    @Override
+    public Status launchTasks(OfferID offerId, Collection<TaskInfo> tasks, Filters filters) {
+        return launchTasks(Collections.singletonList(offerId), tasks, filters);
+    }
+
+    @Override
+    public Status launchTasks(OfferID offerId, Collection<TaskInfo> tasks) {
+        return launchTasks(Collections.singletonList(offerId), tasks, null);
+    }
+
+    @Override
+    public Status killTask(TaskID taskId) {
+        return send(Call.newBuilder().setType(Call.Type.KILL)
+                .setKill(Call.Kill.newBuilder().setTaskId(convert(taskId, org.apache.mesos.v1.Protos.TaskID.getDefaultInstance()))));
+    }
+
+    @Override
+    public Status acceptOffers(Collection<OfferID> offerIds, Collection<Offer.Operation> operations, Filters filters) {
+        Call.Accept.Builder accept = Call.Accept.newBuilder()
+                .addAllOfferIds(convert(offerIds, org.apache.mesos.v1.Protos.OfferID.getDefaultInstance()))
+                .addAllOperations(convert(operations, org.apache.mesos.v1.Protos.Offer.Operation.getDefaultInstance()));
+        if (filters != null) {
+            accept.setFilters(convert(filters, org.apache.mesos.v1.Protos.Filters.getDefaultInstance()));
+        }
+        return send(Call.newBuilder().setType(Call.Type.ACCEPT).setAccept(accept));
+    }
+
+    @Override
+    public Status declineOffer(OfferID offerId, Filters filters) {
+        Call.Decline.Builder decline = Call.Decline.newBuilder()
+                .addOfferIds(convert(offerId, org.apache.mesos.v1.Protos.OfferID.getDefaultInstance()));
+        if (filters != null) {
+            decline.setFilters(convert(filters, org.apache.mesos.v1.Protos.Filters.getDefaultInstance()));
+        }
+        return send(Call.newBuilder().setType(Call.Type.DECLINE).setDecline(decline));
+    }
+
+    @Override
+    public Status declineOffer(OfferID offerId) {
+        return declineOffer(offerId, null);
+    }
+
+    @Override
+    public Status reviveOffers() {
+        offersSuppressed = false;
+        return send(Call.newBuilder().setType(Call.Type.REVIVE));
+    }
+
+    @Override
+    public Status suppressOffers() {
+        offersSuppressed = true;
+        return send(Call.newBuilder().setType(Call.Type.SUPPRESS));
+    }
+
+    @Override
+    public Status acknowledgeStatusUpdate(TaskStatus taskStatus) {
+        LOGGER.warn("Status updates are acknowledged implicitly, ignoring acknowledgement of task " + taskStatus.getTaskId().getValue());
+        return status;
+    }
+
+    @Override
+    public Status sendFrameworkMessage(ExecutorID executorId, SlaveID slaveId, byte[] data) {
+        return send(Call.newBuilder().setType(Call.Type.MESSAGE)
+                .setMessage(Call.Message.newBuilder().setAgentId(convert(slaveId, org.apache.mesos.v1.Protos.AgentID.getDefaultInstance()))
+                        .setExecutorId(convert(executorId, org.apache.mesos.v1.Protos.ExecutorID.getDefaultInstance()))
+                        .setData(ByteString.copyFrom(data))));
+    }
+
+    @Override
+    public Status reconcileTasks(Collection<TaskStatus> statuses) {
+        Call.Reconcile.Builder reconcile = Call.Reconcile.newBuilder();
+        for (TaskStatus s : statuses) {
+            Call.Reconcile.Task.Builder task = Call.Reconcile.Task.newBuilder()
+                    .setTaskId(convert(s.getTaskId(), org.apache.mesos.v1.Protos.TaskID.getDefaultInstance()));
+            if (s.hasSlaveId()) {
+                task.setAgentId(convert(s.getSlaveId(), org.apache.mesos.v1.Protos.AgentID.getDefaultInstance()));
+            }
+            reconcile.addTasks(task);
+        }
+        return send(Call.newBuilder().setType(Call.Type.RECONCILE).setReconcile(reconcile));
+    }
+
+    private Status send(Call.Builder call) {
+        Status current = status;
+        if (current != Status.DRIVER_RUNNING) {
+            return current;
+        }
+        outbox.add(call);
+        selector.wakeup();
+        return current;
+    }
+
+    /**
+     * Converts between the unversioned and the v1 protobufs, which share the wire format.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends Message> T convert(Message message, T prototype) {
+        try {
+            return (T) prototype.newBuilderForType().mergeFrom(message.toByteString()).build();
+        } catch (InvalidProtocolBufferException ipbe) {
+            throw new IllegalArgumentException("Cannot convert " + message.getDescriptorForType().getFullName(), ipbe);
+        }
+    }
+
+    private static <T extends Message> List<T> convert(Collection<? extends Message> messages, T prototype) {
+        List<T> converted = new ArrayList<>(messages.size());
+        for (Message m : messages) {
+            converted.add(convert(m, prototype));
+        }
+        return converted;
+    }
+
+    private void loop() {
+        long stopDeadline = -1;
+        resubscribeDelay = MIN_RESUBSCRIBE_DELAY;
+        resubscribeTime = System.currentTimeMillis();
+        try {
+            while (true) {
+                long now = System.currentTimeMillis();
+                if (status == Status.DRIVER_ABORTED) {
+                    break;
+                }
+                if (status == Status.DRIVER_STOPPED) {
+                    if (stopDeadline < 0) {
+                        stopDeadline = now + STOP_FLUSH_TIME;
+                    }
+                    flushOutbox();
+                    if (calls == null || !calls.hasOutput() || now >= stopDeadline) {
+                        break;
+                    }
+                } else {
+                    checkTimers(now);
+                    flushOutbox();
+                }
+                selector.select(getSelectTimeout(now, stopDeadline));
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        // Closed while handling another connection
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        connection.handle(key);
+                    } catch (IOException ioe) {
+                        connectionFailed(connection, ioe);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Error in the scheduler driver I/O loop", e);
+            status = Status.DRIVER_ABORTED;
+        } finally {
+            closeConnections();
+            resolver.shutdownNow();
+            try {
+                selector.close();
+            } catch (IOException ioe) {
+                LOGGER.debug("Error closing selector", ioe);
+            }
+            terminated.countDown();
+        }
+    }
+
+    private long getSelectTimeout(long now, long stopDeadline) {
+        long deadline = -1;
+        if (stopDeadline >= 0) {
+            deadline = stopDeadline;
+        } else if (resubscribeTime >= 0) {
+            deadline = resubscribeTime;
+        } else if (subscription != null) {
+            deadline = lastReceived + heartbeatTimeout;
+        }
+        // 0 waits until a connection is ready or the selector is woken up
+        return deadline < 0 ? 0 : Math.max(1, deadline - now);
+    }
+
+    private void checkTimers(long now) {
+        InetSocketAddress address = resolved.getAndSet(null);
+        if (address != null) {
+            subscribe(address);
+        } else if (subscription == null && resubscribeTime >= 0 && now >= resubscribeTime) {
+            resolveMaster();
+        } else if (subscription != null && now - lastReceived > heartbeatTimeout) {
+            subscriptionLost("No events from the master in " + heartbeatTimeout + " ms");
+        }
+    }
+
+    private void resolveMaster() {
+        // No attempt is pending until the resolution wakes the I/O thread up
+        resubscribeTime = -1;
+        final InetSocketAddress unresolved = master;
+        resolver.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                resolved.set(new InetSocketAddress(unresolved.getHostString(), unresolved.getPort()));
+                selector.wakeup();
+            }
+        });
+    }
+
+    private void subscribe(InetSocketAddress address) {
+        if (address.isUnresolved()) {
+            LOGGER.warn("Could not resolve master " + master);
+            scheduleResubscribe();
+            return;
+        }
+        masterAddress = address;
+        Call.Subscribe.Builder subscribe = Call.Subscribe.newBuilder()
+                .setFrameworkInfo(convert(framework, org.apache.mesos.v1.Protos.FrameworkInfo.getDefaultInstance()));
+        Call.Builder call = Call.newBuilder().setType(Call.Type.SUBSCRIBE).setSubscribe(subscribe);
+        if (framework.hasId()) {
+            call.setFrameworkId(convert(framework.getId(), org.apache.mesos.v1.Protos.FrameworkID.getDefaultInstance()));
+        }
+        LOGGER.info("Subscribing to master " + master);
+        // The master has as long as the heartbeats to answer
+        lastReceived = System.currentTimeMillis();
+        try {
+            subscription = new Connection("subscription", new SubscriptionListener());
+            subscription.send(encodeRequest(call.build()), "SUBSCRIBE");
+        } catch (IOException ioe) {
+            LOGGER.warn("Could not connect to master " + master + ": " + ioe.getMessage());
+            subscription = null;
+            scheduleResubscribe();
+        }
+    }
+
+    private void scheduleResubscribe() {
+        resubscribeTime = System.currentTimeMillis() + resubscribeDelay;
+        resubscribeDelay = Math.max(MIN_RESUBSCRIBE_DELAY, Math.min(2 * resubscribeDelay, MAX_RESUBSCRIBE_DELAY));
+    }
+
+    private void flushOutbox() {
+        Call.Builder call;
+        while ((call = outbox.poll()) != null) {
+            if (streamId == null) {
+                if (call.getType() == Call.Type.SUPPRESS || call.getType() == Call.Type.REVIVE) {
+                    LOGGER.debug("Not subscribed, offers are " + (offersSuppressed ? "suppressed" : "revived") + " on subscription");
+                } else {
+                    LOGGER.warn("Not subscribed to the master, dropping " + call.getType() + " call");
+                }
+                continue;
+            }
+            if (framework.hasId()) {
+                call.setFrameworkId(convert(framework.getId(), org.apache.mesos.v1.Protos.FrameworkID.getDefaultInstance()));
+            }
+            try {
+                if (calls == null) {
+                    calls = new Connection("calls", new CallListener());
+                }
+                calls.send(encodeRequest(call.build()), call.getType().name());
+            } catch (IOException ioe) {
+                LOGGER.warn("Could not connect to master " + master + ", dropping " + call.getType() + " call: " + ioe.getMessage());
+                calls = null;
+            }
+        }
+    }
+
+    private ByteBuffer encodeRequest(Call call) {
+        byte[] body = call.toByteArray();
+        StringBuilder head = new StringBuilder();
+        head.append("POST ").append(API_PATH).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(master.getHostString()).append(':').append(master.getPort()).append("\r\n");
+        head.append("Content-Type: ").append(PROTOBUF).append("\r\n");
+        head.append("Accept: ").append(PROTOBUF).append("\r\n");
+        head.append("Content-Length: ").append(body.length).append("\r\n");
+        if (call.getType() != Call.Type.SUBSCRIBE) {
+            head.append(STREAM_ID_HEADER).append(": ").append(streamId).append("\r\n");
+        }
+        if (authorization != null) {
+            head.append("Authorization: ").append(authorization).append("\r\n");
+        }
+        head.append("\r\n");
+        byte[] headBytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer request = ByteBuffer.allocate(headBytes.length + body.length);
+        request.put(headBytes).put(body);
+        request.flip();
+        return request;
+    }
+
+    private void connectionFailed(Connection connection, IOException cause) {
+        if (connection == subscription) {
+            subscriptionLost(cause.getMessage());
+        } else if (connection == calls) {
+            if (calls.hasInFlight()) {
+                LOGGER.warn("Connection for calls to master " + master + " lost, " + calls.getInFlight() + " calls may be lost: "
+                        + cause.getMessage());
+            } else {
+                LOGGER.debug("Connection for calls to master " + master + " closed: " + cause.getMessage());
+            }
+            calls.close();
+            calls = null;
+        }
+    }
+
+    private void subscriptionLost(String reason) {
+        LOGGER.warn("Subscription to master " + master + " lost: " + reason);
+        closeConnections();
+        boolean wasSubscribed = streamId != null;
+        streamId = null;
+        if (wasSubscribed) {
+            callback(new Runnable() {
+
+                @Override
+                public void run() {
+                    scheduler.disconnected(HttpSchedulerDriver.this);
+                }
+            });
+        }
+        if (status == Status.DRIVER_RUNNING) {
+            scheduleResubscribe();
+        }
+    }
+
+    private void closeConnections() {
+        if (subscription != null) {
+            subscription.close();
+            subscription = null;
+        }
+        if (calls != null) {
+            calls.close();
+            calls = null;
+        }
+    }
+
+    private void callback(Runnable callback) {
+        try {
+            callback.run();
+        } catch (RuntimeException re) {
+            LOGGER.error("Error in scheduler callback", re);
+        }
+    }
+
+    private void handleEvent(final Event event) {
+        switch (event.getType()) {
+            case SUBSCRIBED:
+                subscribed(event.getSubscribed());
+                break;
+            case OFFERS:
+                final List<Offer> offers = convert(event.getOffers().getOffersList(), Offer.getDefaultInstance());
+                callback(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        scheduler.resourceOffers(HttpSchedulerDriver.this, offers);
+                    }
+                });
+                break;
+            case RESCIND:
+                callback(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        scheduler.offerRescinded(HttpSchedulerDriver.this,
+                                convert(event.getRescind().getOfferId(), OfferID.getDefaultInstance()));
+                    }
+                });
+                break;
+            case UPDATE:
+                final org.apache.mesos.v1.Protos.TaskStatus update = event.getUpdate().getStatus();
+                callback(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        scheduler.statusUpdate(HttpSchedulerDriver.this, convert(update, TaskStatus.getDefaultInstance()));
+                    }
+                });
+                if (update.hasUuid() && update.hasAgentId()) {
+                    outbox.add(Call.newBuilder().setType(Call.Type.ACKNOWLEDGE).setAcknowledge(Call.Acknowledge.newBuilder()
+                            .setAgentId(update.getAgentId()).setTaskId(update.getTaskId()).setUuid(update.getUuid())));
+                }
+                break;
+            case MESSAGE:
+                callback(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        Event.Message message = event.getMessage();
+                        scheduler.frameworkMessage(HttpSchedulerDriver.this, convert(message.getExecutorId(), ExecutorID.getDefaultInstance()),
+                                convert(message.getAgentId(), SlaveID.getDefaultInstance()), message.getData().toByteArray());
+                    }
+                });
+                break;
+            case FAILURE:
+                failure(event.getFailure());
+                break;
+            case ERROR:
+                LOGGER.error("Error from master " + master + ": " + event.getError().getMessage());
+                callback(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        scheduler.error(HttpSchedulerDriver.this, event.getError().getMessage());
+                    }
+                });
+                abort();
+                break;
+            case HEARTBEAT:
+                LOGGER.debug("Heartbeat from master " + master);
+                break;
+            default:
+                LOGGER.debug("Ignoring event " + event.getType());
+        }
+    }
+
+    private void subscribed(Event.Subscribed subscribed) {
+        final FrameworkID frameworkId = convert(subscribed.getFrameworkId(), FrameworkID.getDefaultInstance());
+        framework = framework.toBuilder().setId(frameworkId).build();
+        double heartbeatInterval = subscribed.hasHeartbeatIntervalSeconds() ? subscribed.getHeartbeatIntervalSeconds()
+                : DEFAULT_HEARTBEAT_INTERVAL;
+        heartbeatTimeout = (long) (MISSED_HEARTBEATS * heartbeatInterval * TimeUnit.SECONDS.toMillis(1));
+        resubscribeDelay = MIN_RESUBSCRIBE_DELAY;
+        final MasterInfo masterInfo = subscribed.hasMasterInfo() ? convert(subscribed.getMasterInfo(), MasterInfo.getDefaultInstance())
+                : MasterInfo.newBuilder().setId("").setIp(0).setPort(master.getPort()).setHostname(master.getHostString()).build();
+        LOGGER.info("Subscribed to master " + master + " as framework " + frameworkId.getValue());
+        if (offersSuppressed) {
+            outbox.add(Call.newBuilder().setType(Call.Type.SUPPRESS));
+        }
+        final boolean reregistered = registered;
+        registered = true;
+        callback(new Runnable() {
+
+            @Override
+            public void run() {
+                if (reregistered) {
+                    scheduler.reregistered(HttpSchedulerDriver.this, masterInfo);
+                } else {
+                    scheduler.registered(HttpSchedulerDriver.this, frameworkId, masterInfo);
+                }
+            }
+        });
+    }
+
+    private void failure(final Event.Failure failure) {
+        final SlaveID slaveId = convert(failure.getAgentId(), SlaveID.getDefaultInstance());
+        callback(new Runnable() {
+
+            @Override
+            public void run() {
+                if (failure.hasExecutorId()) {
+                    scheduler.executorLost(HttpSchedulerDriver.this, convert(failure.getExecutorId(), ExecutorID.getDefaultInstance()),
+                            slaveId, failure.getStatus());
+                } else if (failure.hasAgentId()) {
+                    scheduler.slaveLost(HttpSchedulerDriver.this, slaveId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Receives the event stream of the subscription.
+     */
+    private final class SubscriptionListener implements HttpResponseReader.Listener {
+
+        private final RecordIODecoder decoder = new RecordIODecoder();
+        private int responseStatus;
+        private final ByteArrayOutputStream errorBody = new ByteArrayOutputStream();
+
+
+        @Override
+        public void headers(int responseStatus, Map<String, String> headers) throws IOException {
+            this.responseStatus = responseStatus;
+            if (responseStatus == 307 && headers.containsKey(LOCATION_HEADER)) {
+                // Not the leading master, subscribe right away to the one it points to
+                String location = headers.get(LOCATION_HEADER);
+                master = parseMaster(location.startsWith("//") ? "http:" + location : location);
+                resubscribeDelay = 0;
+                throw new IOException("Redirected to leading master " + master);
+            }
+            if (responseStatus == 200) {
+                streamId = headers.get(STREAM_ID_HEADER.toLowerCase(Locale.ROOT));
+                lastReceived = System.currentTimeMillis();
+            }
+        }
+
+        @Override
+        public void body(byte[] data, int offset, int length) throws IOException {
+            if (responseStatus != 200) {
+                errorBody.write(data, offset, length);
+                return;
+            }
+            lastReceived = System.currentTimeMillis();
+            for (byte[] record : decoder.decode(data, offset, length)) {
+                handleEvent(Event.parseFrom(record));
+                if (status != Status.DRIVER_RUNNING) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void end() throws IOException {
+            if (responseStatus == 200) {
+                throw new EOFException("Event stream ended");
+            }
+            final String message = "Subscription rejected with status " + responseStatus + ": "
+                    + errorBody.toString(StandardCharsets.UTF_8.name());
+            if (responseStatus / 100 == 4) {
+                // The framework is wrong, retrying does not help
+                LOGGER.error(message);
+                callback(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        scheduler.error(HttpSchedulerDriver.this, message);
+                    }
+                });
+                abort();
+            }
+            throw new IOException(message);
+        }
+    }
+
+    /**
+     * Receives the responses to the calls, which have no body unless they fail.
+     */
+    private final class CallListener implements HttpResponseReader.Listener {
+
+        private int responseStatus;
+        private final ByteArrayOutputStream errorBody = new ByteArrayOutputStream();
+
+
+        @Override
+        public void headers(int responseStatus, Map<String, String> headers) {
+            this.responseStatus = responseStatus;
+            errorBody.reset();
+        }
+
+        @Override
+        public void body(byte[] data, int offset, int length) {
+            errorBody.write(data, offset, length);
+        }
+
+        @Override
+        public void end() throws IOException {
+            String call = calls.completed();
+            if (responseStatus / 100 != 2) {
+                LOGGER.warn(String.format("Call %s rejected by master %s with status %d: %s", call, master, responseStatus,
+                        errorBody.toString(StandardCharsets.UTF_8.name())));
+            }
+        }
+    }
+
+    /**
+     * Non-blocking connection to the master, with the requests waiting to be written.
+     */
+    private final class Connection {
+
+        private final String name;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final HttpResponseReader reader;
+        private final Queue<ByteBuffer> output;
+        // Requests written or being written, waiting for their response
+        private final Queue<String> inFlight;
+        private boolean connected;
+
+
+        private Connection(String name, HttpResponseReader.Listener listener) throws IOException {
+            this.name = name;
+            this.reader = new HttpResponseReader(listener);
+            this.output = new ArrayDeque<>();
+            this.inFlight = new ArrayDeque<>();
+            this.channel = SocketChannel.open();
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                connected = channel.connect(masterAddress);
+                key = channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+            } catch (IOException ioe) {
+                channel.close();
+                throw ioe;
+            }
+        }
+
+        private void send(ByteBuffer request, String label) {
+            output.add(request);
+            inFlight.add(label);
+            if (connected) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        private boolean hasOutput() {
+            return !output.isEmpty();
+        }
+
+        private boolean hasInFlight() {
+            return !inFlight.isEmpty();
+        }
+
+        private int getInFlight() {
+            return inFlight.size();
+        }
+
+        private String completed() {
+            String label = inFlight.poll();
+            return label == null ? "unknown" : label;
+        }
+
+        private void handle(SelectionKey selected) throws IOException {
+            if (selected.isConnectable()) {
+                channel.finishConnect();
+                connected = true;
+                LOGGER.debug("Connected " + name + " to master " + master);
+                key.interestOps(SelectionKey.OP_READ | (output.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+            }
+            if (selected.isValid() && selected.isWritable()) {
+                write();
+            }
+            if (selected.isValid() && selected.isReadable()) {
+                read();
+            }
+        }
+
+        private void write() throws IOException {
+            while (!output.isEmpty()) {
+                ByteBuffer request = output.peek();
+                channel.write(request);
+                if (request.hasRemaining()) {
+                    return;
+                }
+                output.poll();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        private void read() throws IOException {
+            readBuffer.clear();
+            int n = channel.read(readBuffer);
+            if (n < 0) {
+                reader.close();
+                throw new EOFException("Connection closed by master");
+            }
+            reader.feed(readBuffer.array(), 0, n);
+        }
+
+        private void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ioe) {
+                LOGGER.debug("Error closing " + name + " connection", ioe);
+            }
+        }
+    }
+
+}
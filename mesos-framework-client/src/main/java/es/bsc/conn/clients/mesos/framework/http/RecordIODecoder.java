@@ -0,0 +1,105 @@
+package es.bsc.conn.clients.mesos.framework.http;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Incremental decoder of RecordIO streams, the framing of the Mesos v1 event stream: every record is its length in
+ * decimal ASCII, a new line and the record bytes. Bytes can be fed in pieces of any size, records are returned once
+ * complete.
+ *
+ * Not thread-safe, callers must synchronize.
+ *
+ */
+public class RecordIODecoder {
+
+    private static final int MAX_RECORD_SIZE = 64 << 20;
+    private static final int MAX_HEADER_DIGITS = 10;
+
+    // Length of the record being read, -1 while reading its header
+    private int recordLength;
+    private long headerValue;
+    private int headerDigits;
+    private byte[] record;
+    private int filled;
+
+
+    /**
+     * Creates a decoder at the start of a stream.
+     */
+    public RecordIODecoder() {
+        this.recordLength = -1;
+    }
+
+    /**
+     * Encodes a record.
+     *
+     * @param record
+     *            Record bytes.
+     * @return Record with its RecordIO header.
+     */
+    public static byte[] encode(byte[] record) {
+        byte[] header = (record.length + "\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] encoded = new byte[header.length + record.length];
+        System.arraycopy(header, 0, encoded, 0, header.length);
+        System.arraycopy(record, 0, encoded, header.length, record.length);
+        return encoded;
+    }
+
+    /**
+     * Decodes a piece of the stream.
+     *
+     * @param data
+     *            Buffer with the bytes.
+     * @param offset
+     *            Position of the first byte.
+     * @param length
+     *            Number of bytes.
+     * @return Records completed by these bytes, in stream order.
+     * @throws IOException
+     *             if a record header is malformed.
+     */
+    public List<byte[]> decode(byte[] data, int offset, int length) throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        int pos = offset;
+        int end = offset + length;
+        while (pos < end) {
+            if (recordLength < 0) {
+                byte b = data[pos++];
+                if (b == '\n') {
+                    if (headerDigits == 0) {
+                        throw new IOException("Empty RecordIO header");
+                    }
+                    recordLength = (int) headerValue;
+                    headerValue = 0;
+                    headerDigits = 0;
+                    record = new byte[recordLength];
+                    filled = 0;
+                } else if (b >= '0' && b <= '9' && headerDigits < MAX_HEADER_DIGITS) {
+                    headerValue = headerValue * 10 + (b - '0');
+                    headerDigits++;
+                    if (headerValue > MAX_RECORD_SIZE) {
+                        throw new IOException("RecordIO record too large: " + headerValue);
+                    }
+                } else {
+                    throw new IOException("Malformed RecordIO header, unexpected byte " + (b & 0xff));
+                }
+            } else {
+                int n = Math.min(recordLength - filled, end - pos);
+                System.arraycopy(data, pos, record, filled, n);
+                filled += n;
+                pos += n;
+            }
+            if (recordLength >= 0 && filled == recordLength) {
+                records.add(record);
+                record = null;
+                recordLength = -1;
+            }
+        }
+        return records;
+    }
+
+}
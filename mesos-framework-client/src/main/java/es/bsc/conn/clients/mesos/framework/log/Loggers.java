@@ -14,6 +14,9 @@ public final class Loggers {
     // Mesos Framework Scheduler
     public static final String MF_SCHEDULER = MF + ".Scheduler";
 
+    // Mesos v1 HTTP scheduler driver
+    public static final String MF_DRIVER = MF + ".Driver";
+
     // Mesos Offer
     public static final String MESOS_OFFER = MF + ".Offer";
 
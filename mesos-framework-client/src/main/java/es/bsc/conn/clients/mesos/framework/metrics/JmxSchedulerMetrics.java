@@ -0,0 +1,227 @@
+package es.bsc.conn.clients.mesos.framework.metrics;
+
+import es.bsc.conn.clients.mesos.framework.exceptions.FrameworkException;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+
+/**
+ * Scheduler metrics kept in lock-free counters and histograms, and exposed as an MBean once registered.
+ *
+ */
+public class JmxSchedulerMetrics implements SchedulerMetrics, JmxSchedulerMetricsMBean {
+
+    private static final String DOMAIN = "es.bsc.conn.clients.mesos.framework";
+
+    private final LongAdder offersReceived = new LongAdder();
+    private final LongAdder offersUsed = new LongAdder();
+    private final LongAdder offersDeclined = new LongAdder();
+    private final LatencyHistogram offerCycles = new LatencyHistogram();
+    private volatile int pendingTasks;
+    private volatile int runningTasks;
+    private final LatencyHistogram timeToRunning = new LatencyHistogram();
+    private final LatencyHistogram coldStarts = new LatencyHistogram();
+    private final LatencyHistogram warmStarts = new LatencyHistogram();
+    private final LongAdder relaunches = new LongAdder();
+    private final LongAdder preemptions = new LongAdder();
+
+    private ObjectName objectName;
+
+
+    /**
+     * Registers the metrics in the platform MBean server.
+     *
+     * @param name
+     *            Name of the scheduler, to tell apart several schedulers in the same JVM.
+     * @throws FrameworkException
+     *             if the MBean cannot be registered.
+     */
+    public synchronized void register(String name) throws FrameworkException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            objectName = new ObjectName(DOMAIN + ":type=MesosFrameworkScheduler,name=" + ObjectName.quote(name));
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            objectName = null;
+            throw new FrameworkException("Could not register scheduler metrics " + name, e);
+        }
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server, if they were registered.
+     */
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            // Already unregistered
+        }
+        objectName = null;
+    }
+
+    @Override
+    public void offersReceived(int offers) {
+        offersReceived.add(offers);
+    }
+
+    @Override
+    public void offersUsed(int offers) {
+        offersUsed.add(offers);
+    }
+
+    @Override
+    public void offersDeclined(int offers) {
+        offersDeclined.add(offers);
+    }
+
+    @Override
+    public void offerCycle(long nanos) {
+        offerCycles.record(nanos);
+    }
+
+    @Override
+    public void queueDepths(int pending, int running) {
+        pendingTasks = pending;
+        runningTasks = running;
+    }
+
+    @Override
+    public void taskRunning(long millis) {
+        timeToRunning.record(millis);
+    }
+
+    @Override
+    public void taskStarted(long millis, boolean warmAgent) {
+        (warmAgent ? warmStarts : coldStarts).record(millis);
+    }
+
+    @Override
+    public void taskRelaunched() {
+        relaunches.increment();
+    }
+
+    @Override
+    public void taskPreempted() {
+        preemptions.increment();
+    }
+
+    @Override
+    public long getOffersReceived() {
+        return offersReceived.sum();
+    }
+
+    @Override
+    public long getOffersUsed() {
+        return offersUsed.sum();
+    }
+
+    @Override
+    public long getOffersDeclined() {
+        return offersDeclined.sum();
+    }
+
+    @Override
+    public long getOfferCycles() {
+        return offerCycles.getCount();
+    }
+
+    @Override
+    public double getOfferCycleMeanMicros() {
+        return offerCycles.getMean() / TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    @Override
+    public long getOfferCycleP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(offerCycles.getPercentile(99));
+    }
+
+    @Override
+    public long getOfferCycleMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(offerCycles.getMax());
+    }
+
+    @Override
+    public int getPendingTasks() {
+        return pendingTasks;
+    }
+
+    @Override
+    public int getRunningTasks() {
+        return runningTasks;
+    }
+
+    @Override
+    public long getTasksStarted() {
+        return timeToRunning.getCount();
+    }
+
+    @Override
+    public double getTimeToRunningMeanMillis() {
+        return timeToRunning.getMean();
+    }
+
+    @Override
+    public long getTimeToRunningP50Millis() {
+        return timeToRunning.getPercentile(50);
+    }
+
+    @Override
+    public long getTimeToRunningP99Millis() {
+        return timeToRunning.getPercentile(99);
+    }
+
+    @Override
+    public long getTimeToRunningMaxMillis() {
+        return timeToRunning.getMax();
+    }
+
+    @Override
+    public long getColdStarts() {
+        return coldStarts.getCount();
+    }
+
+    @Override
+    public double getColdStartMeanMillis() {
+        return coldStarts.getMean();
+    }
+
+    @Override
+    public long getColdStartP99Millis() {
+        return coldStarts.getPercentile(99);
+    }
+
+    @Override
+    public long getWarmStarts() {
+        return warmStarts.getCount();
+    }
+
+    @Override
+    public double getWarmStartMeanMillis() {
+        return warmStarts.getMean();
+    }
+
+    @Override
+    public long getWarmStartP99Millis() {
+        return warmStarts.getPercentile(99);
+    }
+
+    @Override
+    public long getRelaunches() {
+        return relaunches.sum();
+    }
+
+    @Override
+    public long getPreemptions() {
+        return preemptions.sum();
+    }
+
+}
@@ -0,0 +1,54 @@
+package es.bsc.conn.clients.mesos.framework.metrics;
+
+/**
+ * Management interface of the scheduler metrics. Times are in milliseconds, except the offer cycle times that are in
+ * microseconds. Cold and warm starts are the times from launch until running on agents without and with the image.
+ *
+ */
+public interface JmxSchedulerMetricsMBean {
+
+    long getOffersReceived();
+
+    long getOffersUsed();
+
+    long getOffersDeclined();
+
+    long getOfferCycles();
+
+    double getOfferCycleMeanMicros();
+
+    long getOfferCycleP99Micros();
+
+    long getOfferCycleMaxMicros();
+
+    int getPendingTasks();
+
+    int getRunningTasks();
+
+    long getTasksStarted();
+
+    double getTimeToRunningMeanMillis();
+
+    long getTimeToRunningP50Millis();
+
+    long getTimeToRunningP99Millis();
+
+    long getTimeToRunningMaxMillis();
+
+    long getColdStarts();
+
+    double getColdStartMeanMillis();
+
+    long getColdStartP99Millis();
+
+    long getWarmStarts();
+
+    double getWarmStartMeanMillis();
+
+    long getWarmStartP99Millis();
+
+    long getRelaunches();
+
+    long getPreemptions();
+
+}
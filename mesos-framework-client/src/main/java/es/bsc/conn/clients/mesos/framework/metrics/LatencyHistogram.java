@@ -0,0 +1,129 @@
+package es.bsc.conn.clients.mesos.framework.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Lock-free histogram of non-negative values. Values are counted in buckets of 4 per power of two, so percentiles are
+ * reported with an error under 25%, while the count, sum and maximum are exact. Recording a value is a few atomic
+ * additions and never blocks.
+ *
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Bucket 0 for 0, then SUB_BUCKETS for each power of two up to 2^62
+    private static final int NUM_BUCKETS = 1 + 63 * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets;
+    private final LongAdder count;
+    private final LongAdder sum;
+    private final AtomicLong max;
+
+
+    /**
+     * Creates an empty histogram.
+     */
+    public LatencyHistogram() {
+        this.buckets = new AtomicLongArray(NUM_BUCKETS);
+        this.count = new LongAdder();
+        this.sum = new LongAdder();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * @param value
+     *            Value to record, negative values are recorded as 0.
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        buckets.incrementAndGet(getBucket(v));
+        count.increment();
+        sum.add(v);
+        long current = max.get();
+        while (v > current && !max.compareAndSet(current, v)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @return Number of values recorded.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return Mean of the values recorded, 0 if there is none.
+     */
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0.0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * @return Maximum value recorded, 0 if there is none.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile
+     *            Percentile, between 0 and 100.
+     * @return Upper bound of the bucket holding the percentile, never above the maximum. 0 if there are no values.
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        long[] counts = new long[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(getUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    private static int getBucket(long value) {
+        if (value == 0) {
+            return 0;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        // Bits after the leading one
+        long subBucket;
+        if (exponent >= SUB_BUCKET_BITS) {
+            subBucket = (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        } else {
+            subBucket = (value << (SUB_BUCKET_BITS - exponent)) & (SUB_BUCKETS - 1);
+        }
+        return 1 + exponent * SUB_BUCKETS + (int) subBucket;
+    }
+
+    private static long getUpperBound(int bucket) {
+        if (bucket == 0) {
+            return 0;
+        }
+        int exponent = (bucket - 1) / SUB_BUCKETS;
+        int subBucket = (bucket - 1) % SUB_BUCKETS;
+        if (exponent < SUB_BUCKET_BITS) {
+            // Buckets hold a single value
+            return (long) (SUB_BUCKETS + subBucket) >> (SUB_BUCKET_BITS - exponent);
+        }
+        long next = (long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+        return next < 0 ? Long.MAX_VALUE : next - 1;
+    }
+
+}
@@ -0,0 +1,54 @@
+package es.bsc.conn.clients.mesos.framework.metrics;
+
+/**
+ * Discards all the measures.
+ *
+ */
+public class NoSchedulerMetrics implements SchedulerMetrics {
+
+    @Override
+    public void offersReceived(int offers) {
+        // Nothing to do
+    }
+
+    @Override
+    public void offersUsed(int offers) {
+        // Nothing to do
+    }
+
+    @Override
+    public void offersDeclined(int offers) {
+        // Nothing to do
+    }
+
+    @Override
+    public void offerCycle(long nanos) {
+        // Nothing to do
+    }
+
+    @Override
+    public void queueDepths(int pending, int running) {
+        // Nothing to do
+    }
+
+    @Override
+    public void taskRunning(long millis) {
+        // Nothing to do
+    }
+
+    @Override
+    public void taskStarted(long millis, boolean warmAgent) {
+        // Nothing to do
+    }
+
+    @Override
+    public void taskRelaunched() {
+        // Nothing to do
+    }
+
+    @Override
+    public void taskPreempted() {
+        // Nothing to do
+    }
+
+}
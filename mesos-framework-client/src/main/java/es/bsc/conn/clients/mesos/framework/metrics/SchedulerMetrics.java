@@ -0,0 +1,66 @@
+package es.bsc.conn.clients.mesos.framework.metrics;
+
+/**
+ * Receives the measures of a MesosFrameworkScheduler. Methods are called from the scheduler event loop and from the
+ * Mesos callback threads, so implementations must be thread-safe and should not block.
+ *
+ */
+public interface SchedulerMetrics {
+
+    /**
+     * @param offers
+     *            Offers received in a resourceOffers callback.
+     */
+    void offersReceived(int offers);
+
+    /**
+     * @param offers
+     *            Offers used to launch tasks.
+     */
+    void offersUsed(int offers);
+
+    /**
+     * @param offers
+     *            Offers declined.
+     */
+    void offersDeclined(int offers);
+
+    /**
+     * @param nanos
+     *            Duration of a resourceOffers callback, in nanoseconds.
+     */
+    void offerCycle(long nanos);
+
+    /**
+     * @param pending
+     *            Tasks and gangs waiting to be launched.
+     * @param running
+     *            Tasks running.
+     */
+    void queueDepths(int pending, int running);
+
+    /**
+     * @param millis
+     *            Time from the request of a task until it is running, in milliseconds.
+     */
+    void taskRunning(long millis);
+
+    /**
+     * @param millis
+     *            Time from the launch of a task until it is running, in milliseconds.
+     * @param warmAgent
+     *            True if the agent had the image of the task already.
+     */
+    void taskStarted(long millis, boolean warmAgent);
+
+    /**
+     * Called every time a failed task is queued to be launched again.
+     */
+    void taskRelaunched();
+
+    /**
+     * Called every time a task on revocable resources is preempted and queued to be launched again.
+     */
+    void taskPreempted();
+
+}
@@ -0,0 +1,42 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+public class AgentBlacklistTest {
+
+    private static final long HALF_LIFE = 1000;
+
+
+    @Test
+    public void testScoresDecay() {
+        AgentBlacklist blacklist = new AgentBlacklist(2.0, HALF_LIFE);
+        blacklist.addFailures("agent-1", 1.0, 0);
+        assertFalse(blacklist.isBlacklisted("agent-1", 0));
+        blacklist.addFailures("agent-1", 1.0, 0);
+        assertTrue(blacklist.isBlacklisted("agent-1", 0));
+        assertFalse(blacklist.isBlacklisted("agent-2", 0));
+
+        assertEquals(1.0, blacklist.getScore("agent-1", HALF_LIFE), 1e-9);
+        assertFalse(blacklist.isBlacklisted("agent-1", HALF_LIFE));
+        // Failures add to the decayed score
+        assertEquals(2.0, blacklist.addFailures("agent-1", 1.0, HALF_LIFE), 1e-9);
+        assertTrue(blacklist.isBlacklisted("agent-1", HALF_LIFE));
+
+        assertEquals(0.0, blacklist.getScore("agent-1", 20 * HALF_LIFE), 0.0);
+        assertEquals(0, blacklist.size());
+    }
+
+    @Test
+    public void testDisabled() {
+        AgentBlacklist blacklist = new AgentBlacklist(0.0, HALF_LIFE);
+        blacklist.addFailures("agent-1", 100.0, 0);
+        assertFalse(blacklist.isBlacklisted("agent-1", 0));
+        assertEquals(0, blacklist.size());
+    }
+
+}
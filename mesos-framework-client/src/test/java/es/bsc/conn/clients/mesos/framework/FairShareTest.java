@@ -0,0 +1,68 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+
+public class FairShareTest {
+
+    private static final double DELTA = 1e-9;
+
+
+    @Test
+    public void testWeightedDominantShare() {
+        FairShare share = new FairShare();
+        share.setWeight("b", 2.0);
+        share.launched("a-1", "a", 2.0, 1024.0);
+        share.launched("b-1", "b", 1.0, 4096.0);
+        // Dominant resource of a is cpus, of b is mem, halved by its weight
+        assertEquals(0.2, share.getDominantShare("a", 10.0, 10240.0), DELTA);
+        assertEquals(0.2, share.getDominantShare("b", 10.0, 10240.0), DELTA);
+        assertEquals(0.0, share.getDominantShare("c", 10.0, 10240.0), DELTA);
+        assertEquals(3.0, share.getAllocatedCpus(), DELTA);
+        assertEquals(5120.0, share.getAllocatedMem(), DELTA);
+
+        // Relaunched workers are counted once
+        share.launched("a-1", "a", 2.0, 1024.0);
+        share.ended("b-1");
+        share.ended("b-1");
+        assertEquals(2.0, share.getAllocatedCpus(), DELTA);
+        assertEquals(1, share.getUsage().get("a").getWorkers());
+        assertEquals(2, share.getUsage().get("a").getLaunched());
+        assertEquals(0, share.getUsage().get("b").getWorkers());
+        assertEquals(0.0, share.getUsage().get("b").getMem(), DELTA);
+        assertEquals(Arrays.asList("b", "a"), new ArrayList<>(share.getUsage().keySet()));
+
+        // Pooled workers handed out change of application
+        share.transfer("a-1", "b");
+        assertEquals(0.0, share.getUsage().get("a").getCpus(), DELTA);
+        assertEquals(2.0, share.getUsage().get("b").getCpus(), DELTA);
+        share.ended("a-1");
+        assertEquals(0.0, share.getUsage().get("b").getCpus(), DELTA);
+        assertEquals(0.0, share.getAllocatedCpus(), DELTA);
+    }
+
+    @Test
+    public void testCaps() {
+        FairShare share = new FairShare();
+        assertTrue(share.fitsCap("a", 100.0, 100.0));
+        share.setCap("a", 2.0, 0.0);
+        share.launched("a-1", "a", 1.0, 4096.0);
+        assertTrue(share.fitsCap("a", 1.0, 4096.0));
+        assertFalse(share.fitsCap("a", 1.5, 1.0));
+        share.setCap("a", 0.0, 0.0);
+        assertTrue(share.fitsCap("a", 1.5, 1.0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWeightMustBePositive() {
+        new FairShare().setWeight("a", 0.0);
+    }
+
+}
@@ -0,0 +1,287 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.mesos.Protos.ExecutorID;
+import org.apache.mesos.Protos.Filters;
+import org.apache.mesos.Protos.Offer.Operation;
+import org.apache.mesos.Protos.OfferID;
+import org.apache.mesos.Protos.Request;
+import org.apache.mesos.Protos.SlaveID;
+import org.apache.mesos.Protos.Status;
+import org.apache.mesos.Protos.TaskID;
+import org.apache.mesos.Protos.TaskInfo;
+import org.apache.mesos.Protos.TaskStatus;
+import org.apache.mesos.SchedulerDriver;
+
+
+/**
+ * In-process SchedulerDriver that records the calls done by the scheduler instead of talking to a Mesos master. It can
+ * also replay a SchedulerTrace against a scheduler, playing the part of the master.
+ *
+ */
+public class FakeSchedulerDriver implements SchedulerDriver {
+
+    /**
+     * A launchTasks call.
+     */
+    public static class Launch {
+
+        private final List<OfferID> offerIds;
+        private final List<TaskInfo> tasks;
+        private final Filters filters;
+
+
+        public Launch(Collection<OfferID> offerIds, Collection<TaskInfo> tasks, Filters filters) {
+            this.offerIds = new ArrayList<>(offerIds);
+            this.tasks = new ArrayList<>(tasks);
+            this.filters = filters;
+        }
+
+        public List<OfferID> getOfferIds() {
+            return offerIds;
+        }
+
+        public List<TaskInfo> getTasks() {
+            return tasks;
+        }
+
+        public Filters getFilters() {
+            return filters;
+        }
+    }
+
+
+    private final List<Launch> launches = new ArrayList<>();
+    private final List<TaskInfo> launchedTasks = new ArrayList<>();
+    private final List<OfferID> declined = new ArrayList<>();
+    private final List<Filters> declineFilters = new ArrayList<>();
+    private final List<TaskID> killed = new ArrayList<>();
+    private final List<TaskStatus> reconciled = new ArrayList<>();
+    private int revives = 0;
+    private int suppresses = 0;
+    private volatile Runnable launchHook;
+
+
+    public synchronized List<Launch> getLaunches() {
+        return new ArrayList<>(launches);
+    }
+
+    public synchronized List<TaskInfo> getLaunchedTasks() {
+        return new ArrayList<>(launchedTasks);
+    }
+
+    public synchronized int getNumLaunchedTasks() {
+        return launchedTasks.size();
+    }
+
+    public synchronized List<OfferID> getDeclined() {
+        return new ArrayList<>(declined);
+    }
+
+    public synchronized List<Filters> getDeclineFilters() {
+        return new ArrayList<>(declineFilters);
+    }
+
+    public synchronized List<TaskID> getKilled() {
+        return new ArrayList<>(killed);
+    }
+
+    public synchronized List<TaskStatus> getReconciled() {
+        return new ArrayList<>(reconciled);
+    }
+
+    public synchronized int getRevives() {
+        return revives;
+    }
+
+    public synchronized int getSuppresses() {
+        return suppresses;
+    }
+
+    /**
+     * Runs an action on every launch before recording it, in the thread of the scheduler that launches.
+     */
+    public void onLaunch(Runnable action) {
+        launchHook = action;
+    }
+
+    public synchronized void clear() {
+        launches.clear();
+        launchedTasks.clear();
+        declined.clear();
+        declineFilters.clear();
+        killed.clear();
+        reconciled.clear();
+        revives = 0;
+        suppresses = 0;
+    }
+
+    /**
+     * Replays the events of a trace against scheduler, as if they came from a Mesos master.
+     *
+     * @param scheduler
+     *            Scheduler to receive the events.
+     * @param trace
+     *            Events to replay.
+     */
+    public void replay(MesosFrameworkScheduler scheduler, SchedulerTrace trace) {
+        for (SchedulerTrace.Event event : trace.getEvents()) {
+            replay(scheduler, event);
+        }
+    }
+
+    /**
+     * Replays a single event of a trace against scheduler. Status updates for tasks not launched yet are dropped.
+     *
+     * @param scheduler
+     *            Scheduler to receive the event.
+     * @param event
+     *            Event to replay.
+     */
+    public void replay(MesosFrameworkScheduler scheduler, SchedulerTrace.Event event) {
+        switch (event.getType()) {
+            case REQUEST:
+                scheduler.requestWorker(this, event.getAppName(), SchedulerTrace.IMAGE, SchedulerTrace.COMMAND, event.getResources());
+                break;
+            case OFFERS:
+                scheduler.resourceOffers(this, event.getOffers());
+                break;
+            case RESCIND:
+                scheduler.offerRescinded(this, event.getOfferId());
+                break;
+            case STATUS:
+                TaskInfo task;
+                synchronized (this) {
+                    if (event.getTaskIndex() >= launchedTasks.size()) {
+                        return;
+                    }
+                    task = launchedTasks.get(event.getTaskIndex());
+                }
+                scheduler.statusUpdate(this, TaskStatus.newBuilder().setTaskId(task.getTaskId()).setState(event.getState())
+                        .setContainerStatus(SchedulerTrace.CONTAINER_STATUS).build());
+                break;
+            default:
+                // Nothing
+        }
+    }
+
+    @Override
+    public Status start() {
+        return Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Status stop(boolean failover) {
+        return Status.DRIVER_STOPPED;
+    }
+
+    @Override
+    public Status stop() {
+        return Status.DRIVER_STOPPED;
+    }
+
+    @Override
+    public Status abort() {
+        return Status.DRIVER_ABORTED;
+    }
+
+    @Override
+    public Status join() {
+        return Status.DRIVER_STOPPED;
+    }
+
+    @Override
+    public Status run() {
+        return Status.DRIVER_STOPPED;
+    }
+
+    @Override
+    public Status requestResources(Collection<Request> requests) {
+        return Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Status launchTasks(Collection<OfferID> offerIds, Collection<TaskInfo> tasks, Filters filters) {
+        Runnable hook = launchHook;
+        if (hook != null) {
+            hook.run();
+        }
+        synchronized (this) {
+            launches.add(new Launch(offerIds, tasks, filters));
+            launchedTasks.addAll(tasks);
+        }
+        return Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Status launchTasks(Collection<OfferID> offerIds, Collection<TaskInfo> tasks) {
+        return launchTasks(offerIds, tasks, null);
+    }
+
+    @Override
+    public Status launchTasks(OfferID offerId, Collection<TaskInfo> tasks, Filters filters) {
+        List<OfferID> offerIds = new ArrayList<>();
+        offerIds.add(offerId);
+        return launchTasks(offerIds, tasks, filters);
+    }
+
+    @Override
+    public Status launchTasks(OfferID offerId, Collection<TaskInfo> tasks) {
+        return launchTasks(offerId, tasks, null);
+    }
+
+    @Override
+    public synchronized Status killTask(TaskID taskId) {
+        killed.add(taskId);
+        return Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Status acceptOffers(Collection<OfferID> offerIds, Collection<Operation> operations, Filters filters) {
+        return Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public synchronized Status declineOffer(OfferID offerId, Filters filters) {
+        declined.add(offerId);
+        declineFilters.add(filters);
+        return Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Status declineOffer(OfferID offerId) {
+        return declineOffer(offerId, null);
+    }
+
+    @Override
+    public synchronized Status reviveOffers() {
+        revives++;
+        return Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public synchronized Status suppressOffers() {
+        suppresses++;
+        return Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Status acknowledgeStatusUpdate(TaskStatus status) {
+        return Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public Status sendFrameworkMessage(ExecutorID executorId, SlaveID slaveId, byte[] data) {
+        return Status.DRIVER_RUNNING;
+    }
+
+    @Override
+    public synchronized Status reconcileTasks(Collection<TaskStatus> statuses) {
+        reconciled.addAll(statuses);
+        return Status.DRIVER_RUNNING;
+    }
+
+}
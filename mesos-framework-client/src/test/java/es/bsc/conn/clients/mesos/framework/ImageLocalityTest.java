@@ -0,0 +1,94 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.mesos.Protos.TaskState;
+import org.junit.Test;
+
+
+public class ImageLocalityTest {
+
+    private static final String IMAGE = "compss/compss:2.0";
+    private static final String OTHER_IMAGE = "compss/compss:2.1";
+
+
+    @Test
+    public void testWarmOffersNarrowed() {
+        ImageLocality locality = new ImageLocality();
+        MesosOfferPool pool = new MesosOfferPool();
+        pool.add(SyntheticOffers.offer("agent-1", 1.0, 1024.0, 1024.0));
+        MesosOffer warm = new MesosOffer(SyntheticOffers.offer("agent-2", 4.0, 4096.0, 4096.0));
+        pool.add(warm);
+        pool.add(SyntheticOffers.offer("agent-3", 4.0, 4096.0, 4096.0));
+
+        assertTrue(locality.getWarmOffers(IMAGE, pool).isEmpty());
+        locality.addWarm(IMAGE, "agent-2");
+        locality.addWarm(IMAGE, "agent-4");
+        MesosOfferPool warmOffers = locality.getWarmOffers(IMAGE, pool);
+        assertEquals(Collections.singletonList(warm), new ArrayList<>(warmOffers.getOffersByArrival()));
+        assertTrue(locality.getWarmOffers(OTHER_IMAGE, pool).isEmpty());
+
+        locality.removeAgent("agent-2");
+        assertTrue(locality.getWarmOffers(IMAGE, pool).isEmpty());
+        assertEquals(Collections.singleton("agent-4"), locality.getWarmAgents(IMAGE));
+    }
+
+    @Test
+    public void testPolicyChoosesAmongWarmOffers() {
+        ImageLocality locality = new ImageLocality();
+        MesosOfferPool pool = new MesosOfferPool();
+        pool.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        MesosOffer small = new MesosOffer(SyntheticOffers.offer("agent-2", 4.0, 4096.0, 4096.0));
+        pool.add(small);
+        MesosOffer big = new MesosOffer(SyntheticOffers.offer("agent-3", 8.0, 8192.0, 8192.0));
+        pool.add(big);
+        locality.addWarm(IMAGE, "agent-2");
+        locality.addWarm(IMAGE, "agent-3");
+        TaskRequirements requirements = new TaskRequirements(SyntheticOffers.resources(1.0, 1024.0, 1024.0));
+
+        MesosOfferPool warmOffers = locality.getWarmOffers(IMAGE, pool);
+        assertSame(small, new BinPackPlacement().select(requirements, warmOffers));
+        assertSame(big, new SpreadPlacement().select(requirements, warmOffers));
+        // Warm agents without enough resources are not chosen
+        assertNull(new BestFitPlacement().select(new TaskRequirements(SyntheticOffers.resources(16.0, 1024.0, 1024.0)),
+                warmOffers));
+        // The pool of warm offers is only used to choose
+        assertEquals(3, pool.size());
+    }
+
+    @Test
+    public void testImagesPulledOncePerAgent() {
+        ImageLocality locality = new ImageLocality();
+        locality.addImage(IMAGE);
+        locality.addImage(OTHER_IMAGE);
+        locality.addWarm(IMAGE, "agent-1");
+        assertEquals(Collections.singletonList(OTHER_IMAGE), locality.getImagesToPull("agent-1"));
+        assertEquals(Arrays.asList(IMAGE, OTHER_IMAGE), locality.getImagesToPull("agent-2"));
+
+        locality.startPull("pull-1", OTHER_IMAGE, "agent-1");
+        locality.startPull("pull-2", IMAGE, "agent-2");
+        assertTrue(locality.getImagesToPull("agent-1").isEmpty());
+        assertTrue(locality.updatePull("pull-1", TaskState.TASK_FINISHED));
+        assertTrue(locality.isWarm(OTHER_IMAGE, "agent-1"));
+
+        // A failed pull is not retried until the agent comes back
+        assertTrue(locality.updatePull("pull-2", TaskState.TASK_FAILED));
+        assertFalse(locality.isWarm(IMAGE, "agent-2"));
+        assertEquals(Collections.singletonList(OTHER_IMAGE), locality.getImagesToPull("agent-2"));
+        locality.removeAgent("agent-2");
+        assertEquals(Arrays.asList(IMAGE, OTHER_IMAGE), locality.getImagesToPull("agent-2"));
+
+        assertFalse(locality.updatePull("task-1", TaskState.TASK_RUNNING));
+        assertEquals(2, locality.getPullsLaunched());
+        assertEquals(1, locality.getPullsFailed());
+    }
+
+}
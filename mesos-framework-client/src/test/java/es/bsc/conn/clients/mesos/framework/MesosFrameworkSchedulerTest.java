@@ -0,0 +1,1194 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import es.bsc.conn.clients.mesos.framework.exceptions.FrameworkException;
+import es.bsc.conn.clients.mesos.framework.metrics.JmxSchedulerMetrics;
+
+import org.apache.mesos.Protos.FrameworkID;
+import org.apache.mesos.Protos.MasterInfo;
+import org.apache.mesos.Protos.ContainerStatus;
+import org.apache.mesos.Protos.NetworkInfo;
+import org.apache.mesos.Protos.Offer;
+import org.apache.mesos.Protos.Resource;
+import org.apache.mesos.Protos.SlaveID;
+import org.apache.mesos.Protos.TaskID;
+import org.apache.mesos.Protos.TaskInfo;
+import org.apache.mesos.Protos.TaskState;
+import org.apache.mesos.Protos.TaskStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+public class MesosFrameworkSchedulerTest {
+
+    private static final String IMAGE = "compss/compss:2.0";
+    private static final String COMMAND = "/usr/sbin/sshd -D";
+    // Generous, the timers of the scheduler may run late on a loaded machine
+    private static final long TIMER_DEADLINE = 10_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeSchedulerDriver driver;
+    private MesosFrameworkScheduler scheduler;
+
+
+    @Before
+    public void setUp() {
+        driver = new FakeSchedulerDriver();
+        scheduler = new MesosFrameworkScheduler();
+        scheduler.registered(driver, FrameworkID.newBuilder().setValue("test-framework").build(),
+                MasterInfo.newBuilder().setId("master").setIp(0).setPort(5050).build());
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.stop();
+    }
+
+    private String requestWorker(double cpus, double mem, double disk) {
+        return scheduler.requestWorker(driver, "app", IMAGE, COMMAND, SyntheticOffers.resources(cpus, mem, disk));
+    }
+
+    /**
+     * Waits until a timer of the scheduler makes condition true, failing if it is still false after TIMER_DEADLINE.
+     */
+    private static void await(Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMER_DEADLINE;
+        while (!condition.call()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Condition still false after " + TIMER_DEADLINE + " ms");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    static TaskStatus status(String id, TaskState state, String ip) {
+        NetworkInfo network = NetworkInfo.newBuilder().addIpAddresses(NetworkInfo.IPAddress.newBuilder().setIpAddress(ip)).build();
+        return TaskStatus.newBuilder().setTaskId(TaskID.newBuilder().setValue(id)).setState(state)
+                .setContainerStatus(ContainerStatus.newBuilder().addNetworkInfos(network)).build();
+    }
+
+    @Test
+    public void testTasksInSameAgentLaunchedTogether() {
+        for (int i = 0; i < 3; i++) {
+            requestWorker(1.0, 1024.0, 1024.0);
+        }
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        offers.add(SyntheticOffers.offer("agent-1", 1.0, 1024.0, 1024.0));
+        offers.add(SyntheticOffers.offer("agent-2", 0.5, 512.0, 512.0));
+        scheduler.resourceOffers(driver, offers);
+
+        assertEquals(1, driver.getLaunches().size());
+        FakeSchedulerDriver.Launch launch = driver.getLaunches().get(0);
+        assertEquals(3, launch.getTasks().size());
+        assertEquals(2, launch.getOfferIds().size());
+        assertEquals(1, driver.getDeclined().size());
+        assertEquals(offers.get(2).getId(), driver.getDeclined().get(0));
+    }
+
+    @Test
+    public void testHigherPriorityServedFirst() {
+        scheduler.setApplicationPriority("urgent", 10);
+        String first = requestWorker(1.0, 1024.0, 1024.0);
+        String urgent = scheduler.requestWorker(driver, "urgent", IMAGE, COMMAND, SyntheticOffers.resources(1.0, 1024.0, 1024.0));
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 1.0, 1024.0, 1024.0));
+        scheduler.resourceOffers(driver, offers);
+
+        assertEquals(1, driver.getLaunchedTasks().size());
+        assertEquals(urgent, driver.getLaunchedTasks().get(0).getTaskId().getValue());
+
+        offers.clear();
+        offers.add(SyntheticOffers.offer("agent-1", 1.0, 1024.0, 1024.0));
+        scheduler.resourceOffers(driver, offers);
+        assertEquals(first, driver.getLaunchedTasks().get(1).getTaskId().getValue());
+    }
+
+    @Test
+    public void testOffersDeclinedWithoutRequests() {
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+
+        assertTrue(driver.getLaunches().isEmpty());
+        assertEquals(1, driver.getDeclined().size());
+        assertEquals(1, driver.getSuppresses());
+    }
+
+    @Test
+    public void testRefuseFiltersOnlyWithoutRequests() {
+        scheduler.useRefuseSeconds(30.0);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        assertEquals(30.0, driver.getDeclineFilters().get(0).getRefuseSeconds(), 0.0);
+
+        requestWorker(4.0, 1024.0, 1024.0);
+        scheduler.resourceOffers(driver, offers);
+        assertEquals(2, driver.getDeclined().size());
+        assertNull(driver.getDeclineFilters().get(1));
+    }
+
+    @Test
+    public void testHeldOffersServeNewRequests() throws Exception {
+        scheduler.useOfferRetention(1, TimeUnit.SECONDS);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        offers.add(SyntheticOffers.offer("agent-2", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        assertTrue(driver.getDeclined().isEmpty());
+
+        scheduler.offerRescinded(driver, offers.get(1).getId());
+        driver.clear();
+        String id = requestWorker(1.0, 1024.0, 1024.0);
+        assertEquals(0, driver.getRevives());
+        assertEquals(1, driver.getLaunches().size());
+        assertEquals(id, driver.getLaunchedTasks().get(0).getTaskId().getValue());
+        assertEquals(offers.get(0).getId(), driver.getLaunches().get(0).getOfferIds().get(0));
+
+        requestWorker(1.0, 1024.0, 1024.0);
+        assertEquals(1, driver.getRevives());
+
+        offers.clear();
+        offers.add(SyntheticOffers.offer("agent-3", 0.5, 512.0, 512.0));
+        scheduler.resourceOffers(driver, offers);
+        await(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() {
+                return !driver.getDeclined().isEmpty();
+            }
+        });
+        assertEquals(1, driver.getDeclined().size());
+    }
+
+    @Test
+    public void testManyWaitersOnSameState() throws Exception {
+        String id = requestWorker(1.0, 1024.0, 1024.0);
+        CompletableFuture<String> first = scheduler.awaitState(id, TaskState.TASK_RUNNING, 10, TimeUnit.SECONDS);
+        CompletableFuture<String> second = scheduler.awaitState(id, TaskState.TASK_RUNNING, 10, TimeUnit.SECONDS);
+        assertFalse(first.isDone());
+
+        scheduler.statusUpdate(driver, status(id, TaskState.TASK_RUNNING, "10.0.0.1"));
+        assertEquals("10.0.0.1", first.get());
+        assertEquals("10.0.0.1", second.get());
+        assertEquals("10.0.0.1", scheduler.awaitState(id, TaskState.TASK_RUNNING, 1, TimeUnit.SECONDS).get());
+    }
+
+    @Test
+    public void testWaitTimeoutRemovesTask() throws Exception {
+        String id = requestWorker(1.0, 1024.0, 1024.0);
+        CompletableFuture<String> running = scheduler.awaitState(id, TaskState.TASK_RUNNING, 50, TimeUnit.MILLISECONDS);
+        try {
+            running.get();
+            fail("Expected FrameworkException");
+        } catch (ExecutionException ee) {
+            assertTrue(ee.getCause() instanceof FrameworkException);
+        }
+        try {
+            scheduler.waitTask(id, TaskState.TASK_RUNNING, 1, TimeUnit.SECONDS);
+            fail("Expected FrameworkException");
+        } catch (FrameworkException fe) {
+            // Task no longer exists
+        }
+    }
+
+    @Test
+    public void testBulkRequestRevivesOnce() throws Exception {
+        List<String> ids = scheduler.requestWorkers(driver, "app", IMAGE, COMMAND, SyntheticOffers.resources(1.0, 1024.0, 1024.0), 4);
+        assertEquals(4, ids.size());
+        assertEquals(1, driver.getRevives());
+
+        CompletableFuture<Map<String, String>> quorum = scheduler.awaitAll(ids, TaskState.TASK_RUNNING, 3, 10, TimeUnit.SECONDS);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 4.0, 4096.0, 4096.0));
+        scheduler.resourceOffers(driver, offers);
+        assertEquals(4, driver.getLaunchedTasks().size());
+
+        for (int i = 0; i < 2; i++) {
+            scheduler.statusUpdate(driver, status(ids.get(i), TaskState.TASK_RUNNING, "10.0.0." + i));
+        }
+        assertFalse(quorum.isDone());
+        scheduler.statusUpdate(driver, status(ids.get(2), TaskState.TASK_RUNNING, "10.0.0.2"));
+        assertEquals(3, quorum.get().size());
+        assertEquals("10.0.0.2", quorum.get().get(ids.get(2)));
+    }
+
+    @Test
+    public void testBulkWaitFailsWhenQuorumUnreachable() throws Exception {
+        List<String> ids = scheduler.requestWorkers(driver, "app", IMAGE, COMMAND, SyntheticOffers.resources(1.0, 1024.0, 1024.0), 2);
+        CompletableFuture<Map<String, String>> all = scheduler.awaitAll(ids, TaskState.TASK_RUNNING, 2, 10, TimeUnit.SECONDS);
+        scheduler.removeTask(driver, ids.get(0), 1, TimeUnit.SECONDS);
+        try {
+            all.get();
+            fail("Expected FrameworkException");
+        } catch (ExecutionException ee) {
+            assertTrue(ee.getCause() instanceof FrameworkException);
+        }
+    }
+
+    @Test
+    public void testDockerPortMappings() {
+        List<Resource> resources = SyntheticOffers.resources(1.0, 1024.0, 1024.0);
+        resources.add(SyntheticOffers.ports(SyntheticOffers.range(22, 22), SyntheticOffers.range(43_000, 43_005)));
+        scheduler.requestWorker(driver, "app", IMAGE, COMMAND, resources);
+        scheduler.requestWorker(driver, "app", IMAGE, COMMAND, resources);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+
+        List<TaskInfo> launched = driver.getLaunchedTasks();
+        assertEquals(2, launched.size());
+        TaskInfo second = launched.get(1);
+        assertEquals(7, second.getContainer().getDocker().getPortMappingsCount());
+        assertEquals(22, second.getContainer().getDocker().getPortMappings(0).getContainerPort());
+        assertEquals(31_007, second.getContainer().getDocker().getPortMappings(0).getHostPort());
+        assertEquals(43_005, second.getContainer().getDocker().getPortMappings(6).getContainerPort());
+        assertEquals(31_013, second.getContainer().getDocker().getPortMappings(6).getHostPort());
+        Resource ports = second.getResources(second.getResourcesCount() - 1);
+        assertEquals("ports", ports.getName());
+        assertEquals(SyntheticOffers.range(31_007, 31_013), ports.getRanges().getRange(0));
+    }
+
+    @Test
+    public void testGangLaunchedAllOrNothing() {
+        scheduler.useGangWindow(10, TimeUnit.SECONDS);
+        List<String> ids = scheduler.requestWorkerGroup(driver, "app", IMAGE, COMMAND, SyntheticOffers.resources(2.0, 1024.0, 1024.0), 3);
+        assertEquals(1, driver.getRevives());
+
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        offers.add(SyntheticOffers.offer("agent-2", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        assertTrue(driver.getLaunches().isEmpty());
+        assertTrue(driver.getDeclined().isEmpty());
+
+        offers.clear();
+        offers.add(SyntheticOffers.offer("agent-3", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        assertEquals(3, driver.getLaunches().size());
+        assertEquals(3, driver.getLaunchedTasks().size());
+        for (TaskInfo task : driver.getLaunchedTasks()) {
+            assertTrue(ids.contains(task.getTaskId().getValue()));
+        }
+        assertTrue(driver.getDeclined().isEmpty());
+    }
+
+    @Test
+    public void testGangOffersReleasedAfterWindow() throws InterruptedException {
+        scheduler.useGangWindow(100, TimeUnit.MILLISECONDS);
+        scheduler.requestWorkerGroup(driver, "app", IMAGE, COMMAND, SyntheticOffers.resources(2.0, 1024.0, 1024.0), 2);
+        String single = requestWorker(1.0, 1024.0, 1024.0);
+
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 3.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        // The gang does not fit, the partially matched resources are still available to the single worker
+        assertEquals(1, driver.getLaunchedTasks().size());
+        assertEquals(single, driver.getLaunchedTasks().get(0).getTaskId().getValue());
+
+        offers.clear();
+        offers.add(SyntheticOffers.offer("agent-2", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        assertTrue(driver.getDeclined().isEmpty());
+        Thread.sleep(400);
+        assertEquals(1, driver.getDeclined().size());
+        assertEquals(1, driver.getLaunches().size());
+    }
+
+    @Test
+    public void testRemovingGangMemberRemovesGang() throws Exception {
+        List<String> ids = scheduler.requestWorkerGroup(driver, "app", IMAGE, COMMAND, SyntheticOffers.resources(1.0, 1024.0, 1024.0), 2);
+        CompletableFuture<String> other = scheduler.awaitState(ids.get(1), TaskState.TASK_RUNNING, 10, TimeUnit.SECONDS);
+        scheduler.removeTask(driver, ids.get(0), 1, TimeUnit.SECONDS);
+        try {
+            other.get();
+            fail("Expected FrameworkException");
+        } catch (ExecutionException ee) {
+            assertTrue(ee.getCause() instanceof FrameworkException);
+        }
+
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 4.0, 4096.0, 4096.0));
+        scheduler.resourceOffers(driver, offers);
+        assertTrue(driver.getLaunches().isEmpty());
+        assertEquals(1, driver.getSuppresses());
+    }
+
+    @Test
+    public void testUnknownPlacementPolicyIsBestFit() {
+        scheduler.usePlacementPolicy(SpreadPlacement.NAME);
+        scheduler.usePlacementPolicy("worst-fit");
+        requestWorker(1.0, 1024.0, 1024.0);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 4.0, 4096.0, 4096.0));
+        offers.add(SyntheticOffers.offer("agent-2", 1.0, 1024.0, 1024.0));
+        scheduler.resourceOffers(driver, offers);
+        assertEquals("agent-2", driver.getLaunchedTasks().get(0).getSlaveId().getValue());
+    }
+
+    @Test
+    public void testBatchedOffersPlacedByDecreasingSize() {
+        scheduler.useOfferBatching(10, TimeUnit.SECONDS, 2);
+        String small = requestWorker(1.0, 1024.0, 1024.0);
+        String big = requestWorker(2.0, 1024.0, 1024.0);
+
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        assertTrue(driver.getLaunches().isEmpty());
+        assertTrue(driver.getDeclined().isEmpty());
+
+        offers.clear();
+        offers.add(SyntheticOffers.offer("agent-2", 1.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        assertEquals(2, driver.getLaunches().size());
+        assertEquals(big, driver.getLaunchedTasks().get(0).getTaskId().getValue());
+        assertEquals("agent-1", driver.getLaunchedTasks().get(0).getSlaveId().getValue());
+        assertEquals(small, driver.getLaunchedTasks().get(1).getTaskId().getValue());
+    }
+
+    @Test
+    public void testBatchMatchedWhenWindowEnds() throws InterruptedException {
+        scheduler.useOfferBatching(50, TimeUnit.MILLISECONDS, 0);
+        requestWorker(1.0, 1024.0, 1024.0);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        assertTrue(driver.getLaunches().isEmpty());
+
+        Thread.sleep(300);
+        assertEquals(1, driver.getLaunches().size());
+    }
+
+    @Test
+    public void testBatchFlushedOnDemand() {
+        scheduler.useOfferBatching(10, TimeUnit.SECONDS, 0);
+        requestWorker(1.0, 1024.0, 1024.0);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        assertTrue(driver.getLaunches().isEmpty());
+
+        scheduler.flushOfferBatch();
+        assertEquals(1, driver.getLaunches().size());
+    }
+
+    @Test
+    public void testTasksShareContainerTemplates() {
+        scheduler.useDockerVolume("/data", "/mnt");
+        scheduler.requestWorkers(driver, "app", IMAGE, COMMAND, SyntheticOffers.resources(1.0, 1024.0, 1024.0), 2);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+
+        List<TaskInfo> launched = driver.getLaunchedTasks();
+        assertEquals(2, launched.size());
+        assertSame(launched.get(0).getContainer(), launched.get(1).getContainer());
+        assertSame(launched.get(0).getCommand(), launched.get(1).getCommand());
+        assertEquals(IMAGE, launched.get(0).getContainer().getDocker().getImage());
+        assertEquals("/mnt", launched.get(0).getContainer().getVolumes(0).getContainerPath());
+
+        scheduler.useDockerNetworkName("compss-net");
+        requestWorker(1.0, 1024.0, 1024.0);
+        offers.clear();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        assertEquals("compss-net", driver.getLaunchedTasks().get(2).getContainer().getNetworkInfos(0).getName());
+    }
+
+    @Test
+    public void testTemplatesOfOldCommandsEvicted() {
+        List<Resource> resources = SyntheticOffers.resources(0.1, 16.0, 16.0);
+        scheduler.requestWorker(driver, "app", IMAGE, COMMAND, resources);
+        for (int i = 0; i < 100; i++) {
+            scheduler.requestWorker(driver, "app", IMAGE, "command-" + i, resources);
+        }
+        scheduler.requestWorker(driver, "app", IMAGE, COMMAND, resources);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 16.0, 16384.0, 16384.0));
+        scheduler.resourceOffers(driver, offers);
+
+        List<TaskInfo> launched = driver.getLaunchedTasks();
+        assertEquals(102, launched.size());
+        TaskInfo first = null;
+        TaskInfo last = null;
+        for (TaskInfo task : launched) {
+            if (task.getCommand().getValue().equals(COMMAND)) {
+                if (first == null) {
+                    first = task;
+                } else {
+                    last = task;
+                }
+            }
+        }
+        // Rebuilt once evicted, with the same command
+        assertEquals(first.getCommand(), last.getCommand());
+        assertNotSame(first.getCommand(), last.getCommand());
+    }
+
+    @Test
+    public void testFailedTaskRelaunchedAfterBackoff() throws InterruptedException {
+        scheduler.useRelaunchBackoff(300, 1000, TimeUnit.MILLISECONDS);
+        String id = requestWorker(1.0, 1024.0, 1024.0);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        scheduler.statusUpdate(driver, status(id, TaskState.TASK_FAILED, "10.0.0.1"));
+        driver.clear();
+
+        // Not queued during the backoff, so new offers are not used
+        offers.clear();
+        offers.add(SyntheticOffers.offer("agent-2", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        assertTrue(driver.getLaunches().isEmpty());
+        assertEquals(0, driver.getRevives());
+
+        Thread.sleep(600);
+        assertEquals(1, driver.getRevives());
+        offers.clear();
+        offers.add(SyntheticOffers.offer("agent-2", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        assertEquals(id, driver.getLaunchedTasks().get(0).getTaskId().getValue());
+    }
+
+    @Test
+    public void testRemovingTaskDuringBackoff() throws Exception {
+        scheduler.useRelaunchBackoff(10, 10, TimeUnit.SECONDS);
+        String id = requestWorker(1.0, 1024.0, 1024.0);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        scheduler.statusUpdate(driver, status(id, TaskState.TASK_LOST, "10.0.0.1"));
+
+        scheduler.removeTask(driver, id, 1, TimeUnit.SECONDS);
+        assertTrue(driver.getKilled().isEmpty());
+        assertEquals("-1.-1.-1.-1", scheduler.getTaskIp(id));
+    }
+
+    @Test
+    public void testOffersOfFailingAgentsDeclined() {
+        scheduler.useAgentBlacklist(2.0, 1, TimeUnit.HOURS);
+        List<String> ids = scheduler.requestWorkers(driver, "app", IMAGE, COMMAND, SyntheticOffers.resources(1.0, 1024.0, 1024.0), 2);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        for (String id : ids) {
+            scheduler.statusUpdate(driver, status(id, TaskState.TASK_FAILED, "10.0.0.1"));
+        }
+        driver.clear();
+
+        offers.clear();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        offers.add(SyntheticOffers.offer("agent-2", 1.0, 1024.0, 1024.0));
+        scheduler.resourceOffers(driver, offers);
+        assertEquals(1, driver.getLaunchedTasks().size());
+        assertEquals("agent-2", driver.getLaunchedTasks().get(0).getSlaveId().getValue());
+        assertEquals(offers.get(0).getId(), driver.getDeclined().get(0));
+
+        // Lost agents are blacklisted right away
+        scheduler.slaveLost(driver, SlaveID.newBuilder().setValue("agent-2").build());
+        driver.clear();
+        offers.clear();
+        offers.add(SyntheticOffers.offer("agent-2", 1.0, 1024.0, 1024.0));
+        offers.add(SyntheticOffers.offer("agent-3", 1.0, 1024.0, 1024.0));
+        scheduler.resourceOffers(driver, offers);
+        assertEquals("agent-3", driver.getLaunchedTasks().get(0).getSlaveId().getValue());
+    }
+
+    @Test
+    public void testRunningTasksRecoveredAfterRestart() throws Exception {
+        File file = new File(folder.getRoot(), "tasks.log");
+        scheduler.useStateLog(new TaskStateLog(file), 1, TimeUnit.HOURS);
+        List<String> ids = scheduler.requestWorkers(driver, "app", IMAGE, COMMAND, SyntheticOffers.resources(1.0, 1024.0, 1024.0), 3);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 3.0, 3072.0, 3072.0));
+        scheduler.resourceOffers(driver, offers);
+        scheduler.statusUpdate(driver, status(ids.get(0), TaskState.TASK_RUNNING, "10.0.0.1"));
+        scheduler.statusUpdate(driver, status(ids.get(1), TaskState.TASK_RUNNING, "10.0.0.2"));
+        scheduler.statusUpdate(driver, status(ids.get(2), TaskState.TASK_FINISHED, "10.0.0.3"));
+        // Crash, without clearing the log
+        scheduler.stop();
+
+        FakeSchedulerDriver newDriver = new FakeSchedulerDriver();
+        MesosFrameworkScheduler restarted = new MesosFrameworkScheduler();
+        TaskStateLog log = new TaskStateLog(file);
+        assertEquals("test-framework", log.getFrameworkId());
+        restarted.useStateLog(log, 1, TimeUnit.HOURS);
+        restarted.registered(newDriver, FrameworkID.newBuilder().setValue("test-framework").build(),
+                MasterInfo.newBuilder().setId("master").setIp(0).setPort(5050).build());
+        assertEquals(2, newDriver.getReconciled().size());
+        assertEquals(2, restarted.getRecoveredTasks().size());
+        assertEquals(2, restarted.getApplicationUsage().get("app").getWorkers());
+
+        // Mesos no longer knows the second task, it is dropped instead of relaunched
+        restarted.statusUpdate(newDriver, status(ids.get(1), TaskState.TASK_LOST, "10.0.0.2"));
+        assertEquals(0, newDriver.getRevives());
+        assertEquals("-1.-1.-1.-1", restarted.getTaskIp(ids.get(1)));
+
+        // The first task is reused by a request with the same specification
+        String id = restarted.requestWorker(newDriver, "app", IMAGE, COMMAND, SyntheticOffers.resources(1.0, 1024.0, 1024.0));
+        assertEquals(ids.get(0), id);
+        assertEquals("10.0.0.1", restarted.awaitState(id, TaskState.TASK_RUNNING, 1, TimeUnit.SECONDS).get());
+        assertTrue(newDriver.getLaunches().isEmpty());
+        assertTrue(restarted.getRecoveredTasks().isEmpty());
+        // The dropped task no longer counts, the reused one does
+        assertEquals(1, restarted.getApplicationUsage().get("app").getWorkers());
+        assertEquals(1.0, restarted.getApplicationUsage().get("app").getCpus(), 0.0);
+
+        restarted.clearStateLog();
+        restarted.stop();
+        assertEquals(0, new TaskStateLog(file).size());
+    }
+
+    @Test
+    public void testRecoveredTasksReclaimed() throws Exception {
+        File file = new File(folder.getRoot(), "tasks.log");
+        scheduler.useStateLog(new TaskStateLog(file), 1, TimeUnit.HOURS);
+        List<String> ids = scheduler.requestWorkers(driver, "app", IMAGE, COMMAND, SyntheticOffers.resources(1.0, 1024.0, 1024.0), 2);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        scheduler.statusUpdate(driver, status(ids.get(0), TaskState.TASK_RUNNING, "10.0.0.1"));
+        scheduler.statusUpdate(driver, status(ids.get(1), TaskState.TASK_RUNNING, "10.0.0.2"));
+        scheduler.stop();
+
+        final FakeSchedulerDriver newDriver = new FakeSchedulerDriver();
+        MesosFrameworkScheduler restarted = new MesosFrameworkScheduler();
+        restarted.useStateLog(new TaskStateLog(file), 1, TimeUnit.SECONDS);
+        restarted.registered(newDriver, FrameworkID.newBuilder().setValue("test-framework").build(),
+                MasterInfo.newBuilder().setId("master").setIp(0).setPort(5050).build());
+        assertEquals(ids.get(0), restarted.requestWorker(newDriver, "app", IMAGE, COMMAND, SyntheticOffers.resources(1.0, 1024.0, 1024.0)));
+
+        // The task not requested again is killed after the deadline
+        await(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() {
+                return !newDriver.getKilled().isEmpty();
+            }
+        });
+        assertEquals(ids.get(1), newDriver.getKilled().get(0).getValue());
+        assertTrue(restarted.getRecoveredTasks().isEmpty());
+        assertEquals("10.0.0.1", restarted.getTaskIp(ids.get(0)));
+        restarted.stop();
+        assertEquals(1, new TaskStateLog(file).size());
+    }
+
+    @Test
+    public void testWarmPoolHandsOutIdleWorker() throws Exception {
+        scheduler.useWarmPool(2, 1, TimeUnit.HOURS);
+        String first = requestWorker(1.0, 1024.0, 1024.0);
+        // The request and two idle workers of its shape
+        assertEquals(1, driver.getRevives());
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 3.0, 3072.0, 3072.0));
+        scheduler.resourceOffers(driver, offers);
+        assertEquals(3, driver.getLaunchedTasks().size());
+        int n = 0;
+        for (TaskInfo task : driver.getLaunchedTasks()) {
+            scheduler.statusUpdate(driver, status(task.getTaskId().getValue(), TaskState.TASK_RUNNING, "10.0.0." + n++));
+        }
+        driver.clear();
+
+        String pooled = requestWorker(1.0, 1024.0, 1024.0);
+        assertNotEquals(first, pooled);
+        assertTrue(scheduler.awaitState(pooled, TaskState.TASK_RUNNING, 1, TimeUnit.SECONDS).isDone());
+        assertTrue(driver.getLaunches().isEmpty());
+        // Refilled in the background
+        assertEquals(1, driver.getRevives());
+
+        WarmPool.Stats stats = scheduler.getWarmPoolStats();
+        assertEquals(1, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(2, stats.getHandouts());
+        assertEquals(2, stats.getIdleWorkers());
+
+        // Other shapes are not served from the pool
+        requestWorker(2.0, 1024.0, 1024.0);
+        assertEquals(2, scheduler.getWarmPoolStats().getMisses());
+    }
+
+    @Test
+    public void testWarmPoolRefilledOnRegularResourcesPastBaseline() throws Exception {
+        scheduler.useRevocableResources(1);
+        scheduler.useWarmPool(2, 1, TimeUnit.HOURS);
+        String first = requestWorker(1.0, 1024.0, 1024.0);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.revocableOffer("agent-1", 3.0, 3072.0, 3072.0, 3.0, 3072.0));
+        scheduler.resourceOffers(driver, offers);
+
+        // The request fills the baseline, the idle workers beyond it are still not preemptible
+        assertEquals(3, driver.getLaunchedTasks().size());
+        for (TaskInfo task : driver.getLaunchedTasks()) {
+            for (Resource r : task.getResourcesList()) {
+                assertFalse(r.hasRevocable());
+            }
+            scheduler.statusUpdate(driver, status(task.getTaskId().getValue(), TaskState.TASK_RUNNING, "10.0.0.1"));
+        }
+        assertTrue(scheduler.getRevocableTasks().isEmpty());
+
+        // Handed out, an idle worker counts toward the baseline. The next request bursts, the refills do not
+        String pooled = requestWorker(1.0, 1024.0, 1024.0);
+        assertNotEquals(first, pooled);
+        String burst = requestWorker(2.0, 1024.0, 1024.0);
+        driver.clear();
+        offers.clear();
+        offers.add(SyntheticOffers.revocableOffer("agent-2", 5.0, 3072.0, 4096.0, 2.0, 1024.0));
+        scheduler.resourceOffers(driver, offers);
+        assertEquals(4, driver.getLaunchedTasks().size());
+        assertEquals(Collections.singletonList(burst), scheduler.getRevocableTasks());
+    }
+
+    @Test
+    public void testWarmPoolRetiredAfterIdleTtl() throws Exception {
+        scheduler.useWarmPool(1, 1, TimeUnit.SECONDS);
+        String id = requestWorker(1.0, 1024.0, 1024.0);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        String idle = null;
+        for (TaskInfo task : driver.getLaunchedTasks()) {
+            scheduler.statusUpdate(driver, status(task.getTaskId().getValue(), TaskState.TASK_RUNNING, "10.0.0.1"));
+            if (!task.getTaskId().getValue().equals(id)) {
+                idle = task.getTaskId().getValue();
+            }
+        }
+        assertNotNull(idle);
+        assertTrue(driver.getKilled().isEmpty());
+
+        await(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() {
+                return !driver.getKilled().isEmpty();
+            }
+        });
+        assertEquals(1, driver.getKilled().size());
+        assertEquals(idle, driver.getKilled().get(0).getValue());
+        scheduler.statusUpdate(driver, status(idle, TaskState.TASK_KILLED, "10.0.0.1"));
+        assertEquals("-1.-1.-1.-1", scheduler.getTaskIp(idle));
+        assertEquals(0, scheduler.getWarmPoolStats().getIdleWorkers());
+        // The requested worker is not retired
+        assertEquals("10.0.0.1", scheduler.getTaskIp(id));
+    }
+
+    @Test
+    public void testRevivesDebouncedAndSuppressDelayed() throws Exception {
+        scheduler.useReviveDebounce(1, 1, TimeUnit.SECONDS);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(requestWorker(1.0, 1024.0, 1024.0));
+        }
+        assertEquals(1, driver.getRevives());
+        // The four coalesced revives are sent at once
+        await(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() {
+                return driver.getRevives() > 1;
+            }
+        });
+        assertEquals(2, driver.getRevives());
+
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 5.0, 5120.0, 5120.0));
+        scheduler.resourceOffers(driver, offers);
+        assertEquals(5, driver.getLaunchedTasks().size());
+        offers.clear();
+        offers.add(SyntheticOffers.offer("agent-2", 1.0, 1024.0, 1024.0));
+        scheduler.resourceOffers(driver, offers);
+        assertEquals(0, driver.getSuppresses());
+        // Published once the suppress event is over
+        await(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() {
+                return scheduler.getSnapshot().getSuppresses() > 0;
+            }
+        });
+        assertEquals(1, driver.getSuppresses());
+
+        SchedulerSnapshot snapshot = scheduler.getSnapshot();
+        assertEquals(5, snapshot.getReviveRequests());
+        assertEquals(2, snapshot.getRevives());
+        assertEquals(1, snapshot.getSuppresses());
+    }
+
+    @Test
+    public void testMetricsRecorded() {
+        JmxSchedulerMetrics metrics = new JmxSchedulerMetrics();
+        scheduler.useMetrics(metrics);
+        List<String> ids = scheduler.requestWorkers(driver, "app", IMAGE, COMMAND, SyntheticOffers.resources(1.0, 1024.0, 1024.0), 3);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        offers.add(SyntheticOffers.offer("agent-2", 0.5, 512.0, 512.0));
+        scheduler.resourceOffers(driver, offers);
+        assertEquals(2, metrics.getOffersReceived());
+        assertEquals(1, metrics.getOffersUsed());
+        assertEquals(1, metrics.getOffersDeclined());
+        assertEquals(1, metrics.getOfferCycles());
+        assertEquals(1, metrics.getPendingTasks());
+
+        scheduler.statusUpdate(driver, status(ids.get(0), TaskState.TASK_RUNNING, "10.0.0.1"));
+        scheduler.statusUpdate(driver, status(ids.get(1), TaskState.TASK_FAILED, "10.0.0.2"));
+        assertEquals(1, metrics.getTasksStarted());
+        assertEquals(1, metrics.getRelaunches());
+        assertEquals(1, metrics.getRunningTasks());
+        assertEquals(2, metrics.getPendingTasks());
+    }
+
+    @Test
+    public void testTasksRemovedTogether() throws Exception {
+        final List<String> ids = scheduler.requestWorkers(driver, "app", IMAGE, COMMAND, SyntheticOffers.resources(1.0, 1024.0, 1024.0), 4);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 3.0, 3072.0, 3072.0));
+        scheduler.resourceOffers(driver, offers);
+        final List<String> removed = new ArrayList<>(ids);
+        removed.add("unknown");
+
+        final List<Map<String, RemovalOutcome>> result = new ArrayList<>();
+        Thread remover = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                result.add(scheduler.removeTasks(driver, removed, 2, TimeUnit.SECONDS));
+            }
+        });
+        remover.start();
+        // All the kills are sent before waiting for any of them, otherwise the first waits time out before the others
+        // are killed
+        await(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() {
+                return driver.getKilled().size() >= 3;
+            }
+        });
+        scheduler.statusUpdate(driver, status(ids.get(0), TaskState.TASK_KILLED, "10.0.0.1"));
+        scheduler.statusUpdate(driver, status(ids.get(1), TaskState.TASK_FINISHED, "10.0.0.2"));
+        remover.join();
+
+        Map<String, RemovalOutcome> outcomes = result.get(0);
+        assertEquals(RemovalOutcome.KILLED, outcomes.get(ids.get(0)));
+        assertEquals(RemovalOutcome.ENDED, outcomes.get(ids.get(1)));
+        assertEquals(RemovalOutcome.TIMED_OUT, outcomes.get(ids.get(2)));
+        assertEquals(RemovalOutcome.DEQUEUED, outcomes.get(ids.get(3)));
+        assertEquals(RemovalOutcome.NOT_FOUND, outcomes.get("unknown"));
+        for (String id : ids) {
+            assertEquals("-1.-1.-1.-1", scheduler.getTaskIp(id));
+        }
+    }
+
+    @Test
+    public void testTaskForgottenWhileAnotherThreadRunsTheEvents() throws Exception {
+        final String removed = requestWorker(1.0, 1024.0, 1024.0);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 1.0, 1024.0, 1024.0));
+        scheduler.resourceOffers(driver, offers);
+        scheduler.statusUpdate(driver, status(removed, TaskState.TASK_RUNNING, "10.0.0.1"));
+        requestWorker(1.0, 1024.0, 1024.0);
+
+        final List<String> ips = Collections.synchronizedList(new ArrayList<String>());
+        final Thread remover = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    scheduler.removeTask(driver, removed, 5, TimeUnit.SECONDS);
+                    ips.add(scheduler.getTaskIp(removed));
+                } catch (FrameworkException fe) {
+                    ips.add(fe.getMessage());
+                }
+            }
+        });
+        // Launching the other task holds the event loop: the kill is processed inline, then the loop stays busy
+        // for a while after the remover wakes up
+        driver.onLaunch(new Runnable() {
+
+            @Override
+            public void run() {
+                scheduler.statusUpdate(driver, status(removed, TaskState.TASK_KILLED, "10.0.0.1"));
+                try {
+                    remover.join(1000);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        remover.start();
+        // Parked waiting for the kill, so it does not run the events itself
+        while (driver.getKilled().isEmpty() || remover.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+        offers.clear();
+        offers.add(SyntheticOffers.offer("agent-2", 1.0, 1024.0, 1024.0));
+        scheduler.resourceOffers(driver, offers);
+        remover.join();
+        assertEquals(Collections.singletonList("-1.-1.-1.-1"), ips);
+    }
+
+    @Test
+    public void testWarmAgentPreferredAndImagePulled() {
+        JmxSchedulerMetrics metrics = new JmxSchedulerMetrics();
+        scheduler.useMetrics(metrics);
+        scheduler.useImageLocality(true, true);
+        String first = requestWorker(1.0, 1024.0, 1024.0);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        scheduler.statusUpdate(driver, status(first, TaskState.TASK_RUNNING, "10.0.0.1"));
+        driver.clear();
+
+        // Best fit would take agent-2, the agent that already ran the image is preferred
+        String second = requestWorker(1.0, 1024.0, 1024.0);
+        offers.clear();
+        offers.add(SyntheticOffers.offer("agent-1", 4.0, 4096.0, 4096.0));
+        offers.add(SyntheticOffers.offer("agent-2", 1.0, 1024.0, 1024.0));
+        scheduler.resourceOffers(driver, offers);
+        assertEquals(2, driver.getLaunches().size());
+        TaskInfo launched = driver.getLaunches().get(0).getTasks().get(0);
+        assertEquals(second, launched.getTaskId().getValue());
+        assertEquals("agent-1", launched.getSlaveId().getValue());
+        // The offer left pulls the image on agent-2
+        TaskInfo pull = driver.getLaunches().get(1).getTasks().get(0);
+        assertEquals("agent-2", pull.getSlaveId().getValue());
+        assertEquals(IMAGE, pull.getContainer().getDocker().getImage());
+        scheduler.statusUpdate(driver, status(pull.getTaskId().getValue(), TaskState.TASK_FINISHED, "10.0.0.2"));
+        scheduler.statusUpdate(driver, status(second, TaskState.TASK_RUNNING, "10.0.0.1"));
+        assertEquals(1, metrics.getColdStarts());
+        assertEquals(1, metrics.getWarmStarts());
+        assertEquals(2, metrics.getTasksStarted());
+
+        // Agent-2 has the image now and fits best
+        driver.clear();
+        String third = requestWorker(1.0, 1024.0, 1024.0);
+        offers.clear();
+        offers.add(SyntheticOffers.offer("agent-1", 3.0, 3072.0, 3072.0));
+        offers.add(SyntheticOffers.offer("agent-2", 1.0, 1024.0, 1024.0));
+        scheduler.resourceOffers(driver, offers);
+        assertEquals(1, driver.getLaunches().size());
+        launched = driver.getLaunches().get(0).getTasks().get(0);
+        assertEquals(third, launched.getTaskId().getValue());
+        assertEquals("agent-2", launched.getSlaveId().getValue());
+    }
+
+    @Test
+    public void testImagePullsOnlyOnSpentOffers() {
+        scheduler.useImageLocality(false, true);
+        scheduler.useOfferRetention(10, TimeUnit.SECONDS);
+        String first = requestWorker(1.0, 1024.0, 1024.0);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        scheduler.statusUpdate(driver, status(first, TaskState.TASK_RUNNING, "10.0.0.1"));
+        driver.clear();
+
+        // A held offer keeps all its resources for the next workers
+        offers.clear();
+        offers.add(SyntheticOffers.offer("agent-2", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        assertTrue(driver.getLaunches().isEmpty());
+        assertTrue(driver.getDeclined().isEmpty());
+        String second = requestWorker(2.0, 2048.0, 2048.0);
+        assertEquals(1, driver.getNumLaunchedTasks());
+        TaskInfo launched = driver.getLaunchedTasks().get(0);
+        assertEquals(second, launched.getTaskId().getValue());
+        assertEquals("agent-2", launched.getSlaveId().getValue());
+        driver.clear();
+
+        // The leftovers of an offer spent on a launch pull the image in the same launch
+        scheduler.useImageLocality(false, false);
+        String third = requestWorker(1.0, 1024.0, 1024.0);
+        scheduler.useImageLocality(false, true);
+        scheduler.useOfferRetention(0, TimeUnit.SECONDS);
+        scheduler.requestWorker(driver, "other", "other-image", COMMAND, SyntheticOffers.resources(4.0, 4096.0, 4096.0));
+        offers.clear();
+        offers.add(SyntheticOffers.offer("agent-3", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        assertEquals(1, driver.getLaunches().size());
+        List<TaskInfo> tasks = driver.getLaunches().get(0).getTasks();
+        assertEquals(third, tasks.get(0).getTaskId().getValue());
+        assertEquals(2, tasks.size());
+        assertEquals("agent-3", tasks.get(1).getSlaveId().getValue());
+        assertEquals("other-image", tasks.get(1).getContainer().getDocker().getImage());
+    }
+
+    @Test(timeout = 10000)
+    public void testWorkerRemovedFromActionChainedToItsWait() throws Exception {
+        final String id = requestWorker(1.0, 1024.0, 1024.0);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+
+        // The wait is not completed from the events loop, so the removal does not block the status update
+        CompletableFuture<Void> removed = scheduler.awaitState(id, TaskState.TASK_RUNNING, 10, TimeUnit.SECONDS)
+                .thenAccept(new Consumer<String>() {
+
+                    @Override
+                    public void accept(String ip) {
+                        try {
+                            scheduler.removeTask(driver, id, 5, TimeUnit.SECONDS);
+                        } catch (FrameworkException fe) {
+                            throw new CompletionException(fe);
+                        }
+                    }
+                });
+        scheduler.statusUpdate(driver, status(id, TaskState.TASK_RUNNING, "10.0.0.1"));
+        while (driver.getKilled().isEmpty()) {
+            Thread.sleep(10);
+        }
+        assertFalse(removed.isDone());
+        scheduler.statusUpdate(driver, status(id, TaskState.TASK_KILLED, "10.0.0.1"));
+        removed.get(5, TimeUnit.SECONDS);
+        assertEquals("-1.-1.-1.-1", scheduler.getTaskIp(id));
+    }
+
+    @Test
+    public void testRunningWaitersHeldUntilReady() throws Exception {
+        String loopback = InetAddress.getLoopbackAddress().getHostAddress();
+        int port;
+        try (ServerSocket unused = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            port = unused.getLocalPort();
+        }
+        scheduler.useTcpReadiness(port, 20, TimeUnit.MILLISECONDS);
+        String id = requestWorker(1.0, 1024.0, 1024.0);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        CompletableFuture<String> running = scheduler.awaitState(id, TaskState.TASK_RUNNING, 10, TimeUnit.SECONDS);
+        scheduler.statusUpdate(driver, status(id, TaskState.TASK_RUNNING, loopback));
+        Thread.sleep(200);
+        assertFalse(running.isDone());
+        assertFalse(scheduler.awaitState(id, TaskState.TASK_RUNNING, 10, TimeUnit.SECONDS).isDone());
+
+        // Ready once the worker listens
+        try (ServerSocket server = new ServerSocket()) {
+            server.setReuseAddress(true);
+            server.bind(new InetSocketAddress(loopback, port));
+            assertEquals(loopback, running.get(5, TimeUnit.SECONDS));
+        }
+        assertTrue(scheduler.awaitState(id, TaskState.TASK_RUNNING, 10, TimeUnit.SECONDS).isDone());
+    }
+
+    @Test
+    public void testReadinessProbedOnMappedAgentPort() throws Exception {
+        String loopback = InetAddress.getLoopbackAddress().getHostAddress();
+        int hostPort;
+        try (ServerSocket unused = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            hostPort = unused.getLocalPort();
+        }
+        scheduler.useTcpReadiness(8080, 20, TimeUnit.MILLISECONDS);
+        List<Resource> resources = SyntheticOffers.resources(1.0, 1024.0, 1024.0);
+        resources.add(SyntheticOffers.ports(SyntheticOffers.range(8080L, 8080L)));
+        String id = scheduler.requestWorker(driver, "app", IMAGE, COMMAND, resources);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer(loopback, 2.0, 2048.0, 2048.0).toBuilder().clearResources()
+                .addAllResources(SyntheticOffers.resources(2.0, 2048.0, 2048.0))
+                .addResources(SyntheticOffers.ports(SyntheticOffers.range(hostPort, hostPort))).build());
+        scheduler.resourceOffers(driver, offers);
+
+        // Bridge networking without a container IP, the port mapped on the agent is probed
+        CompletableFuture<String> running = scheduler.awaitState(id, TaskState.TASK_RUNNING, 10, TimeUnit.SECONDS);
+        scheduler.statusUpdate(driver, TaskStatus.newBuilder().setTaskId(TaskID.newBuilder().setValue(id))
+                .setState(TaskState.TASK_RUNNING).build());
+        Thread.sleep(200);
+        assertFalse(running.isDone());
+        try (ServerSocket server = new ServerSocket()) {
+            server.setReuseAddress(true);
+            server.bind(new InetSocketAddress(loopback, hostPort));
+            running.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testUnprobeableWorkerFailsRunningWaiters() throws Exception {
+        scheduler.useTcpReadiness(8080, 20, TimeUnit.MILLISECONDS);
+        String id = requestWorker(1.0, 1024.0, 1024.0);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+
+        // Bridge networking without a container IP nor the port mapped, there is nothing to probe
+        CompletableFuture<String> running = scheduler.awaitState(id, TaskState.TASK_RUNNING, 10, TimeUnit.SECONDS);
+        scheduler.statusUpdate(driver, TaskStatus.newBuilder().setTaskId(TaskID.newBuilder().setValue(id))
+                .setState(TaskState.TASK_RUNNING).build());
+        try {
+            running.get(5, TimeUnit.SECONDS);
+            fail("Reported as running without passing its readiness check");
+        } catch (ExecutionException ee) {
+            assertTrue(ee.getCause() instanceof FrameworkException);
+        }
+        assertTrue(scheduler.awaitState(id, TaskState.TASK_RUNNING, 10, TimeUnit.SECONDS).isCompletedExceptionally());
+    }
+
+    @Test
+    public void testCommandReadinessFromHealthChecks() throws Exception {
+        scheduler.useCommandReadiness("nc -z localhost 22", 1, TimeUnit.SECONDS);
+        String id = requestWorker(1.0, 1024.0, 1024.0);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 2.0, 2048.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        TaskInfo launched = driver.getLaunchedTasks().get(0);
+        assertEquals("nc -z localhost 22", launched.getHealthCheck().getCommand().getValue());
+        assertEquals(1.0, launched.getHealthCheck().getIntervalSeconds(), 0.0);
+
+        CompletableFuture<String> running = scheduler.awaitState(id, TaskState.TASK_RUNNING, 10, TimeUnit.SECONDS);
+        scheduler.statusUpdate(driver, status(id, TaskState.TASK_RUNNING, "10.0.0.1"));
+        scheduler.statusUpdate(driver, status(id, TaskState.TASK_RUNNING, "10.0.0.1").toBuilder().setHealthy(false).build());
+        assertFalse(running.isDone());
+        scheduler.statusUpdate(driver, status(id, TaskState.TASK_RUNNING, "10.0.0.1").toBuilder().setHealthy(true).build());
+        assertEquals("10.0.0.1", running.get(5, TimeUnit.SECONDS));
+
+        // A relaunched task is checked again
+        scheduler.statusUpdate(driver, status(id, TaskState.TASK_FAILED, "10.0.0.1"));
+        running = scheduler.awaitState(id, TaskState.TASK_RUNNING, 10, TimeUnit.SECONDS);
+        scheduler.statusUpdate(driver, status(id, TaskState.TASK_RUNNING, "10.0.0.2"));
+        assertFalse(running.isDone());
+    }
+
+    @Test
+    public void testBurstWorkersOnRevocableResourcesResubmittedOnPreemption() {
+        JmxSchedulerMetrics metrics = new JmxSchedulerMetrics();
+        scheduler.useMetrics(metrics);
+        scheduler.useRevocableResources(1);
+        String guaranteed = requestWorker(1.0, 1024.0, 1024.0);
+        String burst = requestWorker(1.0, 1024.0, 1024.0);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.revocableOffer("agent-1", 1.0, 1024.0, 2048.0, 2.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+
+        assertEquals(2, driver.getLaunchedTasks().size());
+        TaskInfo regular = driver.getLaunchedTasks().get(0);
+        assertEquals(guaranteed, regular.getTaskId().getValue());
+        for (Resource r : regular.getResourcesList()) {
+            assertFalse(r.hasRevocable());
+        }
+        TaskInfo revocable = driver.getLaunchedTasks().get(1);
+        assertEquals(burst, revocable.getTaskId().getValue());
+        for (Resource r : revocable.getResourcesList()) {
+            // Disk is not oversubscribed
+            assertEquals(!"disk".equals(r.getName()), r.hasRevocable());
+        }
+        assertEquals(Collections.singletonList(burst), scheduler.getRevocableTasks());
+
+        // Preempted, it is queued again without counting as a failure and waits for revocable resources
+        scheduler.statusUpdate(driver, status(burst, TaskState.TASK_RUNNING, "10.0.0.2"));
+        scheduler.statusUpdate(driver, status(burst, TaskState.TASK_LOST, "10.0.0.2").toBuilder()
+                .setReason(TaskStatus.Reason.REASON_CONTAINER_PREEMPTED).build());
+        assertTrue(scheduler.getRevocableTasks().isEmpty());
+        assertEquals(1, metrics.getPreemptions());
+        assertEquals(0, metrics.getRelaunches());
+        driver.clear();
+        offers.clear();
+        offers.add(SyntheticOffers.offer("agent-2", 4.0, 4096.0, 4096.0));
+        scheduler.resourceOffers(driver, offers);
+        assertTrue(driver.getLaunchedTasks().isEmpty());
+        offers.clear();
+        offers.add(SyntheticOffers.revocableOffer("agent-2", 0.0, 0.0, 1024.0, 1.0, 1024.0));
+        scheduler.resourceOffers(driver, offers);
+        assertEquals(1, driver.getLaunchedTasks().size());
+        assertEquals(burst, driver.getLaunchedTasks().get(0).getTaskId().getValue());
+        assertEquals(Collections.singletonList(burst), scheduler.getRevocableTasks());
+    }
+
+    @Test
+    public void testApplicationsServedByDominantShare() {
+        scheduler.useFairShare(true);
+        List<Resource> resources = SyntheticOffers.resources(1.0, 1024.0, 1024.0);
+        List<String> large = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            large.add(scheduler.requestWorker(driver, "large", IMAGE, COMMAND, resources));
+        }
+        List<String> small = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            small.add(scheduler.requestWorker(driver, "small", IMAGE, COMMAND, resources));
+        }
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.offer("agent-1", 4.0, 4096.0, 4096.0));
+        scheduler.resourceOffers(driver, offers);
+
+        // FCFS would give the whole offer to the large application
+        List<String> launched = new ArrayList<>();
+        for (TaskInfo task : driver.getLaunchedTasks()) {
+            launched.add(task.getTaskId().getValue());
+        }
+        assertEquals(Arrays.asList(large.get(0), small.get(0), large.get(1), small.get(1)), launched);
+        Map<String, FairShare.Usage> usage = scheduler.getApplicationUsage();
+        assertEquals(2.0, usage.get("large").getCpus(), 0.0);
+        assertEquals(2.0, usage.get("small").getCpus(), 0.0);
+
+        // Capped, the large application does not grow even with free resources
+        scheduler.setApplicationCap("large", 2.0, 0.0);
+        driver.clear();
+        offers.clear();
+        offers.add(SyntheticOffers.offer("agent-2", 4.0, 4096.0, 4096.0));
+        scheduler.resourceOffers(driver, offers);
+        assertTrue(driver.getLaunchedTasks().isEmpty());
+
+        // A worker that ends leaves room under the cap
+        scheduler.statusUpdate(driver, status(large.get(0), TaskState.TASK_FINISHED, "10.0.0.1"));
+        assertEquals(1, scheduler.getApplicationUsage().get("large").getWorkers());
+        offers.clear();
+        offers.add(SyntheticOffers.offer("agent-2", 4.0, 4096.0, 4096.0));
+        scheduler.resourceOffers(driver, offers);
+        assertEquals(1, driver.getLaunchedTasks().size());
+        assertEquals(large.get(2), driver.getLaunchedTasks().get(0).getTaskId().getValue());
+        assertEquals(3, scheduler.getApplicationUsage().get("large").getLaunched());
+    }
+
+    @Test
+    public void testBurstWorkersPreferWarmAgents() {
+        scheduler.useRevocableResources(0);
+        scheduler.useImageLocality(true, false);
+        String first = requestWorker(1.0, 1024.0, 1024.0);
+        List<Offer> offers = new ArrayList<>();
+        offers.add(SyntheticOffers.revocableOffer("agent-1", 0.0, 0.0, 2048.0, 2.0, 2048.0));
+        scheduler.resourceOffers(driver, offers);
+        scheduler.statusUpdate(driver, status(first, TaskState.TASK_RUNNING, "10.0.0.1"));
+        driver.clear();
+
+        // Best fit on revocable resources would take agent-2, the agent that already ran the image is preferred
+        String second = requestWorker(1.0, 1024.0, 1024.0);
+        offers.clear();
+        offers.add(SyntheticOffers.revocableOffer("agent-1", 0.0, 0.0, 4096.0, 4.0, 4096.0));
+        offers.add(SyntheticOffers.revocableOffer("agent-2", 0.0, 0.0, 1024.0, 1.0, 1024.0));
+        scheduler.resourceOffers(driver, offers);
+        assertEquals(1, driver.getLaunchedTasks().size());
+        TaskInfo launched = driver.getLaunchedTasks().get(0);
+        assertEquals(second, launched.getTaskId().getValue());
+        assertEquals("agent-1", launched.getSlaveId().getValue());
+        assertEquals(Arrays.asList(first, second), scheduler.getRevocableTasks());
+    }
+
+}
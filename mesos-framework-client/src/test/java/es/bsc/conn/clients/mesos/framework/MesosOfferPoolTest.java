@@ -0,0 +1,125 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.mesos.Protos.Offer;
+import org.junit.Test;
+
+
+public class MesosOfferPoolTest {
+
+    private static MesosOffer linearBestFit(TaskRequirements requirements, List<MesosOffer> offers) {
+        MesosOffer best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (MesosOffer mo : offers) {
+            double score = requirements.distance(mo);
+            if (mo.hasEnoughPorts(requirements.getNumPorts()) && score >= 0.0 && score < bestScore) {
+                best = mo;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    @Test
+    public void testEmptyPool() {
+        MesosOfferPool pool = new MesosOfferPool();
+        assertTrue(pool.isEmpty());
+        assertNull(pool.bestFit(new TaskRequirements(SyntheticOffers.resources(1.0, 128.0, 128.0))));
+    }
+
+    @Test
+    public void testBestFitPicksClosestOffer() {
+        MesosOfferPool pool = new MesosOfferPool();
+        MesosOffer small = new MesosOffer(SyntheticOffers.offer("a", 1.0, 512.0, 512.0));
+        MesosOffer medium = new MesosOffer(SyntheticOffers.offer("b", 2.0, 1024.0, 1024.0));
+        MesosOffer large = new MesosOffer(SyntheticOffers.offer("c", 8.0, 8192.0, 8192.0));
+        pool.add(large);
+        pool.add(small);
+        pool.add(medium);
+
+        assertSame(medium, pool.bestFit(new TaskRequirements(SyntheticOffers.resources(1.5, 1024.0, 1024.0))));
+        assertSame(small, pool.bestFit(new TaskRequirements(SyntheticOffers.resources(1.0, 256.0, 256.0))));
+        assertNull(pool.bestFit(new TaskRequirements(SyntheticOffers.resources(16.0, 256.0, 256.0))));
+    }
+
+    @Test
+    public void testConsumeRepositionsOffer() {
+        MesosOfferPool pool = new MesosOfferPool();
+        MesosOffer first = new MesosOffer(SyntheticOffers.offer("a", 4.0, 4096.0, 4096.0));
+        MesosOffer second = new MesosOffer(SyntheticOffers.offer("b", 3.0, 3072.0, 3072.0));
+        pool.add(first);
+        pool.add(second);
+
+        TaskRequirements requirements = new TaskRequirements(SyntheticOffers.resources(2.0, 2048.0, 2048.0));
+        assertSame(second, pool.bestFit(requirements));
+        pool.consume(second, requirements);
+        assertEquals(1.0, second.getCpus(), 0.0);
+        assertSame(first, pool.bestFit(requirements));
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void testSameChoicesAsLinearScan() {
+        Random random = new Random(42);
+        List<MesosOffer> offers = new LinkedList<>();
+        MesosOfferPool pool = new MesosOfferPool();
+        for (Offer o : SyntheticOffers.randomOffers(random, 500)) {
+            MesosOffer mo = new MesosOffer(o);
+            offers.add(mo);
+            pool.add(mo);
+        }
+        for (int i = 0; i < 2_000; i++) {
+            TaskRequirements requirements = new TaskRequirements(SyntheticOffers.randomRequirements(random));
+            MesosOffer expected = linearBestFit(requirements, offers);
+            MesosOffer actual = pool.bestFit(requirements);
+            if (expected == null) {
+                assertNull(actual);
+            } else {
+                assertEquals(requirements.distance(expected), requirements.distance(actual), 1e-9);
+                pool.consume(actual, requirements);
+            }
+        }
+    }
+
+    @Test
+    public void testRevocableSameChoicesAsLinearScan() {
+        Random random = new Random(42);
+        List<MesosOffer> offers = new LinkedList<>();
+        MesosOfferPool pool = new MesosOfferPool();
+        for (int i = 0; i < 500; i++) {
+            double revocableCpus = 16.0 * random.nextDouble();
+            MesosOffer mo = new MesosOffer(SyntheticOffers.revocableOffer("agent-" + i, 1.0, 1024.0, 64_000.0 * random.nextDouble(),
+                    revocableCpus, revocableCpus * 4096.0 * (0.5 + random.nextDouble())));
+            offers.add(mo);
+            pool.add(mo);
+        }
+        for (int i = 0; i < 2_000; i++) {
+            TaskRequirements requirements = new TaskRequirements(SyntheticOffers.randomRequirements(random));
+            MesosOffer expected = null;
+            double expectedScore = Double.MAX_VALUE;
+            for (MesosOffer mo : offers) {
+                double score = requirements.revocableDistance(mo);
+                if (score >= 0.0 && score < expectedScore) {
+                    expected = mo;
+                    expectedScore = score;
+                }
+            }
+            MesosOffer actual = pool.bestRevocableFit(requirements);
+            if (expected == null) {
+                assertNull(actual);
+            } else {
+                assertEquals(expectedScore, requirements.revocableDistance(actual), 1e-9);
+                pool.consumeRevocable(actual, requirements);
+            }
+        }
+    }
+
+}
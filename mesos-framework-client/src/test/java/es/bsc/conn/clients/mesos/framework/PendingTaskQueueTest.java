@@ -0,0 +1,78 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+
+public class PendingTaskQueueTest {
+
+    private static List<String> drain(PendingTaskQueue queue) {
+        List<String> ids = new ArrayList<>();
+        for (String id : queue) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    @Test
+    public void testPriorityThenFifo() {
+        PendingTaskQueue queue = new PendingTaskQueue();
+        queue.add("a1", 0);
+        queue.add("b1", 5);
+        queue.add("a2", 0);
+        queue.add("b2", 5);
+        queue.add("c1", -1);
+
+        assertEquals(Arrays.asList("b1", "b2", "a1", "a2", "c1"), drain(queue));
+        assertFalse(queue.add("a1", 10));
+        assertEquals(5, queue.size());
+    }
+
+    @Test
+    public void testCancel() {
+        PendingTaskQueue queue = new PendingTaskQueue();
+        for (int i = 0; i < 10; i++) {
+            queue.add("t" + i, 0);
+        }
+        for (int i = 0; i < 10; i += 2) {
+            assertTrue(queue.remove("t" + i));
+        }
+        assertFalse(queue.remove("t0"));
+        assertFalse(queue.contains("t0"));
+        assertEquals(Arrays.asList("t1", "t3", "t5", "t7", "t9"), drain(queue));
+        assertEquals(5, queue.size());
+
+        queue.add("t0", 0);
+        assertEquals(Arrays.asList("t1", "t3", "t5", "t7", "t9", "t0"), drain(queue));
+    }
+
+    @Test
+    public void testIteratorRemoveDoesNotSkip() {
+        PendingTaskQueue queue = new PendingTaskQueue();
+        for (int i = 0; i < 6; i++) {
+            queue.add("t" + i, 0);
+        }
+        List<String> seen = new ArrayList<>();
+        Iterator<String> it = queue.iterator();
+        while (it.hasNext()) {
+            String id = it.next();
+            seen.add(id);
+            if (!"t3".equals(id)) {
+                it.remove();
+            }
+        }
+        assertEquals(6, seen.size());
+        assertEquals(Arrays.asList("t3"), drain(queue));
+        assertTrue(queue.contains("t3"));
+        assertEquals(1, queue.size());
+    }
+
+}
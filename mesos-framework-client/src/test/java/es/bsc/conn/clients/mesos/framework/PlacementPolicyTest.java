@@ -0,0 +1,75 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class PlacementPolicyTest {
+
+    private MesosOfferPool pool;
+    private MesosOffer small;
+    private MesosOffer medium;
+    private MesosOffer large;
+    private MesosOffer lowMem;
+
+
+    @Before
+    public void setUp() {
+        pool = new MesosOfferPool();
+        medium = new MesosOffer(SyntheticOffers.offer("medium", 4.0, 4096.0, 4096.0));
+        large = new MesosOffer(SyntheticOffers.offer("large", 16.0, 16384.0, 16384.0));
+        small = new MesosOffer(SyntheticOffers.offer("small", 2.0, 2048.0, 2048.0));
+        lowMem = new MesosOffer(SyntheticOffers.offer("low-mem", 32.0, 512.0, 16384.0));
+        pool.add(medium);
+        pool.add(large);
+        pool.add(small);
+        pool.add(lowMem);
+    }
+
+    @Test
+    public void testPolicies() {
+        TaskRequirements requirements = new TaskRequirements(SyntheticOffers.resources(1.0, 1024.0, 1024.0));
+        assertSame(small, new BestFitPlacement().select(requirements, pool));
+        assertSame(medium, new FirstFitPlacement().select(requirements, pool));
+        assertSame(small, new BinPackPlacement().select(requirements, pool));
+        assertSame(large, new SpreadPlacement().select(requirements, pool));
+    }
+
+    @Test
+    public void testNothingFits() {
+        TaskRequirements requirements = new TaskRequirements(SyntheticOffers.resources(20.0, 20480.0, 1024.0));
+        assertNull(new BestFitPlacement().select(requirements, pool));
+        assertNull(new FirstFitPlacement().select(requirements, pool));
+        assertNull(new BinPackPlacement().select(requirements, pool));
+        assertNull(new SpreadPlacement().select(requirements, pool));
+    }
+
+    @Test
+    public void testRevocablePolicies() {
+        MesosOfferPool revocablePool = new MesosOfferPool();
+        // Regular resources do not count for revocable placements
+        MesosOffer onlyRegular = new MesosOffer(SyntheticOffers.revocableOffer("regular", 64.0, 65536.0, 65536.0, 0.0, 0.0));
+        MesosOffer mediumRevocable = new MesosOffer(SyntheticOffers.revocableOffer("medium", 1.0, 1024.0, 4096.0, 4.0, 4096.0));
+        MesosOffer largeRevocable = new MesosOffer(SyntheticOffers.revocableOffer("large", 1.0, 1024.0, 16384.0, 16.0, 16384.0));
+        MesosOffer smallRevocable = new MesosOffer(SyntheticOffers.revocableOffer("small", 1.0, 1024.0, 2048.0, 2.0, 2048.0));
+        revocablePool.add(onlyRegular);
+        revocablePool.add(mediumRevocable);
+        revocablePool.add(largeRevocable);
+        revocablePool.add(smallRevocable);
+        TaskRequirements requirements = new TaskRequirements(SyntheticOffers.resources(1.5, 1024.0, 1024.0));
+        assertSame(smallRevocable, new BestFitPlacement().selectRevocable(requirements, revocablePool));
+        assertSame(mediumRevocable, new FirstFitPlacement().selectRevocable(requirements, revocablePool));
+        assertSame(smallRevocable, new BinPackPlacement().selectRevocable(requirements, revocablePool));
+        assertSame(largeRevocable, new SpreadPlacement().selectRevocable(requirements, revocablePool));
+
+        TaskRequirements tooLarge = new TaskRequirements(SyntheticOffers.resources(20.0, 1024.0, 1024.0));
+        assertNull(new BestFitPlacement().selectRevocable(tooLarge, revocablePool));
+        assertNull(new FirstFitPlacement().selectRevocable(tooLarge, revocablePool));
+        assertNull(new BinPackPlacement().selectRevocable(tooLarge, revocablePool));
+        assertNull(new SpreadPlacement().selectRevocable(tooLarge, revocablePool));
+    }
+
+}
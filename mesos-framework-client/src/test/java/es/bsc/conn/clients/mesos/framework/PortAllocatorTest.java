@@ -0,0 +1,57 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.mesos.Protos.Value.Range;
+import org.junit.Test;
+
+
+public class PortAllocatorTest {
+
+    @Test
+    public void testOverlappingRangesMerged() {
+        PortAllocator ports = new PortAllocator(Arrays.asList(SyntheticOffers.range(2, 5), SyntheticOffers.range(3, 7),
+                SyntheticOffers.range(8, 8), SyntheticOffers.range(20, 29)));
+        assertEquals(17, ports.getFreeCount());
+        assertEquals(Arrays.asList(SyntheticOffers.range(2, 8), SyntheticOffers.range(20, 29)), ports.toRanges());
+    }
+
+    @Test
+    public void testAllocateAndFree() {
+        PortAllocator ports = new PortAllocator(Arrays.asList(SyntheticOffers.range(31_000, 32_000)));
+        assertEquals(1_001, ports.getFreeCount());
+
+        List<Range> first = ports.allocate(7);
+        assertEquals(Arrays.asList(SyntheticOffers.range(31_000, 31_006)), first);
+        List<Range> second = ports.allocate(3);
+        assertEquals(Arrays.asList(SyntheticOffers.range(31_007, 31_009)), second);
+        assertEquals(991, ports.getFreeCount());
+
+        ports.free(first);
+        assertEquals(998, ports.getFreeCount());
+        assertEquals(Arrays.asList(SyntheticOffers.range(31_000, 31_006), SyntheticOffers.range(31_010, 32_000)), ports.toRanges());
+        List<Range> spanning = ports.allocate(10);
+        assertEquals(Arrays.asList(SyntheticOffers.range(31_000, 31_006), SyntheticOffers.range(31_010, 31_012)), spanning);
+
+        ports.free(second);
+        ports.free(spanning);
+        assertEquals(Arrays.asList(SyntheticOffers.range(31_000, 32_000)), ports.toRanges());
+        assertEquals(1_001, ports.getFreeCount());
+    }
+
+    @Test
+    public void testNotEnoughPorts() {
+        PortAllocator ports = new PortAllocator(new ArrayList<Range>());
+        assertNull(ports.allocate(1));
+        assertEquals(0, ports.allocate(0).size());
+        ports.free(10, 11);
+        assertNull(ports.allocate(3));
+        assertEquals(2, ports.getFreeCount());
+    }
+
+}
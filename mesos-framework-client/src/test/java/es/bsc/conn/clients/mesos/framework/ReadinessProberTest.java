@@ -0,0 +1,78 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class ReadinessProberTest {
+
+    private static final String LOOPBACK = InetAddress.getLoopbackAddress().getHostAddress();
+
+    private ReadinessProber prober;
+
+
+    @Before
+    public void setUp() {
+        prober = new ReadinessProber(20, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        prober.close();
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @Test
+    public void testProbedUntilListening() throws Exception {
+        int port = freePort();
+        CompletableFuture<Void> probe = prober.probe(LOOPBACK, port);
+        Thread.sleep(200);
+        assertFalse(probe.isDone());
+
+        try (ServerSocket server = new ServerSocket()) {
+            server.setReuseAddress(true);
+            server.bind(new InetSocketAddress(LOOPBACK, port));
+            probe.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testUnresolvedHostDoesNotStopOthers() throws Exception {
+        CompletableFuture<Void> unresolved = prober.probe("worker.invalid", 8080);
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            prober.probe(LOOPBACK, server.getLocalPort()).get(5, TimeUnit.SECONDS);
+        }
+        // Retried until the worker network is ready
+        assertFalse(unresolved.isDone());
+    }
+
+    @Test
+    public void testCancelledProbeDoesNotStopOthers() throws Exception {
+        CompletableFuture<Void> cancelled = prober.probe(LOOPBACK, freePort());
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            CompletableFuture<Void> probe = prober.probe(LOOPBACK, server.getLocalPort());
+            assertTrue(cancelled.cancel(false));
+            probe.get(5, TimeUnit.SECONDS);
+        }
+
+        // Closed probers do not probe anymore
+        prober.close();
+        assertTrue(prober.probe(LOOPBACK, freePort()).isCancelled());
+    }
+
+}
@@ -0,0 +1,55 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+public class ReviveControllerTest {
+
+    @Test
+    public void testRevivesCoalesced() {
+        ReviveController controller = new ReviveController(1000, 0);
+        assertTrue(controller.requestRevive(0));
+        assertEquals(-1, controller.getTrailingReviveTime());
+        for (int i = 1; i <= 10; i++) {
+            assertFalse(controller.requestRevive(i * 10));
+        }
+        assertEquals(1000, controller.getTrailingReviveTime());
+        assertFalse(controller.endReviveInterval(999, false));
+        assertTrue(controller.endReviveInterval(1000, false));
+        assertEquals(11, controller.getReviveRequests());
+        assertEquals(2, controller.getRevives());
+
+        // Not sent if nothing waits anymore
+        assertFalse(controller.requestRevive(1500));
+        assertFalse(controller.endReviveInterval(2000, true));
+        assertEquals(2, controller.getRevives());
+
+        // Suppressed offers are revived right away
+        assertTrue(controller.queueEmpty(2100));
+        assertTrue(controller.requestRevive(2200));
+        assertEquals(3, controller.getRevives());
+    }
+
+    @Test
+    public void testSuppressedAfterDelay() {
+        ReviveController controller = new ReviveController(0, 1000);
+        assertFalse(controller.queueEmpty(0));
+        assertEquals(1000, controller.getSuppressTime());
+        assertFalse(controller.queueEmpty(500));
+        // Workers waiting again restart the delay
+        controller.queueNotEmpty();
+        assertFalse(controller.queueEmpty(600));
+        assertFalse(controller.queueEmpty(1500));
+        assertTrue(controller.queueEmpty(1600));
+        assertTrue(controller.isSuppressed());
+        // Never suppressed twice in a row
+        assertFalse(controller.queueEmpty(5000));
+        assertEquals(-1, controller.getSuppressTime());
+        assertEquals(1, controller.getSuppresses());
+    }
+
+}
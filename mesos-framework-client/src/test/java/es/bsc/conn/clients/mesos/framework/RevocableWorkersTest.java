@@ -0,0 +1,49 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+
+public class RevocableWorkersTest {
+
+    @Test
+    public void testBurstBeyondBaseline() {
+        RevocableWorkers workers = new RevocableWorkers(true, 2);
+        assertFalse(workers.isBurst());
+        workers.launched("w-1", false);
+        workers.launched("w-2", false);
+        assertTrue(workers.isBurst());
+        workers.launched("w-3", true);
+        workers.launched("w-4", true);
+        assertEquals(Arrays.asList("w-3", "w-4"), new ArrayList<>(workers.getRevocable()));
+        assertEquals(2, workers.getGuaranteed());
+
+        // A guaranteed worker that ends leaves room for another one
+        workers.ended("w-1");
+        assertFalse(workers.isBurst());
+        // Relaunched on regular resources, it stops being revocable
+        workers.launched("w-3", false);
+        assertFalse(workers.isRevocable("w-3"));
+        assertEquals(2, workers.getGuaranteed());
+
+        workers.preempted("w-4");
+        workers.preempted("w-1");
+        assertEquals(1, workers.getPreemptions());
+        assertTrue(workers.getRevocable().isEmpty());
+    }
+
+    @Test
+    public void testDisabledNeverBursts() {
+        RevocableWorkers workers = new RevocableWorkers(false, 0);
+        assertFalse(workers.isBurst());
+        workers.launched("w-1", false);
+        assertFalse(workers.isBurst());
+    }
+
+}
@@ -0,0 +1,126 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+
+public class SchedulerEventLoopTest {
+
+    private static final int THREADS = 8;
+    private static final int EVENTS_PER_THREAD = 1000;
+
+
+    @Test
+    public void testEventsRunOneAtATime() throws InterruptedException {
+        final SchedulerEventLoop loop = new SchedulerEventLoop(null);
+        // Not thread-safe on purpose, only events change it
+        final int[] counter = new int[1];
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread t = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    for (int j = 0; j < EVENTS_PER_THREAD; j++) {
+                        loop.run(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                assertTrue(loop.inLoop());
+                                counter[0]++;
+                            }
+                        });
+                    }
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        int total = loop.call(new Callable<Integer>() {
+
+            @Override
+            public Integer call() {
+                return counter[0];
+            }
+        });
+        assertEquals(THREADS * EVENTS_PER_THREAD, total);
+    }
+
+    @Test
+    public void testNestedCallsAndExceptions() {
+        final SchedulerEventLoop loop = new SchedulerEventLoop(null);
+        int result = loop.call(new Callable<Integer>() {
+
+            @Override
+            public Integer call() {
+                // Runs right away instead of waiting for itself
+                return 1 + loop.call(new Callable<Integer>() {
+
+                    @Override
+                    public Integer call() {
+                        return 1;
+                    }
+                });
+            }
+        });
+        assertEquals(2, result);
+
+        try {
+            loop.run(new Runnable() {
+
+                @Override
+                public void run() {
+                    throw new IllegalArgumentException("event failed");
+                }
+            });
+            fail("Exception of the event not rethrown");
+        } catch (IllegalArgumentException iae) {
+            assertEquals("event failed", iae.getMessage());
+        }
+    }
+
+    @Test
+    public void testEventsQueuedFromEventRunAfterIt() {
+        final SchedulerEventLoop loop = new SchedulerEventLoop(null);
+        final List<String> order = new ArrayList<>();
+        loop.run(new Runnable() {
+
+            @Override
+            public void run() {
+                loop.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        order.add("queued");
+                    }
+                });
+                order.add("event");
+            }
+        });
+        assertEquals(2, order.size());
+        assertEquals("event", order.get(0));
+        assertEquals("queued", order.get(1));
+        assertFalse(loop.inLoop());
+    }
+
+}
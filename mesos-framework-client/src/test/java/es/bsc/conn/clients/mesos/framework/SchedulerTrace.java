@@ -0,0 +1,200 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.mesos.Protos.ContainerStatus;
+import org.apache.mesos.Protos.NetworkInfo;
+import org.apache.mesos.Protos.Offer;
+import org.apache.mesos.Protos.OfferID;
+import org.apache.mesos.Protos.Resource;
+import org.apache.mesos.Protos.TaskState;
+
+
+/**
+ * Sequence of events seen by a Mesos scheduler: worker requests, offer callbacks, rescinded offers and status updates.
+ * Status updates refer to tasks by launch order, so the same trace can be replayed against any scheduler with
+ * FakeSchedulerDriver.replay.
+ *
+ */
+public final class SchedulerTrace {
+
+    public static final String IMAGE = "compss/compss:2.0";
+    public static final String COMMAND = "/usr/sbin/sshd -D";
+    public static final ContainerStatus CONTAINER_STATUS = ContainerStatus.newBuilder()
+            .addNetworkInfos(NetworkInfo.newBuilder().addIpAddresses(NetworkInfo.IPAddress.newBuilder().setIpAddress("10.0.0.1")))
+            .build();
+
+    private static final int NUM_APPS = 4;
+    private static final int MAX_OFFERS_PER_CALLBACK = 8;
+    private static final int RECENT_OFFERS = 64;
+
+
+    /**
+     * Kinds of events.
+     */
+    public enum Type {
+        REQUEST, OFFERS, RESCIND, STATUS
+    }
+
+    /**
+     * A single event of the trace.
+     */
+    public static final class Event {
+
+        private final Type type;
+        private final String appName;
+        private final List<Resource> resources;
+        private final List<Offer> offers;
+        private final OfferID offerId;
+        private final int taskIndex;
+        private final TaskState state;
+
+
+        private Event(Type type, String appName, List<Resource> resources, List<Offer> offers, OfferID offerId, int taskIndex,
+                TaskState state) {
+            this.type = type;
+            this.appName = appName;
+            this.resources = resources;
+            this.offers = offers;
+            this.offerId = offerId;
+            this.taskIndex = taskIndex;
+            this.state = state;
+        }
+
+        public static Event request(String appName, List<Resource> resources) {
+            return new Event(Type.REQUEST, appName, resources, null, null, -1, null);
+        }
+
+        public static Event offers(List<Offer> offers) {
+            return new Event(Type.OFFERS, null, null, offers, null, -1, null);
+        }
+
+        public static Event rescind(OfferID offerId) {
+            return new Event(Type.RESCIND, null, null, null, offerId, -1, null);
+        }
+
+        public static Event status(int taskIndex, TaskState state) {
+            return new Event(Type.STATUS, null, null, null, null, taskIndex, state);
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String getAppName() {
+            return appName;
+        }
+
+        public List<Resource> getResources() {
+            return resources;
+        }
+
+        public List<Offer> getOffers() {
+            return offers;
+        }
+
+        public OfferID getOfferId() {
+            return offerId;
+        }
+
+        /**
+         * @return Launch order of the task the status update refers to.
+         */
+        public int getTaskIndex() {
+            return taskIndex;
+        }
+
+        public TaskState getState() {
+            return state;
+        }
+    }
+
+
+    private final List<Event> events;
+    private final int numOffers;
+
+
+    public SchedulerTrace(List<Event> events) {
+        this.events = Collections.unmodifiableList(new ArrayList<>(events));
+        int count = 0;
+        for (Event e : events) {
+            if (e.getType() == Type.OFFERS) {
+                count += e.getOffers().size();
+            }
+        }
+        this.numOffers = count;
+    }
+
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    /**
+     * @return Number of offers in all the OFFERS events.
+     */
+    public int getNumOffers() {
+        return numOffers;
+    }
+
+    /**
+     * Builds a trace of a cluster with churn. Agents of mixed sizes offer resources in callbacks of 1 to 8 offers, workers
+     * of mixed sizes are requested by several applications, launched workers start running, and some of them finish or
+     * are lost while offers are rescinded from time to time.
+     *
+     * @param random
+     *            Source of randomness, a fixed seed gives the same trace.
+     * @param numAgents
+     *            Number of agents in the cluster.
+     * @param numEvents
+     *            Number of events in the trace.
+     * @return Synthetic trace.
+     */
+    public static SchedulerTrace synthetic(Random random, int numAgents, int numEvents) {
+        List<Offer> agents = SyntheticOffers.randomOffers(random, numAgents);
+        LinkedList<OfferID> recentOffers = new LinkedList<>();
+        List<Event> events = new ArrayList<>(numEvents);
+        int runningIndex = 0;
+        while (events.size() < numEvents) {
+            int dice = random.nextInt(100);
+            if (dice < 40) {
+                List<Offer> callback = new ArrayList<>();
+                int size = 1 + random.nextInt(MAX_OFFERS_PER_CALLBACK);
+                for (int i = 0; i < size; i++) {
+                    Offer agent = agents.get(random.nextInt(agents.size()));
+                    Offer offer = SyntheticOffers.offer(agent.getSlaveId().getValue(), scalar(agent, "cpus"), scalar(agent, "mem"),
+                            scalar(agent, "disk"));
+                    callback.add(offer);
+                    recentOffers.add(offer.getId());
+                    if (recentOffers.size() > RECENT_OFFERS) {
+                        recentOffers.removeFirst();
+                    }
+                }
+                events.add(Event.offers(callback));
+            } else if (dice < 65) {
+                events.add(Event.request("app-" + random.nextInt(NUM_APPS), SyntheticOffers.randomRequirements(random)));
+            } else if (dice < 85) {
+                events.add(Event.status(runningIndex++, TaskState.TASK_RUNNING));
+            } else if (dice < 95) {
+                int index = runningIndex == 0 ? 0 : random.nextInt(runningIndex);
+                events.add(Event.status(index, random.nextInt(4) == 0 ? TaskState.TASK_LOST : TaskState.TASK_FINISHED));
+            } else if (!recentOffers.isEmpty()) {
+                events.add(Event.rescind(recentOffers.remove(random.nextInt(recentOffers.size()))));
+            }
+        }
+        return new SchedulerTrace(events);
+    }
+
+    private static double scalar(Offer offer, String name) {
+        for (Resource r : offer.getResourcesList()) {
+            if (name.equals(r.getName())) {
+                return r.getScalar().getValue();
+            }
+        }
+        return 0.0;
+    }
+
+}
@@ -0,0 +1,79 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.mesos.Protos.FrameworkID;
+import org.apache.mesos.Protos.MasterInfo;
+import org.apache.mesos.Protos.Offer;
+import org.apache.mesos.Protos.OfferID;
+import org.apache.mesos.Protos.TaskInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class SchedulerTraceTest {
+
+    private static final double EPSILON = 1e-6;
+
+    private FakeSchedulerDriver driver;
+    private MesosFrameworkScheduler scheduler;
+
+
+    @Before
+    public void setUp() {
+        driver = new FakeSchedulerDriver();
+        scheduler = new MesosFrameworkScheduler();
+        scheduler.registered(driver, FrameworkID.newBuilder().setValue("test-framework").build(),
+                MasterInfo.newBuilder().setId("master").setIp(0).setPort(5050).build());
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.stop();
+    }
+
+    @Test
+    public void testReplayDoesNotOversubscribeOffers() {
+        SchedulerTrace trace = SchedulerTrace.synthetic(new Random(11), 200, 5_000);
+        Map<OfferID, MesosOffer> offers = new HashMap<>();
+        for (SchedulerTrace.Event event : trace.getEvents()) {
+            if (event.getType() == SchedulerTrace.Type.OFFERS) {
+                for (Offer o : event.getOffers()) {
+                    offers.put(o.getId(), new MesosOffer(o));
+                }
+            }
+        }
+        driver.replay(scheduler, trace);
+        assertTrue(driver.getNumLaunchedTasks() > 0);
+
+        // Every offer is either launched on or declined, once, and tasks never take more than their offers
+        Set<OfferID> used = new HashSet<>();
+        for (FakeSchedulerDriver.Launch launch : driver.getLaunches()) {
+            MesosOffer available = new MesosOffer();
+            for (OfferID id : launch.getOfferIds()) {
+                assertTrue(used.add(id));
+                available.addResourcesFrom(offers.get(id));
+            }
+            MesosOffer taken = new MesosOffer();
+            for (TaskInfo task : launch.getTasks()) {
+                taken.addResourcesFrom(new MesosOffer(task.getResourcesList()));
+            }
+            assertTrue(taken.getCpus() <= available.getCpus() + EPSILON);
+            assertTrue(taken.getMem() <= available.getMem() + EPSILON);
+            assertTrue(taken.getDisk() <= available.getDisk() + EPSILON);
+        }
+        for (OfferID id : driver.getDeclined()) {
+            assertTrue(used.add(id));
+        }
+        assertEquals(trace.getNumOffers(), used.size());
+    }
+
+}
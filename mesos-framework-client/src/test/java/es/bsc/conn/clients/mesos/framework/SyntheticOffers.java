@@ -0,0 +1,98 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.mesos.Protos.FrameworkID;
+import org.apache.mesos.Protos.Offer;
+import org.apache.mesos.Protos.OfferID;
+import org.apache.mesos.Protos.Resource;
+import org.apache.mesos.Protos.SlaveID;
+import org.apache.mesos.Protos.Value;
+
+
+/**
+ * Builders of synthetic Mesos offers and requirements for tests and benchmarks.
+ *
+ */
+public final class SyntheticOffers {
+
+    private static final FrameworkID FRAMEWORK_ID = FrameworkID.newBuilder().setValue("synthetic-framework").build();
+
+    private static final double[] CPUS = new double[] { 1.0, 2.0, 4.0, 8.0, 16.0, 32.0 };
+    private static final double MEM_PER_CPU = 2048.0;
+    private static final double DISK_PER_CPU = 8192.0;
+
+    private static int offerIdGenerator = 0;
+
+
+    private SyntheticOffers() {
+    }
+
+    public static Value.Range range(long begin, long end) {
+        return Value.Range.newBuilder().setBegin(begin).setEnd(end).build();
+    }
+
+    public static Resource scalar(String name, double value) {
+        return Resource.newBuilder().setName(name).setType(Value.Type.SCALAR)
+                .setScalar(Value.Scalar.newBuilder().setValue(value).build()).build();
+    }
+
+    public static Resource ports(Value.Range... ranges) {
+        Value.Ranges.Builder rangesBuilder = Value.Ranges.newBuilder();
+        for (Value.Range r : ranges) {
+            rangesBuilder.addRange(r);
+        }
+        return Resource.newBuilder().setName("ports").setType(Value.Type.RANGES).setRanges(rangesBuilder.build()).build();
+    }
+
+    public static List<Resource> resources(double cpus, double mem, double disk) {
+        List<Resource> resources = new LinkedList<>();
+        resources.add(scalar("cpus", cpus));
+        resources.add(scalar("mem", mem));
+        resources.add(scalar("disk", disk));
+        return resources;
+    }
+
+    public static synchronized Offer offer(String slave, double cpus, double mem, double disk) {
+        List<Resource> resources = resources(cpus, mem, disk);
+        resources.add(ports(range(31_000L, 32_000L)));
+        return Offer.newBuilder().setId(OfferID.newBuilder().setValue("offer-" + (offerIdGenerator++)).build())
+                .setFrameworkId(FRAMEWORK_ID).setSlaveId(SlaveID.newBuilder().setValue(slave).build()).setHostname(slave)
+                .addAllResources(resources).build();
+    }
+
+    /**
+     * Offer with regular resources plus revocable cpus and mem.
+     */
+    public static synchronized Offer revocableOffer(String slave, double cpus, double mem, double disk, double revocableCpus,
+            double revocableMem) {
+        Resource.RevocableInfo revocable = Resource.RevocableInfo.getDefaultInstance();
+        return offer(slave, cpus, mem, disk).toBuilder()
+                .addResources(scalar("cpus", revocableCpus).toBuilder().setRevocable(revocable))
+                .addResources(scalar("mem", revocableMem).toBuilder().setRevocable(revocable)).build();
+    }
+
+    /**
+     * Offers of mixed sizes, one per agent, with a fraction of their capacity already in use.
+     */
+    public static List<Offer> randomOffers(Random random, int numAgents) {
+        List<Offer> offers = new LinkedList<>();
+        for (int i = 0; i < numAgents; i++) {
+            double cpus = CPUS[random.nextInt(CPUS.length)] * (0.25 + 0.75 * random.nextDouble());
+            offers.add(offer("agent-" + i, cpus, cpus * MEM_PER_CPU * (0.5 + random.nextDouble()),
+                    cpus * DISK_PER_CPU * (0.5 + random.nextDouble())));
+        }
+        return offers;
+    }
+
+    /**
+     * Worker requirements of mixed sizes.
+     */
+    public static List<Resource> randomRequirements(Random random) {
+        double cpus = 0.5 * (1 + random.nextInt(8));
+        return resources(cpus, cpus * 1024.0 * (0.5 + random.nextDouble()), cpus * 2048.0 * (0.5 + random.nextDouble()));
+    }
+
+}
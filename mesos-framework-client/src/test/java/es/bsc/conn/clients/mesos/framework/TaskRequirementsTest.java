@@ -0,0 +1,44 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.mesos.Protos.Resource;
+import org.junit.Test;
+
+
+public class TaskRequirementsTest {
+
+    @Test
+    public void testParsedOnce() {
+        List<Resource> resources = SyntheticOffers.resources(2.0, 1024.0, 512.0);
+        resources.add(SyntheticOffers.ports(SyntheticOffers.range(22, 22), SyntheticOffers.range(8000, 8009)));
+        TaskRequirements requirements = new TaskRequirements(resources);
+
+        assertEquals(2.0, requirements.getCpus(), 0.0);
+        assertEquals(1024.0, requirements.getMem(), 0.0);
+        assertEquals(512.0, requirements.getDisk(), 0.0);
+        assertEquals(11, requirements.getNumPorts());
+        assertEquals(2, requirements.getContainerPorts().size());
+        assertEquals(3, requirements.getScalarResources().size());
+        assertEquals(resources.get(0), requirements.getScalarResources().get(0));
+        assertEquals(resources.get(2), requirements.getScalarResources().get(2));
+    }
+
+    @Test
+    public void testFitsAndDistance() {
+        TaskRequirements requirements = new TaskRequirements(SyntheticOffers.resources(2.0, 1024.0, 1024.0));
+        MesosOffer offer = new MesosOffer(SyntheticOffers.offer("a", 4.0, 2048.0, 2048.0));
+        MesosOffer small = new MesosOffer(SyntheticOffers.offer("b", 4.0, 512.0, 2048.0));
+
+        assertTrue(requirements.fitsIn(offer));
+        assertFalse(requirements.fitsIn(small));
+        MesosOffer parsed = new MesosOffer(SyntheticOffers.resources(2.0, 1024.0, 1024.0));
+        assertEquals(parsed.distance(offer), requirements.distance(offer), 0.0);
+        assertEquals(-1.0, requirements.distance(small), 0.0);
+    }
+
+}
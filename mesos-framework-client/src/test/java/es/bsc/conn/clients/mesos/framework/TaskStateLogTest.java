@@ -0,0 +1,116 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+
+import es.bsc.conn.clients.mesos.framework.exceptions.FrameworkException;
+
+import org.apache.mesos.Protos.TaskState;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+public class TaskStateLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    private static MesosTask task(String id, TaskState state, String ip, String agentId) {
+        MesosTask task = new MesosTask(id, "app", "compss/compss:2.0", "/usr/sbin/sshd -D", state,
+                SyntheticOffers.resources(1.0, 1024.0, 1024.0));
+        task.setIp(ip);
+        task.setAgentId(agentId);
+        return task;
+    }
+
+    @Test
+    public void testLatestStateRecovered() throws FrameworkException {
+        File file = new File(folder.getRoot(), "tasks.log");
+        TaskStateLog log = new TaskStateLog(file);
+        assertNull(log.getFrameworkId());
+        log.putFrameworkId("framework-1");
+        log.put(task("t1", TaskState.TASK_STAGING, null, "agent-1"));
+        MesosTask t2 = task("t2", TaskState.TASK_STAGING, null, "agent-2");
+        log.put(t2);
+        t2.setState(TaskState.TASK_RUNNING);
+        t2.setIp("10.0.0.2");
+        t2.incrementRetries();
+        t2.setAgentHostname("host-2");
+        t2.setHostPorts(Collections.singletonMap(8080, 31005));
+        log.put(t2);
+        log.remove("t1");
+        log.close();
+
+        TaskStateLog reopened = new TaskStateLog(file);
+        assertEquals("framework-1", reopened.getFrameworkId());
+        assertEquals(1, reopened.getRecoveredTasks().size());
+        MesosTask recovered = reopened.getRecoveredTasks().get(0);
+        assertEquals("t2", recovered.getId());
+        assertEquals(TaskState.TASK_RUNNING, recovered.getState());
+        assertEquals("10.0.0.2", recovered.getIp());
+        assertEquals("agent-2", recovered.getAgentId());
+        assertEquals("host-2", recovered.getAgentHostname());
+        assertEquals(31005, recovered.getHostPort(8080));
+        assertEquals(1, recovered.getRetries());
+        assertEquals(t2.getRequirements(), recovered.getRequirements());
+        reopened.close();
+    }
+
+    @Test
+    public void testIncompleteRecordIgnored() throws FrameworkException, IOException {
+        File file = new File(folder.getRoot(), "tasks.log");
+        TaskStateLog log = new TaskStateLog(file);
+        log.put(task("t1", TaskState.TASK_RUNNING, "10.0.0.1", "agent-1"));
+        log.put(task("t2", TaskState.TASK_RUNNING, "10.0.0.2", "agent-1"));
+        log.close();
+        // Crash in the middle of the last record
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+
+        TaskStateLog reopened = new TaskStateLog(file);
+        assertEquals(1, reopened.getRecoveredTasks().size());
+        assertEquals("t1", reopened.getRecoveredTasks().get(0).getId());
+        // Rewritten without the incomplete record, so new records are readable
+        reopened.put(task("t3", TaskState.TASK_RUNNING, "10.0.0.3", "agent-1"));
+        reopened.close();
+        assertEquals(2, new TaskStateLog(file).size());
+    }
+
+    @Test
+    public void testStaleRecordsCompacted() throws FrameworkException, IOException {
+        File file = new File(folder.getRoot(), "tasks.log");
+        TaskStateLog log = new TaskStateLog(file);
+        MesosTask t1 = task("t1", TaskState.TASK_RUNNING, "10.0.0.1", "agent-1");
+        for (int i = 0; i < 10_000; i++) {
+            log.put(t1);
+        }
+        log.flush();
+        long compacted = file.length();
+        log.close();
+
+        // A single record of t1, plus up to the records appended since the last rewrite
+        File single = new File(folder.getRoot(), "single.log");
+        TaskStateLog singleLog = new TaskStateLog(single);
+        singleLog.put(t1);
+        singleLog.close();
+        assertTrue(compacted <= 1024 * single.length());
+        assertEquals(1, new TaskStateLog(file).size());
+
+        // Garbage after the records is ignored
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[] { 42, 0, 1 });
+        }
+        assertEquals(1, new TaskStateLog(file).size());
+    }
+
+}
@@ -0,0 +1,88 @@
+package es.bsc.conn.clients.mesos.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.mesos.Protos.Resource;
+import org.apache.mesos.Protos.TaskState;
+import org.junit.Test;
+
+
+public class WarmPoolTest {
+
+    private static final String IMAGE = "compss/compss:2.0";
+    private static final String COMMAND = "/usr/sbin/sshd -D";
+    private static final List<Resource> RESOURCES = SyntheticOffers.resources(1.0, 1024.0, 1024.0);
+
+
+    private static void addTask(WarmPool pool, WarmPool.Shape shape, Map<String, MesosTask> tasks, String id, TaskState state,
+            String agentId) {
+        MesosTask mt = new MesosTask(id, "WarmPool", IMAGE, COMMAND, state, RESOURCES);
+        mt.setAgentId(agentId);
+        tasks.put(id, mt);
+        pool.add(shape, id);
+    }
+
+    @Test
+    public void testRunningWorkersClaimedFirst() {
+        WarmPool pool = new WarmPool(3, 60_000);
+        Map<String, MesosTask> tasks = new HashMap<>();
+        // The first request of a shape pools it
+        assertNull(pool.claim(IMAGE, COMMAND, RESOURCES, tasks, 0));
+        Map<WarmPool.Shape, Integer> missing = pool.getMissing();
+        assertEquals(1, missing.size());
+        WarmPool.Shape shape = missing.keySet().iterator().next();
+        assertEquals(3, (int) missing.get(shape));
+
+        addTask(pool, shape, tasks, "unlaunched", TaskState.TASK_STAGING, null);
+        addTask(pool, shape, tasks, "launched", TaskState.TASK_STAGING, "agent-1");
+        addTask(pool, shape, tasks, "running", TaskState.TASK_RUNNING, "agent-1");
+        assertTrue(pool.getMissing().isEmpty());
+
+        assertEquals("running", pool.claim(IMAGE, COMMAND, RESOURCES, tasks, 1));
+        assertEquals("launched", pool.claim(IMAGE, COMMAND, RESOURCES, tasks, 2));
+        assertNull(pool.claim(IMAGE, COMMAND, RESOURCES, tasks, 3));
+        assertEquals(2, (int) pool.getMissing().get(shape));
+        assertEquals(2, pool.getStats().getHits());
+        assertEquals(2, pool.getStats().getMisses());
+        assertEquals(1, pool.getStats().getIdleWorkers());
+
+        pool.handoutRequested("running", 1);
+        pool.handoutRunning("running", 1);
+        pool.handoutRequested("launched", 2);
+        pool.handoutRunning("launched", 12);
+        assertEquals(2, pool.getStats().getHandouts());
+        assertEquals(5.0, pool.getStats().getMeanHandoutTime(), 0.0);
+        assertEquals(10, pool.getStats().getMaxHandoutTime());
+    }
+
+    @Test
+    public void testShapesExpireAfterIdleTtl() {
+        WarmPool pool = new WarmPool(1, 1000);
+        Map<String, MesosTask> tasks = new HashMap<>();
+        assertEquals(-1, pool.getNextExpiration());
+        pool.claim(IMAGE, COMMAND, RESOURCES, tasks, 0);
+        WarmPool.Shape shape = pool.getMissing().keySet().iterator().next();
+        addTask(pool, shape, tasks, "idle", TaskState.TASK_RUNNING, "agent-1");
+        pool.claim(IMAGE, "other", RESOURCES, tasks, 500);
+        assertEquals(1000, pool.getNextExpiration());
+
+        assertTrue(pool.expire(999).isEmpty());
+        List<String> expired = pool.expire(1000);
+        assertEquals(1, expired.size());
+        assertEquals("idle", expired.get(0));
+        assertTrue(pool.isRetiring("idle"));
+        assertEquals(1500, pool.getNextExpiration());
+
+        pool.remove("idle");
+        assertFalse(pool.contains("idle"));
+        assertEquals(0, pool.getStats().getIdleWorkers());
+    }
+
+}
@@ -0,0 +1,76 @@
+package es.bsc.conn.clients.mesos.framework.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+
+public class HttpResponseReaderTest {
+
+    /**
+     * Keeps every response read as "status header body".
+     */
+    private static final class Responses implements HttpResponseReader.Listener {
+
+        private final List<String> responses = new ArrayList<>();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private String head;
+
+
+        @Override
+        public void headers(int status, Map<String, String> headers) {
+            head = status + " " + headers.get("mesos-stream-id");
+            body.reset();
+        }
+
+        @Override
+        public void body(byte[] data, int offset, int length) {
+            body.write(data, offset, length);
+        }
+
+        @Override
+        public void end() throws IOException {
+            responses.add(head + " " + body.toString(StandardCharsets.UTF_8.name()));
+        }
+    }
+
+
+    @Test
+    public void testPipelinedResponsesFedByteByByte() throws IOException {
+        String stream = "HTTP/1.1 202 Accepted\r\nContent-Length: 0\r\n\r\n"
+                + "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\nMesos-Stream-Id: abc\r\n\r\n"
+                + "5\r\nhello\r\n7;ext=1\r\n, world\r\n0\r\n\r\n"
+                + "HTTP/1.1 400 Bad Request\r\nContent-Length: 9\r\n\r\nbad frame";
+        byte[] data = stream.getBytes(StandardCharsets.US_ASCII);
+        Responses responses = new Responses();
+        HttpResponseReader reader = new HttpResponseReader(responses);
+        for (int i = 0; i < data.length; i++) {
+            reader.feed(data, i, 1);
+        }
+        assertEquals(3, responses.responses.size());
+        assertEquals("202 null ", responses.responses.get(0));
+        assertEquals("200 abc hello, world", responses.responses.get(1));
+        assertEquals("400 null bad frame", responses.responses.get(2));
+        assertTrue(reader.close());
+    }
+
+    @Test
+    public void testBodyUntilClose() throws IOException {
+        byte[] data = "HTTP/1.0 503 Service Unavailable\r\n\r\nNo leader".getBytes(StandardCharsets.US_ASCII);
+        Responses responses = new Responses();
+        HttpResponseReader reader = new HttpResponseReader(responses);
+        reader.feed(data, 0, data.length);
+        assertTrue(responses.responses.isEmpty());
+        assertTrue(reader.close());
+        assertEquals("503 null No leader", responses.responses.get(0));
+    }
+
+}
@@ -0,0 +1,139 @@
+package es.bsc.conn.clients.mesos.framework.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import es.bsc.conn.clients.mesos.framework.MesosFrameworkScheduler;
+import es.bsc.conn.clients.mesos.framework.SyntheticOffers;
+
+import org.apache.mesos.Protos.FrameworkInfo;
+import org.apache.mesos.Protos.Status;
+import org.apache.mesos.Protos.TaskState;
+import org.apache.mesos.v1.Protos.AgentID;
+import org.apache.mesos.v1.Protos.ContainerStatus;
+import org.apache.mesos.v1.Protos.FrameworkID;
+import org.apache.mesos.v1.Protos.NetworkInfo;
+import org.apache.mesos.v1.Protos.Offer;
+import org.apache.mesos.v1.Protos.TaskID;
+import org.apache.mesos.v1.Protos.TaskStatus;
+import org.apache.mesos.v1.scheduler.Protos.Call;
+import org.apache.mesos.v1.scheduler.Protos.Event;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+
+
+public class HttpSchedulerDriverTest {
+
+    private static final String IMAGE = "compss/compss:2.0";
+    private static final String COMMAND = "/usr/sbin/sshd -D";
+    private static final String FRAMEWORK_ID = "stub-framework";
+    private static final long TIMEOUT = 10;
+
+    // Event stream recorded from a master: the subscription and a heartbeat
+    private static final List<Event> RECORDING = Arrays.asList(
+            Event.newBuilder().setType(Event.Type.SUBSCRIBED).setSubscribed(Event.Subscribed.newBuilder()
+                    .setFrameworkId(FrameworkID.newBuilder().setValue(FRAMEWORK_ID)).setHeartbeatIntervalSeconds(15)).build(),
+            Event.newBuilder().setType(Event.Type.HEARTBEAT).build());
+
+    private MesosFrameworkScheduler scheduler;
+    private FrameworkInfo framework;
+
+
+    @Before
+    public void setUp() {
+        scheduler = new MesosFrameworkScheduler();
+        framework = FrameworkInfo.newBuilder().setUser("").setName("test").build();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.stop();
+    }
+
+    private static Event offers(String agent, double cpus, double mem, double disk) throws Exception {
+        Offer offer = Offer.parseFrom(SyntheticOffers.offer(agent, cpus, mem, disk).toByteString());
+        return Event.newBuilder().setType(Event.Type.OFFERS).setOffers(Event.Offers.newBuilder().addOffers(offer)).build();
+    }
+
+    private static Event update(String id, String agent, String uuid) {
+        NetworkInfo network = NetworkInfo.newBuilder().addIpAddresses(NetworkInfo.IPAddress.newBuilder().setIpAddress("10.0.0.1")).build();
+        TaskStatus status = TaskStatus.newBuilder().setTaskId(TaskID.newBuilder().setValue(id)).setState(
+                org.apache.mesos.v1.Protos.TaskState.TASK_RUNNING).setAgentId(AgentID.newBuilder().setValue(agent))
+                .setUuid(ByteString.copyFromUtf8(uuid)).setContainerStatus(ContainerStatus.newBuilder().addNetworkInfos(network)).build();
+        return Event.newBuilder().setType(Event.Type.UPDATE).setUpdate(Event.Update.newBuilder().setStatus(status)).build();
+    }
+
+    @Test
+    public void testSchedulerDrivenOverHttp() throws Exception {
+        try (StubMesosMaster master = StubMesosMaster.replaying(RECORDING)) {
+            HttpSchedulerDriver driver = new HttpSchedulerDriver(scheduler, framework, master.getAddress());
+            driver.suppressOffers();
+            assertEquals(Status.DRIVER_RUNNING, driver.start());
+            scheduler.waitRegistration(TIMEOUT, TimeUnit.SECONDS);
+            assertEquals(FRAMEWORK_ID, scheduler.getFrameworkId());
+            assertFalse(master.awaitCall(Call.Type.SUBSCRIBE, TIMEOUT, TimeUnit.SECONDS).hasFrameworkId());
+            // Suppressed before subscribing
+            master.awaitCall(Call.Type.SUPPRESS, TIMEOUT, TimeUnit.SECONDS);
+
+            String id = scheduler.requestWorker(driver, "app", IMAGE, COMMAND, SyntheticOffers.resources(1.0, 1024.0, 1024.0));
+            master.awaitCall(Call.Type.REVIVE, TIMEOUT, TimeUnit.SECONDS);
+            master.send(offers("agent-1", 2.0, 2048.0, 2048.0));
+            Call accept = master.awaitCall(Call.Type.ACCEPT, TIMEOUT, TimeUnit.SECONDS);
+            assertEquals(FRAMEWORK_ID, accept.getFrameworkId().getValue());
+            assertEquals(id, accept.getAccept().getOperations(0).getLaunch().getTaskInfos(0).getTaskId().getValue());
+            assertEquals("agent-1", accept.getAccept().getOperations(0).getLaunch().getTaskInfos(0).getAgentId().getValue());
+
+            master.send(update(id, "agent-1", "update-1"));
+            scheduler.waitTask(id, TaskState.TASK_RUNNING, TIMEOUT, TimeUnit.SECONDS);
+            assertEquals("10.0.0.1", scheduler.getTaskIp(id));
+            Call ack = master.awaitCall(Call.Type.ACKNOWLEDGE, TIMEOUT, TimeUnit.SECONDS);
+            assertEquals("update-1", ack.getAcknowledge().getUuid().toStringUtf8());
+
+            // A lost subscription fails over to the same framework
+            master.closeSubscription();
+            Call resubscribe = master.awaitCall(Call.Type.SUBSCRIBE, TIMEOUT, TimeUnit.SECONDS);
+            assertEquals(FRAMEWORK_ID, resubscribe.getFrameworkId().getValue());
+            assertEquals(FRAMEWORK_ID, resubscribe.getSubscribe().getFrameworkInfo().getId().getValue());
+            master.send(update(id, "agent-1", "update-2"));
+            ack = master.awaitCall(Call.Type.ACKNOWLEDGE, TIMEOUT, TimeUnit.SECONDS);
+            assertEquals("update-2", ack.getAcknowledge().getUuid().toStringUtf8());
+
+            assertEquals(Status.DRIVER_STOPPED, driver.stop());
+            master.awaitCall(Call.Type.TEARDOWN, TIMEOUT, TimeUnit.SECONDS);
+            assertEquals(Status.DRIVER_STOPPED, driver.join());
+        }
+    }
+
+    @Test
+    public void testRedirectedToLeadingMaster() throws Exception {
+        try (StubMesosMaster leader = StubMesosMaster.replaying(RECORDING);
+                StubMesosMaster follower = StubMesosMaster.redirecting(leader.getAddress())) {
+            HttpSchedulerDriver driver = new HttpSchedulerDriver(scheduler, framework, "http://" + follower.getAddress());
+            driver.start();
+            scheduler.waitRegistration(TIMEOUT, TimeUnit.SECONDS);
+            assertEquals(FRAMEWORK_ID, scheduler.getFrameworkId());
+            follower.awaitCall(Call.Type.SUBSCRIBE, TIMEOUT, TimeUnit.SECONDS);
+            leader.awaitCall(Call.Type.SUBSCRIBE, TIMEOUT, TimeUnit.SECONDS);
+            driver.stop(true);
+            assertEquals(Status.DRIVER_STOPPED, driver.join());
+        }
+    }
+
+    @Test
+    public void testUnresolvedMasterRetried() throws Exception {
+        HttpSchedulerDriver driver = new HttpSchedulerDriver(scheduler, framework, "http://master.invalid:5050");
+        driver.start();
+        // Failed attempts are retried after the backoff, instead of aborting the driver
+        Thread.sleep(1500);
+        assertEquals(Status.DRIVER_STOPPED, driver.stop(true));
+        assertEquals(Status.DRIVER_STOPPED, driver.join());
+    }
+
+}
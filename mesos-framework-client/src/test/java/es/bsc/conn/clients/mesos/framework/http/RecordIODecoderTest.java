@@ -0,0 +1,49 @@
+package es.bsc.conn.clients.mesos.framework.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+
+public class RecordIODecoderTest {
+
+    @Test
+    public void testRecordsSplitAcrossReads() throws IOException {
+        byte[][] records = new byte[][] { "first".getBytes(StandardCharsets.UTF_8), new byte[0], new byte[300] };
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (byte[] record : records) {
+            stream.write(RecordIODecoder.encode(record));
+        }
+        byte[] data = stream.toByteArray();
+        // Every split point, including inside the headers
+        for (int split = 0; split <= data.length; split++) {
+            RecordIODecoder decoder = new RecordIODecoder();
+            List<byte[]> decoded = new ArrayList<>(decoder.decode(data, 0, split));
+            decoded.addAll(decoder.decode(data, split, data.length - split));
+            assertEquals(records.length, decoded.size());
+            for (int i = 0; i < records.length; i++) {
+                assertArrayEquals(records[i], decoded.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testMalformedHeaderRejected() {
+        byte[] data = "12x\nabc".getBytes(StandardCharsets.US_ASCII);
+        try {
+            new RecordIODecoder().decode(data, 0, data.length);
+            fail("Malformed header accepted");
+        } catch (IOException ioe) {
+            // Expected
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+package es.bsc.conn.clients.mesos.framework.http;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mesos.v1.scheduler.Protos.Call;
+import org.apache.mesos.v1.scheduler.Protos.Event;
+
+
+/**
+ * Local stand-in for a Mesos master speaking the v1 scheduler API. Every subscription gets the recorded event stream
+ * replayed, encoded in RecordIO and cut in small chunks that do not match the record boundaries. More events can be
+ * pushed to the current subscription afterwards. The calls received are kept to be checked by the tests.
+ *
+ */
+public final class StubMesosMaster implements Closeable {
+
+    private static final int CHUNK_SIZE = 50;
+
+    private final ServerSocket server;
+    private final List<Event> recording;
+    private final String redirectTo;
+    private final LinkedBlockingQueue<Call> calls;
+    private final List<Socket> sockets;
+    private Socket subscription;
+
+
+    private StubMesosMaster(List<Event> recording, String redirectTo) throws IOException {
+        this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.recording = recording;
+        this.redirectTo = redirectTo;
+        this.calls = new LinkedBlockingQueue<>();
+        this.sockets = Collections.synchronizedList(new ArrayList<Socket>());
+        Thread acceptor = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "Stub master");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return Master that replays the recorded events to every subscription.
+     */
+    public static StubMesosMaster replaying(List<Event> recording) throws IOException {
+        return new StubMesosMaster(recording, null);
+    }
+
+    /**
+     * @return Master that is not the leader and redirects the subscriptions to master.
+     */
+    public static StubMesosMaster redirecting(String master) throws IOException {
+        return new StubMesosMaster(Collections.<Event> emptyList(), master);
+    }
+
+    /**
+     * @return Address of the master, host:port.
+     */
+    public String getAddress() {
+        return server.getInetAddress().getHostAddress() + ":" + server.getLocalPort();
+    }
+
+    /**
+     * Waits for a call of some type, skipping the calls of other types received before.
+     */
+    public Call awaitCall(Call.Type type, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            Call call = calls.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (call == null) {
+                throw new AssertionError("No " + type + " call received");
+            }
+            if (call.getType() == type) {
+                return call;
+            }
+        }
+    }
+
+    /**
+     * Pushes an event to the current subscription, waiting for one if there is none.
+     */
+    public synchronized void send(Event event) throws IOException, InterruptedException {
+        while (subscription == null) {
+            wait();
+        }
+        writeChunked(subscription.getOutputStream(), RecordIODecoder.encode(event.toByteArray()));
+    }
+
+    /**
+     * Drops the current subscription, as if the connection was lost.
+     */
+    public synchronized void closeSubscription() throws IOException {
+        if (subscription != null) {
+            subscription.close();
+            subscription = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                final Socket socket = server.accept();
+                sockets.add(socket);
+                Thread connection = new Thread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                }, "Stub master connection");
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException ioe) {
+                // Closed
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                String requestLine = readLine(in);
+                if (requestLine == null) {
+                    return;
+                }
+                int contentLength = 0;
+                String line;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    String[] header = line.split(":", 2);
+                    if ("content-length".equals(header[0].trim().toLowerCase(Locale.ROOT))) {
+                        contentLength = Integer.parseInt(header[1].trim());
+                    }
+                }
+                byte[] body = new byte[contentLength];
+                in.readFully(body);
+                Call call = Call.parseFrom(body);
+                calls.add(call);
+                if (call.getType() != Call.Type.SUBSCRIBE) {
+                    out.write("HTTP/1.1 202 Accepted\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                } else if (redirectTo != null) {
+                    out.write(("HTTP/1.1 307 Temporary Redirect\r\nLocation: //" + redirectTo + "/api/v1/scheduler\r\n"
+                            + "Content-Length: 0\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                } else {
+                    subscribe(socket, out);
+                }
+            }
+        } catch (IOException ioe) {
+            // Connection closed
+        }
+    }
+
+    private synchronized void subscribe(Socket socket, OutputStream out) throws IOException {
+        out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/x-protobuf\r\nTransfer-Encoding: chunked\r\n"
+                + "Mesos-Stream-Id: stream-" + socket.getLocalPort() + "-" + socket.getPort() + "\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+        ByteArrayOutputStream replay = new ByteArrayOutputStream();
+        for (Event event : recording) {
+            replay.write(RecordIODecoder.encode(event.toByteArray()));
+        }
+        writeChunked(out, replay.toByteArray());
+        subscription = socket;
+        notifyAll();
+    }
+
+    private static void writeChunked(OutputStream out, byte[] data) throws IOException {
+        for (int offset = 0; offset < data.length; offset += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, data.length - offset);
+            out.write((Integer.toHexString(length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(data, offset, length);
+            out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                return null;
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
+}
@@ -0,0 +1,48 @@
+package es.bsc.conn.clients.mesos.framework.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+
+public class JmxSchedulerMetricsTest {
+
+    @Test
+    public void testMetricsReadThroughJmx() throws Exception {
+        JmxSchedulerMetrics metrics = new JmxSchedulerMetrics();
+        metrics.register("test scheduler");
+        try {
+            metrics.offersReceived(3);
+            metrics.offersUsed(1);
+            metrics.offersDeclined(2);
+            metrics.offerCycle(2_000_000);
+            metrics.queueDepths(4, 5);
+            metrics.taskRunning(1200);
+            metrics.taskRelaunched();
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("es.bsc.conn.clients.mesos.framework:type=MesosFrameworkScheduler,name=" + ObjectName.quote("test scheduler"));
+            assertEquals(3L, server.getAttribute(name, "OffersReceived"));
+            assertEquals(1L, server.getAttribute(name, "OffersUsed"));
+            assertEquals(2L, server.getAttribute(name, "OffersDeclined"));
+            assertEquals(2000L, server.getAttribute(name, "OfferCycleMaxMicros"));
+            assertEquals(4, server.getAttribute(name, "PendingTasks"));
+            assertEquals(5, server.getAttribute(name, "RunningTasks"));
+            assertEquals(1L, server.getAttribute(name, "TasksStarted"));
+            assertEquals(1200L, server.getAttribute(name, "TimeToRunningMaxMillis"));
+            assertEquals(1L, server.getAttribute(name, "Relaunches"));
+
+            metrics.unregister();
+            assertFalse(server.isRegistered(name));
+        } finally {
+            metrics.unregister();
+        }
+    }
+
+}
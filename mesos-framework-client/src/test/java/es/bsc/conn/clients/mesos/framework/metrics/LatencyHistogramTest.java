@@ -0,0 +1,61 @@
+package es.bsc.conn.clients.mesos.framework.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentilesWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(99));
+        for (long v = 1; v <= 1000; v++) {
+            histogram.record(v);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500.5, histogram.getMean(), 0.0);
+        assertEquals(1000, histogram.getMax());
+        long p50 = histogram.getPercentile(50);
+        assertTrue(p50 >= 500 && p50 <= 625);
+        long p99 = histogram.getPercentile(99);
+        assertTrue(p99 >= 990 && p99 <= 1000);
+        assertEquals(1, histogram.getPercentile(0));
+
+        // Small values are exact
+        LatencyHistogram small = new LatencyHistogram();
+        small.record(-5);
+        small.record(3);
+        assertEquals(0, small.getPercentile(50));
+        assertEquals(3, small.getPercentile(100));
+        small.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, small.getPercentile(100));
+    }
+
+    @Test
+    public void testConcurrentRecords() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10_000; j++) {
+                        histogram.record(j);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(40_000, histogram.getCount());
+        assertEquals(9_999, histogram.getMax());
+        assertEquals(4999.5, histogram.getMean(), 0.0);
+    }
+
+}